@@ -0,0 +1,450 @@
+package org.egc.gis.gdal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <pre>
+ * Cache of open GDAL dataset handles, keyed by path, open mode and file version (modification time in
+ * nanoseconds, size and file key, e.g. the inode, where the file system has them).
+ *
+ * Handles are thread-confined: {@link #acquire(String, int)} hands out an idle handle exclusively
+ * (or opens a new one), and {@link #release(Dataset)} gives it back. Two threads reading the same file
+ * get two handles, since GDAL handles are not thread-safe. A file changed on disk gets a new key, so
+ * stale handles are never reused and are closed.
+ *
+ * Idle handles are closed in LRU order when the number of open handles reaches the cap, and after
+ * the idle timeout. Only regular files are cached (no /vsimem/, /vsicurl/ ...).
+ * Update handles are counted but never cached: opening a file for update closes its idle read-only handles,
+ * and closing the update handle closes those opened meanwhile, since their blocks may be stale.
+ * Idle handles keep the file open (and locked on Windows): call {@link #invalidate(String)} before
+ * deleting or overwriting a file. The writers of this library invalidate their output before creating it;
+ * the short idle timeout bounds how long a file read once stays locked for other writers.
+ *
+ * Used by {@link org.egc.gis.gdal.raster.RasterIO#read(String)} and
+ * {@link org.egc.gis.gdal.raster.RasterIO#closeDataSet(Dataset)}: a dataset from {@code read} must be closed
+ * with {@code closeDataSet}, not {@code delete()}.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/28 10:15
+ */
+@Slf4j
+public class DatasetCache {
+
+    public static final int DEFAULT_MAX_OPEN = 256;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final DatasetCache DEFAULT = new DatasetCache(
+            Integer.getInteger("egc.gdal.cache.maxOpen", DEFAULT_MAX_OPEN),
+            Long.getLong("egc.gdal.cache.idleMillis", DEFAULT_IDLE_TIMEOUT_MILLIS));
+
+    private final int maxOpen;
+    private final long idleTimeoutMillis;
+
+    /**
+     * idle handles by key, most recently released last
+     */
+    private final Map<Key, Deque<Entry>> idle = new HashMap<>();
+    /**
+     * all idle entries, least recently released first
+     */
+    private final LinkedHashMap<Entry, Boolean> lru = new LinkedHashMap<>();
+    /**
+     * handles handed out, by identity (the equals of SWIG objects changes on delete)
+     */
+    private final Map<Dataset, Key> leased = new IdentityHashMap<>();
+    private final Map<Dataset, Entry> idleHandles = new IdentityHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * @param maxOpen           maximum number of open handles (idle and in use); idle ones are closed to stay under it
+     * @param idleTimeoutMillis idle handles are closed after this time
+     */
+    public DatasetCache(int maxOpen, long idleTimeoutMillis) {
+        this.maxOpen = Math.max(1, maxOpen);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @return the cache shared by {@link org.egc.gis.gdal.raster.RasterIO}
+     */
+    public static DatasetCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Take an idle handle of the file, or open one.
+     *
+     * @param path the file
+     * @param mode {@link gdalconstConstants#GA_ReadOnly} or {@link gdalconstConstants#GA_Update}
+     * @return the dataset, null if it cannot be opened (see {@link gdal#GetLastErrorMsg()})
+     */
+    public Dataset acquire(String path, int mode) {
+        GDALRuntime.init();
+        Key key = Key.of(path, mode);
+        if (key == null) {
+            misses.incrementAndGet();
+            return gdal.Open(path, mode);
+        }
+        if (mode == gdalconstConstants.GA_Update) {
+            invalidate(path);
+        }
+        List<Dataset> stale = new ArrayList<>();
+        synchronized (this) {
+            purgeStale(key, stale);
+            purgeDeleted();
+            evictions.addAndGet(stale.size());
+            Deque<Entry> entries = idle.get(key);
+            Entry entry = entries == null ? null : entries.pollLast();
+            if (entry != null) {
+                if (entries.isEmpty()) {
+                    idle.remove(key);
+                }
+                lru.remove(entry);
+                idleHandles.remove(entry.dataset);
+                leased.put(entry.dataset, key);
+                hits.incrementAndGet();
+                closeAll(stale);
+                return entry.dataset;
+            }
+            misses.incrementAndGet();
+            // make room for the new handle
+            while (leased.size() + lru.size() >= maxOpen && !lru.isEmpty()) {
+                stale.add(removeIdle(lru.keySet().iterator().next()));
+                evictions.incrementAndGet();
+            }
+            if (leased.size() >= maxOpen) {
+                log.warn("{} datasets in use, more than the cap of {}", leased.size(), maxOpen);
+            }
+        }
+        closeAll(stale);
+        Dataset dataset = gdal.Open(path, mode);
+        if (dataset != null) {
+            synchronized (this) {
+                leased.put(dataset, key);
+            }
+            startSweeper();
+        }
+        return dataset;
+    }
+
+    /**
+     * Give a handle back. Handles not from this cache, and update handles, are closed.
+     * A handle already closed with {@code delete()} is forgotten.
+     *
+     * @param dataset the dataset
+     * @return true if the dataset came from this cache
+     */
+    public boolean release(Dataset dataset) {
+        Key key;
+        synchronized (this) {
+            if (idleHandles.containsKey(dataset)) {
+                log.warn("Dataset {} released twice", dataset.GetDescription());
+                return true;
+            }
+            key = leased.remove(dataset);
+        }
+        if (Dataset.getCPtr(dataset) == 0) {
+            // closed by the caller, must not be reused
+            return key != null;
+        }
+        if (key == null) {
+            dataset.delete();
+            return false;
+        }
+        if (key.mode == gdalconstConstants.GA_Update) {
+            dataset.delete();
+            // read-only handles opened while the file was written
+            invalidate(key.path);
+            return true;
+        }
+        // the file may have been changed (through another handle or process)
+        Key current = Key.of(key.path, key.mode);
+        if (current == null || !key.equals(current)) {
+            dataset.delete();
+            return true;
+        }
+        Entry entry = new Entry(current, dataset, System.currentTimeMillis());
+        synchronized (this) {
+            idle.computeIfAbsent(current, k -> new ArrayDeque<>()).addLast(entry);
+            lru.put(entry, Boolean.TRUE);
+            idleHandles.put(dataset, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Close idle handles unused for longer than the idle timeout.
+     *
+     * @return number of handles closed
+     */
+    public int evictIdle() {
+        long limit = System.currentTimeMillis() - idleTimeoutMillis;
+        List<Dataset> expired = new ArrayList<>();
+        synchronized (this) {
+            purgeDeleted();
+            Iterator<Entry> it = lru.keySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.releasedAt > limit) {
+                    break;
+                }
+                it.remove();
+                removeFromIndex(entry);
+                expired.add(entry.dataset);
+            }
+        }
+        evictions.addAndGet(expired.size());
+        closeAll(expired);
+        return expired.size();
+    }
+
+    /**
+     * Close all idle handles, e.g. before deleting or overwriting files.
+     */
+    public void invalidateAll() {
+        List<Dataset> all = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : lru.keySet()) {
+                all.add(entry.dataset);
+            }
+            lru.clear();
+            idle.clear();
+            idleHandles.clear();
+        }
+        closeAll(all);
+    }
+
+    /**
+     * Close the idle handles of a file.
+     *
+     * @param path the file
+     */
+    public void invalidate(String path) {
+        String normalized = Key.normalize(path);
+        List<Dataset> closed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> it = lru.keySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.key.path.equals(normalized)) {
+                    it.remove();
+                    removeFromIndex(entry);
+                    closed.add(entry.dataset);
+                }
+            }
+        }
+        closeAll(closed);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of open handles, idle and in use
+     */
+    public synchronized int getOpenCount() {
+        return leased.size() + lru.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return lru.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DatasetCache{open=%d, idle=%d, hitRate=%.3f, evictions=%d}",
+                getOpenCount(), getIdleCount(), getHitRate(), getEvictions());
+    }
+
+    /**
+     * idle handles of the same file but another version
+     */
+    private void purgeStale(Key key, List<Dataset> stale) {
+        Iterator<Map.Entry<Key, Deque<Entry>>> it = idle.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Deque<Entry>> e = it.next();
+            Key k = e.getKey();
+            if (k.path.equals(key.path) && !k.sameVersion(key)) {
+                for (Entry entry : e.getValue()) {
+                    lru.remove(entry);
+                    idleHandles.remove(entry.dataset);
+                    stale.add(entry.dataset);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * forget the handles closed with delete() instead of released
+     */
+    private void purgeDeleted() {
+        Iterator<Dataset> it = leased.keySet().iterator();
+        while (it.hasNext()) {
+            Dataset dataset = it.next();
+            if (Dataset.getCPtr(dataset) == 0) {
+                log.warn("Dataset closed without release, use RasterIO.closeDataSet");
+                it.remove();
+            }
+        }
+    }
+
+    private Dataset removeIdle(Entry entry) {
+        lru.remove(entry);
+        removeFromIndex(entry);
+        return entry.dataset;
+    }
+
+    private void removeFromIndex(Entry entry) {
+        idleHandles.remove(entry.dataset);
+        Deque<Entry> entries = idle.get(entry.key);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                idle.remove(entry.key);
+            }
+        }
+    }
+
+    private static void closeAll(List<Dataset> datasets) {
+        for (Dataset dataset : datasets) {
+            try {
+                dataset.delete();
+            } catch (Exception e) {
+                log.error(e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    private synchronized void startSweeper() {
+        if (sweeper == null && idleTimeoutMillis > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "gdal-dataset-cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000, idleTimeoutMillis / 2);
+            sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static final class Key {
+        private final String path;
+        private final int mode;
+        private final long lastModified;
+        private final long length;
+        private final Object fileKey;
+
+        private Key(String path, int mode, long lastModified, long length, Object fileKey) {
+            this.path = path;
+            this.mode = mode;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * @return the key, null if the path is not a regular file
+         */
+        static Key of(String path, int mode) {
+            if (path == null || path.startsWith("/vsi")) {
+                return null;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            } catch (IOException | InvalidPathException e) {
+                return null;
+            }
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new Key(normalize(path), mode, attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    attributes.size(), attributes.fileKey());
+        }
+
+        /**
+         * @return true if both keys stamp the same version of the file
+         */
+        boolean sameVersion(Key key) {
+            return lastModified == key.lastModified && length == key.length && Objects.equals(fileKey, key.fileKey);
+        }
+
+        static String normalize(String path) {
+            return new File(path).getAbsoluteFile().toPath().normalize().toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mode == key.mode && sameVersion(key) && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, mode, lastModified, length, fileKey);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final Dataset dataset;
+        private final long releasedAt;
+
+        Entry(Key key, Dataset dataset, long releasedAt) {
+            this.key = key;
+            this.dataset = dataset;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
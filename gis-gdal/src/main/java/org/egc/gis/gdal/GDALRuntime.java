@@ -0,0 +1,123 @@
+package org.egc.gis.gdal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.dto.Consts;
+import org.gdal.gdal.gdal;
+import org.gdal.ogr.ogr;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Description:
+ * <pre>
+ * Process-wide GDAL lifecycle.
+ * Drivers are registered once, on first use, after applying the config profile below; they are
+ * destroyed once, by a JVM shutdown hook. Do not call {@code gdal.AllRegister()} or
+ * {@code gdal.GDALDestroyDriverManager()} per request: destroying the driver manager while another
+ * thread uses a dataset crashes the JVM.
+ *
+ * Config profile (each value can be overridden with the system property {@code egc.gdal.NAME},
+ * e.g. {@code -Degc.gdal.GDAL_CACHEMAX=2048}, or with {@link #init(Map)} before first use):
+ *   GDAL_FILENAME_IS_UTF8        YES
+ *   GDAL_CACHEMAX                512 (MB) block cache shared by all datasets
+ *   GDAL_NUM_THREADS             1, the engines of this library already run one worker per processor;
+ *                                GDAL threads on top of them would run N x N threads. Raise it for
+ *                                single GDAL calls (compression, warping) outside the engines
+ *   VSI_CACHE                    TRUE, caches reads of /vsi files (vsimem, vsicurl, vsizip)
+ *   GDAL_DISABLE_READDIR_ON_OPEN TRUE, opening a file does not list its directory (slow on large dirs),
+ *                                side-car files are still probed one by one
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/26 9:40
+ */
+@Slf4j
+public final class GDALRuntime {
+
+    public static final String GDAL_CACHEMAX = "GDAL_CACHEMAX";
+    public static final String GDAL_NUM_THREADS = "GDAL_NUM_THREADS";
+    public static final String VSI_CACHE = "VSI_CACHE";
+    public static final String GDAL_DISABLE_READDIR_ON_OPEN = "GDAL_DISABLE_READDIR_ON_OPEN";
+    private static final String PROPERTY_PREFIX = "egc.gdal.";
+
+    private static final Map<String, String> DEFAULT_PROFILE;
+
+    static {
+        Map<String, String> profile = new LinkedHashMap<>();
+        profile.put(Consts.GDAL_FILENAME_IS_UTF8, Consts.YES);
+        profile.put(GDAL_CACHEMAX, "512");
+        profile.put(GDAL_NUM_THREADS, "1");
+        profile.put(VSI_CACHE, "TRUE");
+        profile.put(GDAL_DISABLE_READDIR_ON_OPEN, "TRUE");
+        DEFAULT_PROFILE = Collections.unmodifiableMap(profile);
+    }
+
+    private static volatile boolean initialized;
+    private static Map<String, String> profile = DEFAULT_PROFILE;
+
+    private GDALRuntime() {
+    }
+
+    /**
+     * Register drivers with the default profile, once. Cheap after the first call.
+     */
+    public static void init() {
+        if (!initialized) {
+            init(null);
+        }
+    }
+
+    /**
+     * Register drivers with the default profile and the given overrides, once.
+     * Overrides are ignored (with a warning) if GDAL has already been initialized.
+     *
+     * @param overrides config options replacing the defaults, may be null
+     */
+    public static synchronized void init(Map<String, String> overrides) {
+        if (initialized) {
+            if (overrides != null && !overrides.isEmpty()) {
+                log.warn("GDAL already initialized, config {} ignored", overrides);
+            }
+            return;
+        }
+        Map<String, String> options = new LinkedHashMap<>(DEFAULT_PROFILE);
+        for (String name : DEFAULT_PROFILE.keySet()) {
+            String value = System.getProperty(PROPERTY_PREFIX + name);
+            if (value != null) {
+                options.put(name, value);
+            }
+        }
+        if (overrides != null) {
+            options.putAll(overrides);
+        }
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            gdal.SetConfigOption(option.getKey(), option.getValue());
+        }
+        gdal.AllRegister();
+        ogr.RegisterAll();
+        Runtime.getRuntime().addShutdownHook(new Thread(GDALRuntime::shutdown, "gdal-shutdown"));
+        profile = Collections.unmodifiableMap(options);
+        initialized = true;
+        log.info("GDAL {} initialized, {} drivers, config {}", gdal.VersionInfo("RELEASE_NAME"),
+                gdal.GetDriverCount(), options);
+    }
+
+    public static boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return the config options applied at initialization
+     */
+    public static Map<String, String> getProfile() {
+        return profile;
+    }
+
+    private static void shutdown() {
+        log.info("GDAL shutdown, {}", DatasetCache.getDefault());
+        DatasetCache.getDefault().invalidateAll();
+        gdal.GDALDestroyDriverManager();
+    }
+}
@@ -103,7 +103,7 @@ public class IOFactory {
             throw new NullPointerException("The provided dataset is null");
         }
         try {
-            ds.delete();
+            DatasetCache.getDefault().release(ds);
         } catch (Exception e) {
             log.error(e.getLocalizedMessage(), e);
             throw new BusinessException(e.getLocalizedMessage());
@@ -0,0 +1,333 @@
+package org.egc.gis.gdal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.dto.RasterMetadata;
+import org.egc.gis.gdal.dto.VectorMetadata;
+import org.egc.gis.gdal.raster.ParallelWorkers;
+import org.egc.gis.gdal.raster.RasterInfo;
+import org.egc.gis.gdal.vector.VectorUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Description:
+ * <pre>
+ * Persistent catalog of {@link RasterMetadata} and {@link VectorMetadata}, so that listing datasets does not
+ * reopen every file and recompute statistics, SRS and proj4 strings.
+ *
+ * Records are keyed by path and stamped with the size and modification time of the file and its side-car files
+ * (.aux.xml, .ovr, .dbf, .prj ...). A record is served while the stamp matches, and recomputed otherwise.
+ * Records are kept in memory and in a directory (one serialized file per path), loaded lazily on first access.
+ * Records written by another version of the catalog are recomputed.
+ * Every call returns its own copy of the metadata, callers may modify it.
+ * {@link #crawlRasters(String, String[])} and {@link #crawlVectors(String, String[])} fill the catalog in parallel.
+ *
+ * The shared catalog is in the directory of the system property egc.gdal.catalog.dir
+ * (default ~/.egc-gis/catalog).
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/7 9:30
+ */
+@Slf4j
+public class MetadataCatalog {
+
+    private static final String[] SIDE_CARS = {".aux.xml", ".ovr", ".msk", ".dbf", ".shx", ".prj", ".cpg"};
+
+    /**
+     * version of the record files, increased when the record or the metadata classes change
+     */
+    private static final int VERSION = 2;
+
+    private final File dir;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong computes = new AtomicLong();
+
+    /**
+     * @param dir directory of the records, created if missing
+     */
+    public MetadataCatalog(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create catalog directory " + dir);
+        }
+        this.dir = dir;
+    }
+
+    /**
+     * @return the shared catalog
+     */
+    public static MetadataCatalog getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * created on first use, not when the class is loaded: an unwritable home only fails {@link #getDefault()}
+     */
+    private static final class DefaultHolder {
+        private static final MetadataCatalog DEFAULT = new MetadataCatalog(new File(System.getProperty(
+                "egc.gdal.catalog.dir", System.getProperty("user.home") + File.separator + ".egc-gis"
+                        + File.separator + "catalog")));
+    }
+
+    /**
+     * Metadata of a raster, computed with {@link RasterInfo#getMetadata(String)} if not cataloged or changed.
+     *
+     * @param raster the raster file
+     * @return the metadata
+     */
+    public RasterMetadata getRaster(String raster) {
+        return (RasterMetadata) get(raster, RasterInfo::getMetadata);
+    }
+
+    /**
+     * Metadata of a vector file, computed with {@link VectorUtils#getShapefileMetadata(String)} if not cataloged
+     * or changed.
+     *
+     * @param vector the vector file
+     * @return the metadata
+     */
+    public VectorMetadata getVector(String vector) {
+        return (VectorMetadata) get(vector, VectorUtils::getShapefileMetadata);
+    }
+
+    private Serializable get(String file, Function<String, Serializable> compute) {
+        String path = normalize(file);
+        long[] stamp = stamp(path);
+        Record record = records.get(path);
+        if (record == null) {
+            record = load(path);
+            if (record != null) {
+                loads.incrementAndGet();
+                records.put(path, record);
+            }
+        }
+        if (record != null && record.size == stamp[0] && record.mtime == stamp[1]) {
+            hits.incrementAndGet();
+            return record.metadata();
+        }
+        // two threads may compute the same record, the last one is kept
+        computes.incrementAndGet();
+        Serializable metadata = compute.apply(path);
+        // computing statistics may write the .aux.xml side-car
+        stamp = stamp(path);
+        record = new Record(path, stamp[0], stamp[1], metadata);
+        records.put(path, record);
+        save(record);
+        return metadata;
+    }
+
+    /**
+     * Drop the record of a file.
+     *
+     * @param file the file
+     */
+    public void invalidate(String file) {
+        String path = normalize(file);
+        records.remove(path);
+        recordFile(path).delete();
+    }
+
+    /**
+     * Catalog the rasters of a directory and its sub-directories, in parallel.
+     *
+     * @param dir        the directory
+     * @param extensions file name endings, e.g. {".tif", ".img"}
+     * @return number of records computed (up-to-date records are skipped)
+     * @throws IOException if the directory cannot be listed
+     */
+    public int crawlRasters(String dir, String[] extensions) throws IOException {
+        return crawl(dir, extensions, this::getRaster);
+    }
+
+    /**
+     * Catalog the vector files of a directory and its sub-directories, in parallel.
+     *
+     * @param dir        the directory
+     * @param extensions file name endings, e.g. {".shp"}
+     * @return number of records computed (up-to-date records are skipped)
+     * @throws IOException if the directory cannot be listed
+     */
+    public int crawlVectors(String dir, String[] extensions) throws IOException {
+        return crawl(dir, extensions, this::getVector);
+    }
+
+    private int crawl(String dir, String[] extensions, Function<String, ?> get) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Path> files = IOFactory.listFiles(dir, extensions, IOFactory.FilenameFilterEnum.END_WITH);
+        long before = computes.get();
+        AtomicInteger failed = new AtomicInteger();
+        // a file that cannot be cataloged is logged and skipped, the others go on
+        ParallelWorkers.forEach(files.size(), Runtime.getRuntime().availableProcessors(), i -> {
+            Path file = files.get((int) i);
+            try {
+                get.apply(file.toString());
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                log.warn("Catalog {} failed: {}", file, e.getMessage());
+            }
+        });
+        int computed = (int) (computes.get() - before);
+        log.info("{} files of {} cataloged ({} updated, {} failed) in {} ms", files.size(), dir, computed,
+                failed.get(), System.currentTimeMillis() - start);
+        return computed;
+    }
+
+    /**
+     * size and modification time of the file and its side-car files
+     */
+    private static long[] stamp(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Not a file: " + path);
+        }
+        long size = file.length();
+        long mtime = file.lastModified();
+        int dot = path.lastIndexOf('.');
+        String base = dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) : path;
+        for (String ext : SIDE_CARS) {
+            for (File side : new File[]{new File(path + ext), new File(base + ext)}) {
+                if (side.isFile()) {
+                    size += side.length();
+                    mtime = Math.max(mtime, side.lastModified());
+                }
+            }
+        }
+        return new long[]{size, mtime};
+    }
+
+    private static String normalize(String file) {
+        return new File(file).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private Record load(String path) {
+        File file = recordFile(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath());
+             ObjectInputStream objects = new ObjectInputStream(in)) {
+            Record record = (Record) objects.readObject();
+            if (record.version != VERSION) {
+                log.info("Catalog record {} of {} has version {}, recomputed", file, path, record.version);
+                return null;
+            }
+            // another path with the same hash
+            if (!path.equals(record.path)) {
+                return null;
+            }
+            // the metadata classes may have changed since
+            record.metadata();
+            return record;
+        } catch (IOException | ClassNotFoundException | ClassCastException | IllegalStateException e) {
+            log.warn("Catalog record {} of {} is unreadable, recomputed: {}", file, path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(Record record) {
+        File file = recordFile(record.path);
+        try {
+            File tmp = File.createTempFile("record", ".tmp", dir);
+            try (OutputStream out = Files.newOutputStream(tmp.toPath());
+                 ObjectOutputStream objects = new ObjectOutputStream(out)) {
+                objects.writeObject(record);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Save catalog record of {} failed: {}", record.path, e.getMessage());
+        }
+    }
+
+    private File recordFile(String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(path.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(dir, name.append(".ser").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return records served from memory or disk without recomputing
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return records read from disk
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return records computed from the files
+     */
+    public long getComputes() {
+        return computes.get();
+    }
+
+    /**
+     * the metadata is kept serialized: it cannot be modified through the catalog, and each reader gets a copy
+     */
+    private static class Record implements Serializable {
+        private static final long serialVersionUID = 2L;
+        private final int version;
+        private final String path;
+        private final long size;
+        private final long mtime;
+        private final byte[] metadata;
+
+        Record(String path, long size, long mtime, Serializable metadata) {
+            this.version = VERSION;
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(metadata);
+            } catch (IOException e) {
+                throw new IllegalStateException("Serialize metadata of " + path + " failed", e);
+            }
+            this.metadata = bytes.toByteArray();
+        }
+
+        /**
+         * @return a new copy of the metadata
+         */
+        Serializable metadata() {
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(metadata))) {
+                return (Serializable) objects.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Read metadata of " + path + " failed", e);
+            }
+        }
+    }
+}
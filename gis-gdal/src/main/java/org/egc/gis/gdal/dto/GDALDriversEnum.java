@@ -29,6 +29,11 @@ public enum GDALDriversEnum {
     KEA("KEA", "raster", "read, write and update", "KEA Image Format", "kea"),
     netCDF("netCDF", "raster, vector", "rw+s", "Network Common Data Format", "nc"),
     VRT("VRT", "raster", "read, write and update, supporting virtual IO", "Virtual Raster", "vrt"),
+    /**
+     * Cloud Optimized GeoTIFF, written by {@link org.egc.gis.gdal.raster.CogWriter} (COG driver since GDAL 3.1).
+     * declared before GTiff, so that the "tif" extension resolves to GTiff
+     */
+    COG("COG", "raster", "write-only", "Cloud Optimized GeoTIFF", "tif"),
     GTiff("GTiff", "raster", "read, write and update, supporting virtual IO and subdatasets", "GeoTIFF", "tif"),
     NITF("NITF", "raster", "read, write and update, supporting virtual IO and subdatasets",
             "National Imagery Transmission Format", "ntf"),
@@ -218,6 +223,10 @@ public enum GDALDriversEnum {
     AVCE00("AVCE00", "vector", "read-only", "Arc/Info E00 (ASCII) Coverage", "e00"),
     GPKG("GPKG", "raster, vector", "read, write and update, supporting virtual IO and subdatasets", "GeoPackage",
             "gpkg"),
+    /**
+     * FlatGeobuf, GDAL 3.1+
+     */
+    FlatGeobuf("FlatGeobuf", "vector", "read, write and update, supporting virtual IO", "FlatGeobuf", "fgb"),
     HTTP("HTTP", "raster, vector", "read-only", "HTTP Fetching Wrapper", ""),
     ECW("ECW", "raster", "read, write", "ERDAS Compressed Wavelets", "ecw");
 
@@ -20,7 +20,10 @@ public class RasterMetadata implements Serializable {
      * Coordinate Reference System Identify
      */
     private String crs;
-    private SpatialReference srs;
+    /**
+     * not serialized, rebuilt from {@link #crsWkt} when needed
+     */
+    private transient SpatialReference srs;
     /**
      * Coordinate Reference System string in PROJ.4 format
      */
@@ -38,7 +41,7 @@ public class RasterMetadata implements Serializable {
     private Integer epsg;
     private int bands;
     private double nodata;
-    private int nodataCount;
+    private long nodataCount;
     private String format;
     private String semantic;
     private double maxValue;
@@ -60,6 +63,20 @@ public class RasterMetadata implements Serializable {
      */
     private double maxX;
 
+    /**
+     * thread-safe: a shared instance builds the srs once
+     */
+    public synchronized SpatialReference getSrs() {
+        if (srs == null && crsWkt != null && !crsWkt.isEmpty()) {
+            srs = new SpatialReference(crsWkt);
+        }
+        return srs;
+    }
+
+    public synchronized void setSrs(SpatialReference srs) {
+        this.srs = srs;
+    }
+
     /**
      * left/west
      *
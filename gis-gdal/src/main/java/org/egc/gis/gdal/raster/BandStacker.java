@@ -0,0 +1,248 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.BuildVRTOptions;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.osr.SpatialReference;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Description:
+ * <pre>
+ * Stacks the first band of several aligned rasters into one multi-band raster (e.g. the bands of a Sentinel-2 scene).
+ *
+ * Inputs are checked up front: same size, geotransform and CRS.
+ * Pixels are copied window by window (blocks of the output, see {@link RasterWindow}): the inputs of a window
+ * are read in parallel, each into its own reused pooled buffer, then written to the output bands, so the peak
+ * memory is one window per input instead of one whole band per input.
+ *
+ * With {@link #vrtOnly(boolean)} a VRT referencing the inputs is written instead, without copying any pixel.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/5 9:10
+ */
+@Slf4j
+@Getter
+public class BandStacker {
+
+    /**
+     * geotransforms may differ by this fraction of a cell
+     */
+    private static final double ALIGNMENT_TOLERANCE = 1e-6;
+
+    private boolean vrtOnly;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public BandStacker vrtOnly(boolean vrtOnly) {
+        this.vrtOnly = vrtOnly;
+        return this;
+    }
+
+    /**
+     * @param parallelism maximum number of inputs read at the same time
+     */
+    public BandStacker parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Stack the inputs.
+     *
+     * @param inputs the input rasters, the first band of each one is stacked
+     * @param dst    the output GeoTIFF, or VRT (the extension is replaced by .vrt in {@link #vrtOnly(boolean)} mode)
+     * @return the output file
+     */
+    public String stack(List<String> inputs, String dst) {
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input to stack");
+        }
+        GDALRuntime.init();
+        checkAligned(inputs);
+        long start = System.currentTimeMillis();
+        if (vrtOnly) {
+            dst = FilenameUtils.removeExtension(dst) + ".vrt";
+            DatasetCache.getDefault().invalidate(dst);
+            buildVrt(inputs, dst);
+        } else {
+            DatasetCache.getDefault().invalidate(dst);
+            copy(inputs, dst);
+        }
+        DatasetCache.getDefault().invalidate(dst);
+        log.info("{} bands stacked into {} in {} ms", inputs.size(), dst, System.currentTimeMillis() - start);
+        return dst;
+    }
+
+    /**
+     * Check that the inputs have the same size, geotransform and CRS.
+     *
+     * @param inputs the input rasters
+     * @throws IllegalArgumentException if they are not aligned
+     */
+    public static void checkAligned(List<String> inputs) {
+        Dataset first = IOFactory.createRasterIO().read(inputs.get(0));
+        int xSize = first.GetRasterXSize();
+        int ySize = first.GetRasterYSize();
+        double[] gt = first.GetGeoTransform();
+        String wkt = first.GetProjectionRef();
+        int type = first.GetRasterBand(1).GetRasterDataType();
+        RasterIO.closeDataSet(first);
+        SpatialReference srs = wkt == null || wkt.isEmpty() ? null : new SpatialReference(wkt);
+        try {
+            for (int i = 1; i < inputs.size(); i++) {
+                Dataset ds = IOFactory.createRasterIO().read(inputs.get(i));
+                try {
+                    String input = inputs.get(i);
+                    if (ds.GetRasterXSize() != xSize || ds.GetRasterYSize() != ySize) {
+                        throw new IllegalArgumentException(String.format("%s is %dx%d, %s is %dx%d", input,
+                                ds.GetRasterXSize(), ds.GetRasterYSize(), inputs.get(0), xSize, ySize));
+                    }
+                    double[] other = ds.GetGeoTransform();
+                    double cell = Math.max(Math.abs(gt[1]), Math.abs(gt[5]));
+                    for (int k = 0; k < 6; k++) {
+                        if (Math.abs(other[k] - gt[k]) > cell * ALIGNMENT_TOLERANCE) {
+                            throw new IllegalArgumentException(input + " is not aligned with " + inputs.get(0));
+                        }
+                    }
+                    String otherWkt = ds.GetProjectionRef();
+                    if (srs != null && otherWkt != null && !otherWkt.isEmpty()) {
+                        SpatialReference otherSrs = new SpatialReference(otherWkt);
+                        boolean same = srs.IsSame(otherSrs) == 1;
+                        otherSrs.delete();
+                        if (!same) {
+                            throw new IllegalArgumentException(input + " has another CRS than " + inputs.get(0));
+                        }
+                    }
+                    if (ds.GetRasterBand(1).GetRasterDataType() != type) {
+                        log.warn("{} is {}, converted to {}", input,
+                                gdal.GetDataTypeName(ds.GetRasterBand(1).GetRasterDataType()), gdal.GetDataTypeName(type));
+                    }
+                } finally {
+                    RasterIO.closeDataSet(ds);
+                }
+            }
+        } finally {
+            if (srs != null) {
+                srs.delete();
+            }
+        }
+    }
+
+    private static void buildVrt(List<String> inputs, String dst) {
+        Vector<String> options = new Vector<>();
+        options.add("-separate");
+        Dataset vrt = gdal.BuildVRT(dst, new Vector<>(inputs), new BuildVRTOptions(options));
+        if (vrt == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        vrt.delete();
+    }
+
+    private void copy(List<String> inputs, String dst) {
+        int n = inputs.size();
+        Dataset[] sources = new Dataset[n];
+        Dataset out = null;
+        List<DirectBufferPool.Lease> leases = new ArrayList<>(n);
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, n));
+        try {
+            for (int i = 0; i < n; i++) {
+                sources[i] = IOFactory.createRasterIO().read(inputs.get(i));
+            }
+            int type = sources[0].GetRasterBand(1).GetRasterDataType();
+            Driver gTiff = gdal.GetDriverByName("GTiff");
+            out = gTiff.Create(dst, sources[0].GetRasterXSize(), sources[0].GetRasterYSize(), n, type,
+                    new String[]{"BIGTIFF=IF_SAFER", "INTERLEAVE=BAND"});
+            if (out == null) {
+                throw new RuntimeException(gdal.GetLastErrorMsg());
+            }
+            out.SetGeoTransform(sources[0].GetGeoTransform());
+            out.SetProjection(sources[0].GetProjectionRef());
+            copyNodata(sources, out);
+
+            List<RasterWindow> windows = RasterWindow.of(out.GetRasterBand(1));
+            int bytes = RasterWindow.maxCellCount(windows) * (gdal.GetDataTypeSize(type) / 8);
+            for (int i = 0; i < n; i++) {
+                leases.add(DirectBufferPool.getDefault().acquire(bytes));
+            }
+            for (RasterWindow window : windows) {
+                List<Future<Integer>> reads = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    // one task per input: every handle is used by one thread at a time
+                    reads.add(pool.submit(read(sources[i].GetRasterBand(1), window, type, leases.get(i).bytes())));
+                }
+                for (int i = 0; i < n; i++) {
+                    check(reads.get(i).get(), "Read " + inputs.get(i) + " " + window);
+                    ByteBuffer buffer = leases.get(i).bytes();
+                    buffer.clear();
+                    check(out.GetRasterBand(i + 1).WriteRaster_Direct(window.getXOff(), window.getYOff(),
+                            window.getWidth(), window.getHeight(), window.getWidth(), window.getHeight(), type, buffer),
+                            "Write band " + (i + 1) + " " + window);
+                }
+            }
+            out.FlushCache();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+            for (DirectBufferPool.Lease lease : leases) {
+                lease.close();
+            }
+            for (Dataset source : sources) {
+                if (source != null) {
+                    RasterIO.closeDataSet(source);
+                }
+            }
+            if (out != null) {
+                out.delete();
+            }
+        }
+    }
+
+    private static Callable<Integer> read(Band band, RasterWindow window, int type, ByteBuffer buffer) {
+        return () -> {
+            buffer.clear();
+            return band.ReadRaster_Direct(window.getXOff(), window.getYOff(), window.getWidth(), window.getHeight(),
+                    window.getWidth(), window.getHeight(), type, buffer);
+        };
+    }
+
+    private static void copyNodata(Dataset[] sources, Dataset out) {
+        Double[] nodata = new Double[1];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].GetRasterBand(1).GetNoDataValue(nodata);
+            if (nodata[0] != null) {
+                out.GetRasterBand(i + 1).SetNoDataValue(nodata[0]);
+            }
+        }
+    }
+
+    private static void check(int err, String step) {
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException(step + " failed: " + gdal.GetLastErrorMsg());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.egc.gis.gdal.raster;
+
+import org.gdal.gdal.Dataset;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description:
+ * <pre>
+ * Single-pass band statistics accumulator.
+ * Fills min, max, mean, standard deviation, valid and nodata cell counts and, optionally,
+ * the distinct values with their cell counts ({@link ValueHistogram}) and a quantile summary ({@link Quantiles}) in one streaming pass.
+ * Partial results of different windows/workers are combined with {@link #merge(BandStatistics)}
+ * (Chan et al. parallel variance).
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/14 9:35
+ */
+public class BandStatistics {
+
+    /**
+     * cells within this distance of the nodata value are counted as nodata,
+     * same as {@link RasterInfo#countNodata(float[], Double)}
+     */
+    public static final double NODATA_TOLERANCE = 0.001;
+
+    private final double nodata;
+
+    private long count;
+    private long nodataCount;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double mean;
+    /**
+     * sum of squared differences from the mean
+     */
+    private double m2;
+
+    private ValueHistogram histogram;
+    private final Quantiles quantiles;
+    /**
+     * whether too many distinct values drop the histogram instead of failing
+     */
+    private final boolean dropExceeded;
+    private boolean exceeded;
+
+    /**
+     * @param nodata    the nodata value
+     * @param histogram empty value histogram to fill, null if distinct values are not needed
+     * @param quantiles empty quantile summary to fill, null if quantiles are not needed
+     */
+    public BandStatistics(double nodata, ValueHistogram histogram, Quantiles quantiles) {
+        this(nodata, histogram, quantiles, false);
+    }
+
+    /**
+     * @param nodata       the nodata value
+     * @param histogram    empty value histogram to fill, null if distinct values are not needed
+     * @param quantiles    empty quantile summary to fill, null if quantiles are not needed
+     * @param dropExceeded if true, too many distinct values drop the histogram and the pass goes on
+     *                     (see {@link #isHistogramExceeded()}) instead of throwing
+     */
+    public BandStatistics(double nodata, ValueHistogram histogram, Quantiles quantiles, boolean dropExceeded) {
+        this.nodata = nodata;
+        this.histogram = histogram;
+        this.quantiles = quantiles;
+        this.dropExceeded = dropExceeded;
+    }
+
+    /**
+     * a new, empty accumulator with the same settings
+     */
+    public BandStatistics emptyCopy() {
+        return new BandStatistics(nodata, histogram == null ? null : histogram.emptyCopy(),
+                quantiles == null ? null : quantiles.emptyCopy(), dropExceeded);
+    }
+
+    /**
+     * Accumulate the first n values of a buffer.
+     *
+     * @param data the data
+     * @param n    number of values
+     */
+    public void accept(FloatBuffer data, int n) {
+        for (int i = 0; i < n; i++) {
+            add(data.get(i));
+        }
+    }
+
+    /**
+     * @throws ValueHistogram.CardinalityExceededException if distinct values are collected, there are too many
+     *                                                     and the histogram is not dropped
+     */
+    public void add(float v) {
+        if (Float.isNaN(v) || Math.abs(v - nodata) < NODATA_TOLERANCE) {
+            nodataCount++;
+            return;
+        }
+        count++;
+        double delta = v - mean;
+        mean += delta / count;
+        m2 += delta * (v - mean);
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+        if (histogram != null) {
+            try {
+                histogram.add(v);
+            } catch (ValueHistogram.CardinalityExceededException e) {
+                exceeded(e);
+            }
+        }
+        if (quantiles != null) {
+            quantiles.add(v);
+        }
+    }
+
+    private void exceeded(ValueHistogram.CardinalityExceededException e) {
+        if (!dropExceeded) {
+            throw e;
+        }
+        histogram = null;
+        exceeded = true;
+    }
+
+    /**
+     * Merge the partial result of another window or worker into this one.
+     *
+     * @param other the other partial result
+     * @return this
+     */
+    public BandStatistics merge(BandStatistics other) {
+        nodataCount += other.nodataCount;
+        if (other.count > 0) {
+            long n = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+            count = n;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        if (other.exceeded) {
+            histogram = null;
+            exceeded = true;
+        } else if (histogram != null && other.histogram != null) {
+            try {
+                histogram.merge(other.histogram);
+            } catch (ValueHistogram.CardinalityExceededException e) {
+                exceeded(e);
+            }
+        }
+        if (quantiles != null && other.quantiles != null) {
+            quantiles.merge(other.quantiles);
+        }
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getNodataCount() {
+        return nodataCount;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return population standard deviation, as reported by GDAL
+     */
+    public double getStdDev() {
+        return count > 0 ? Math.sqrt(m2 / count) : 0;
+    }
+
+    /**
+     * @return sorted distinct values, empty if not collected
+     */
+    public List<Float> getUniqueValues() {
+        if (histogram == null) {
+            return new ArrayList<>();
+        }
+        float[] values = histogram.getValues();
+        List<Float> list = new ArrayList<>(values.length);
+        for (float v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /**
+     * @return whether the histogram was dropped because of too many distinct values
+     */
+    public boolean isHistogramExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * @return distinct values with their cell counts, null if not collected or dropped
+     */
+    public ValueHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the quantile summary, null if not collected
+     */
+    public Quantiles getQuantiles() {
+        return quantiles;
+    }
+
+    /**
+     * Quantile breaks, see {@link Quantiles#breaks(int)}.
+     *
+     * @param numQuantile number of quantiles, e.g. 4
+     * @return breaks separated by space, null if not collected
+     */
+    public String getQuantileBreaks(int numQuantile) {
+        return quantiles == null ? null : quantiles.breaks(numQuantile);
+    }
+
+    /**
+     * Compute statistics of a band in one pass, tiles are shared out to parallel workers
+     * (see {@link TileExecutor}) and the partial results are merged.
+     *
+     * @param dataset   the dataset
+     * @param bandIndex the band index
+     * @param empty     an empty accumulator defining nodata and what to collect
+     * @return the statistics
+     */
+    public static BandStatistics compute(Dataset dataset, int bandIndex, BandStatistics empty) {
+        return new TileExecutor().reduce(dataset, bandIndex, empty::emptyCopy,
+                (stats, window, data) -> stats.accept(data[0], window.getCellCount()), BandStatistics::merge);
+    }
+}
@@ -0,0 +1,122 @@
+package org.egc.gis.gdal.raster;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * Description:
+ * <pre>
+ * Streaming, block-windowed reader of a raster band.
+ * The band is visited window by window (see {@link RasterWindow}) and every window is read
+ * as Float32 into one reused direct buffer from {@link DirectBufferPool}, so the peak memory depends
+ * on the block size rather than the raster size.
+ *
+ * Not thread-safe: use one reader (and one dataset handle) per worker, and close it to return the buffer.
+ *
+ * {@code
+ * BlockReader.forEach(band, (window, data) -> {
+ *     for (int i = 0; i < window.getCellCount(); i++) {
+ *         float v = data.get(i);
+ *     }
+ * });
+ * }
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/12 10:48
+ */
+public class BlockReader implements AutoCloseable {
+
+    private final Band band;
+    private final List<RasterWindow> windows;
+    private final DirectBufferPool.Lease lease;
+    private final ByteBuffer buffer;
+    private final FloatBuffer data;
+
+    public BlockReader(Band band) {
+        this(band, RasterWindow.of(band));
+    }
+
+    /**
+     * @param band    the band to read
+     * @param windows the windows to visit, e.g. a subset assigned to one worker
+     */
+    public BlockReader(Band band, List<RasterWindow> windows) {
+        this.band = band;
+        this.windows = windows;
+        this.lease = DirectBufferPool.getDefault().acquire(RasterWindow.maxCellCount(windows) * Float.BYTES);
+        this.buffer = lease.bytes();
+        this.data = lease.asFloatBuffer();
+    }
+
+    public List<RasterWindow> getWindows() {
+        return windows;
+    }
+
+    /**
+     * Read a window into the reused buffer.
+     * The returned buffer is only valid until the next call.
+     *
+     * @param window the window
+     * @return Float32 values of the window, row-major, limit is the cell count of the window
+     */
+    public FloatBuffer read(RasterWindow window) {
+        buffer.clear();
+        int err = band.ReadRaster_Direct(window.getXOff(), window.getYOff(), window.getWidth(), window.getHeight(),
+                window.getWidth(), window.getHeight(), gdalconstConstants.GDT_Float32, buffer);
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException("Read " + window + " failed: " + gdal.GetLastErrorMsg());
+        }
+        data.clear();
+        data.limit(window.getCellCount());
+        return data;
+    }
+
+    /**
+     * Visit all windows in order.
+     *
+     * @param consumer the consumer
+     */
+    public void forEach(BlockConsumer consumer) {
+        for (RasterWindow window : windows) {
+            consumer.accept(window, read(window));
+        }
+    }
+
+    /**
+     * Visit all block-aligned windows of a band.
+     *
+     * @param band     the band
+     * @param consumer the consumer
+     */
+    public static void forEach(Band band, BlockConsumer consumer) {
+        try (BlockReader reader = new BlockReader(band)) {
+            reader.forEach(consumer);
+        }
+    }
+
+    /**
+     * Return the buffer to the pool.
+     */
+    @Override
+    public void close() {
+        lease.close();
+    }
+
+    /**
+     * Receives the values of one window.
+     */
+    @FunctionalInterface
+    public interface BlockConsumer {
+        /**
+         * @param window the window coordinates
+         * @param data   Float32 values of the window, row-major; only valid during the call
+         */
+        void accept(RasterWindow window, FloatBuffer data);
+    }
+}
@@ -0,0 +1,257 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description:
+ * <pre>
+ * Checks the layout of a Cloud Optimized GeoTIFF by reading the TIFF structure (classic and BigTIFF),
+ * after the rules of GDAL's validate_cloud_optimized_geotiff.py:
+ *   - the main image and the overviews are tiled (images up to 512x512 may be stripped)
+ *   - images larger than 512x512 have overviews (warning)
+ *   - the IFDs come first: main image, then overviews by decreasing size, all before the tile data
+ *   - the tile data is ordered from the smallest overview to the main image
+ * so that a reader gets all the IFDs with one request and reads a level without seeking across others.
+ * Masks (NewSubfileType 4) are only checked for tiling.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/31 10:20
+ */
+public class CogValidator {
+
+    private static final int SMALL_IMAGE = 512;
+
+    private static final int NEW_SUBFILE_TYPE = 254;
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int TILE_WIDTH = 322;
+    private static final int TILE_OFFSETS = 324;
+    private static final int MASK = 4;
+
+    /**
+     * Validate a file.
+     *
+     * @param file the GeoTIFF
+     * @return the report
+     * @throws IOException if the file cannot be read
+     */
+    public static Report validate(String file) throws IOException {
+        Report report = new Report();
+        List<Ifd> ifds;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ifds = readIfds(channel, report);
+        } catch (IndexOutOfBoundsException e) {
+            report.errors.add("Truncated TIFF file");
+            return report;
+        }
+        if (ifds.isEmpty()) {
+            return report;
+        }
+        List<Ifd> images = new ArrayList<>();
+        for (Ifd ifd : ifds) {
+            if (!ifd.tiled && (ifd.width > SMALL_IMAGE || ifd.height > SMALL_IMAGE)) {
+                report.errors.add(String.format("IFD at %d (%dx%d) is not tiled", ifd.offset, ifd.width, ifd.height));
+            }
+            if ((ifd.subfileType & MASK) == 0) {
+                images.add(ifd);
+            }
+        }
+        Ifd main = images.isEmpty() ? ifds.get(0) : images.get(0);
+        if (images.size() == 1 && (main.width > SMALL_IMAGE || main.height > SMALL_IMAGE)) {
+            report.warnings.add(String.format("The image is %dx%d and has no overviews", main.width, main.height));
+        }
+        long firstData = Long.MAX_VALUE;
+        for (Ifd ifd : ifds) {
+            firstData = Math.min(firstData, ifd.firstData);
+        }
+        for (Ifd ifd : ifds) {
+            if (ifd.offset > firstData) {
+                report.errors.add(String.format("IFD at %d is after the tile data (first tile at %d)",
+                        ifd.offset, firstData));
+            }
+        }
+        for (int i = 1; i < images.size(); i++) {
+            Ifd larger = images.get(i - 1);
+            Ifd ifd = images.get(i);
+            if (ifd.width > larger.width || ifd.height > larger.height) {
+                report.errors.add(String.format("Overview %d (%dx%d) is larger than the previous image (%dx%d)",
+                        i, ifd.width, ifd.height, larger.width, larger.height));
+            }
+            if (ifd.offset < larger.offset) {
+                report.errors.add(String.format("IFD of overview %d is at %d, before the previous IFD at %d",
+                        i, ifd.offset, larger.offset));
+            }
+            if (ifd.firstData != Long.MAX_VALUE && larger.firstData != Long.MAX_VALUE
+                    && ifd.firstData > larger.firstData) {
+                report.errors.add(String.format("Data of overview %d is at %d, after the data of the larger image at %d",
+                        i, ifd.firstData, larger.firstData));
+            }
+        }
+        return report;
+    }
+
+    private static List<Ifd> readIfds(FileChannel channel, Report report) throws IOException {
+        List<Ifd> ifds = new ArrayList<>();
+        ByteBuffer header = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < 8) {
+            report.errors.add("Not a TIFF file");
+            return ifds;
+        }
+        byte b0 = header.get(0);
+        byte b1 = header.get(1);
+        ByteOrder order;
+        if (b0 == 'I' && b1 == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (b0 == 'M' && b1 == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            report.errors.add("Not a TIFF file");
+            return ifds;
+        }
+        header.order(order);
+        int version = header.getShort(2) & 0xffff;
+        boolean big = version == 43;
+        if (!big && version != 42) {
+            report.errors.add("Not a TIFF file, version " + version);
+            return ifds;
+        }
+        long offset = big ? header.getLong(8) : header.getInt(4) & 0xffffffffL;
+        long size = channel.size();
+        while (offset != 0 && offset < size && ifds.size() < 256) {
+            Ifd ifd = readIfd(channel, offset, big, order);
+            ifds.add(ifd);
+            offset = ifd.next;
+        }
+        return ifds;
+    }
+
+    private static Ifd readIfd(FileChannel channel, long offset, boolean big, ByteOrder order) throws IOException {
+        int countSize = big ? 8 : 2;
+        int entrySize = big ? 20 : 12;
+        ByteBuffer buffer = read(channel, offset, countSize, order);
+        long count = big ? buffer.getLong(0) : buffer.getShort(0) & 0xffff;
+        ByteBuffer entries = read(channel, offset + countSize, (int) count * entrySize + (big ? 8 : 4), order);
+        Ifd ifd = new Ifd(offset);
+        for (int i = 0; i < count; i++) {
+            int pos = i * entrySize;
+            int tag = entries.getShort(pos) & 0xffff;
+            int type = entries.getShort(pos + 2) & 0xffff;
+            long n = big ? entries.getLong(pos + 4) : entries.getInt(pos + 4) & 0xffffffffL;
+            int valuePos = pos + (big ? 12 : 8);
+            switch (tag) {
+                case NEW_SUBFILE_TYPE:
+                    ifd.subfileType = scalar(entries, valuePos, type);
+                    break;
+                case IMAGE_WIDTH:
+                    ifd.width = scalar(entries, valuePos, type);
+                    break;
+                case IMAGE_LENGTH:
+                    ifd.height = scalar(entries, valuePos, type);
+                    break;
+                case TILE_WIDTH:
+                    ifd.tiled = true;
+                    break;
+                case TILE_OFFSETS:
+                case STRIP_OFFSETS:
+                    ifd.firstData = minOffset(channel, entries, valuePos, type, n, big, order);
+                    break;
+                default:
+                    break;
+            }
+        }
+        int nextPos = (int) count * entrySize;
+        ifd.next = big ? entries.getLong(nextPos) : entries.getInt(nextPos) & 0xffffffffL;
+        return ifd;
+    }
+
+    private static long scalar(ByteBuffer buffer, int pos, int type) {
+        switch (type) {
+            case 3:
+                return buffer.getShort(pos) & 0xffff;
+            case 16:
+                return buffer.getLong(pos);
+            default:
+                return buffer.getInt(pos) & 0xffffffffL;
+        }
+    }
+
+    /**
+     * smallest non-zero offset (sparse tiles are 0) of an offsets array, stored inline or elsewhere
+     */
+    private static long minOffset(FileChannel channel, ByteBuffer entries, int valuePos, int type, long n,
+                                  boolean big, ByteOrder order) throws IOException {
+        int size = type == 3 ? 2 : type == 16 ? 8 : 4;
+        ByteBuffer values;
+        int start;
+        if (n * size <= (big ? 8 : 4)) {
+            values = entries;
+            start = valuePos;
+        } else {
+            long at = big ? entries.getLong(valuePos) : entries.getInt(valuePos) & 0xffffffffL;
+            values = read(channel, at, (int) (n * size), order);
+            start = 0;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            long value = scalar(values, start + i * size, type);
+            if (value != 0 && value < min) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class Ifd {
+        private final long offset;
+        private long next;
+        private long subfileType;
+        private long width;
+        private long height;
+        private boolean tiled;
+        private long firstData = Long.MAX_VALUE;
+
+        Ifd(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Errors make the file not a COG; warnings are recommendations.
+     */
+    @Getter
+    public static class Report {
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "errors=" + errors + ", warnings=" + warnings;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.TranslateOptions;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Writes Cloud Optimized GeoTIFF (https://www.cogeo.org/): 512x512 tiles, compressed with a predictor,
+ * internal overviews, IFDs before the data and the data from the smallest overview to the full resolution.
+ * A windowed read or a tile render then reads only the bytes it needs, with few requests.
+ *
+ * With GDAL 3.1+ the COG driver is used. Otherwise (GDAL 2.4) the classic recipe: overviews are built
+ * into a temporary VRT (.vrt.ovr), which is copied with COPY_SRC_OVERVIEWS=YES.
+ *
+ * {@code new CogWriter().compression(CogWriter.Compression.ZSTD).write(src, dst);}
+ *
+ * The output can be checked with {@link CogValidator}.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/31 9:30
+ */
+@Slf4j
+@Getter
+public class CogWriter {
+
+    public enum Compression {
+        DEFLATE, ZSTD, LZW, NONE
+    }
+
+    private Compression compression = Compression.DEFLATE;
+    private int blockSize = 512;
+    /**
+     * overview resampling, use nearest for categorical data
+     */
+    private String overviewResampling = "AVERAGE";
+
+    public CogWriter compression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param blockSize tile size, a multiple of 16
+     */
+    public CogWriter blockSize(int blockSize) {
+        if (blockSize <= 0 || blockSize % 16 != 0) {
+            throw new IllegalArgumentException("Block size must be a positive multiple of 16: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param overviewResampling NEAREST, AVERAGE, BILINEAR, CUBIC, MODE ...
+     */
+    public CogWriter overviewResampling(String overviewResampling) {
+        this.overviewResampling = overviewResampling;
+        return this;
+    }
+
+    /**
+     * Write a raster file as COG.
+     *
+     * @param srcFile the source raster
+     * @param dstFile the output .tif
+     * @return the output file
+     */
+    public String write(String srcFile, String dstFile) {
+        Dataset src = IOFactory.createRasterIO().read(srcFile);
+        try {
+            return write(src, dstFile);
+        } finally {
+            RasterIO.closeDataSet(src);
+        }
+    }
+
+    /**
+     * Write a dataset as COG, the dataset is not closed.
+     *
+     * @param src     the source dataset
+     * @param dstFile the output .tif
+     * @return the output file
+     */
+    public String write(Dataset src, String dstFile) {
+        GDALRuntime.init();
+        if (gdal.GetDriverByName("COG") != null) {
+            translate(src, dstFile, cogDriverOptions());
+        } else {
+            writeWithOverviews(src, dstFile);
+        }
+        log.info("COG {} written", dstFile);
+        return dstFile;
+    }
+
+    private void writeWithOverviews(Dataset src, String dstFile) {
+        int[] levels = overviewLevels(src.GetRasterXSize(), src.GetRasterYSize(), blockSize);
+        if (levels.length == 0) {
+            translate(src, dstFile, gtiffOptions(src, false));
+            return;
+        }
+        File dir = new File(dstFile).getAbsoluteFile().getParentFile();
+        String tmpVrt = new File(dir, FilenameUtils.getBaseName(dstFile) + "_cog_tmp.vrt").getPath();
+        Vector<String> vrtOptions = new Vector<>();
+        vrtOptions.add("-of");
+        vrtOptions.add("VRT");
+        Dataset vrt = gdal.Translate(tmpVrt, src, new TranslateOptions(vrtOptions));
+        if (vrt == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        try {
+            // the temporary overviews are read once: no compression
+            if (vrt.BuildOverviews(overviewResampling, levels) != gdalconstConstants.CE_None) {
+                throw new RuntimeException("Build overviews failed: " + gdal.GetLastErrorMsg());
+            }
+            translate(vrt, dstFile, gtiffOptions(src, true));
+        } finally {
+            vrt.delete();
+            new File(tmpVrt).delete();
+            new File(tmpVrt + ".ovr").delete();
+        }
+    }
+
+    private static void translate(Dataset src, String dstFile, Vector<String> options) {
+        DatasetCache.getDefault().invalidate(dstFile);
+        Dataset dst = gdal.Translate(dstFile, src, new TranslateOptions(options));
+        if (dst == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        dst.delete();
+    }
+
+    private Vector<String> cogDriverOptions() {
+        Vector<String> options = new Vector<>();
+        options.add("-of");
+        options.add("COG");
+        addOption(options, "BLOCKSIZE", String.valueOf(blockSize));
+        addOption(options, "COMPRESS", compression.name());
+        if (compression != Compression.NONE) {
+            addOption(options, "PREDICTOR", "YES");
+        }
+        addOption(options, "OVERVIEW_RESAMPLING", overviewResampling);
+        addOption(options, "BIGTIFF", "IF_SAFER");
+        addOption(options, "NUM_THREADS", "ALL_CPUS");
+        return options;
+    }
+
+    private Vector<String> gtiffOptions(Dataset src, boolean copyOverviews) {
+        Vector<String> options = new Vector<>();
+        options.add("-of");
+        options.add("GTiff");
+        addOption(options, "TILED", "YES");
+        addOption(options, "BLOCKXSIZE", String.valueOf(blockSize));
+        addOption(options, "BLOCKYSIZE", String.valueOf(blockSize));
+        addOption(options, "COMPRESS", compression.name());
+        if (compression != Compression.NONE) {
+            addOption(options, "PREDICTOR", String.valueOf(predictor(src)));
+        }
+        if (copyOverviews) {
+            // IFDs first, overview data before the full resolution data
+            addOption(options, "COPY_SRC_OVERVIEWS", "YES");
+        }
+        addOption(options, "BIGTIFF", "IF_SAFER");
+        addOption(options, "NUM_THREADS", "ALL_CPUS");
+        return options;
+    }
+
+    private static void addOption(Vector<String> options, String name, String value) {
+        options.add("-co");
+        options.add(name + "=" + value);
+    }
+
+    /**
+     * 2 (horizontal differencing) for integers, 3 (floating point) for floats
+     */
+    private static int predictor(Dataset src) {
+        int type = src.GetRasterBand(1).getDataType();
+        return type == gdalconstConstants.GDT_Float32 || type == gdalconstConstants.GDT_Float64 ? 3 : 2;
+    }
+
+    /**
+     * Overview factors 2, 4, 8 ... until the smallest overview fits in one tile.
+     *
+     * @param width     raster width
+     * @param height    raster height
+     * @param blockSize tile size
+     * @return the factors, empty if the raster fits in one tile
+     */
+    public static int[] overviewLevels(int width, int height, int blockSize) {
+        return OverviewBuilder.levels(width, height, blockSize);
+    }
+
+    /**
+     * Write and validate.
+     *
+     * @param srcFile the source raster
+     * @param dstFile the output .tif
+     * @return the layout report
+     * @throws IOException if the output cannot be read
+     */
+    public CogValidator.Report writeAndValidate(String srcFile, String dstFile) throws IOException {
+        write(srcFile, dstFile);
+        CogValidator.Report report = CogValidator.validate(dstFile);
+        if (!report.isValid()) {
+            log.warn("{} is not a valid COG: {}", dstFile, report);
+        }
+        return report;
+    }
+}
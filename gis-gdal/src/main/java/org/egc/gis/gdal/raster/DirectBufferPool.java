@@ -0,0 +1,318 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <pre>
+ * Pool of native-ordered direct buffers for {@code ReadRaster_Direct}/{@code WriteRaster_Direct}.
+ * GDAL reads into and writes from the off-heap memory directly (no JNI array copy), and the memory is
+ * reused instead of allocated per call.
+ *
+ * Buffers are kept in power-of-two size classes, from 4 KB up to {@link #MAX_POOLED_BYTES};
+ * larger requests are allocated and dropped. The pool retains at most a given number of bytes.
+ *
+ * Leases must be closed. A lease that is garbage collected without being closed is reported as a leak
+ * (with the stack of the acquiring call when {@code -Degc.gdal.buffer.leakTrace=true}).
+ *
+ * {@code
+ * try (DirectBufferPool.Lease lease = DirectBufferPool.getDefault().acquire(cells * Float.BYTES)) {
+ *     band.ReadRaster_Direct(x, y, w, h, w, h, GDT_Float32, lease.bytes());
+ *     FloatBuffer data = lease.asFloatBuffer();
+ * }
+ * }
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/24 10:20
+ */
+@Slf4j
+public class DirectBufferPool {
+
+    private static final int MIN_CLASS = 12;
+    private static final int MAX_CLASS = 30;
+    public static final int MAX_POOLED_BYTES = 1 << MAX_CLASS;
+    /**
+     * default retained bytes of the shared pool: 256 MB
+     */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+    private static final boolean LEAK_TRACE = Boolean.getBoolean("egc.gdal.buffer.leakTrace");
+    private static final DirectBufferPool DEFAULT = new DirectBufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+    @SuppressWarnings("unchecked")
+    private final Queue<ByteBuffer>[] free = new Queue[MAX_CLASS + 1];
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+
+    private final ReferenceQueue<Lease> collected = new ReferenceQueue<>();
+    /**
+     * open leases, to detect the ones collected without close
+     */
+    private final Map<LeaseRef, Boolean> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxRetainedBytes maximum bytes kept by the pool for reuse
+     */
+    public DirectBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int c = MIN_CLASS; c <= MAX_CLASS; c++) {
+            free[c] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @return the pool shared by the raster utilities
+     */
+    public static DirectBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Acquire a direct buffer of at least the given size.
+     *
+     * @param bytes the size in bytes
+     * @return the lease, position 0 and limit {@code bytes}, content undefined
+     */
+    public Lease acquire(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative buffer size: " + bytes);
+        }
+        reportLeaks();
+        acquired.incrementAndGet();
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = null;
+        if (sizeClass <= MAX_CLASS) {
+            buffer = free[sizeClass].poll();
+        }
+        if (buffer != null) {
+            hits.incrementAndGet();
+            retainedBytes.addAndGet(-buffer.capacity());
+        } else {
+            int capacity = sizeClass <= MAX_CLASS ? 1 << sizeClass : bytes;
+            buffer = ByteBuffer.allocateDirect(capacity);
+            buffer.order(ByteOrder.nativeOrder());
+            allocatedBytes.addAndGet(capacity);
+        }
+        buffer.clear();
+        buffer.limit(bytes);
+        Lease lease = new Lease(buffer, bytes, sizeClass);
+        outstanding.put(lease.ref, Boolean.TRUE);
+        return lease;
+    }
+
+    private void release(Lease lease) {
+        outstanding.remove(lease.ref);
+        lease.ref.clear();
+        ByteBuffer buffer = lease.buffer;
+        if (lease.sizeClass > MAX_CLASS) {
+            return;
+        }
+        if (retainedBytes.addAndGet(buffer.capacity()) > maxRetainedBytes) {
+            // over budget: let the GC free it
+            retainedBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+        free[lease.sizeClass].offer(buffer);
+    }
+
+    private void reportLeaks() {
+        Reference<? extends Lease> ref;
+        while ((ref = collected.poll()) != null) {
+            LeaseRef leaseRef = (LeaseRef) ref;
+            if (outstanding.remove(leaseRef) != null) {
+                leaked.incrementAndGet();
+                if (leaseRef.trace != null) {
+                    log.warn("Direct buffer of {} bytes was not released, acquired at:", leaseRef.capacity, leaseRef.trace);
+                } else {
+                    log.warn("Direct buffer of {} bytes was not released (thread {}), "
+                            + "use -Degc.gdal.buffer.leakTrace=true to see where", leaseRef.capacity, leaseRef.thread);
+                }
+            }
+        }
+    }
+
+    private static int sizeClass(int bytes) {
+        if (bytes <= 1 << MIN_CLASS) {
+            return MIN_CLASS;
+        }
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+
+    /**
+     * @return number of leases not closed yet
+     */
+    public int getOutstanding() {
+        reportLeaks();
+        return outstanding.size();
+    }
+
+    /**
+     * @return number of leases collected without close
+     */
+    public long getLeaked() {
+        reportLeaks();
+        return leaked.get();
+    }
+
+    /**
+     * @return fraction of acquisitions served from the pool
+     */
+    public double getHitRate() {
+        long n = acquired.get();
+        return n == 0 ? 0 : (double) hits.get() / n;
+    }
+
+    /**
+     * @return bytes of direct memory allocated by the pool so far
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return bytes kept for reuse
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Drop all retained buffers.
+     */
+    public void clear() {
+        for (int c = MIN_CLASS; c <= MAX_CLASS; c++) {
+            ByteBuffer buffer;
+            while ((buffer = free[c].poll()) != null) {
+                retainedBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * A direct buffer on loan from the pool, with cached typed views.
+     * Not thread-safe; the buffer and its views must not be used after {@link #close()}.
+     */
+    public final class Lease implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int sizeClass;
+        private final LeaseRef ref;
+        private FloatBuffer floats;
+        private ShortBuffer shorts;
+        private IntBuffer ints;
+        private DoubleBuffer doubles;
+        private boolean closed;
+
+        private Lease(ByteBuffer buffer, int size, int sizeClass) {
+            this.buffer = buffer;
+            this.size = size;
+            this.sizeClass = sizeClass;
+            this.ref = new LeaseRef(this, collected, buffer.capacity());
+        }
+
+        /**
+         * @return the byte buffer, native order, position 0, limit the requested size
+         */
+        public ByteBuffer bytes() {
+            return buffer;
+        }
+
+        /**
+         * @return the requested size in bytes
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return float view over the requested size, cleared
+         */
+        public FloatBuffer asFloatBuffer() {
+            if (floats == null) {
+                floats = view().asFloatBuffer();
+            }
+            floats.clear();
+            return floats;
+        }
+
+        public ShortBuffer asShortBuffer() {
+            if (shorts == null) {
+                shorts = view().asShortBuffer();
+            }
+            shorts.clear();
+            return shorts;
+        }
+
+        public IntBuffer asIntBuffer() {
+            if (ints == null) {
+                ints = view().asIntBuffer();
+            }
+            ints.clear();
+            return ints;
+        }
+
+        public DoubleBuffer asDoubleBuffer() {
+            if (doubles == null) {
+                doubles = view().asDoubleBuffer();
+            }
+            doubles.clear();
+            return doubles;
+        }
+
+        /**
+         * the requested bytes, native order, whatever the position and limit of {@link #bytes()}
+         */
+        private ByteBuffer view() {
+            ByteBuffer view = buffer.duplicate();
+            view.order(ByteOrder.nativeOrder());
+            view.clear();
+            view.limit(size);
+            return view;
+        }
+
+        /**
+         * Return the buffer to the pool, idempotent.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+
+    private static final class LeaseRef extends WeakReference<Lease> {
+        private final int capacity;
+        private final String thread;
+        private final Throwable trace;
+
+        LeaseRef(Lease lease, ReferenceQueue<Lease> queue, int capacity) {
+            super(lease, queue);
+            this.capacity = capacity;
+            this.thread = Thread.currentThread().getName();
+            this.trace = LEAK_TRACE ? new Throwable("buffer acquired here") : null;
+        }
+    }
+}
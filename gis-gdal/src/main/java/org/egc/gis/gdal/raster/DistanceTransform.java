@@ -0,0 +1,465 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.dto.Consts;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.io.File;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Exact Euclidean distance transform: distance of every cell to the nearest source cell (e.g. stream or road
+ * cells), in georeferenced units, replacing a TauDEM D8DistanceToStreams run or gdal_proximity.
+ *
+ * Separable algorithm of Felzenszwalb and Huttenlocher (2012):
+ * 1. columns: the nearest source row of each cell in its column, by a downward and an upward scan;
+ * 2. rows: the lower envelope of the parabolas of the column distances gives the exact 2D distance.
+ * Columns are split between the threads in pass 1, rows in pass 2 ({@link ParallelWorkers}), all on primitive
+ * arrays.
+ *
+ * The raster is processed in strips of whole rows ({@link #stripCells(int)}): the downward scan keeps the
+ * nearest row above, per column, from strip to strip; strips are then processed again bottom up, and every
+ * strip is final (distances written) once scanned upward. When the raster does not fit in one strip the
+ * nearest rows of the downward scan are kept in a temporary Int32 GeoTIFF, so memory is bounded by the strip.
+ *
+ * Sources are the non-zero cells, or the cells of {@link #sourceValues(double...)}; nodata cells are never
+ * sources and are nodata in the output. Optionally, the index (row * width + column) of the nearest source
+ * is written too ({@link #nearestIndex(String)}).
+ * {@link #proximity(String, String)} computes the same distances with gdal.ComputeProximity, for comparison.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/12 9:30
+ */
+@Slf4j
+@Getter
+public class DistanceTransform {
+
+    private static final byte OTHER = 0;
+    private static final byte SOURCE = 1;
+    private static final byte NODATA = 2;
+    /**
+     * the strip buffer holds 8 bytes per cell
+     */
+    private static final int MAX_STRIP_CELLS = Integer.MAX_VALUE / Double.BYTES;
+
+    private int band = 1;
+    private double[] sourceValues;
+    private String nearestIndex;
+    private int stripCells = 1 << 23;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public DistanceTransform band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    /**
+     * @param sourceValues values of the source cells; all non-zero cells are sources if not set
+     */
+    public DistanceTransform sourceValues(double... sourceValues) {
+        this.sourceValues = sourceValues;
+        return this;
+    }
+
+    /**
+     * @param nearestIndex output GeoTIFF (Float64) of the index of the nearest source, row * width + column
+     */
+    public DistanceTransform nearestIndex(String nearestIndex) {
+        this.nearestIndex = nearestIndex;
+        return this;
+    }
+
+    /**
+     * @param stripCells maximum number of cells processed in memory at once, at most 2^28 - 1
+     */
+    public DistanceTransform stripCells(int stripCells) {
+        this.stripCells = Math.max(1, Math.min(MAX_STRIP_CELLS, stripCells));
+        return this;
+    }
+
+    public DistanceTransform parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Distance transform of arrays in memory.
+     *
+     * @param sources whether each cell is a source, row-major
+     * @param width   number of columns
+     * @param height  number of rows
+     * @param cellX   cell width
+     * @param cellY   cell height
+     * @param nearest if not null, receives the index of the nearest source of each cell, -1 if there is none
+     * @return distance of each cell to the nearest source, +Infinity if there is none
+     */
+    public static float[] transform(boolean[] sources, int width, int height, double cellX, double cellY,
+                                    long[] nearest) {
+        byte[] state = new byte[sources.length];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = sources[i] ? SOURCE : OTHER;
+        }
+        int[] rows = new int[state.length];
+        int[] last = new int[width];
+        Arrays.fill(last, -1);
+        down(state, rows, height, width, 0, last, 0, width);
+        Arrays.fill(last, -1);
+        up(state, rows, height, width, 0, last, 0, width);
+        float[] distance = new float[state.length];
+        Envelope envelope = new Envelope(width);
+        for (int r = 0; r < height; r++) {
+            envelope.row(state, rows, r, r, width, cellX * cellX, cellY * cellY, distance, nearest);
+        }
+        return distance;
+    }
+
+    /**
+     * Distance transform of a raster.
+     *
+     * @param src the raster of the sources
+     * @param dst the output GeoTIFF (Float32)
+     * @return the output file
+     */
+    public String compute(String src, String dst) {
+        GDALRuntime.init();
+        long start = System.currentTimeMillis();
+        Dataset in = open(src);
+        Dataset out = null;
+        Dataset index = null;
+        Dataset spill = null;
+        String spillPath = null;
+        int xSize = in.GetRasterXSize();
+        int ySize = in.GetRasterYSize();
+        int stripRows = (int) Math.max(1, Math.min(ySize, stripCells / xSize));
+        int strips = (ySize + stripRows - 1) / stripRows;
+        if ((long) stripRows * xSize > MAX_STRIP_CELLS) {
+            RasterIO.closeDataSet(in);
+            throw new IllegalArgumentException("Rows of " + xSize + " cells are too wide: " + src);
+        }
+        int cells = stripRows * xSize;
+        try (DirectBufferPool.Lease io = DirectBufferPool.getDefault().acquire(cells * Double.BYTES)) {
+            Band input = in.GetRasterBand(band);
+            if (input == null) {
+                throw new IllegalArgumentException("No band " + band + " in " + src);
+            }
+            Double[] nd = new Double[1];
+            input.GetNoDataValue(nd);
+            double[] gt = in.GetGeoTransform();
+            double cx2 = gt[1] * gt[1] + gt[2] * gt[2];
+            double cy2 = gt[4] * gt[4] + gt[5] * gt[5];
+            out = create(dst, in, gdalconstConstants.GDT_Float32);
+            if (nearestIndex != null) {
+                index = create(nearestIndex, in, gdalconstConstants.GDT_Float64);
+            }
+            if (strips > 1) {
+                spillPath = new File(System.getProperty("java.io.tmpdir"), "edt_" + UUID.randomUUID() + ".tif")
+                        .getPath();
+                spill = gdal.GetDriverByName("GTiff").Create(spillPath, xSize, ySize, 1, gdalconstConstants.GDT_Int32,
+                        new String[]{"BIGTIFF=IF_SAFER"});
+                if (spill == null) {
+                    throw new RuntimeException("Create " + spillPath + " failed: " + gdal.GetLastErrorMsg());
+                }
+            }
+            byte[] state = new byte[cells];
+            int[] rows = new int[cells];
+            float[] values = new float[cells];
+            int[] last = new int[xSize];
+
+            // pass 1 down: nearest source row above, per column
+            Arrays.fill(last, -1);
+            for (int s = 0; s < strips; s++) {
+                int y0 = s * stripRows;
+                int h = Math.min(stripRows, ySize - y0);
+                readState(input, nd[0], y0, h, xSize, io, values, state);
+                parallel(xSize, (x0, x1) -> down(state, rows, h, xSize, y0, last, x0, x1));
+                if (spill != null) {
+                    io.bytes().clear();
+                    io.asIntBuffer().put(rows, 0, h * xSize);
+                    check(spill.GetRasterBand(1).WriteRaster_Direct(0, y0, xSize, h, xSize, h,
+                            gdalconstConstants.GDT_Int32, io.bytes()), "Write nearest rows");
+                }
+            }
+            // pass 1 up, then pass 2: every strip is final once scanned upward
+            Arrays.fill(last, -1);
+            float[] distance = new float[cells];
+            long[] nearest = index == null ? null : new long[cells];
+            for (int s = strips - 1; s >= 0; s--) {
+                int y0 = s * stripRows;
+                int h = Math.min(stripRows, ySize - y0);
+                if (spill != null) {
+                    readState(input, nd[0], y0, h, xSize, io, values, state);
+                    io.bytes().clear();
+                    check(spill.GetRasterBand(1).ReadRaster_Direct(0, y0, xSize, h, xSize, h,
+                            gdalconstConstants.GDT_Int32, io.bytes()), "Read nearest rows");
+                    io.asIntBuffer().get(rows, 0, h * xSize);
+                }
+                parallel(xSize, (x0, x1) -> up(state, rows, h, xSize, y0, last, x0, x1));
+                parallel(h, (r0, r1) -> {
+                    Envelope envelope = new Envelope(xSize);
+                    for (int r = r0; r < r1; r++) {
+                        envelope.row(state, rows, r, y0 + r, xSize, cx2, cy2, distance, nearest);
+                    }
+                });
+                write(out, index, y0, h, xSize, state, distance, nearest, io);
+            }
+            log.info("Distance transform of {} ({}x{}, {} strips) in {} ms", src, xSize, ySize, strips,
+                    System.currentTimeMillis() - start);
+            return dst;
+        } finally {
+            RasterIO.closeDataSet(in);
+            if (out != null) {
+                out.delete();
+                DatasetCache.getDefault().invalidate(dst);
+            }
+            if (index != null) {
+                index.delete();
+                DatasetCache.getDefault().invalidate(nearestIndex);
+            }
+            if (spill != null) {
+                spill.delete();
+                new File(spillPath).delete();
+            }
+        }
+    }
+
+    /**
+     * @return the source raster, from the {@link DatasetCache}
+     */
+    private static Dataset open(String src) {
+        Dataset in = DatasetCache.getDefault().acquire(src, gdalconstConstants.GA_ReadOnly);
+        if (in == null) {
+            throw new IllegalArgumentException("Cannot open the source raster " + src + ": " + gdal.GetLastErrorMsg());
+        }
+        return in;
+    }
+
+    private static Dataset create(String path, Dataset like, int type) {
+        DatasetCache.getDefault().invalidate(path);
+        Dataset ds = gdal.GetDriverByName("GTiff").Create(path, like.GetRasterXSize(), like.GetRasterYSize(), 1, type,
+                new String[]{"TILED=YES", "COMPRESS=LZW", "BIGTIFF=IF_SAFER"});
+        if (ds == null) {
+            throw new RuntimeException("Create " + path + " failed: " + gdal.GetLastErrorMsg());
+        }
+        ds.SetGeoTransform(like.GetGeoTransform());
+        ds.SetProjection(like.GetProjectionRef());
+        ds.GetRasterBand(1).SetNoDataValue(Double.parseDouble(Consts.NODATA));
+        return ds;
+    }
+
+    private void readState(Band input, Double nodata, int y0, int h, int xSize, DirectBufferPool.Lease io,
+                           float[] values, byte[] state) {
+        io.bytes().clear();
+        check(input.ReadRaster_Direct(0, y0, xSize, h, xSize, h, gdalconstConstants.GDT_Float32, io.bytes()),
+                "Read rows " + y0 + "-" + (y0 + h));
+        int n = h * xSize;
+        io.asFloatBuffer().get(values, 0, n);
+        boolean hasNodata = nodata != null;
+        double nd = hasNodata ? nodata : 0;
+        for (int i = 0; i < n; i++) {
+            float v = values[i];
+            if (v != v || (hasNodata && Math.abs(v - nd) < BandStatistics.NODATA_TOLERANCE)) {
+                state[i] = NODATA;
+            } else {
+                state[i] = isSource(v) ? SOURCE : OTHER;
+            }
+        }
+    }
+
+    private boolean isSource(float v) {
+        if (sourceValues == null) {
+            return v != 0;
+        }
+        for (double s : sourceValues) {
+            if (v == (float) s) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(Dataset out, Dataset index, int y0, int h, int xSize, byte[] state, float[] distance,
+                              long[] nearest, DirectBufferPool.Lease io) {
+        int n = h * xSize;
+        float nodata = Float.parseFloat(Consts.NODATA);
+        for (int i = 0; i < n; i++) {
+            if (state[i] == NODATA || Float.isInfinite(distance[i])) {
+                distance[i] = nodata;
+                if (nearest != null) {
+                    nearest[i] = -1;
+                }
+            }
+        }
+        io.bytes().clear();
+        io.asFloatBuffer().put(distance, 0, n);
+        check(out.GetRasterBand(1).WriteRaster_Direct(0, y0, xSize, h, xSize, h, gdalconstConstants.GDT_Float32,
+                io.bytes()), "Write distances");
+        if (index != null) {
+            DoubleBuffer buffer = io.asDoubleBuffer();
+            for (int i = 0; i < n; i++) {
+                buffer.put(i, nearest[i] < 0 ? nodata : nearest[i]);
+            }
+            io.bytes().clear();
+            check(index.GetRasterBand(1).WriteRaster_Direct(0, y0, xSize, h, xSize, h,
+                    gdalconstConstants.GDT_Float64, io.bytes()), "Write nearest index");
+        }
+    }
+
+    /**
+     * downward scan of columns [x0, x1): rows[i] is the last source row at or above the cell, or -1
+     */
+    private static void down(byte[] state, int[] rows, int h, int width, int y0, int[] last, int x0, int x1) {
+        for (int r = 0; r < h; r++) {
+            int offset = r * width;
+            for (int x = x0; x < x1; x++) {
+                if (state[offset + x] == SOURCE) {
+                    last[x] = y0 + r;
+                }
+                rows[offset + x] = last[x];
+            }
+        }
+    }
+
+    /**
+     * upward scan of columns [x0, x1): rows[i] becomes the nearest source row in the column, or -1
+     */
+    private static void up(byte[] state, int[] rows, int h, int width, int y0, int[] below, int x0, int x1) {
+        for (int r = h - 1; r >= 0; r--) {
+            int offset = r * width;
+            int y = y0 + r;
+            for (int x = x0; x < x1; x++) {
+                int i = offset + x;
+                if (state[i] == SOURCE) {
+                    below[x] = y;
+                }
+                int above = rows[i];
+                if (below[x] >= 0 && (above < 0 || below[x] - y < y - above)) {
+                    rows[i] = below[x];
+                }
+            }
+        }
+    }
+
+    /**
+     * lower envelope of the parabolas of a row, with its own arrays
+     */
+    private static class Envelope {
+        private final int[] v;
+        private final double[] f;
+        private final double[] z;
+
+        Envelope(int width) {
+            v = new int[width];
+            f = new double[width];
+            z = new double[width + 1];
+        }
+
+        /**
+         * @param r row in the strip
+         * @param y row in the raster
+         */
+        void row(byte[] state, int[] rows, int r, int y, int width, double cx2, double cy2, float[] distance,
+                 long[] nearest) {
+            int offset = r * width;
+            int k = -1;
+            for (int q = 0; q < width; q++) {
+                int source = rows[offset + q];
+                if (source < 0) {
+                    continue;
+                }
+                double fq = (double) (y - source) * (y - source) * cy2;
+                double s = Double.NEGATIVE_INFINITY;
+                while (k >= 0) {
+                    s = ((fq + cx2 * q * q) - (f[k] + cx2 * (double) v[k] * v[k])) / (2 * cx2 * (q - v[k]));
+                    if (s > z[k]) {
+                        break;
+                    }
+                    k--;
+                }
+                k++;
+                v[k] = q;
+                f[k] = fq;
+                z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            if (k < 0) {
+                Arrays.fill(distance, offset, offset + width, Float.POSITIVE_INFINITY);
+                if (nearest != null) {
+                    Arrays.fill(nearest, offset, offset + width, -1);
+                }
+                return;
+            }
+            int j = 0;
+            for (int x = 0; x < width; x++) {
+                while (z[j + 1] < x) {
+                    j++;
+                }
+                double dx = x - v[j];
+                distance[offset + x] = (float) Math.sqrt(cx2 * dx * dx + f[j]);
+                if (nearest != null) {
+                    nearest[offset + x] = (long) rows[offset + v[j]] * width + v[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * run [0, n) in contiguous ranges on the workers
+     */
+    private void parallel(int n, RangeTask task) {
+        int chunks = Math.min(n, parallelism * 4);
+        ParallelWorkers.forEach(chunks, parallelism,
+                c -> task.run((int) ((long) n * c / chunks), (int) ((long) n * (c + 1) / chunks)));
+    }
+
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Distances computed by gdal.ComputeProximity (gdal_proximity), the reference of {@link #compute(String, String)}.
+     *
+     * @param src the raster of the sources (non-zero cells)
+     * @param dst the output GeoTIFF (Float32)
+     * @return the output file
+     */
+    public static String proximity(String src, String dst) {
+        GDALRuntime.init();
+        long start = System.currentTimeMillis();
+        Dataset in = open(src);
+        Dataset out = null;
+        try {
+            out = create(dst, in, gdalconstConstants.GDT_Float32);
+            Vector<String> options = new Vector<>();
+            options.add("DISTUNITS=GEO");
+            options.add("NODATA=" + Consts.NODATA);
+            check(gdal.ComputeProximity(in.GetRasterBand(1), out.GetRasterBand(1), options), "ComputeProximity");
+            log.info("ComputeProximity of {} in {} ms", src, System.currentTimeMillis() - start);
+            return dst;
+        } finally {
+            RasterIO.closeDataSet(in);
+            if (out != null) {
+                out.delete();
+                DatasetCache.getDefault().invalidate(dst);
+            }
+        }
+    }
+
+    private static void check(int err, String step) {
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException(step + " failed: " + gdal.GetLastErrorMsg());
+        }
+    }
+}
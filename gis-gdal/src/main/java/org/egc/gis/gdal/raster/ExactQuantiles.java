@@ -0,0 +1,164 @@
+package org.egc.gis.gdal.raster;
+
+import java.util.Arrays;
+
+/**
+ * Description:
+ * <pre>
+ * Exact quantiles.
+ * Values are kept in a growable primitive float array (no boxing) and quantiles are found by
+ * in-place selection (quickselect), O(n) per break instead of a full sort.
+ * Memory grows with the number of valid cells: use {@link QuantileSketch} for large rasters.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/16 14:20
+ */
+public class ExactQuantiles implements Quantiles {
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private float[] values;
+    private int size;
+
+    public ExactQuantiles() {
+        this(1024);
+    }
+
+    public ExactQuantiles(int initialCapacity) {
+        values = new float[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Wrap an array without copying; the array is reordered by {@link #quantile(double)}.
+     *
+     * @param values the values, all valid
+     * @param size   number of values used
+     */
+    public ExactQuantiles(float[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    @Override
+    public void add(float value) {
+        if (size == values.length) {
+            grow(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public Quantiles merge(Quantiles other) {
+        ExactQuantiles o = (ExactQuantiles) other;
+        if (size + (long) o.size > values.length) {
+            grow(size + (long) o.size);
+        }
+        System.arraycopy(o.values, 0, values, size, o.size);
+        size += o.size;
+        return this;
+    }
+
+    @Override
+    public long getCount() {
+        return size;
+    }
+
+    @Override
+    public double quantile(double p) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        return select(values, 0, size - 1, position(p, size));
+    }
+
+    /**
+     * Break i is the value at 0-based position i * ((n + 1) / numQuantile) (integer division), as the sorted
+     * list of the former RasterInfo.getQuantile.
+     * Breaks are selected in increasing order, each search only scans the part right of the previous break.
+     */
+    @Override
+    public String breaks(int numQuantile) {
+        if (size == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        int from = 0;
+        for (int i = 1; i < numQuantile; i++) {
+            int k = (int) Math.min(size - 1, (long) i * ((size + 1L) / numQuantile));
+            sb.append(" ").append((double) select(values, Math.min(from, k), size - 1, k));
+            from = k + 1;
+        }
+        return sb.substring(1);
+    }
+
+    @Override
+    public Quantiles emptyCopy() {
+        return new ExactQuantiles();
+    }
+
+    /**
+     * 分位数位置  (n+1)*p, rounded down and used as a 0-based index, as the breaks; clamped to the data
+     */
+    static int position(double p, long n) {
+        long k = (long) Math.floor(p * (n + 1));
+        return (int) Math.max(0, Math.min(n - 1, k));
+    }
+
+    private void grow(long minCapacity) {
+        if (minCapacity > MAX_SIZE) {
+            throw new IllegalStateException("Too many values for exact quantiles, use QuantileSketch instead");
+        }
+        values = Arrays.copyOf(values, (int) Math.min(MAX_SIZE, Math.max(minCapacity, values.length * 2L)));
+    }
+
+    /**
+     * Quickselect: reorder a[left..right] so that a[k] is the value it would have if sorted,
+     * smaller values before it and larger after it.
+     *
+     * @return a[k]
+     */
+    static float select(float[] a, int left, int right, int k) {
+        while (right > left) {
+            int mid = (left + right) >>> 1;
+            // median of three as pivot
+            if (a[mid] < a[left]) {
+                swap(a, left, mid);
+            }
+            if (a[right] < a[left]) {
+                swap(a, left, right);
+            }
+            if (a[right] < a[mid]) {
+                swap(a, mid, right);
+            }
+            float pivot = a[mid];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(a, i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+
+    private static void swap(float[] a, int i, int j) {
+        float t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
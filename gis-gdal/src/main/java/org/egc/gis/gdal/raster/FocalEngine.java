@@ -0,0 +1,256 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.Consts;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.osr.SpatialReference;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Description:
+ * <pre>
+ * In-process engine of focal (neighborhood) operations, e.g. the terrain derivatives of {@link TerrainKernels}.
+ *
+ * The raster is split into tiles; every tile is read with a halo of {@link Kernel#radius()} cells on each side,
+ * so that the kernel sees the neighbors of the border cells. Tiles are processed by {@link ParallelWorkers},
+ * each with its own dataset handle ({@link DatasetCache}) and its own arrays, allocated once: the inner
+ * loop of a kernel does not allocate. The output is a tiled Float32 GeoTIFF, written tile by tile.
+ *
+ * Nodata cells, and the halo outside the raster, are NaN for the kernel; NaN results are written as nodata.
+ * In a geographic CRS the cell size is converted to meters at the center latitude, so that slopes are right
+ * for elevations in meters.
+ *
+ * {@code new FocalEngine().run(dem, "slope.tif", TerrainKernels.slope());}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/9 9:20
+ */
+@Slf4j
+@Getter
+public class FocalEngine {
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private int band = 1;
+    private int tileSize = 512;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public FocalEngine band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    /**
+     * @param tileSize tile width and height in cells, a multiple of 16; see {@link RasterWindow#blockSize(int)}
+     */
+    public FocalEngine tileSize(int tileSize) {
+        if (tileSize <= 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("Tile size must be a positive multiple of 16: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    public FocalEngine parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Apply a kernel to a raster.
+     *
+     * @param src    the input raster
+     * @param dst    the output GeoTIFF (Float32)
+     * @param kernel the kernel
+     * @return the output file
+     */
+    public String run(String src, String dst, Kernel kernel) {
+        GDALRuntime.init();
+        long start = System.currentTimeMillis();
+        Dataset in = IOFactory.createRasterIO().read(src);
+        Dataset out = null;
+        try {
+            int xSize = in.GetRasterXSize();
+            int ySize = in.GetRasterYSize();
+            double[] gt = in.GetGeoTransform();
+            double[] cell = cellSize(in.GetProjectionRef(), gt, ySize);
+            Double[] nodata = new Double[1];
+            in.GetRasterBand(band).GetNoDataValue(nodata);
+
+            int block = RasterWindow.blockSize(tileSize);
+            DatasetCache.getDefault().invalidate(dst);
+            out = gdal.GetDriverByName("GTiff").Create(dst, xSize, ySize, 1, gdalconstConstants.GDT_Float32,
+                    new String[]{"TILED=YES", "BLOCKXSIZE=" + block, "BLOCKYSIZE=" + block, "COMPRESS=LZW",
+                            "BIGTIFF=IF_SAFER"});
+            if (out == null) {
+                throw new RuntimeException("Create " + dst + " failed: " + gdal.GetLastErrorMsg());
+            }
+            out.SetGeoTransform(gt);
+            out.SetProjection(in.GetProjectionRef());
+            Band output = out.GetRasterBand(1);
+            output.SetNoDataValue(Double.parseDouble(Consts.NODATA));
+
+            List<RasterWindow> tiles = RasterWindow.of(xSize, ySize, tileSize, tileSize, tileSize * tileSize);
+            // a raster narrower than the tiles is cut in strips taller than tileSize
+            int maxWidth = tiles.stream().mapToInt(RasterWindow::getWidth).max().orElse(0);
+            int maxHeight = tiles.stream().mapToInt(RasterWindow::getHeight).max().orElse(0);
+            String path = in.GetDescription();
+            RasterIO.closeDataSet(in);
+            in = null;
+            float nd = nodata[0] == null ? Float.NaN : nodata[0].floatValue();
+            ParallelWorkers.forEach(tiles.size(), parallelism,
+                    () -> new Worker(path, kernel.radius(), maxWidth, maxHeight),
+                    (worker, index) -> worker.tile(tiles.get((int) index), xSize, ySize, cell, nd, kernel, output));
+            out.FlushCache();
+            log.info("{} of {} ({}x{}, {} tiles) in {} ms", kernel, src, xSize, ySize, tiles.size(),
+                    System.currentTimeMillis() - start);
+            return dst;
+        } finally {
+            if (in != null) {
+                RasterIO.closeDataSet(in);
+            }
+            if (out != null) {
+                out.delete();
+            }
+            DatasetCache.getDefault().invalidate(dst);
+        }
+    }
+
+    /**
+     * cell size in meters (positive), converted at the center latitude for a geographic CRS
+     */
+    private static double[] cellSize(String wkt, double[] gt, int ySize) {
+        double cellX = Math.abs(gt[1]);
+        double cellY = Math.abs(gt[5]);
+        if (wkt == null || wkt.isEmpty()) {
+            return new double[]{cellX, cellY};
+        }
+        SpatialReference srs = new SpatialReference(wkt);
+        boolean geographic = srs.IsGeographic() > 0;
+        srs.delete();
+        if (geographic) {
+            double lat = Math.toRadians(gt[3] + gt[5] * ySize / 2);
+            cellX *= METERS_PER_DEGREE * Math.cos(lat);
+            cellY *= METERS_PER_DEGREE;
+            log.debug("Geographic CRS: cell size {} x {} m at the center latitude", cellX, cellY);
+        }
+        return new double[]{cellX, cellY};
+    }
+
+    /**
+     * the state of one worker: its dataset handle and arrays, sized from the largest tile
+     */
+    private class Worker implements AutoCloseable {
+        private final int r;
+        private final float[] values;
+        private final float[] result;
+        private final float outNodata = Float.parseFloat(Consts.NODATA);
+        private final Dataset ds;
+        private final Band input;
+        private final DirectBufferPool.Lease read;
+        private final DirectBufferPool.Lease write;
+
+        Worker(String path, int r, int maxWidth, int maxHeight) {
+            this.r = r;
+            values = new float[(maxWidth + 2 * r) * (maxHeight + 2 * r)];
+            result = new float[maxWidth * maxHeight];
+            read = DirectBufferPool.getDefault().acquire(values.length * Float.BYTES);
+            write = DirectBufferPool.getDefault().acquire(result.length * Float.BYTES);
+            ds = DatasetCache.getDefault().acquire(path, gdalconstConstants.GA_ReadOnly);
+            if (ds == null) {
+                write.close();
+                read.close();
+                throw new IllegalStateException("Open " + path + " failed: " + gdal.GetLastErrorMsg());
+            }
+            input = ds.GetRasterBand(band);
+        }
+
+        void tile(RasterWindow tile, int xSize, int ySize, double[] cell, float nodata, Kernel kernel, Band output) {
+            int w = tile.getWidth();
+            int h = tile.getHeight();
+            // the tile and its halo, clipped to the raster
+            int x0 = Math.max(0, tile.getXOff() - r);
+            int y0 = Math.max(0, tile.getYOff() - r);
+            int x1 = Math.min(xSize, tile.getXOff() + w + r);
+            int y1 = Math.min(ySize, tile.getYOff() + h + r);
+            read.bytes().clear();
+            int err = input.ReadRaster_Direct(x0, y0, x1 - x0, y1 - y0, x1 - x0, y1 - y0,
+                    gdalconstConstants.GDT_Float32, read.bytes());
+            if (err != gdalconstConstants.CE_None) {
+                throw new RuntimeException("Read " + tile + " failed: " + gdal.GetLastErrorMsg());
+            }
+            FloatBuffer data = read.asFloatBuffer();
+            int tileStride = w + 2 * r;
+            Arrays.fill(values, 0, tileStride * (h + 2 * r), Float.NaN);
+            int dx = x0 - (tile.getXOff() - r);
+            int dy = y0 - (tile.getYOff() - r);
+            int k = 0;
+            for (int row = 0; row < y1 - y0; row++) {
+                int offset = (dy + row) * tileStride + dx;
+                for (int col = 0; col < x1 - x0; col++) {
+                    float v = data.get(k++);
+                    boolean isNodata = Math.abs(v - nodata) < BandStatistics.NODATA_TOLERANCE;
+                    values[offset + col] = isNodata ? Float.NaN : v;
+                }
+            }
+            kernel.apply(values, tileStride, w, h, cell[0], cell[1], result);
+
+            FloatBuffer buffer = write.asFloatBuffer();
+            for (int i = 0; i < w * h; i++) {
+                float v = result[i];
+                buffer.put(i, Float.isNaN(v) ? outNodata : v);
+            }
+            write.bytes().clear();
+            synchronized (output) {
+                err = output.WriteRaster_Direct(tile.getXOff(), tile.getYOff(), w, h, w, h,
+                        gdalconstConstants.GDT_Float32, write.bytes());
+            }
+            if (err != gdalconstConstants.CE_None) {
+                throw new RuntimeException("Write " + tile + " failed: " + gdal.GetLastErrorMsg());
+            }
+        }
+
+        @Override
+        public void close() {
+            write.close();
+            read.close();
+            DatasetCache.getDefault().release(ds);
+        }
+    }
+
+    /**
+     * A focal operation. Implementations are called by several workers at the same time: they must not keep
+     * state between calls (or keep it per thread).
+     */
+    public interface Kernel {
+        /**
+         * @return number of neighbor cells needed on each side, e.g. 1 for a 3x3 window
+         */
+        int radius();
+
+        /**
+         * Compute the output values of a tile.
+         *
+         * @param values values of the tile and its halo, row-major, NaN for nodata and outside the raster;
+         *               cell (col, row) of the tile is at {@code (row + radius) * stride + col + radius}
+         * @param stride row length of values: width + 2 * radius
+         * @param width  tile width
+         * @param height tile height
+         * @param cellX  cell width in meters
+         * @param cellY  cell height in meters
+         * @param output output values of the tile, row-major with a row length of width, NaN for nodata
+         */
+        void apply(float[] values, int stride, int width, int height, double cellX, double cellY, float[] output);
+    }
+}
@@ -1,6 +1,7 @@
 package org.egc.gis.gdal.raster;
 
 import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.IOFactory;
 import org.gdal.gdal.*;
 import org.gdal.gdalconst.gdalconstConstants;
@@ -8,12 +9,11 @@ import org.gdal.gdalconst.gdalconstConstants;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.*;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
-import java.util.Vector;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * description:
@@ -25,6 +25,18 @@ import java.util.Vector;
 @Slf4j
 public class GDALThumbnail {
 
+    private static final int HISTOGRAM_BINS = 1024;
+
+    /**
+     * percentage of values cut at each end of the histogram before stretching, 0 to stretch between min and max
+     */
+    private double stretchPercent = 2;
+
+    /**
+     * cache of the rendered images, null to render every time
+     */
+    private ThumbnailCache cache;
+
     /**
      * 根据影像和目标缩略图大小，计算要缩放的尺度
      *
@@ -33,20 +45,47 @@ public class GDALThumbnail {
      * @return scale
      */
     public double getScale(String inputFileName, int size) {
-        gdal.AllRegister();
+        GDALRuntime.init();
         Dataset inDataset = gdal.Open(inputFileName, gdalconstConstants.GA_ReadOnly);
         if (inDataset == null) {
             log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
             log.error(gdal.GetLastErrorMsg());
             return -1.0;
         }
-        gdal.GDALDestroyDriverManager();
         double nCols = inDataset.getRasterXSize();
         double nRows = inDataset.getRasterYSize();
+        inDataset.delete();
 
         return Math.min(size / nCols, size / nRows);
     }
 
+    public double getStretchPercent() {
+        return stretchPercent;
+    }
+
+    public void setStretchPercent(double stretchPercent) {
+        if (stretchPercent < 0 || stretchPercent >= 50) {
+            throw new IllegalArgumentException("Stretch percent must be in [0, 50): " + stretchPercent);
+        }
+        this.stretchPercent = stretchPercent;
+    }
+
+    public ThumbnailCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache cache of the thumbnails written by createThumbnail, truecolorThumbnail and rasterThumbnail,
+     *              e.g. {@link ThumbnailCache#getDefault()}; null to render every time
+     */
+    public void setCache(ThumbnailCache cache) {
+        this.cache = cache;
+    }
+
+    private byte[] image(String src, int[] bands, double scale, String format) throws IOException {
+        return cache == null ? render(src, bands, scale, format) : cache.get(this, src, bands, scale, format);
+    }
+
     private String getImageType(String inputFileName) {
         inputFileName = inputFileName.toLowerCase();
         if (inputFileName.endsWith(".bmp")) {
@@ -67,7 +106,7 @@ public class GDALThumbnail {
      * @param inputFileName  输入影像路径
      * @param outputFileName 输出缩略图路径
      * @param band           选择单个波段
-     * @param scale          选择缩放的尺度 (0~1)
+     * @param scale          选择缩放的尺度 (0~1), see {@link #render(String, int[], double, String)}
      * @return 是否执行成功
      */
     public boolean createThumbnail(String inputFileName, String outputFileName, int band, double scale) {
@@ -83,7 +122,7 @@ public class GDALThumbnail {
      * @param redBand        选择红色波段
      * @param greenBand      选择蓝色波段
      * @param blueBand       选择绿色波段
-     * @param scale          选择缩放的尺度
+     * @param scale          选择缩放的尺度, see {@link #render(String, int[], double, String)}
      * @return 是否执行成功
      */
     public boolean createThumbnail(String inputFileName, String outputFileName, int redBand, int greenBand, int blueBand, double scale) {
@@ -92,133 +131,160 @@ public class GDALThumbnail {
     }
 
     private boolean createThumbnail(String inputFileName, String outputFileName, int[] bands, double scale) {
-        if (bands.length != 1 && bands.length != 3) {
-            log.error("Bands must have 1 or 3 elements.");
-            return false;
-        }
         String gType = getImageType(outputFileName);
         if (gType == null) {
             log.error("Only support format of bmp, jpg, png or gif.");
             return false;
         }
-        gdal.AllRegister();
-        Dataset inDataset = gdal.Open(inputFileName, gdalconstConstants.GA_ReadOnly);
-        if (inDataset == null) {
-            log.error("GDALOpen failed - " + gdal.GetLastErrorNo());
-            log.error(gdal.GetLastErrorMsg());
+        try {
+            byte[] image = image(inputFileName, bands, scale, gType);
+            Files.write(Paths.get(outputFileName), image);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Create thumbnail of {} failed: {}", inputFileName, e.getMessage(), e);
             return false;
         }
+    }
 
-        int nBand = inDataset.getRasterCount();
-        if (nBand < bands.length) {
-            log.error("The Number of bands smaller than length of bands");
-            return false;
+    /**
+     * 生成缩略图, 编码到内存
+     * <pre>
+     * Every band is read once, at the thumbnail size: GDAL reads from the overviews when the raster has some.
+     * Byte bands keep their values, as gdal_translate does; other bands are stretched to 0-255 between
+     * the cut percentiles of the histogram of that read (see {@link #setStretchPercent(double)}).
+     * Nodata cells are transparent in PNG.
+     * The thumbnail is ceil(cols * scale) x ceil(rows * scale) cells. Before, rows and columns were taken every
+     * stepSize = (int) (1 / scale) cells: 0.3 gave a third of the size instead of 30%, any scale above 0.5 the
+     * full size, and a scale above 1 failed.
+     * </pre>
+     *
+     * @param inputFileName 输入影像路径
+     * @param bands         1 个 (灰度) 或 3 个 (RGB) 波段
+     * @param scale         缩放的尺度, (0~1] shrinks, above 1 enlarges; 1 if not positive
+     * @param format        PNG, JPEG, BMP or GIF
+     * @return the encoded image
+     * @throws IOException if the image cannot be encoded
+     */
+    public byte[] render(String inputFileName, int[] bands, double scale, String format) throws IOException {
+        if (bands.length != 1 && bands.length != 3) {
+            throw new IllegalArgumentException("Bands must have 1 or 3 elements.");
         }
-        int nCols = inDataset.getRasterXSize();
-        int nRows = inDataset.getRasterYSize();
-
-        float minVal[] = new float[3];
-        float maxVal[] = new float[3];
-        float buffer[] = new float[nCols];
-        for (int k = 0; k < bands.length; k++) {
-            Band band = inDataset.GetRasterBand(bands[k]);
-            Double nodata[] = new Double[1];
-            for (int i = 0; i < nRows; i++) {
-                if (band.ReadRaster(0, i, nCols, 1, buffer) != gdalconstConstants.CE_None) {
-                    log.error("影像数据的读取失败.");
-                    return false;
+        Dataset inDataset = IOFactory.createRasterIO().read(inputFileName);
+        try {
+            int nBand = inDataset.getRasterCount();
+            for (int band : bands) {
+                if (band < 1 || band > nBand) {
+                    throw new IllegalArgumentException("Band " + band + " not in [1, " + nBand + "]");
                 }
-                for (int j = 0; j < nCols; j++) {
-                    if ((i == 0) && (j == 0)) {
-                        maxVal[k] = minVal[k] = buffer[0];
-                    }
-                    if (buffer[j] < minVal[k]) {
-                        minVal[k] = buffer[j];
-                    }
-                    if (buffer[j] > maxVal[k]) {
-                        maxVal[k] = buffer[j];
+            }
+            int nCols = inDataset.getRasterXSize();
+            int nRows = inDataset.getRasterYSize();
+            double s = scale <= 0 ? 1 : scale;
+            int dstCols = Math.max(1, (int) Math.ceil(nCols * s));
+            int dstRows = Math.max(1, (int) Math.ceil(nRows * s));
+            long bufferBytes = (long) dstCols * dstRows * Float.BYTES;
+            if (bufferBytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Thumbnail too large: " + dstCols + " x " + dstRows);
+            }
+            int cells = dstCols * dstRows;
+
+            byte[][] channels = new byte[bands.length][];
+            boolean[] nodata = new boolean[cells];
+            try (DirectBufferPool.Lease lease = DirectBufferPool.getDefault().acquire((int) bufferBytes)) {
+                for (int k = 0; k < bands.length; k++) {
+                    Band band = inDataset.GetRasterBand(bands[k]);
+                    // decimated read: GDAL picks the overview closest to the thumbnail size
+                    if (band.ReadRaster_Direct(0, 0, nCols, nRows, dstCols, dstRows, gdalconstConstants.GDT_Float32,
+                            lease.bytes()) != gdalconstConstants.CE_None) {
+                        throw new RuntimeException("影像数据的读取失败: " + gdal.GetLastErrorMsg());
                     }
+                    Double[] nodataValue = new Double[1];
+                    band.GetNoDataValue(nodataValue);
+                    boolean byteType = band.GetRasterDataType() == gdalconstConstants.GDT_Byte;
+                    channels[k] = stretch(lease.asFloatBuffer(), cells, nodataValue[0], nodata, byteType);
                 }
             }
+            BufferedImage image = toImage(channels, nodata, dstCols, dstRows, "PNG".equals(format));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, format, out)) {
+                throw new IOException("No image writer for " + format);
+            }
+            return out.toByteArray();
+        } finally {
+            RasterIO.closeDataSet(inDataset);
         }
+    }
 
-        Driver driver = gdal.GetDriverByName("BMP");
-        if (driver == null) {
-            log.error("Fail to create bmp image driver");
-            return false;
-        }
-
-        int stepSize = (int) (1.0 / scale);
-        int dstCols = nCols / stepSize + ((nCols % stepSize) == 0 ? 0 : 1);
-        int dstRows = nRows / stepSize + ((nRows % stepSize) == 0 ? 0 : 1);
-
-        String bmpFileName = outputFileName;
-        if (!gType.equals("BMP")) {
-            UUID uuid = UUID.randomUUID();
-            String tempPath = System.getProperty("java.io.tmpdir");
-            bmpFileName = tempPath + File.separator + uuid.toString() + ".bmp";
-        }
-
-        Dataset bmpDataset = driver.Create(bmpFileName, dstCols, dstRows, bands.length, gdalconstConstants.GDT_Byte);
-        if (bmpDataset == null) {
-            log.error("Fail to create bmp image driver");
-            return false;
+    /**
+     * linear stretch to 0-255 between the cut percentiles (none for Byte values), marks nodata cells
+     */
+    private byte[] stretch(FloatBuffer data, int cells, Double nodataValue, boolean[] nodata, boolean byteType) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        int valid = 0;
+        for (int i = 0; i < cells; i++) {
+            float v = data.get(i);
+            if (Float.isNaN(v) || (nodataValue != null && Math.abs(v - nodataValue) < BandStatistics.NODATA_TOLERANCE)) {
+                nodata[i] = true;
+                continue;
+            }
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            valid++;
         }
-        byte dstBuffer[] = new byte[dstCols];//输出缓存
-
-        for (int k = 0; k < bands.length; k++) {
-            Band bandWrite = bmpDataset.GetRasterBand(k + 1);
-            Band bandRead = inDataset.GetRasterBand(bands[k]);
-
-            int offset, offsetY = 0;
-            for (int i = 0; i < nRows; i += stepSize) {
-                if (bandRead.ReadRaster(0, i, nCols, 1, buffer) != gdalconstConstants.CE_None) {
-                    log.error("读取影像数据失败.");
-                    return false;
-                }
-                offset = 0;
-                for (int j = 0; j < nCols; j += stepSize) {
-                    dstBuffer[offset] = (byte) ((buffer[j] - minVal[k]) * 256 / (maxVal[k] - minVal[k] + 1));
-                    offset++;
+        float lo = byteType ? 0 : min;
+        float hi = byteType ? 255 : max;
+        if (!byteType && stretchPercent > 0 && valid > 0 && max > min) {
+            int[] histogram = new int[HISTOGRAM_BINS];
+            double binWidth = (max - min) / (double) HISTOGRAM_BINS;
+            for (int i = 0; i < cells; i++) {
+                if (!nodata[i]) {
+                    histogram[Math.min(HISTOGRAM_BINS - 1, (int) ((data.get(i) - min) / binWidth))]++;
                 }
-                bandWrite.WriteRaster(0, offsetY, dstCols, 1, dstBuffer);
-                offsetY++;
             }
-        }
-        bmpDataset.delete();
-        driver.delete();
-
-        if (gType.equals("PNG")) {
-            try {
-                BufferedImage source = ImageIO.read(new File(bmpFileName));
-                int color = getNoDataRGB(source);
-                Image image = makeColorTransparent(source, new Color(color));
-                BufferedImage transparent = imageToBufferedImage(image);
-                ImageIO.write(transparent, "PNG", new File(outputFileName));
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
-                return false;
+            long cut = (long) (valid * stretchPercent / 100);
+            long count = 0;
+            int bin = 0;
+            while (bin < HISTOGRAM_BINS - 1 && count + histogram[bin] <= cut) {
+                count += histogram[bin++];
             }
-        } else if (!gType.equals("BMP")) {
-            Driver outDriver = gdal.GetDriverByName(gType);
-            if (outDriver == null) {
-                log.error("Fail to create " + gType + " image driver");
-                return false;
+            lo = (float) (min + bin * binWidth);
+            count = 0;
+            bin = HISTOGRAM_BINS - 1;
+            while (bin > 0 && count + histogram[bin] <= cut) {
+                count += histogram[bin--];
             }
-            Dataset outDataset = outDriver.CreateCopy(outputFileName, bmpDataset, 0);
-            outDataset.delete();
+            hi = (float) (min + (bin + 1) * binWidth);
         }
-        inDataset.delete();
-        gdal.GDALDestroyDriverManager();
-        return true;
+        float factor = hi > lo ? 255f / (hi - lo) : 0;
+        byte[] bytes = new byte[cells];
+        for (int i = 0; i < cells; i++) {
+            if (!nodata[i]) {
+                float v = (data.get(i) - lo) * factor;
+                bytes[i] = (byte) (v <= 0 ? 0 : v >= 255 ? 255 : (int) (v + 0.5f));
+            }
+        }
+        return bytes;
     }
 
-    private static BufferedImage imageToBufferedImage(Image image) {
-        BufferedImage bufferedImage = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = bufferedImage.createGraphics();
-        g2.drawImage(image, 0, 0, null);
-        g2.dispose();
-        return bufferedImage;
+    private static BufferedImage toImage(byte[][] channels, boolean[] nodata, int width, int height, boolean alpha) {
+        if (channels.length == 1 && !alpha) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setDataElements(0, 0, width, height, channels[0]);
+            return image;
+        }
+        BufferedImage image = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width * height];
+        byte[] r = channels[0];
+        byte[] g = channels.length == 3 ? channels[1] : r;
+        byte[] b = channels.length == 3 ? channels[2] : r;
+        for (int i = 0; i < pixels.length; i++) {
+            int a = alpha && nodata[i] ? 0 : 0xff;
+            pixels[i] = a << 24 | (r[i] & 0xff) << 16 | (g[i] & 0xff) << 8 | (b[i] & 0xff);
+        }
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
     }
 
     public static Image makeColorTransparent(BufferedImage im, final Color color) {
@@ -241,37 +307,6 @@ public class GDALThumbnail {
     }
 
 
-    private int getNoDataRGB(BufferedImage source) {
-        int[][] boundVals = new int[4][];
-        boundVals[0] = source.getRGB(0, 0, 1, source.getHeight(), null, 0, source.getWidth());
-        boundVals[1] = source.getRGB(0, 0, source.getWidth(), 1, null, 0, source.getWidth());
-        boundVals[2] = source.getRGB(source.getWidth() - 1, 0, 1, source.getHeight(), null, 0, source.getWidth());
-        boundVals[3] = source.getRGB(0, source.getHeight() - 1, source.getWidth(), 1, null, 0, source.getWidth());
-
-        Map<Integer, Integer> valueCount = countValuesMap(boundVals);
-        int rgbMax = 0, countMax = 0;
-        for (Integer val : valueCount.keySet()) {
-            int curVal = valueCount.get(val);
-            if (curVal > countMax) {
-                rgbMax = val;
-                countMax = curVal;
-            }
-        }
-        return rgbMax;
-    }
-
-    private Map countValuesMap(int[][] array) {
-        Map<Object, Integer> map = new HashMap<Object, Integer>();
-        for (int i = 0; i < array.length; i++) {
-            for (int j = 0; j < array[i].length; j++) {
-                int val = array[i][j];
-                Integer integer = map.get(val);
-                map.put(val, integer == null ? 1 : integer + 1);
-            }
-        }
-        return map;
-    }
-
     //----------------------------------------------------------------------------------------------------------
 
     /**
@@ -282,26 +317,20 @@ public class GDALThumbnail {
      * @param redBand   red band
      * @param greenBand greed band
      * @param blueBand  blue band
-     * @param scale     in percentage(%), e.g., 30
+     * @param scale     in percentage(%), e.g., 30; above 100 enlarges
      */
     public void truecolorThumbnail(String src, String dst, int redBand, int greenBand, int blueBand, float scale) {
         Dataset ds = IOFactory.createRasterIO().read(src);
-        int[] rgbBands = new int[]{redBand, greenBand, blueBand};
-
-        Vector<String> options = new Vector<>();
-        options.add("-of");
-        options.add("PNG");
-
         int bandCount = ds.GetRasterCount();
+        RasterIO.closeDataSet(ds);
+        int[] rgbBands = new int[]{redBand, greenBand, blueBand};
 
         for (int i = 0; i < 3; i++) {
             if (rgbBands[i] > bandCount) {
-                RasterIO.closeDataSet(ds);
                 log.error("The selected band number cannot be larger than {}", bandCount);
                 return; // no target band exists
             }
             if (rgbBands[i] <= 0) {
-                RasterIO.closeDataSet(ds);
                 log.error("The selected band number cannot be less than 0");
                 return;
             }
@@ -309,24 +338,9 @@ public class GDALThumbnail {
 
         if (bandCount < 3) {
             log.warn("The input image only has {} band(s)", bandCount);
-            for (int i = 0; i < bandCount; i++) {
-                options.add("-b");
-                options.add(String.valueOf(i));
-            }
-        } else {
-            options.add("-b");
-            options.add(String.valueOf(redBand));
-            options.add("-b");
-            options.add(String.valueOf(greenBand));
-            options.add("-b");
-            options.add(String.valueOf(blueBand));
+            rgbBands = new int[]{1};
         }
-        options.add("-outsize");
-        options.add(String.valueOf(scale) + "%");
-        options.add(String.valueOf(scale) + "%");
-        TranslateOptions translateOptions = new TranslateOptions(options);
-        gdal.Translate(dst, ds, translateOptions);
-        RasterIO.closeDataSet(ds);
+        writePng(src, dst, rgbBands, scale);
     }
 
     /**
@@ -334,21 +348,18 @@ public class GDALThumbnail {
      *
      * @param src   source file
      * @param dst   destination/output file
-     * @param scale in percentage(%)
+     * @param scale in percentage(%), above 100 enlarges
      */
     public void rasterThumbnail(String src, String dst, float scale) {
-        Dataset ds = IOFactory.createRasterIO().read(src);
-        Vector<String> options = new Vector<>();
-        options.add("-of");
-        options.add("PNG");
-        options.add("-b");
-        options.add(String.valueOf(1));
-        options.add("-outsize");
-        options.add(String.valueOf(scale) + "%");
-        options.add(String.valueOf(scale) + "%");
-        TranslateOptions translateOptions = new TranslateOptions(options);
-        gdal.Translate(dst, ds, translateOptions);
-        RasterIO.closeDataSet(ds);
+        writePng(src, dst, new int[]{1}, scale);
+    }
+
+    private void writePng(String src, String dst, int[] bands, float scale) {
+        try {
+            Files.write(Paths.get(dst), image(src, bands, scale / 100.0, "PNG"));
+        } catch (IOException | RuntimeException e) {
+            log.error("Create thumbnail of {} failed: {}", src, e.getMessage(), e);
+        }
     }
 
 }
@@ -1,5 +1,7 @@
 package org.egc.gis.gdal.raster;
 
+import java.util.Map;
+
 /**
  * Description:
  * <pre>
@@ -14,10 +16,40 @@ package org.egc.gis.gdal.raster;
  * gdal_calc.py -A input1.tif -B input2.tif --outfile=output.tif --calc="A+B"
  *
  * etc.
+ *
+ * Same in process, see {@link RasterExpression} for the expression syntax:
+ *
+ * Map&lt;String, String&gt; inputs = new HashMap&lt;&gt;();
+ * inputs.put("A", "input1.tif");
+ * inputs.put("B", "input2.tif");
+ * new RasterCalculator().calc(inputs, "(A+B)/2", "output.tif");
  * </pre>
  *
  * @author houzhiwei
  * @date 2018/11/2 11:54
  */
 public interface MapAlgebra {
+
+    /**
+     * Calculate an expression over the first band of the input rasters, output nodata is -9999.
+     *
+     * @param inputs     input raster file of each name used in the expression, e.g. A -> input1.tif
+     * @param expression the expression, e.g. (A+B)/2
+     * @param dst        the output file (tif, Float32)
+     */
+    void calc(Map<String, String> inputs, String expression, String dst);
+
+    /**
+     * Calculate an expression over the input rasters.
+     * Inputs must have the same size. Cells that are nodata in any input are nodata in the output.
+     *
+     * @param inputs     input raster file of each name used in the expression, e.g. A -> input1.tif
+     * @param bands      band of each name, may be null, default 1
+     * @param expression the expression, e.g. where(A > threshold, 1, 0)
+     * @param constants  named constants used in the expression, e.g. threshold -> 10, may be null
+     * @param dst        the output file (tif, Float32)
+     * @param nodata     the output nodata value
+     */
+    void calc(Map<String, String> inputs, Map<String, Integer> bands, String expression,
+              Map<String, Double> constants, String dst, double nodata);
 }
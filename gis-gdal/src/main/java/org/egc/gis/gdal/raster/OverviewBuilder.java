@@ -0,0 +1,293 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Builds overview pyramids (gdaladdo, https://gdal.org/programs/gdaladdo.html).
+ * Levels 2, 4, 8 ... are computed from the raster size, down to the level that fits in one tile
+ * ({@link #tileSize(int)}, 256 by default).
+ *
+ * Overviews are stored inside the file (GeoTIFF, opened for update) or in an external .ovr file
+ * (the file is opened read-only and not modified).
+ *
+ * Resampling is chosen per band: MODE for categorical bands (with a color table or a raster attribute table),
+ * AVERAGE for the others, unless set with {@link #resampling(int, String)}. When the bands differ, the
+ * overviews are created empty and each band is computed with its own method.
+ *
+ * Compression of overview tiles takes its thread count from GDAL_NUM_THREADS (1 by default, see {@link GDALRuntime}), which can
+ * be overridden per build with {@link #threads(String)}: internal overviews take it as the NUM_THREADS open option
+ * of the build's own handle. External overviews have no such option in GDAL 2.4, their thread count and
+ * compression are process-wide config options, set for the build only (such builds are serialized).
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/1 9:40
+ */
+@Slf4j
+@Getter
+public class OverviewBuilder {
+
+    public static final String AVERAGE = "AVERAGE";
+    public static final String MODE = "MODE";
+    public static final String NEAREST = "NEAREST";
+
+    private static final String GDAL_NUM_THREADS = "GDAL_NUM_THREADS";
+    private static final String COMPRESS_OVERVIEW = "COMPRESS_OVERVIEW";
+
+    public enum Storage {
+        /**
+         * inside the file
+         */
+        INTERNAL,
+        /**
+         * in a side-car .ovr file
+         */
+        EXTERNAL
+    }
+
+    private int tileSize = 256;
+    private Storage storage = Storage.INTERNAL;
+    /**
+     * resampling by band index (1-based)
+     */
+    private final Map<Integer, String> resampling = new HashMap<>();
+    private String threads;
+    private String externalCompression = "DEFLATE";
+
+    public OverviewBuilder tileSize(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    public OverviewBuilder storage(Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @param band       band index, starting from 1
+     * @param resampling NEAREST, AVERAGE, MODE, BILINEAR, CUBIC, GAUSS ...
+     */
+    public OverviewBuilder resampling(int band, String resampling) {
+        this.resampling.put(band, resampling);
+        return this;
+    }
+
+    /**
+     * @param threads GDAL_NUM_THREADS during the build, e.g. ALL_CPUS or 4
+     */
+    public OverviewBuilder threads(String threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param externalCompression compression of an external .ovr file (DEFLATE, LZW, NONE ...)
+     */
+    public OverviewBuilder externalCompression(String externalCompression) {
+        this.externalCompression = externalCompression;
+        return this;
+    }
+
+    /**
+     * Overview factors 2, 4, 8 ... until the smallest overview fits in one tile.
+     *
+     * @param width    raster width
+     * @param height   raster height
+     * @param tileSize tile size
+     * @return the factors, empty if the raster fits in one tile
+     */
+    public static int[] levels(int width, int height, int tileSize) {
+        List<Integer> levels = new ArrayList<>();
+        int factor = 2;
+        int size = Math.max(width, height);
+        while (size > tileSize) {
+            levels.add(factor);
+            size = (size + 1) / 2;
+            factor *= 2;
+        }
+        int[] result = new int[levels.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = levels.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Build the overviews of a raster, replacing existing ones of the same levels.
+     *
+     * @param file the raster file
+     * @return the levels built
+     */
+    public int[] build(String file) {
+        Dataset ds = open(file);
+        if (ds == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        try {
+            int[] levels = levels(ds.GetRasterXSize(), ds.GetRasterYSize(), tileSize);
+            if (levels.length == 0) {
+                return levels;
+            }
+            Map<String, String> config = new LinkedHashMap<>();
+            if (storage == Storage.EXTERNAL) {
+                if (threads != null) {
+                    config.put(GDAL_NUM_THREADS, threads);
+                }
+                config.put(COMPRESS_OVERVIEW, externalCompression);
+            }
+            long start = System.currentTimeMillis();
+            withConfig(config, () -> build(ds, levels));
+            log.info("Overviews {} of {} built in {} ms", levels, file, System.currentTimeMillis() - start);
+            return levels;
+        } finally {
+            RasterIO.closeDataSet(ds);
+            // handles opened before do not see the new overviews
+            DatasetCache.getDefault().invalidate(file);
+        }
+    }
+
+    private Dataset open(String file) {
+        if (storage == Storage.EXTERNAL) {
+            return IOFactory.createRasterIO().read(file);
+        }
+        if (threads == null) {
+            return IOFactory.createRasterIO().read4Update(file);
+        }
+        // thread count of this handle only, instead of the process-wide GDAL_NUM_THREADS
+        DatasetCache.getDefault().invalidate(file);
+        Vector<String> options = new Vector<>();
+        options.add("NUM_THREADS=" + threads);
+        return gdal.OpenEx(file, gdalconstConstants.OF_RASTER | gdalconstConstants.OF_UPDATE, null, options);
+    }
+
+    private void build(Dataset ds, int[] levels) {
+        int bandCount = ds.GetRasterCount();
+        String[] methods = new String[bandCount];
+        boolean same = true;
+        for (int b = 1; b <= bandCount; b++) {
+            methods[b - 1] = resamplingOf(ds.GetRasterBand(b), b);
+            same &= methods[b - 1].equals(methods[0]);
+        }
+        if (same) {
+            check(ds.BuildOverviews(methods[0], levels), "Build overviews");
+            return;
+        }
+        // create the overviews without computing them, then each band with its own method
+        check(ds.BuildOverviews("NONE", levels), "Create overviews");
+        for (int b = 1; b <= bandCount; b++) {
+            Band band = ds.GetRasterBand(b);
+            Band[] overviews = new Band[band.GetOverviewCount()];
+            for (int i = 0; i < overviews.length; i++) {
+                overviews[i] = band.GetOverview(i);
+            }
+            check(gdal.RegenerateOverviews(band, overviews, methods[b - 1]), "Compute overviews of band " + b);
+        }
+    }
+
+    private String resamplingOf(Band band, int index) {
+        String method = resampling.get(index);
+        if (method != null) {
+            return method;
+        }
+        return isCategorical(band) ? MODE : AVERAGE;
+    }
+
+    private static boolean isCategorical(Band band) {
+        return band.GetRasterColorTable() != null || band.GetDefaultRAT() != null;
+    }
+
+    private static void check(int err, String step) {
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException(step + " failed: " + gdal.GetLastErrorMsg());
+        }
+    }
+
+    /**
+     * config options are process-wide: builds with options are serialized and restore the previous values
+     */
+    private static void withConfig(Map<String, String> config, Runnable task) {
+        if (config.isEmpty()) {
+            task.run();
+            return;
+        }
+        synchronized (OverviewBuilder.class) {
+            Map<String, String> previous = new HashMap<>();
+            for (Map.Entry<String, String> option : config.entrySet()) {
+                previous.put(option.getKey(), gdal.GetConfigOption(option.getKey()));
+                gdal.SetConfigOption(option.getKey(), option.getValue());
+            }
+            try {
+                task.run();
+            } finally {
+                for (Map.Entry<String, String> option : previous.entrySet()) {
+                    gdal.SetConfigOption(option.getKey(), option.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that every band has the overviews expected for its size.
+     *
+     * @param file     the raster file
+     * @param tileSize tile size the pyramid was built for
+     * @return the problems, empty if the pyramid is complete
+     */
+    public static List<String> validate(String file, int tileSize) {
+        List<String> problems = new ArrayList<>();
+        Dataset ds = IOFactory.createRasterIO().read(file);
+        try {
+            int width = ds.GetRasterXSize();
+            int height = ds.GetRasterYSize();
+            int[] levels = levels(width, height, tileSize);
+            for (int b = 1; b <= ds.GetRasterCount(); b++) {
+                Band band = ds.GetRasterBand(b);
+                int count = band.GetOverviewCount();
+                for (int level : levels) {
+                    int w = (width + level - 1) / level;
+                    int h = (height + level - 1) / level;
+                    if (!hasOverview(band, count, w, h)) {
+                        problems.add(String.format("band %d: overview 1/%d (%dx%d) missing", b, level, w, h));
+                    }
+                }
+            }
+        } finally {
+            RasterIO.closeDataSet(ds);
+        }
+        return problems;
+    }
+
+    /**
+     * sizes are compared with a tolerance of one pixel, GDAL may round down
+     */
+    private static boolean hasOverview(Band band, int count, int width, int height) {
+        for (int i = 0; i < count; i++) {
+            Band overview = band.GetOverview(i);
+            if (Math.abs(overview.GetXSize() - width) <= 1 && Math.abs(overview.GetYSize() - height) <= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
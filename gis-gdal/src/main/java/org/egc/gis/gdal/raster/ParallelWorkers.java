@@ -0,0 +1,173 @@
+package org.egc.gis.gdal.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Description:
+ * <pre>
+ * Runs the same worker loop on several threads, as the tile-parallel operations do.
+ * Workers share a failed flag: a failing worker sets it, the others stop at their next item
+ * by throwing a {@link CancellationException}. All workers are joined, then the first failure
+ * that is not such a cancellation is rethrown, so the caller sees the actual error.
+ *
+ * {@link #forEach} is the usual loop: the items (tiles, zones, files) are taken one by one by the next free
+ * worker, each worker with its own state (dataset handles, buffers) created once.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/14 10:00
+ */
+public final class ParallelWorkers {
+
+    private ParallelWorkers() {
+    }
+
+    /**
+     * Process the items 0 to n - 1, each taken by the next free worker; the workers stop at their next item
+     * once one has failed.
+     *
+     * @param n       number of items
+     * @param threads number of workers, at most n; a single worker runs on the calling thread
+     * @param action  processes an item
+     */
+    public static void forEach(long n, int threads, LongConsumer action) {
+        forEach(n, threads, () -> null, (state, index) -> action.accept(index));
+    }
+
+    /**
+     * Process the items 0 to n - 1, each taken by the next free worker; the workers stop at their next item
+     * once one has failed.
+     *
+     * @param n       number of items
+     * @param threads number of workers, at most n; a single worker runs on the calling thread
+     * @param init    creates the state of a worker, on its thread; a state that is {@link AutoCloseable}
+     *                is closed when the worker ends, also on failure
+     * @param action  processes an item with the state of the worker
+     * @param <S>     state type
+     * @return the state of each worker
+     */
+    public static <S> List<S> forEach(long n, int threads, Supplier<S> init, ObjLongConsumer<S> action) {
+        AtomicLong next = new AtomicLong();
+        return call((int) Math.min(threads, Math.max(1, n)), failed -> {
+            S state = init.get();
+            Throwable error = null;
+            try {
+                long index;
+                while ((index = next.getAndIncrement()) < n) {
+                    if (failed.get()) {
+                        throw new CancellationException();
+                    }
+                    action.accept(state, index);
+                }
+                return state;
+            } catch (RuntimeException | Error e) {
+                error = e;
+                throw e;
+            } finally {
+                close(state, error);
+            }
+        });
+    }
+
+    /**
+     * @param threads number of workers, a single worker runs on the calling thread
+     * @param worker  the worker loop, given the shared failed flag
+     */
+    public static void run(int threads, Consumer<AtomicBoolean> worker) {
+        call(threads, failed -> {
+            worker.accept(failed);
+            return null;
+        });
+    }
+
+    /**
+     * @param threads number of workers, a single worker runs on the calling thread
+     * @param worker  the worker loop, given the shared failed flag
+     * @param <R>     result type
+     * @return the result of each worker
+     */
+    public static <R> List<R> call(int threads, Function<AtomicBoolean, R> worker) {
+        AtomicBoolean failed = new AtomicBoolean();
+        List<R> results = new ArrayList<>(Math.max(1, threads));
+        if (threads <= 1) {
+            results.add(worker.apply(failed));
+            return results;
+        }
+        AtomicReference<Throwable> first = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<R>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        return worker.apply(failed);
+                    } catch (RuntimeException | Error e) {
+                        failed.set(true);
+                        if (!(e instanceof CancellationException)) {
+                            first.compareAndSet(null, e);
+                        }
+                        throw e;
+                    }
+                }));
+            }
+            Throwable cancelled = null;
+            for (Future<R> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    cancelled = cancelled == null ? e.getCause() : cancelled;
+                } catch (CancellationException e) {
+                    // rethrown as is by ForkJoinTask.get()
+                    cancelled = cancelled == null ? e : cancelled;
+                }
+            }
+            Throwable error = first.get() != null ? first.get() : cancelled;
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void close(Object state, Throwable error) {
+        if (!(state instanceof AutoCloseable)) {
+            return;
+        }
+        try {
+            ((AutoCloseable) state).close();
+        } catch (Exception e) {
+            if (error != null) {
+                error.addSuppressed(e);
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.IOFactory;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Geometry;
+import org.gdal.ogr.Layer;
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <pre>
+ * Samples raster values at many points (gauges, wells, field plots) without reading the whole band and
+ * without one random read per point.
+ *
+ * Points are transformed to the CRS of the raster, converted to pixel coordinates and sorted by block;
+ * each worker takes a run of consecutive blocks and reads every block it needs once, into a small
+ * LRU of pooled buffers (bilinear sampling near a block edge also needs the neighbouring blocks).
+ * Values are returned in a primitive array in the order of the points, NaN outside the raster or on nodata.
+ *
+ * {@code double[] z = new PointSampler().method(PointSampler.Method.BILINEAR).sample(dem, xs, ys);}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/4 9:30
+ */
+@Slf4j
+@Getter
+public class PointSampler {
+
+    public enum Method {
+        /**
+         * value of the cell containing the point
+         */
+        NEAREST,
+        /**
+         * weighted by distance to the four nearest cell centers, nodata neighbours are ignored
+         */
+        BILINEAR
+    }
+
+    /**
+     * blocks larger than this are read in row bands
+     */
+    private static final int MAX_BLOCK_CELLS = RasterWindow.DEFAULT_WINDOW_CELLS;
+    private static final int TRANSFORM_BATCH = 1 << 16;
+
+    private Method method = Method.NEAREST;
+    private int band = 1;
+    /**
+     * CRS of the coordinates, null if they are in the CRS of the raster
+     */
+    private SpatialReference srs;
+    private int cacheBlocks = 16;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    /**
+     * number of blocks read by the last run
+     */
+    private long lastBlockReads;
+
+    public PointSampler method(Method method) {
+        this.method = method;
+        return this;
+    }
+
+    /**
+     * @param band band index, starting from 1
+     */
+    public PointSampler band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    /**
+     * @param srs CRS of the coordinates given to {@link #sample(String, double[], double[])}
+     */
+    public PointSampler srs(SpatialReference srs) {
+        this.srs = srs;
+        return this;
+    }
+
+    /**
+     * @param cacheBlocks number of blocks kept by each worker, at least 4 for bilinear sampling
+     */
+    public PointSampler cacheBlocks(int cacheBlocks) {
+        this.cacheBlocks = Math.max(4, cacheBlocks);
+        return this;
+    }
+
+    public PointSampler parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Sample at points given as coordinate arrays.
+     *
+     * @param raster the raster file
+     * @param xs     x coordinates
+     * @param ys     y coordinates
+     * @return the values, NaN outside the raster or on nodata
+     */
+    public double[] sample(String raster, double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("xs and ys differ in length: " + xs.length + " != " + ys.length);
+        }
+        return sample(raster, xs.clone(), ys.clone(), srs);
+    }
+
+    /**
+     * Sample at the points of a layer (centroids of other geometries), in the CRS of the layer.
+     *
+     * @param raster the raster file
+     * @param points the point layer
+     * @return the values in layer order, NaN outside the raster, on nodata or for features without geometry
+     */
+    public double[] sample(String raster, Layer points) {
+        int n = (int) points.GetFeatureCount();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int i = 0;
+        points.ResetReading();
+        Feature feature;
+        while ((feature = points.GetNextFeature()) != null) {
+            if (i == xs.length) {
+                xs = Arrays.copyOf(xs, Math.max(16, i * 2));
+                ys = Arrays.copyOf(ys, xs.length);
+            }
+            Geometry geometry = feature.GetGeometryRef();
+            if (geometry == null || geometry.IsEmpty()) {
+                xs[i] = Double.NaN;
+                ys[i] = Double.NaN;
+            } else if (geometry.GetPointCount() == 1 && geometry.GetGeometryCount() == 0) {
+                xs[i] = geometry.GetX();
+                ys[i] = geometry.GetY();
+            } else {
+                Geometry centroid = geometry.Centroid();
+                xs[i] = centroid.GetX();
+                ys[i] = centroid.GetY();
+                centroid.delete();
+            }
+            i++;
+            feature.delete();
+        }
+        return sample(raster, Arrays.copyOf(xs, i), Arrays.copyOf(ys, i), points.GetSpatialRef());
+    }
+
+    /**
+     * @param xs transformed to pixel coordinates in place
+     * @param ys transformed to line coordinates in place
+     */
+    private double[] sample(String raster, double[] xs, double[] ys, SpatialReference pointSrs) {
+        long start = System.currentTimeMillis();
+        Dataset ds = IOFactory.createRasterIO().read(raster);
+        if (ds == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        Grid grid;
+        try {
+            transform(pointSrs, ds.GetProjectionRef(), xs, ys);
+            toPixel(ds.GetGeoTransform(), xs, ys);
+            grid = new Grid(ds.GetRasterBand(band));
+        } finally {
+            RasterIO.closeDataSet(ds);
+        }
+        double[] values = new double[xs.length];
+        Arrays.fill(values, Double.NaN);
+        long[] keys = sortByBlock(grid, xs, ys);
+        int valid = 0;
+        while (valid < keys.length && keys[valid] != Long.MAX_VALUE) {
+            valid++;
+        }
+        List<int[]> ranges = ranges(keys, valid, Math.min(parallelism, Math.max(1, valid / 1024)));
+        AtomicLong reads = new AtomicLong();
+        if (!ranges.isEmpty()) {
+            ParallelWorkers.forEach(ranges.size(), ranges.size(),
+                    k -> work(raster, grid, keys, ranges.get((int) k), xs, ys, values, reads));
+        }
+        lastBlockReads = reads.get();
+        log.debug("{} points sampled from {} blocks of {} in {} ms", valid, lastBlockReads, raster,
+                System.currentTimeMillis() - start);
+        return values;
+    }
+
+    private static void transform(SpatialReference pointSrs, String rasterWkt, double[] xs, double[] ys) {
+        if (pointSrs == null || rasterWkt == null || rasterWkt.isEmpty()) {
+            return;
+        }
+        SpatialReference rasterSrs = new SpatialReference(rasterWkt);
+        CoordinateTransformation ct = null;
+        try {
+            if (pointSrs.IsSame(rasterSrs) == 1) {
+                return;
+            }
+            ct = new CoordinateTransformation(pointSrs, rasterSrs);
+            double[][] batch = new double[Math.min(TRANSFORM_BATCH, xs.length)][];
+            for (int from = 0; from < xs.length; from += TRANSFORM_BATCH) {
+                int n = Math.min(TRANSFORM_BATCH, xs.length - from);
+                if (n < batch.length) {
+                    batch = new double[n][];
+                }
+                for (int i = 0; i < n; i++) {
+                    batch[i] = new double[]{xs[from + i], ys[from + i]};
+                }
+                ct.TransformPoints(batch);
+                for (int i = 0; i < n; i++) {
+                    xs[from + i] = batch[i][0];
+                    ys[from + i] = batch[i][1];
+                }
+            }
+        } finally {
+            if (ct != null) {
+                ct.delete();
+            }
+            rasterSrs.delete();
+        }
+    }
+
+    /**
+     * georeferenced coordinates to fractional pixel/line coordinates, in place
+     */
+    private static void toPixel(double[] gt, double[] xs, double[] ys) {
+        double det = gt[1] * gt[5] - gt[2] * gt[4];
+        for (int i = 0; i < xs.length; i++) {
+            double dx = xs[i] - gt[0];
+            double dy = ys[i] - gt[3];
+            xs[i] = (gt[5] * dx - gt[2] * dy) / det;
+            ys[i] = (gt[1] * dy - gt[4] * dx) / det;
+        }
+    }
+
+    /**
+     * @return (block id &lt;&lt; 32 | point index), sorted; points outside the raster are Long.MAX_VALUE, at the end
+     */
+    private long[] sortByBlock(Grid grid, double[] px, double[] py) {
+        long[] keys = new long[px.length];
+        for (int i = 0; i < px.length; i++) {
+            double x = px[i];
+            double y = py[i];
+            if (!(x >= 0 && x < grid.xSize && y >= 0 && y < grid.ySize)) {
+                keys[i] = Long.MAX_VALUE;
+                continue;
+            }
+            int col = (int) x;
+            int row = (int) y;
+            if (method == Method.BILINEAR) {
+                // the upper left of the four neighbours
+                col = Math.max(0, (int) Math.floor(x - 0.5));
+                row = Math.max(0, (int) Math.floor(y - 0.5));
+            }
+            keys[i] = (long) grid.blockId(col, row) << 32 | i;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * split the sorted points into runs of whole blocks, one per worker
+     */
+    private static List<int[]> ranges(long[] keys, int valid, int parts) {
+        List<int[]> ranges = new ArrayList<>();
+        int from = 0;
+        for (int p = 1; p <= parts && from < valid; p++) {
+            int to = p == parts ? valid : (int) ((long) valid * p / parts);
+            while (to < valid && to > from && keys[to] >>> 32 == keys[to - 1] >>> 32) {
+                to++;
+            }
+            if (to > from) {
+                ranges.add(new int[]{from, to});
+                from = to;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * sample the points of one run of blocks, with its own handle and block cache
+     */
+    private void work(String raster, Grid grid, long[] keys, int[] range, double[] px, double[] py, double[] values,
+                      AtomicLong reads) {
+        Dataset ds = DatasetCache.getDefault().acquire(raster, gdalconstConstants.GA_ReadOnly);
+        if (ds == null) {
+            throw new IllegalStateException("Open " + raster + " failed: " + gdal.GetLastErrorMsg());
+        }
+        BlockCache cache = new BlockCache(ds.GetRasterBand(band), grid, cacheBlocks);
+        try {
+            for (int k = range[0]; k < range[1]; k++) {
+                int i = (int) keys[k];
+                values[i] = method == Method.NEAREST
+                        ? cache.value((int) px[i], (int) py[i])
+                        : bilinear(cache, grid, px[i], py[i]);
+            }
+        } finally {
+            reads.addAndGet(cache.reads);
+            cache.close();
+            DatasetCache.getDefault().release(ds);
+        }
+    }
+
+    private static double bilinear(BlockCache cache, Grid grid, double x, double y) {
+        double fx = x - 0.5;
+        double fy = y - 0.5;
+        int c0 = (int) Math.floor(fx);
+        int r0 = (int) Math.floor(fy);
+        double wx = fx - c0;
+        double wy = fy - r0;
+        // at the edges the outer neighbours are the edge cells
+        int c1 = Math.min(grid.xSize - 1, c0 + 1);
+        int r1 = Math.min(grid.ySize - 1, r0 + 1);
+        c0 = Math.max(0, c0);
+        r0 = Math.max(0, r0);
+        double sum = 0;
+        double weights = 0;
+        double[] w = {(1 - wx) * (1 - wy), wx * (1 - wy), (1 - wx) * wy, wx * wy};
+        double[] v = {cache.value(c0, r0), cache.value(c1, r0), cache.value(c0, r1), cache.value(c1, r1)};
+        for (int i = 0; i < 4; i++) {
+            if (!Double.isNaN(v[i]) && w[i] > 0) {
+                sum += w[i] * v[i];
+                weights += w[i];
+            }
+        }
+        return weights > 0 ? sum / weights : Double.NaN;
+    }
+
+    /**
+     * the blocks of the band, as read by the cache
+     */
+    private static class Grid {
+        private final int xSize;
+        private final int ySize;
+        private final int blockX;
+        private final int blockY;
+        private final int blocksPerRow;
+        private final double nodata;
+
+        Grid(Band band) {
+            xSize = band.getXSize();
+            ySize = band.getYSize();
+            int[] bx = new int[1];
+            int[] by = new int[1];
+            band.GetBlockSize(bx, by);
+            blockX = bx[0] <= 0 ? xSize : Math.min(bx[0], xSize);
+            int h = by[0] <= 0 ? 1 : Math.min(by[0], ySize);
+            // oversized blocks (e.g. one block for the whole raster): row bands
+            blockY = (long) blockX * h > MAX_BLOCK_CELLS ? Math.max(1, MAX_BLOCK_CELLS / blockX) : h;
+            blocksPerRow = (xSize + blockX - 1) / blockX;
+            Double[] nd = new Double[1];
+            band.GetNoDataValue(nd);
+            nodata = nd[0] == null ? Double.NaN : nd[0];
+        }
+
+        int blockId(int col, int row) {
+            return row / blockY * blocksPerRow + col / blockX;
+        }
+    }
+
+    /**
+     * LRU of the last blocks read by one worker
+     */
+    private static class BlockCache extends LinkedHashMap<Integer, BlockCache.Block> implements AutoCloseable {
+        private final Band band;
+        private final Grid grid;
+        private final int capacity;
+        private long reads;
+
+        BlockCache(Band band, Grid grid, int capacity) {
+            super(16, 0.75f, true);
+            this.band = band;
+            this.grid = grid;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return the value of a cell, NaN on nodata
+         */
+        double value(int col, int row) {
+            int id = grid.blockId(col, row);
+            Block block = get(id);
+            if (block == null) {
+                block = read(id);
+                put(id, block);
+            }
+            float v = block.data.get((row - block.yOff) * block.width + col - block.xOff);
+            if (Float.isNaN(v) || Math.abs(v - grid.nodata) < BandStatistics.NODATA_TOLERANCE) {
+                return Double.NaN;
+            }
+            return v;
+        }
+
+        private Block read(int id) {
+            int xOff = id % grid.blocksPerRow * grid.blockX;
+            int yOff = id / grid.blocksPerRow * grid.blockY;
+            int w = Math.min(grid.blockX, grid.xSize - xOff);
+            int h = Math.min(grid.blockY, grid.ySize - yOff);
+            DirectBufferPool.Lease lease = DirectBufferPool.getDefault().acquire(w * h * Float.BYTES);
+            int err = band.ReadRaster_Direct(xOff, yOff, w, h, w, h, gdalconstConstants.GDT_Float32, lease.bytes());
+            if (err != gdalconstConstants.CE_None) {
+                lease.close();
+                throw new RuntimeException("Read block " + id + " failed: " + gdal.GetLastErrorMsg());
+            }
+            reads++;
+            return new Block(xOff, yOff, w, lease);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            if (size() > capacity) {
+                eldest.getValue().lease.close();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            for (Block block : values()) {
+                block.lease.close();
+            }
+            clear();
+        }
+
+        private static class Block {
+            private final int xOff;
+            private final int yOff;
+            private final int width;
+            private final DirectBufferPool.Lease lease;
+            private final FloatBuffer data;
+
+            Block(int xOff, int yOff, int width, DirectBufferPool.Lease lease) {
+                this.xOff = xOff;
+                this.yOff = yOff;
+                this.width = width;
+                this.lease = lease;
+                this.data = lease.asFloatBuffer();
+            }
+        }
+    }
+}
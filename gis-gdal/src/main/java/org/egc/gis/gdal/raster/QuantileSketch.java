@@ -0,0 +1,285 @@
+package org.egc.gis.gdal.raster;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Description:
+ * <pre>
+ * KLL quantile sketch of float values.
+ * Memory is bounded by about 3k values whatever the number of cells, and sketches built on different
+ * blocks or threads can be merged. The rank of a returned quantile is within the rank error
+ * ({@link #getRankError()}) of the requested one, with high probability.
+ *
+ * Karnin, Lang and Liberty, "Optimal Quantile Approximation in Streams", FOCS 2016.
+ * https://datasketches.apache.org/docs/KLL/KLLSketch.html
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/16 15:10
+ */
+public class QuantileSketch implements Quantiles {
+
+    /**
+     * k = 200 gives about 1.65% normalized rank error
+     */
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_K = 8;
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    /**
+     * compactors, items at level h have weight 2^h
+     */
+    private float[][] levels;
+    private int[] sizes;
+    private int numLevels;
+    private int retained;
+    private long count;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k accuracy parameter, larger is more accurate and uses more memory (about 3k values)
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("k must be at least " + MIN_K);
+        }
+        this.k = k;
+        levels = new float[][]{new float[k]};
+        sizes = new int[1];
+        numLevels = 1;
+    }
+
+    /**
+     * Create a sketch for a given normalized rank error.
+     *
+     * @param rankError e.g. 0.01 for 1%
+     * @return the sketch
+     */
+    public static QuantileSketch withRankError(double rankError) {
+        if (rankError <= 0 || rankError >= 1) {
+            throw new IllegalArgumentException("rank error must be in (0, 1)");
+        }
+        // empirical KLL error curve: eps = 2.296 / k^0.9723
+        int k = (int) Math.ceil(Math.pow(2.296 / rankError, 1 / 0.9723));
+        return new QuantileSketch(Math.max(MIN_K, k));
+    }
+
+    /**
+     * @return normalized rank error of this sketch
+     */
+    public double getRankError() {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return number of values kept by the sketch
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    @Override
+    public void add(float value) {
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        count++;
+        append(0, value);
+        retained++;
+        if (retained > totalCapacity()) {
+            compress();
+        }
+    }
+
+    @Override
+    public Quantiles merge(Quantiles other) {
+        QuantileSketch o = (QuantileSketch) other;
+        if (o.count == 0) {
+            return this;
+        }
+        while (numLevels < o.numLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < o.numLevels; h++) {
+            for (int i = 0; i < o.sizes[h]; i++) {
+                append(h, o.levels[h][i]);
+            }
+        }
+        retained += o.retained;
+        count += o.count;
+        min = Math.min(min, o.min);
+        max = Math.max(max, o.max);
+        while (retained > totalCapacity()) {
+            compress();
+        }
+        return this;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public double quantile(double p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (p <= 0) {
+            return min;
+        }
+        if (p >= 1) {
+            return max;
+        }
+        float[] items = new float[retained];
+        long[] weights = new long[retained];
+        sortedView(items, weights);
+        double target = p * (count + 1);
+        long cumulative = 0;
+        for (int i = 0; i < retained; i++) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return items[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * all breaks from one sorted view
+     */
+    @Override
+    public String breaks(int numQuantile) {
+        if (count == 0) {
+            return null;
+        }
+        float[] items = new float[retained];
+        long[] weights = new long[retained];
+        sortedView(items, weights);
+        StringBuilder sb = new StringBuilder();
+        long cumulative = 0;
+        int i = 0;
+        for (int q = 1; q < numQuantile; q++) {
+            double target = (double) q / numQuantile * (count + 1);
+            while (i < retained - 1 && cumulative + weights[i] < target) {
+                cumulative += weights[i++];
+            }
+            sb.append(" ").append((double) items[i]);
+        }
+        return sb.substring(1);
+    }
+
+    @Override
+    public Quantiles emptyCopy() {
+        return new QuantileSketch(k);
+    }
+
+    private int capacity(int level) {
+        int depth = numLevels - level - 1;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            total += capacity(h);
+        }
+        return total;
+    }
+
+    private void addLevel() {
+        if (numLevels == levels.length) {
+            levels = Arrays.copyOf(levels, numLevels * 2);
+            sizes = Arrays.copyOf(sizes, numLevels * 2);
+        }
+        levels[numLevels] = new float[Math.max(2, capacity(0))];
+        numLevels++;
+    }
+
+    private void append(int level, float value) {
+        float[] items = levels[level];
+        if (sizes[level] == items.length) {
+            levels[level] = items = Arrays.copyOf(items, items.length * 2);
+        }
+        items[sizes[level]++] = value;
+    }
+
+    /**
+     * Compact the lowest full level: sort it and promote every other item (random offset) to the next level.
+     */
+    private void compress() {
+        for (int h = 0; h < numLevels; h++) {
+            if (sizes[h] < capacity(h)) {
+                continue;
+            }
+            if (h + 1 == numLevels) {
+                addLevel();
+            }
+            float[] items = levels[h];
+            int n = sizes[h];
+            Arrays.sort(items, 0, n);
+            // an odd item stays at this level
+            int start = n % 2;
+            int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+            for (int i = start + offset; i < n; i += 2) {
+                append(h + 1, items[i]);
+            }
+            int promoted = (n - start) / 2;
+            sizes[h] = start;
+            retained -= promoted;
+            if (retained <= totalCapacity()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * all retained items sorted by value with their weights
+     */
+    private void sortedView(float[] items, long[] weights) {
+        long[] packed = new long[retained];
+        int n = 0;
+        for (int h = 0; h < numLevels; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                // sortable int bits of the float in the high word, level in the low word
+                packed[n++] = ((long) sortableBits(levels[h][i]) << 32) | h;
+            }
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < n; i++) {
+            items[i] = fromSortableBits((int) (packed[i] >> 32));
+            weights[i] = 1L << (int) (packed[i] & 0xFFFFFFFFL);
+        }
+    }
+
+    private static int sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private static float fromSortableBits(int bits) {
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7FFFFFFF));
+    }
+}
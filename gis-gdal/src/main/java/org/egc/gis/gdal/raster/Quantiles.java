@@ -0,0 +1,68 @@
+package org.egc.gis.gdal.raster;
+
+/**
+ * Description:
+ * <pre>
+ * Mergeable quantile summary of raster values.
+ * Fill one summary per block or worker and combine them with {@link #merge(Quantiles)}.
+ *
+ * Implementations:
+ * {@link ExactQuantiles}  keeps every value in a primitive array, exact result
+ * {@link QuantileSketch}  KLL sketch, bounded memory, approximate result with a configurable rank error
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/16 14:02
+ */
+public interface Quantiles {
+
+    /**
+     * Add a (valid, non-nodata) value.
+     *
+     * @param value the value
+     */
+    void add(float value);
+
+    /**
+     * Merge another summary of the same type into this one.
+     *
+     * @param other the other summary
+     * @return this
+     */
+    Quantiles merge(Quantiles other);
+
+    /**
+     * @return number of values added
+     */
+    long getCount();
+
+    /**
+     * Value at the given rank, using the (n+1)*p position.
+     *
+     * @param p rank, 0 &lt;= p &lt;= 1, e.g. 0.25, 0.5, 0.75
+     * @return the value, NaN if empty
+     */
+    double quantile(double p);
+
+    /**
+     * @return a new, empty summary with the same settings
+     */
+    Quantiles emptyCopy();
+
+    /**
+     * Quantile breaks in the format of {@link org.egc.gis.gdal.dto.RasterMetadata#setQuantileBreaks(String)}.
+     *
+     * @param numQuantile number of quantiles, e.g. 4 gives 3 breaks
+     * @return breaks separated by space, null if empty
+     */
+    default String breaks(int numQuantile) {
+        if (getCount() == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < numQuantile; i++) {
+            sb.append(" ").append(quantile((double) i / numQuantile));
+        }
+        return sb.substring(1);
+    }
+}
@@ -49,9 +49,8 @@ public class RasterClip implements Clip {
         optionsVector.add(String.valueOf(ymin));
         TranslateOptions options = new TranslateOptions(optionsVector);
         gdal.Translate(dst, srcDs, options);
-        ds.delete();
-        srcDs.delete();
-        gdal.GDALDestroyDriverManager();
+        RasterIO.closeDataSet(ds);
+        RasterIO.closeDataSet(srcDs);
     }
 
 
@@ -65,24 +64,30 @@ public class RasterClip implements Clip {
         optionsVector.add(String.valueOf(ymin));
         TranslateOptions options = new TranslateOptions(optionsVector);
         gdal.Translate(dst, ds, options);
-        ds.delete();
-        gdal.GDALDestroyDriverManager();
+        RasterIO.closeDataSet(ds);
         return false;
     }
 
     @Override
     public boolean clipByBoundingBox(String src, String dst, BoundingBox boundingBox, double expand) {
+        return clipByBoundingBox(src, dst, boundingBox, expand, WarpProfile.throughput());
+    }
+
+    /**
+     * Clip by bounding box.
+     * see {@link #clipByBoundingBox(String, String, BoundingBox, double)}
+     *
+     * @param profile threads, memory and output options of the warp
+     */
+    public boolean clipByBoundingBox(String src, String dst, BoundingBox boundingBox, double expand,
+                                     WarpProfile profile) {
         Dataset ds = IOFactory.createRasterIO().read(src);
         String boundingStr = expandBoundingBox(boundingBox, expand).toMinMaxString();
         log.info("clip {} by bounding box {}", src, boundingStr);
         Vector<String> optionsVector = new Vector<>();
         optionsVector.add("-te");
         optionsVector.add(boundingStr);
-        WarpOptions options = new WarpOptions(optionsVector);
-        Dataset dataset = gdal.Warp(dst, new Dataset[]{ds}, options);
-        ds.delete();
-        gdal.GDALDestroyDriverManager();
-        return dataset != null;
+        return warp(ds, dst, optionsVector, profile);
     }
 
     @Override
@@ -92,6 +97,16 @@ public class RasterClip implements Clip {
 
     @Override
     public boolean clipByVectorBoundingBox(String src, String dst, String shp) {
+        return clipByVectorBoundingBox(src, dst, shp, WarpProfile.throughput());
+    }
+
+    /**
+     * Clip by the bounding box of a vector file.
+     * see {@link #clipByVectorBoundingBox(String, String, String)}
+     *
+     * @param profile threads, memory and output options of the warp
+     */
+    public boolean clipByVectorBoundingBox(String src, String dst, String shp, WarpProfile profile) {
         Dataset ds = IOFactory.createRasterIO().read(src);
         log.info("clip {} using bounding box of {}", src, shp);
         Vector<String> optionsVector = new Vector<>();
@@ -100,17 +115,22 @@ public class RasterClip implements Clip {
         optionsVector.add(shp);
         // Crop the extent of the target dataset to the extent of the cutline.
         optionsVector.add("-crop_to_cutline");
-        // Use multithreaded warping implementation.
-        optionsVector.add("-multi");
-        WarpOptions options = new WarpOptions(optionsVector);
-        Dataset dataset = gdal.Warp(dst, new Dataset[]{ds}, options);
-        ds.delete();
-        gdal.GDALDestroyDriverManager();
-        return dataset != null;
+        // multithreaded warping: see the profile
+        return warp(ds, dst, optionsVector, profile);
     }
 
     @Override
     public boolean clipByPolygon(String src, String dst, String polygonShp) {
+        return clipByPolygon(src, dst, polygonShp, WarpProfile.throughput());
+    }
+
+    /**
+     * Clip by polygon.
+     * see {@link #clipByPolygon(String, String, String)}
+     *
+     * @param profile threads, memory and output options of the warp
+     */
+    public boolean clipByPolygon(String src, String dst, String polygonShp, WarpProfile profile) {
         Dataset ds = IOFactory.createRasterIO().read(src);
         log.info("clip {} using boundary of {}", src, polygonShp);
         Vector<String> optionsVector = new Vector<>();
@@ -118,10 +138,21 @@ public class RasterClip implements Clip {
         optionsVector.add(Consts.NODATA);
         optionsVector.add("-cutline");
         optionsVector.add(polygonShp);
-        WarpOptions options = new WarpOptions(optionsVector);
+        return warp(ds, dst, optionsVector, profile);
+    }
+
+    /**
+     * warp and close the source and the output
+     */
+    private static boolean warp(Dataset ds, String dst, Vector<String> optionsVector, WarpProfile profile) {
+        WarpOptions options = new WarpOptions(profile.appendTo(optionsVector, dst));
         Dataset dataset = gdal.Warp(dst, new Dataset[]{ds}, options);
-        ds.delete();
-        gdal.GDALDestroyDriverManager();
-        return dataset != null;
+        RasterIO.closeDataSet(ds);
+        if (dataset == null) {
+            log.error("Warp to {} failed: {}", dst, gdal.GetLastErrorMsg());
+            return false;
+        }
+        dataset.delete();
+        return true;
     }
 }
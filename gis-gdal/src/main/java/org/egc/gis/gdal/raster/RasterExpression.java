@@ -0,0 +1,622 @@
+package org.egc.gis.gdal.raster;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Description:
+ * <pre>
+ * A compiled raster expression (band math), e.g. {@code (A+B)/2} or {@code where(A > threshold, 1, 0)}.
+ *
+ * Operators, by increasing precedence:
+ *   ||   &amp;&amp;   &lt; &lt;= &gt; &gt;= == !=   + -   * / %   unary - !   ^ (power, right associative)
+ * Functions:
+ *   where(cond, a, b), min, max, pow, atan2, abs, sqrt, exp, log, log10, sin, cos, tan, asin, acos, atan,
+ *   floor, ceil, round
+ * Comparisons and logical operators give 1 or 0, any non-zero value is true.
+ *
+ * The expression is parsed once into a register program (constants folded), which is then run over
+ * chunks of cells: each instruction is one tight loop over the chunk, and all registers are allocated
+ * once per {@link Evaluator}, so evaluating a block allocates nothing.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/20 9:30
+ */
+public final class RasterExpression {
+
+    /**
+     * number of cells evaluated by each instruction loop, registers stay in cache
+     */
+    static final int CHUNK = 1024;
+
+    private static final int ADD = 1, SUB = 2, MUL = 3, DIV = 4, MOD = 5, POW = 6,
+            LT = 7, LE = 8, GT = 9, GE = 10, EQ = 11, NE = 12, AND = 13, OR = 14,
+            MIN = 15, MAX = 16, ATAN2 = 17;
+    private static final int NEG = 20, NOT = 21, ABS = 22, SQRT = 23, EXP = 24, LOG = 25, LOG10 = 26,
+            SIN = 27, COS = 28, TAN = 29, ASIN = 30, ACOS = 31, ATAN = 32, FLOOR = 33, CEIL = 34, ROUND = 35;
+    private static final int WHERE = 40;
+
+    /**
+     * function name -> {opcode, arity}
+     */
+    private static final Map<String, int[]> FUNCTIONS = new HashMap<>();
+
+    static {
+        FUNCTIONS.put("where", new int[]{WHERE, 3});
+        FUNCTIONS.put("min", new int[]{MIN, 2});
+        FUNCTIONS.put("max", new int[]{MAX, 2});
+        FUNCTIONS.put("pow", new int[]{POW, 2});
+        FUNCTIONS.put("atan2", new int[]{ATAN2, 2});
+        FUNCTIONS.put("abs", new int[]{ABS, 1});
+        FUNCTIONS.put("sqrt", new int[]{SQRT, 1});
+        FUNCTIONS.put("exp", new int[]{EXP, 1});
+        FUNCTIONS.put("log", new int[]{LOG, 1});
+        FUNCTIONS.put("log10", new int[]{LOG10, 1});
+        FUNCTIONS.put("sin", new int[]{SIN, 1});
+        FUNCTIONS.put("cos", new int[]{COS, 1});
+        FUNCTIONS.put("tan", new int[]{TAN, 1});
+        FUNCTIONS.put("asin", new int[]{ASIN, 1});
+        FUNCTIONS.put("acos", new int[]{ACOS, 1});
+        FUNCTIONS.put("atan", new int[]{ATAN, 1});
+        FUNCTIONS.put("floor", new int[]{FLOOR, 1});
+        FUNCTIONS.put("ceil", new int[]{CEIL, 1});
+        FUNCTIONS.put("round", new int[]{ROUND, 1});
+    }
+
+    private final String expression;
+    /**
+     * variables used by the expression, registers 0..n-1
+     */
+    private final List<String> variables;
+    /**
+     * constant registers follow the variables
+     */
+    private final double[] constants;
+    /**
+     * instructions: opcode, target register and up to three operand registers
+     */
+    private final int[] ops;
+    private final int[] targets;
+    private final int[][] operands;
+    private final int numRegisters;
+    private final int result;
+
+    private RasterExpression(String expression, Compiler compiler, int result) {
+        this.expression = expression;
+        this.variables = Collections.unmodifiableList(compiler.variables);
+        this.constants = new double[compiler.constants.size()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = compiler.constants.get(i);
+        }
+        int n = compiler.ops.size();
+        this.ops = new int[n];
+        this.targets = new int[n];
+        this.operands = new int[n][];
+        int first = variables.size() + constants.length;
+        for (int i = 0; i < n; i++) {
+            ops[i] = compiler.ops.get(i);
+            targets[i] = first + i;
+            operands[i] = compiler.operands.get(i);
+        }
+        this.numRegisters = first + n;
+        // operands were numbered before all constants were known
+        for (int[] operand : operands) {
+            for (int j = 0; j < operand.length; j++) {
+                operand[j] = compiler.resolve(operand[j], first);
+            }
+        }
+        this.result = compiler.resolve(result, first);
+    }
+
+    /**
+     * Compile an expression.
+     *
+     * @param expression the expression
+     * @param variables  names of the input rasters that may be used, e.g. A, B
+     * @param constants  named constants, e.g. threshold, may be null
+     * @return the compiled expression
+     * @throws IllegalArgumentException on syntax errors or unknown names
+     */
+    public static RasterExpression compile(String expression, Collection<String> variables, Map<String, Double> constants) {
+        Compiler compiler = new Compiler(expression, variables,
+                constants == null ? Collections.<String, Double>emptyMap() : constants);
+        int result = compiler.parse();
+        return new RasterExpression(expression, compiler, result);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return names of the input rasters used by the expression, in the order expected by {@link Evaluator#evaluate}
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return a new evaluator, evaluators are not thread-safe: use one per worker
+     */
+    public Evaluator newEvaluator() {
+        return new Evaluator();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Evaluates the expression over blocks, with its own registers.
+     */
+    public final class Evaluator {
+        private final double[][] registers = new double[numRegisters][];
+        private final boolean[] invalid = new boolean[CHUNK];
+
+        private Evaluator() {
+            for (int r = 0; r < numRegisters; r++) {
+                registers[r] = new double[CHUNK];
+            }
+            int first = variables.size();
+            for (int i = 0; i < constants.length; i++) {
+                Arrays.fill(registers[first + i], constants[i]);
+            }
+        }
+
+        /**
+         * Evaluate n cells. A cell is nodata in the output when it is nodata in any input
+         * or when the result is not finite (e.g. division by zero).
+         *
+         * @param inputs       values of the variables, in the order of {@link #getVariables()}
+         * @param inputNodata  nodata of each input, NaN if none (NaN cells are always nodata)
+         * @param n            number of cells
+         * @param output       output values
+         * @param outputNodata output nodata value
+         */
+        public void evaluate(FloatBuffer[] inputs, double[] inputNodata, int n, FloatBuffer output, float outputNodata) {
+            int nv = variables.size();
+            for (int off = 0; off < n; off += CHUNK) {
+                int len = Math.min(CHUNK, n - off);
+                Arrays.fill(invalid, 0, len, false);
+                for (int v = 0; v < nv; v++) {
+                    double[] reg = registers[v];
+                    FloatBuffer in = inputs[v];
+                    double nd = inputNodata[v];
+                    boolean hasNodata = !Double.isNaN(nd);
+                    for (int i = 0; i < len; i++) {
+                        double x = in.get(off + i);
+                        reg[i] = x;
+                        if (x != x || (hasNodata && Math.abs(x - nd) < BandStatistics.NODATA_TOLERANCE)) {
+                            invalid[i] = true;
+                        }
+                    }
+                }
+                for (int k = 0; k < ops.length; k++) {
+                    execute(ops[k], registers[targets[k]], operands[k], len);
+                }
+                double[] res = registers[result];
+                for (int i = 0; i < len; i++) {
+                    double x = res[i];
+                    output.put(off + i, invalid[i] || Double.isNaN(x) || Double.isInfinite(x) ? outputNodata : (float) x);
+                }
+            }
+        }
+
+        private void execute(int op, double[] t, int[] operand, int len) {
+            double[] a = registers[operand[0]];
+            double[] b = operand.length > 1 ? registers[operand[1]] : null;
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] + b[i];
+                    }
+                    break;
+                case SUB:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] - b[i];
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] * b[i];
+                    }
+                    break;
+                case DIV:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] / b[i];
+                    }
+                    break;
+                case LT:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] < b[i] ? 1 : 0;
+                    }
+                    break;
+                case LE:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] <= b[i] ? 1 : 0;
+                    }
+                    break;
+                case GT:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] > b[i] ? 1 : 0;
+                    }
+                    break;
+                case GE:
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] >= b[i] ? 1 : 0;
+                    }
+                    break;
+                case WHERE:
+                    double[] c = registers[operand[2]];
+                    for (int i = 0; i < len; i++) {
+                        t[i] = a[i] != 0 ? b[i] : c[i];
+                    }
+                    break;
+                default:
+                    if (b == null) {
+                        for (int i = 0; i < len; i++) {
+                            t[i] = apply(op, a[i], 0);
+                        }
+                    } else {
+                        for (int i = 0; i < len; i++) {
+                            t[i] = apply(op, a[i], b[i]);
+                        }
+                    }
+            }
+        }
+    }
+
+    /**
+     * scalar semantics of every operator, also used for constant folding
+     */
+    private static double apply(int op, double a, double b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case DIV:
+                return a / b;
+            case MOD:
+                return a % b;
+            case POW:
+                return Math.pow(a, b);
+            case LT:
+                return a < b ? 1 : 0;
+            case LE:
+                return a <= b ? 1 : 0;
+            case GT:
+                return a > b ? 1 : 0;
+            case GE:
+                return a >= b ? 1 : 0;
+            case EQ:
+                return a == b ? 1 : 0;
+            case NE:
+                return a != b ? 1 : 0;
+            case AND:
+                return a != 0 && b != 0 ? 1 : 0;
+            case OR:
+                return a != 0 || b != 0 ? 1 : 0;
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            case ATAN2:
+                return Math.atan2(a, b);
+            case NEG:
+                return -a;
+            case NOT:
+                return a == 0 ? 1 : 0;
+            case ABS:
+                return Math.abs(a);
+            case SQRT:
+                return Math.sqrt(a);
+            case EXP:
+                return Math.exp(a);
+            case LOG:
+                return Math.log(a);
+            case LOG10:
+                return Math.log10(a);
+            case SIN:
+                return Math.sin(a);
+            case COS:
+                return Math.cos(a);
+            case TAN:
+                return Math.tan(a);
+            case ASIN:
+                return Math.asin(a);
+            case ACOS:
+                return Math.acos(a);
+            case ATAN:
+                return Math.atan(a);
+            case FLOOR:
+                return Math.floor(a);
+            case CEIL:
+                return Math.ceil(a);
+            case ROUND:
+                return Math.rint(a);
+            default:
+                throw new IllegalStateException("Unknown operator " + op);
+        }
+    }
+
+    /**
+     * Recursive descent parser emitting the register program.
+     * While parsing, operands are encoded as: variable i -> i, constant j -> -(j + 1) - OFFSET,
+     * instruction k -> OFFSET + k; they are resolved to register numbers at the end.
+     */
+    private static final class Compiler {
+        private static final int OFFSET = 1 << 20;
+
+        private final String text;
+        private final Collection<String> allowed;
+        private final Map<String, Double> named;
+        private int pos;
+
+        private final List<String> variables = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Integer> ops = new ArrayList<>();
+        private final List<int[]> operands = new ArrayList<>();
+
+        Compiler(String text, Collection<String> allowed, Map<String, Double> named) {
+            if (text == null || text.trim().isEmpty()) {
+                throw new IllegalArgumentException("Empty expression");
+            }
+            this.text = text;
+            this.allowed = allowed;
+            this.named = named;
+        }
+
+        int parse() {
+            int r = or();
+            skipSpaces();
+            if (pos < text.length()) {
+                throw error("Unexpected '" + text.charAt(pos) + "'");
+            }
+            return r;
+        }
+
+        int resolve(int operand, int firstInstruction) {
+            if (operand >= OFFSET) {
+                return firstInstruction + operand - OFFSET;
+            }
+            if (operand < 0) {
+                return variables.size() + (-operand - 1 - OFFSET);
+            }
+            return operand;
+        }
+
+        private int or() {
+            int r = and();
+            while (accept("||")) {
+                r = emit(OR, r, and());
+            }
+            return r;
+        }
+
+        private int and() {
+            int r = comparison();
+            while (accept("&&")) {
+                r = emit(AND, r, comparison());
+            }
+            return r;
+        }
+
+        private int comparison() {
+            int r = additive();
+            if (accept("<=")) {
+                return emit(LE, r, additive());
+            } else if (accept(">=")) {
+                return emit(GE, r, additive());
+            } else if (accept("==")) {
+                return emit(EQ, r, additive());
+            } else if (accept("!=")) {
+                return emit(NE, r, additive());
+            } else if (accept("<")) {
+                return emit(LT, r, additive());
+            } else if (accept(">")) {
+                return emit(GT, r, additive());
+            }
+            return r;
+        }
+
+        private int additive() {
+            int r = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    r = emit(ADD, r, multiplicative());
+                } else if (accept("-")) {
+                    r = emit(SUB, r, multiplicative());
+                } else {
+                    return r;
+                }
+            }
+        }
+
+        private int multiplicative() {
+            int r = unary();
+            while (true) {
+                if (accept("*")) {
+                    r = emit(MUL, r, unary());
+                } else if (accept("/")) {
+                    r = emit(DIV, r, unary());
+                } else if (accept("%")) {
+                    r = emit(MOD, r, unary());
+                } else {
+                    return r;
+                }
+            }
+        }
+
+        private int unary() {
+            if (accept("-")) {
+                return emit(NEG, unary());
+            }
+            if (accept("+")) {
+                return unary();
+            }
+            if (!peek("!=") && accept("!")) {
+                return emit(NOT, unary());
+            }
+            return power();
+        }
+
+        private int power() {
+            int r = primary();
+            if (accept("^")) {
+                return emit(POW, r, unary());
+            }
+            return r;
+        }
+
+        private int primary() {
+            skipSpaces();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of expression");
+            }
+            char ch = text.charAt(pos);
+            if (accept("(")) {
+                int r = or();
+                expect(")");
+                return r;
+            }
+            if (Character.isDigit(ch) || ch == '.') {
+                return constant(number());
+            }
+            if (Character.isLetter(ch) || ch == '_') {
+                String name = identifier();
+                if (accept("(")) {
+                    return function(name);
+                }
+                if (named.containsKey(name)) {
+                    return constant(named.get(name));
+                }
+                if (allowed.contains(name)) {
+                    int i = variables.indexOf(name);
+                    if (i < 0) {
+                        variables.add(name);
+                        i = variables.size() - 1;
+                    }
+                    return i;
+                }
+                throw error("Unknown name '" + name + "'");
+            }
+            throw error("Unexpected '" + ch + "'");
+        }
+
+        private int function(String name) {
+            int[] f = FUNCTIONS.get(name.toLowerCase());
+            if (f == null) {
+                throw error("Unknown function '" + name + "'");
+            }
+            int[] args = new int[f[1]];
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    expect(",");
+                }
+                args[i] = or();
+            }
+            expect(")");
+            return emit(f[0], args);
+        }
+
+        /**
+         * append an instruction, or fold it when all operands are constants
+         */
+        private int emit(int op, int... args) {
+            boolean constant = true;
+            for (int a : args) {
+                constant &= a < 0;
+            }
+            if (constant) {
+                double a = constants.get(-args[0] - 1 - OFFSET);
+                if (op == WHERE) {
+                    return a != 0 ? args[1] : args[2];
+                }
+                double b = args.length > 1 ? constants.get(-args[1] - 1 - OFFSET) : 0;
+                return constant(apply(op, a, b));
+            }
+            ops.add(op);
+            operands.add(args);
+            return OFFSET + ops.size() - 1;
+        }
+
+        private int constant(double value) {
+            int i = constants.indexOf(value);
+            if (i < 0) {
+                constants.add(value);
+                i = constants.size() - 1;
+            }
+            return -i - 1 - OFFSET;
+        }
+
+        private double number() {
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                    pos++;
+                }
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private String identifier() {
+            int start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        private boolean peek(String token) {
+            skipSpaces();
+            return text.startsWith(token, pos);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("Expected '" + token + "'");
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in expression: " + text);
+        }
+    }
+}
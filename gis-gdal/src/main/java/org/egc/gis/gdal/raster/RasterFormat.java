@@ -53,6 +53,10 @@ public class RasterFormat implements FormatConversion {
         String ext = format.getExtension();
         String newName = outputName(srcFile, dstFile, ext);
         log.info("Convert from {} to {}", srcFile, newName);
+        if (format == GDALDriversEnum.COG) {
+            RasterIO.closeDataSet(dataset);
+            return new CogWriter().write(srcFile, newName);
+        }
         Driver driver = gdal.GetDriverByName(format.name());
         if (driver == null) {
             log.error("Output Format {} Not Supported", ext);
@@ -68,8 +72,7 @@ public class RasterFormat implements FormatConversion {
 
         TranslateOptions options = new TranslateOptions(vector);
         Dataset translate = gdal.Translate(newName, dataset, options);
-        dataset.delete();
-        gdal.GDALDestroyDriverManager();
+        RasterIO.closeDataSet(dataset);
         return translate != null ? newName : null;
     }
 }
@@ -2,17 +2,22 @@ package org.egc.gis.gdal.raster;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
-import org.egc.gis.gdal.dto.Consts;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.gdal.gdal.Band;
 import org.gdal.gdal.Dataset;
 import org.gdal.gdal.Driver;
 import org.gdal.gdal.gdal;
 import org.gdal.gdalconst.gdalconst;
+import org.gdal.gdalconst.gdalconstConstants;
 import org.gdal.osr.SpatialReference;
 
 import java.io.File;
+import java.nio.FloatBuffer;
 
 import static org.gdal.gdalconst.gdalconstConstants.GDT_Byte;
+import static org.gdal.gdalconst.gdalconstConstants.GDT_Float32;
 
 /**
  * Description:
@@ -27,11 +32,16 @@ import static org.gdal.gdalconst.gdalconstConstants.GDT_Byte;
 @Slf4j
 public class RasterIO {
 
+    /**
+     * Open a raster read-only, reusing a cached handle when possible.
+     * Close it with {@link #closeDataSet(Dataset)}, not {@code delete()}.
+     *
+     * @param file the raster file
+     * @return the dataset
+     */
     public Dataset read(String file) {
-        gdal.SetConfigOption(Consts.GDAL_FILENAME_IS_UTF8, Consts.YES);
-        gdal.AllRegister();
         // 默认 gdalconst.GA_ReadOnly
-        Dataset dataset = gdal.Open(file);
+        Dataset dataset = DatasetCache.getDefault().acquire(file, gdalconst.GA_ReadOnly);
         if (dataset == null) {
             throw new RuntimeException(gdal.GetLastErrorMsg());
         } else {
@@ -39,10 +49,14 @@ public class RasterIO {
         }
     }
 
+    /**
+     * Open a raster for update. Close it with {@link #closeDataSet(Dataset)}, which flushes it.
+     *
+     * @param raster the raster file
+     * @return the dataset, null if it cannot be opened
+     */
     public Dataset read4Update(String raster) {
-        gdal.SetConfigOption(Consts.GDAL_FILENAME_IS_UTF8, Consts.YES);
-        gdal.AllRegister();
-        return gdal.Open(raster, gdalconst.GA_Update);
+        return DatasetCache.getDefault().acquire(raster, gdalconst.GA_Update);
     }
 
     /**
@@ -59,10 +73,11 @@ public class RasterIO {
         if (driver == null) {
             return false;
         }
+        DatasetCache.getDefault().invalidate(dstFile);
         Dataset ds = driver.CreateCopy(dstFile, data);
         ds.FlushCache();
         ds.delete();
-        data.delete();
+        closeDataSet(data);
         return true;
     }
 
@@ -75,6 +90,7 @@ public class RasterIO {
 
     /**
      * Closes the given {@link Dataset}.
+     * Datasets from {@link #read(String)} go back to the {@link DatasetCache}, others are deleted.
      *
      * @param ds {@link Dataset} to close.
      */
@@ -83,7 +99,7 @@ public class RasterIO {
             throw new NullPointerException("The provided dataset is null");
         }
         try {
-            ds.delete();
+            DatasetCache.getDefault().release(ds);
         } catch (Exception e) {
             log.error(e.getLocalizedMessage(), e);
         }
@@ -111,16 +127,31 @@ public class RasterIO {
         if (gdalDataType == null) {
             gdalDataType = GDT_Byte;
         }
-        //must call AllRegister() otherwise GetDriverByName() is null
-        gdal.AllRegister();
+        //drivers must be registered otherwise GetDriverByName() is null
+        GDALRuntime.init();
         Driver tiff = gdal.GetDriverByName("GTiff");
 
         //new write out dataset
+        DatasetCache.getDefault().invalidate(filepath);
         Dataset ds = tiff.Create(filepath, nCols, nRows, 1, gdalDataType);
         ds.SetGeoTransform(geotransform);
         ds.SetProjection(srs.ExportToWkt());
-        ds.GetRasterBand(1).SetNoDataValue(nodataValue);
-        ds.GetRasterBand(1).WriteRaster(0, 0, nCols, nRows, gdalDataType, data);
+        Band band = ds.GetRasterBand(1);
+        band.SetNoDataValue(nodataValue);
+        // rows are written in strips from a pooled direct buffer, GDAL converts Float32 to the band type
+        int stripRows = Math.max(1, Math.min(nRows, RasterWindow.DEFAULT_WINDOW_CELLS / Math.max(1, nCols)));
+        try (DirectBufferPool.Lease lease = DirectBufferPool.getDefault().acquire(stripRows * nCols * Float.BYTES)) {
+            FloatBuffer buffer = lease.asFloatBuffer();
+            for (int row = 0; row < nRows; row += stripRows) {
+                int rows = Math.min(stripRows, nRows - row);
+                buffer.clear();
+                buffer.put(data, row * nCols, rows * nCols);
+                int err = band.WriteRaster_Direct(0, row, nCols, rows, nCols, rows, GDT_Float32, lease.bytes());
+                if (err != gdalconstConstants.CE_None) {
+                    throw new RuntimeException("Write " + filepath + " failed: " + gdal.GetLastErrorMsg());
+                }
+            }
+        }
         ds.FlushCache();
         RasterIO.closeDataSet(ds);
     }
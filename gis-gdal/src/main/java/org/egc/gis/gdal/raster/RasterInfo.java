@@ -23,10 +23,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * @author houzhiwei
@@ -36,6 +37,16 @@ public class RasterInfo {
 
     private static final Logger log = LoggerFactory.getLogger(RasterInfo.class);
 
+    /**
+     * largest safe java array length
+     */
+    private static final long MAX_ARRAY_CELLS = Integer.MAX_VALUE - 8;
+
+    /**
+     * rank error of the quantile breaks written to metadata, see {@link QuantileSketch}
+     */
+    public static final double METADATA_QUANTILE_RANK_ERROR = 0.001;
+
     /**
      * 利用gdal获取栅格数据元数据
      * <br/>
@@ -114,12 +125,38 @@ public class RasterInfo {
             metadata.setNodata(-9999d);
             nodataVal[0]=-9999d;
         }
-        double[] min = new double[1], max = new double[1], mean = new double[1], stddev = new double[1];
-        band.GetStatistics(true, true, min, max, mean, stddev);
-        metadata.setMinValue(min[0]);
-        metadata.setMaxValue(max[0]);
-        metadata.setMeanValue(mean[0]);
-        metadata.setStdev(stddev[0]);
+        if (getUniqueValues || getQuantile || countNodata) {
+            // the band has to be read anyway: compute everything in one pass
+            Quantiles quantiles = getQuantile ? QuantileSketch.withRankError(METADATA_QUANTILE_RANK_ERROR) : null;
+            // a continuous raster drops the unique values within the first blocks, the same pass goes on
+            BandStatistics stats = BandStatistics.compute(dataset, 1, new BandStatistics(nodataVal[0],
+                    getUniqueValues ? new ValueHistogram() : null, quantiles, true));
+            if (stats.isHistogramExceeded()) {
+                log.warn("Unique values skipped: more than {} distinct values",
+                        ValueHistogram.DEFAULT_MAX_CARDINALITY);
+                getUniqueValues = false;
+            }
+            metadata.setMinValue(stats.getMin());
+            metadata.setMaxValue(stats.getMax());
+            metadata.setMeanValue(stats.getMean());
+            metadata.setStdev(stats.getStdDev());
+            if (getUniqueValues) {
+                metadata.setUniqueValues(Joiner.on(" ").join(stats.getUniqueValues()));
+            }
+            if (getQuantile) {
+                metadata.setQuantileBreaks(stats.getQuantileBreaks(4));
+            }
+            if (countNodata) {
+                metadata.setNodataCount(stats.getNodataCount());
+            }
+        } else {
+            double[] min = new double[1], max = new double[1], mean = new double[1], stddev = new double[1];
+            band.GetStatistics(true, true, min, max, mean, stddev);
+            metadata.setMinValue(min[0]);
+            metadata.setMaxValue(max[0]);
+            metadata.setMeanValue(mean[0]);
+            metadata.setStdev(stddev[0]);
+        }
 
         double[] gt = dataset.GetGeoTransform();
        /*
@@ -142,28 +179,9 @@ public class RasterInfo {
         metadata.setHeight(dataset.GetRasterYSize() * gt[5]);
         metadata.setSizeHeight(dataset.GetRasterYSize());
         metadata.setSizeWidth(dataset.GetRasterXSize());
-        float[] dataBuf = null;
-        Double nodata = nodataVal[0];
-        if (getUniqueValues) {
-            dataBuf = readRasterBandBuffer(dataset, 1);
-            metadata.setUniqueValues(Joiner.on(" ").join(getUniqueValues(dataBuf, nodata)));
-        }
-        if (getQuantile) {
-            if (dataBuf == null) {
-                dataBuf = readRasterBandBuffer(dataset, 1);
-            }
-            metadata.setQuantileBreaks(getQuantile(dataBuf, nodata, 4));
-        }
-        if (countNodata) {
-            if (dataBuf == null) {
-                dataBuf = readRasterBandBuffer(dataset, 1);
-            }
-            metadata.setNodataCount(countNodata(dataBuf, nodata));
-        }
         if (closeDataset) {
             RasterIO.closeDataSet(dataset);
         }
-        gdal.GDALDestroyDriverManager();
         return metadata;
     }
 
@@ -282,32 +300,59 @@ public class RasterInfo {
      *
      * @param dataset the raster dataset
      * @return unique values
+     * @throws ValueHistogram.CardinalityExceededException if there are more than {@link ValueHistogram#DEFAULT_MAX_CARDINALITY} values
      */
     public static List<Float> getUniqueValues(Dataset dataset) {
-        Band band = dataset.GetRasterBand(1);
-        Double[] nodataVal = new Double[1];
-        band.GetNoDataValue(nodataVal);
-        Double nodata = nodataVal[0];
+        float[] values = getValueHistogram(dataset, 1, ValueHistogram.DEFAULT_MAX_CARDINALITY).getValues();
+        return new ArrayList<>(Floats.asList(values));
+    }
+
+    /**
+     * Distinct values of an array, not capped (at most one per cell).
+     *
+     * @param dataBuf the values
+     * @param nodata  excluded value, -9999 if null
+     * @return unique values, sorted
+     */
+    public static List<Float> getUniqueValues(float[] dataBuf, Double nodata) {
         if (nodata == null) {
             nodata = -9999d;
         }
-        float[] dataBuf = readRasterBand(dataset, 1);
-        return getUniqueValues(dataBuf, nodata);
+        BandStatistics stats = new BandStatistics(nodata, new ValueHistogram(Math.max(1, dataBuf.length)), null);
+        for (float v : dataBuf) {
+            stats.add(v);
+        }
+        return stats.getUniqueValues();
     }
 
-    public static List<Float> getUniqueValues(float[] dataBuf, Double nodata) {
-        List<Float> dataBufList = Floats.asList(dataBuf);
-        // 只是增加了运行垃圾回收的可能，不保证JVM一定执行
-        System.gc();
-        List<Float> uniqueList = dataBufList.stream().sorted().distinct().collect(Collectors.toList());
-        if (uniqueList.indexOf(nodata.floatValue()) > -1) {
-            uniqueList.remove(uniqueList.indexOf(nodata.floatValue()));
+    /**
+     * Distinct values of a band with their cell counts, computed block by block in parallel.
+     * Cells equal to nodata are excluded. Per-class areas: {@link ValueHistogram#getAreas(double)}.
+     *
+     * @param dataset        the dataset
+     * @param bandIndex      the band index
+     * @param maxCardinality maximum number of distinct values
+     * @return the histogram
+     * @throws ValueHistogram.CardinalityExceededException if there are more distinct values, e.g. a continuous raster
+     */
+    public static ValueHistogram getValueHistogram(Dataset dataset, int bandIndex, int maxCardinality) {
+        Band band = dataset.GetRasterBand(bandIndex);
+        Double[] nodataVal = new Double[1];
+        band.GetNoDataValue(nodataVal);
+        Double nodata = nodataVal[0];
+        if (nodata == null) {
+            nodata = -9999d;
         }
-        return uniqueList;
+        return BandStatistics.compute(dataset, bandIndex,
+                new BandStatistics(nodata, new ValueHistogram(maxCardinality), null)).getHistogram();
     }
 
     /**
      * Read raster band data as float array.
+     * <br/>
+     * The band is read block by block (see {@link BlockReader}) into the returned array.
+     * For rasters that do not fit into one array, or when the whole band is not needed at once,
+     * use {@link BlockReader} directly.
      *
      * @param dataset   the dataset
      * @param bandIndex the band index
@@ -315,17 +360,27 @@ public class RasterInfo {
      */
     public static float[] readRasterBand(Dataset dataset, int bandIndex) {
         Band band = dataset.GetRasterBand(bandIndex);
-        int xSize = dataset.GetRasterXSize();
-        int ySize = dataset.GetRasterYSize();
-        float[] dataBuf = new float[xSize * ySize];
-
-        band.ReadRaster(0, 0, xSize, ySize, dataBuf);
+        int xSize = band.getXSize();
+        int ySize = band.getYSize();
+        long cells = (long) xSize * ySize;
+        if (cells > MAX_ARRAY_CELLS) {
+            throw new IllegalArgumentException(String.format(
+                    "Raster of %d x %d cells does not fit into one array, use BlockReader instead", xSize, ySize));
+        }
+        float[] dataBuf = new float[(int) cells];
+        BlockReader.forEach(band, (window, data) -> {
+            int width = window.getWidth();
+            for (int row = 0; row < window.getHeight(); row++) {
+                data.position(row * width);
+                data.get(dataBuf, (window.getYOff() + row) * xSize + window.getXOff(), width);
+            }
+        });
         return dataBuf;
     }
 
     /**
      * Read raster band buffer float [ ].
-     * TODO
+     * same as {@link #readRasterBand(Dataset, int)}
      *
      * @param dataset   the dataset
      * @param bandIndex the band index
@@ -333,17 +388,27 @@ public class RasterInfo {
      * @see <a href="https://trac.osgeo.org/gdal/browser/trunk/gdal/swig/java/apps/GDALTestIO.java">GDALTestIO</a>
      */
     public static float[] readRasterBandBuffer(Dataset dataset, int bandIndex) {
-        Band band = dataset.GetRasterBand(bandIndex);
-        int xSize = dataset.GetRasterXSize();
-        int ySize = dataset.GetRasterYSize();
-        float[] dataBuf = new float[xSize * ySize];
-        band.ReadRaster(0, 0, xSize, ySize, dataBuf);
-        return dataBuf;
+        return readRasterBand(dataset, bandIndex);
     }
 
-    public static int countNodata(Dataset dataset, int bandIndex, Double nodata) {
-        float[] data = readRasterBandBuffer(dataset, bandIndex);
-        return countNodata(data, nodata);
+    /**
+     * Count nodata cells of a band, tile-parallel.
+     *
+     * @param dataset   the dataset
+     * @param bandIndex the band index
+     * @param nodata    the nodata value
+     * @return number of nodata cells
+     */
+    public static long countNodata(Dataset dataset, int bandIndex, Double nodata) {
+        double nd = nodata;
+        return new TileExecutor().reduce(dataset, bandIndex, () -> new long[1], (count, window, data) -> {
+            FloatBuffer values = data[0];
+            for (int i = 0; i < window.getCellCount(); i++) {
+                if (Math.abs(values.get(i) - nd) < BandStatistics.NODATA_TOLERANCE) {
+                    count[0]++;
+                }
+            }
+        }, (a, b) -> new long[]{a[0] + b[0]})[0];
     }
 
     public static int countNodata(float[] data, Double nodata) {
@@ -357,10 +422,49 @@ public class RasterInfo {
     }
 
     /**
-     * 分位数
-     * <b>注意</b>: 该方法目前对内存空间占用较大，不适用于大文件
+     * Count cells that are not nodata, tile-parallel.
+     *
+     * @param dataset   the dataset
+     * @param bandIndex the band index
+     * @param nodata    the nodata value
+     * @return number of valid cells
+     */
+    static long countValid(Dataset dataset, int bandIndex, float nodata) {
+        return new TileExecutor().reduce(dataset, bandIndex, () -> new long[1], (count, window, data) -> {
+            FloatBuffer values = data[0];
+            for (int i = 0; i < window.getCellCount(); i++) {
+                if (values.get(i) != nodata) {
+                    count[0]++;
+                }
+            }
+        }, (a, b) -> new long[]{a[0] + b[0]})[0];
+    }
+
+    /**
+     * 分位数 (exact)
+     * <b>注意</b>: 精确分位数需要保存所有有效值，大文件请使用 {@link #getQuantile(Dataset, int, double)}
+     *
+     * @param dataset     the dataset
+     * @param numQuantile number of quantiles, e.g. 4
+     * @return breaks separated by space
      */
     public static String getQuantile(Dataset dataset, int numQuantile) {
+        return getQuantile(dataset, numQuantile, new ExactQuantiles());
+    }
+
+    /**
+     * 近似分位数. Block by block, bounded memory, see {@link QuantileSketch}
+     *
+     * @param dataset     the dataset
+     * @param numQuantile number of quantiles, e.g. 4
+     * @param rankError   normalized rank error, e.g. 0.01
+     * @return breaks separated by space
+     */
+    public static String getQuantile(Dataset dataset, int numQuantile, double rankError) {
+        return getQuantile(dataset, numQuantile, QuantileSketch.withRankError(rankError));
+    }
+
+    private static String getQuantile(Dataset dataset, int numQuantile, Quantiles quantiles) {
         Band band = dataset.GetRasterBand(1);
         Double[] nodataVal = new Double[1];
         band.GetNoDataValue(nodataVal);
@@ -368,36 +472,26 @@ public class RasterInfo {
         if (nodata == null) {
             nodata = -9999d;
         }
-        float[] dataBuf = readRasterBand(dataset, 1);
-        return getQuantile(dataBuf, nodata, numQuantile);
+        BandStatistics stats = BandStatistics.compute(dataset, 1, new BandStatistics(nodata, null, quantiles));
+        return stats.getQuantileBreaks(numQuantile);
     }
 
+    /**
+     * exact quantiles of an array, the array is not modified
+     */
     public static String getQuantile(float[] dataBuf, Double nodata, int numQuantile) {
         if (nodata == null) {
             nodata = -9999d;
         }
-        Double[] quantileBreaks = new Double[numQuantile - 1];
-        List<Float> dataBufList = Floats.asList(dataBuf);
-        System.gc();
+        float nd = nodata.floatValue();
         //移除空值, 移除 nodata
-        Double finalNodata = nodata; // lambda 表达式需要
-        List<Float> removedList = dataBufList.stream().filter(x -> {
-            if (x != null) {
-                //为 true 的会被保留
-                return !x.equals(finalNodata.floatValue());
+        ExactQuantiles quantiles = new ExactQuantiles(dataBuf.length);
+        for (float v : dataBuf) {
+            if (v != nd && !Float.isNaN(v)) {
+                quantiles.add(v);
             }
-            return false;
-        }).sorted().collect(Collectors.toList());
-        int size = removedList.size();
-        //分位数位置  (n+1)*p, 0<p<1, 如  0.25, 0.5, 0.75
-        int numDataInQuantile = ((size + 1) / numQuantile);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < numQuantile - 1; i++) {
-            quantileBreaks[i] = (double) (removedList.get((i + 1) * numDataInQuantile));
-            sb.append(" ");
-            sb.append(quantileBreaks[i].toString());
         }
-        return sb.toString().substring(1);
+        return quantiles.breaks(numQuantile);
     }
 
     public static Area getArea(Dataset dataset) {
@@ -409,20 +503,10 @@ public class RasterInfo {
         if (nodata == null) {
             nodata = -9999d;
         }
-        int xSize = dataset.GetRasterXSize();
-        int ySize = dataset.GetRasterYSize();
-
-        float[] dataBuf = new float[xSize * ySize];
         double[] gt = dataset.GetGeoTransform();
-        band.ReadRaster(0, 0, xSize, ySize, dataBuf);
         double wePixelResolution = gt[1];
         double nsPixelResolution = Math.abs(gt[5]);
-        int count = 0;
-        for (float d : dataBuf) {
-            if (d != nodata.floatValue()) {
-                count++;
-            }
-        }
+        long count = countValid(dataset, 1, nodata.floatValue());
         return new Area(count * wePixelResolution * nsPixelResolution, sr.GetLinearUnitsName());
     }
 }
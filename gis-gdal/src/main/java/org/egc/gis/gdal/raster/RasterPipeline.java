@@ -0,0 +1,252 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.BoundingBox;
+import org.egc.gis.gdal.dto.Consts;
+import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.TranslateOptions;
+import org.gdal.gdal.WarpOptions;
+import org.gdal.gdal.gdal;
+import org.gdal.osr.SpatialReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Chain of raster operations evaluated lazily: every step is a VRT (or warped VRT) in /vsimem/ over the
+ * previous one, nothing is computed or written until the sink ({@link #toFile(String)}), which reads the
+ * last VRT block by block and writes the only output file. Replaces a chain like
+ * RasterClip -> ReprojectRaster -> RasterUtils.resample -> RasterFormat, which writes and re-reads a full
+ * GeoTIFF at every step.
+ *
+ * {@code
+ * RasterPipeline.from(src)
+ *     .clip(bbox, 0.2)
+ *     .reproject(3857)
+ *     .resample(30, 30, ResamplingMethods.BILINEAR)
+ *     .toFile(dst, GDALDriversEnum.GTiff);
+ * }
+ *
+ * A pipeline is used once, by one thread. The warp steps use the threads and warp memory of the profile
+ * ({@link WarpProfile#throughput()} by default); its creation options apply to a GeoTIFF sink.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/30 9:20
+ */
+@Slf4j
+public class RasterPipeline {
+
+    private static final String VSIMEM = "/vsimem/pipeline_";
+
+    private final String source;
+    private final String prefix = VSIMEM + UUID.randomUUID() + "_";
+    /**
+     * the source dataset, then one VRT per step
+     */
+    private final List<Dataset> datasets = new ArrayList<>();
+    private final List<String> steps = new ArrayList<>();
+    private WarpProfile profile = WarpProfile.throughput();
+    private boolean consumed;
+
+    private RasterPipeline(String source) {
+        this.source = source;
+        datasets.add(IOFactory.createRasterIO().read(source));
+    }
+
+    /**
+     * Start a pipeline.
+     *
+     * @param src the source raster
+     * @return the pipeline
+     */
+    public static RasterPipeline from(String src) {
+        return new RasterPipeline(src);
+    }
+
+    /**
+     * @param profile threads and memory of the warp steps, output options of the sink
+     * @return this
+     */
+    public RasterPipeline profile(WarpProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Subset by a bounding box in the current coordinate system, without resampling (gdal_translate -projwin).
+     *
+     * @param boundingBox the bounding box
+     * @param expand      see {@link org.egc.gis.gdal.Clip#clipByBoundingBox(String, String, BoundingBox, double)}
+     * @return this
+     */
+    public RasterPipeline clip(BoundingBox boundingBox, double expand) {
+        BoundingBox box = boundingBox.expand(expand);
+        Vector<String> options = new Vector<>();
+        options.add("-projwin");
+        options.add(String.valueOf(box.getMinX()));
+        options.add(String.valueOf(box.getMaxY()));
+        options.add(String.valueOf(box.getMaxX()));
+        options.add(String.valueOf(box.getMinY()));
+        return translate("clip " + box.toMinMaxString(), options);
+    }
+
+    /**
+     * Mask by the polygons of a vector file, cropped to their extent (gdalwarp -cutline -crop_to_cutline).
+     *
+     * @param polygonShp the polygon file
+     * @return this
+     */
+    public RasterPipeline clipByPolygon(String polygonShp) {
+        Vector<String> options = new Vector<>();
+        options.add("-cutline");
+        options.add(polygonShp);
+        options.add("-crop_to_cutline");
+        options.add("-dstnodata");
+        options.add(Consts.NODATA);
+        return warp("clip by " + polygonShp, options);
+    }
+
+    public RasterPipeline reproject(int dstEpsg) {
+        return reproject("EPSG:" + dstEpsg);
+    }
+
+    public RasterPipeline reproject(SpatialReference dstSRS) {
+        return reproject(dstSRS.ExportToWkt());
+    }
+
+    private RasterPipeline reproject(String dstSRS) {
+        Vector<String> options = new Vector<>();
+        options.add("-t_srs");
+        options.add(dstSRS);
+        return warp("reproject", options);
+    }
+
+    /**
+     * @param dx       resolution x
+     * @param dy       resolution y
+     * @param resample regridding/interpolation method, set to "near" if null.
+     *                 use {@link org.egc.gis.gdal.dto.ResamplingMethods}
+     * @return this
+     */
+    public RasterPipeline resample(double dx, double dy, String resample) {
+        Vector<String> options = new Vector<>();
+        options.add("-tr");
+        options.add(String.valueOf(dx));
+        options.add(String.valueOf(dy));
+        options.add("-r");
+        options.add(resample == null ? "near" : resample);
+        return warp("resample", options);
+    }
+
+    /**
+     * Compute the pipeline into a file, format from the extension.
+     *
+     * @param dst the output file
+     * @return the output file
+     */
+    public String toFile(String dst) {
+        GDALDriversEnum format = GDALDriversEnum.lookupByExtension(FilenameUtils.getExtension(dst));
+        return toFile(dst, format == null ? GDALDriversEnum.GTiff : format);
+    }
+
+    /**
+     * Compute the pipeline into a file, then release the intermediate VRTs.
+     *
+     * @param dst    the output file
+     * @param format the output format
+     * @return the output file
+     */
+    public String toFile(String dst, GDALDriversEnum format) {
+        checkNotConsumed();
+        consumed = true;
+        try {
+            Vector<String> options = new Vector<>();
+            options.add("-of");
+            options.add(format.getName());
+            if (format == GDALDriversEnum.GTiff) {
+                for (Map.Entry<String, String> option : profile.getCreationOptions().entrySet()) {
+                    options.add("-co");
+                    options.add(option.getKey() + "=" + option.getValue());
+                }
+            }
+            log.info("Pipeline {} -> {} -> {}", source, steps, dst);
+            DatasetCache.getDefault().invalidate(dst);
+            Dataset output = gdal.Translate(dst, last(), new TranslateOptions(options));
+            if (output == null) {
+                throw new RuntimeException(gdal.GetLastErrorMsg());
+            }
+            output.delete();
+            return dst;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Release the intermediate VRTs without computing, if the pipeline is abandoned.
+     */
+    public void close() {
+        consumed = true;
+        for (int i = datasets.size() - 1; i > 0; i--) {
+            datasets.get(i).delete();
+            gdal.Unlink(prefix + i + ".vrt");
+        }
+        if (!datasets.isEmpty()) {
+            RasterIO.closeDataSet(datasets.get(0));
+        }
+        datasets.clear();
+    }
+
+    private RasterPipeline translate(String step, Vector<String> options) {
+        checkNotConsumed();
+        options.add("-of");
+        options.add(GDALDriversEnum.VRT.getName());
+        return add(step, gdal.Translate(nextName(), last(), new TranslateOptions(options)));
+    }
+
+    private RasterPipeline warp(String step, Vector<String> options) {
+        checkNotConsumed();
+        String name = nextName();
+        profile.appendTo(options, name);
+        // a warped VRT computes on read: -multi does not apply
+        options.remove("-multi");
+        options.add("-of");
+        options.add(GDALDriversEnum.VRT.getName());
+        return add(step, gdal.Warp(name, new Dataset[]{last()}, new WarpOptions(options)));
+    }
+
+    private RasterPipeline add(String step, Dataset dataset) {
+        if (dataset == null) {
+            String error = gdal.GetLastErrorMsg();
+            close();
+            throw new RuntimeException(step + " failed: " + error);
+        }
+        datasets.add(dataset);
+        steps.add(step);
+        return this;
+    }
+
+    private String nextName() {
+        return prefix + datasets.size() + ".vrt";
+    }
+
+    private Dataset last() {
+        return datasets.get(datasets.size() - 1);
+    }
+
+    private void checkNotConsumed() {
+        if (consumed) {
+            throw new IllegalStateException("Pipeline already executed or closed");
+        }
+    }
+}
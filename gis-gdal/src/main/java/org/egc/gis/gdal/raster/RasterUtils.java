@@ -5,6 +5,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.egc.commons.util.StringUtil;
 import org.egc.gis.commons.SpatialArea;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.IOFactory;
 import org.egc.gis.gdal.dto.GDALDriversEnum;
 import org.gdal.gdal.*;
@@ -15,13 +16,13 @@ import org.gdal.ogr.Layer;
 import org.gdal.ogr.ogr;
 import org.gdal.osr.SpatialReference;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.Vector;
 
-import static org.gdal.gdalconst.gdalconstConstants.GDT_Float32;
 import static org.gdal.gdalconst.gdalconstConstants.GMF_NODATA;
 
 /**
@@ -56,7 +57,7 @@ public class RasterUtils {
             outDs.SetProjection(srs.ExportToWkt());
         }
         driver.delete();
-        src.delete();
+        RasterIO.closeDataSet(src);
         outDs.delete();
         log.debug("--------------转换成功--------------");
         return true;
@@ -72,11 +73,14 @@ public class RasterUtils {
      * @return the string
      */
     public static String convertRaster(String inputRaster, String outputRaster, GDALDriversEnum format) {
+        if (format == GDALDriversEnum.COG) {
+            return new CogWriter().write(inputRaster, outputRaster);
+        }
         Dataset ds = IOFactory.createRasterIO().read(inputRaster);
         Driver driver = gdal.GetDriverByName(format.getName());
         Dataset dstDs = driver.CreateCopy(outputRaster, ds, 0);
         driver.delete();
-        ds.delete();
+        RasterIO.closeDataSet(ds);
         dstDs.delete();
         return outputRaster;
     }
@@ -105,6 +109,22 @@ public class RasterUtils {
      *                     use {@link org.egc.gis.gdal.dto.ResamplingMethods}
      */
     public static void resample(String inputRaster, String outputRaster, double dx, double dy, String resample) {
+        resample(inputRaster, outputRaster, dx, dy, resample, WarpProfile.throughput());
+    }
+
+    /**
+     * Resample.
+     *
+     * @param inputRaster  inputRaster
+     * @param outputRaster outputRaster
+     * @param dx           user selected resolution x
+     * @param dy           user selected resolution y
+     * @param resample     regridding/interpolation method, set to "near" if blank.
+     *                     use {@link org.egc.gis.gdal.dto.ResamplingMethods}
+     * @param profile      threads, memory and output options of the warp
+     */
+    public static void resample(String inputRaster, String outputRaster, double dx, double dy, String resample,
+                                WarpProfile profile) {
         if (StringUtils.isBlank(resample)) {
             resample = "near";
         }
@@ -127,10 +147,14 @@ public class RasterUtils {
         options.add(String.valueOf(nodata[0]));
         options.add("-dstnodata");
         options.add(String.valueOf(nodata[0]));
-        WarpOptions warpOptions = new WarpOptions(options);
-        gdal.Warp(outputRaster, new Dataset[]{ds}, warpOptions);
-        ds.delete();
-        gdal.GDALDestroyDriverManager();
+        WarpOptions warpOptions = new WarpOptions(profile.appendTo(options, outputRaster));
+        Dataset dstDs = gdal.Warp(outputRaster, new Dataset[]{ds}, warpOptions);
+        if (dstDs == null) {
+            log.error("Resample {} failed: {}", inputRaster, gdal.GetLastErrorMsg());
+        } else {
+            dstDs.delete();
+        }
+        RasterIO.closeDataSet(ds);
         log.info("DONE");
     }
 
@@ -141,6 +165,7 @@ public class RasterUtils {
      * Polygonize.
      * 每个不同像素值都会成为独立的多边形
      * https://blog.csdn.net/Prince999999/article/details/105822718
+     * Single-threaded, into a shapefile: for large rasters use {@link TiledPolygonizer}
      * @param raster     the raster
      * @param dstShp     the dst shp
      * @param srcBandNum the src band num, set to 1 if <=0 or greater than band count
@@ -167,7 +192,21 @@ public class RasterUtils {
         // 进度条参数
         gdal.Polygonize(srcBand, maskBand, dstLayer, 0);
         dst.delete();
-        ds.delete();
+        RasterIO.closeDataSet(ds);
+    }
+
+
+    /**
+     * Burn the features of a vector file into a raster on the grid of a reference raster (e.g. a DEM),
+     * tile by tile in parallel, see {@link Rasterizer}
+     *
+     * @param vector    the vector file
+     * @param reference the reference raster
+     * @param dst       the dst (tif)
+     * @param attribute numeric field burnt, features are burnt as 1 if null
+     */
+    public static void rasterize(String vector, String reference, String dst, String attribute) {
+        new Rasterizer().attribute(attribute).rasterize(vector, reference, dst);
     }
 
 
@@ -175,72 +214,50 @@ public class RasterUtils {
 
     }
 
+    /**
+     * Binarize the first band: all valid cells are 1, nodata cells stay nodata (-9999)
+     *
+     * @param src the src
+     * @param dst the dst (tif)
+     */
     public static void binarize(String src, String dst) {
-        binarize(src, dst, null, 1);
+        binarize(src, dst, Double.NEGATIVE_INFINITY, 1);
     }
 
     /**
-     * TODO 测试
      * Binarize.
-     * 依据选定的阈值对指定的波段进行二值化
+     * 依据选定的阈值对指定的波段进行二值化: cells &gt;= threshold are 1, others 0, nodata cells stay nodata (-9999)
      * https://gis.stackexchange.com/questions/69062/gdal-polygonize-how-to-filter-pixels-above-a-given-value-elevation
      *
      * @param src       the src
      * @param dst       the dst (tif)
-     * @param threshold the threshold, set to nodata if null
-     * @param band      the band， 0 或 1 都取第一个波段
+     * @param threshold the threshold, not null
+     * @param band      the band， 0 或 超出波段数 都取第一个波段
      */
     public static void binarize(String src, String dst, Double threshold, int band) {
+        if (threshold == null) {
+            throw new IllegalArgumentException("No threshold to binarize " + src);
+        }
         Dataset ds = IOFactory.createRasterIO().read(src);
         if (band <= 0 || band > ds.GetRasterCount()) {
             band = 1;
         }
-        Double[] nodataVal = new Double[1];
-        Band rasterBand = ds.GetRasterBand(band);
-        rasterBand.GetNoDataValue(nodataVal);
-        Double nodata = nodataVal[0];
-        if (nodata == null) {
-            nodata = -9999d;
-        }
-        if (threshold == null) {
-            threshold = nodata;
-        }
-        int xSize = ds.GetRasterXSize();
-        int ySize = ds.GetRasterYSize();
-        float[] data = new float[xSize * ySize];
-        rasterBand.ReadRaster(0, 0, xSize, ySize, data);
-        rasterBand.GetRasterDataType();
-        Driver driver = gdal.GetDriverByName("GTiff");
-
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(xSize * ySize);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        FloatBuffer floatBuffer = byteBuffer.asFloatBuffer();
-
-        //Vector<String> option = new Vector<>();
-        //option.add("INTERLEAVE");
-        //option.add("PIXEL");
-        //Dataset outputDs = driver.Create(dst, xSize, ySize, 1, GDT_Float32, option);
-        Dataset outputDs = driver.Create(dst, xSize, ySize, 1, GDT_Float32);
-        outputDs.SetGeoTransform(ds.GetGeoTransform());
-        outputDs.SetProjection(ds.GetProjectionRef());
-        Band outBand = outputDs.GetRasterBand(1);
-       /* for (int i = 0; i < ySize; i++) {
-            for (int j = 0; j < xSize; j++) {
-                ByteBuffer byteBuffer1 = rasterBand.ReadRaster_Direct(j, i, xSize, 1, GDT_Float32);
-                floatBuffer.put(j, byteBuffer1.getFloat());
-            }
-            outBand.WriteRaster_Direct(0, i, xSize, 1, gdalconst.GDT_Float32, byteBuffer);
-        }*/
-
-        for (int i = 0; i < data.length; i++) {
-            floatBuffer.put(i, data[i] >= threshold ? 1L : 0L);
-        }
-
-        outBand.WriteRaster_Direct(0, 0, xSize, ySize, xSize, ySize, gdalconstConstants.GDT_Float32, byteBuffer);
-
-        RasterIO.closeDataSet(outputDs);
         RasterIO.closeDataSet(ds);
-        driver.delete();
+        new RasterCalculator().calc(Collections.singletonMap("A", src), Collections.singletonMap("A", band),
+                "where(A >= t, 1, 0)", Collections.singletonMap("t", threshold), dst, RasterCalculator.DEFAULT_NODATA);
+    }
+
+    /**
+     * Reclassify by successive ranges: [breaks[0], breaks[1]) is class 1, [breaks[1], breaks[2]) class 2 ...
+     * For value ranges, discrete remap tables and labels, see {@link Reclassifier}
+     *
+     * @param src    the src
+     * @param dst    the dst (tif, Byte, or UInt16 from 255 classes on, see {@link Reclassifier#outputType()})
+     * @param breaks increasing class bounds
+     * @return number of cells of each class
+     */
+    public static SortedMap<Integer, Long> reclassify(String src, String dst, double... breaks) {
+        return Reclassifier.ofBreaks(breaks).reclassify(src, dst);
     }
 
     /**
@@ -248,42 +265,63 @@ public class RasterUtils {
      * [-b band]* [-minsize val]
      * [-ro] [-clean] [-oo NAME=VALUE]* [--help-general] filename [levels]
      * https://gdal.org/programs/gdaladdo.html
+     * <p>
+     * Internal overviews down to 256x256, resampling chosen per band, see {@link OverviewBuilder}
      *
-     * @param src
+     * @param src the raster
+     * @return the levels built
      */
+    public static int[] generateOverview(String src) {
+        return new OverviewBuilder().build(src);
+    }
+
+    /**
+     * see {@link #generateOverview(String, int, String)}
+     *
+     * @param src        the raster
+     * @param srcBandNum not used, resampling is chosen per band
+     * @deprecated use {@link #generateOverview(String)}
+     */
+    @Deprecated
     public static void generateOverview(String src, int srcBandNum) {
-        Dataset ds = IOFactory.createRasterIO().read4Update(src);
-        int bandNum = ds.GetRasterCount();
-        Band srcBand = ds.GetRasterBand(srcBandNum);
-//        gdal.RegenerateOverview(srcBand,)
-        int[] ovrArr = new int[]{1, 2};
-        ds.BuildOverviews(ovrArr);
+        generateOverview(src, srcBandNum, null);
     }
 
-    //TODO test
-    //https://github.com/OSGeo/gdal/blob/master/autotest/gcore/tiff_ovr.py
-    public static String checkOverviews(String src) {
-        Dataset ds = IOFactory.createRasterIO().read(src);
-        for (int i = 0; i < 3; i++) { //?
-            if (ds.GetRasterBand(i).GetOverviewCount() == 2) {
-                return "overviews missing";
-            }
-            Band ovr_band = ds.GetRasterBand(i).GetOverview(0);
-            if (ovr_band.GetXSize() != 10 || ovr_band.GetYSize() != 10) {
-                return String.format("overview wrong size: band %d, overview 0, size = %d * %d,", i, ovr_band.GetXSize(), ovr_band.GetYSize());
-            }
-            if (ovr_band.Checksum() != 1087) {
-                return String.format("overview wrong checksum: band %d, overview 0, checksum = %d,", i, ovr_band.Checksum());
-            }
-            ovr_band = ds.GetRasterBand(i).GetOverview(1);
-            if (ovr_band.GetXSize() != 5 || ovr_band.GetYSize() != 5) {
-                return String.format("overview wrong size: band %d, overview 1, size = %d * %d,", i, ovr_band.GetXSize(), ovr_band.GetYSize());
-            }
-            if (ovr_band.Checksum() != 328) {
-                return String.format("overview wrong checksum: band %d, overview 1, checksum = %d,", i, ovr_band.Checksum());
-            }
+    /**
+     * see {@link #generateOverview(String)}
+     *
+     * @param src        the raster
+     * @param srcBandNum band of the given resampling, starting from 1
+     * @param resampling resampling of the band, e.g. AVERAGE, MODE, NEAREST; chosen from the band if null
+     * @return the levels built
+     */
+    public static int[] generateOverview(String src, int srcBandNum, String resampling) {
+        OverviewBuilder builder = new OverviewBuilder();
+        if (resampling != null) {
+            builder.resampling(srcBandNum, resampling);
         }
-        return "false";
+        return builder.build(src);
+    }
+
+    /**
+     * Check that the overviews built by {@link #generateOverview(String)} exist.
+     *
+     * @param src the raster
+     * @return the missing overviews, empty if complete
+     */
+    public static List<String> validateOverviews(String src) {
+        return OverviewBuilder.validate(src, new OverviewBuilder().getTileSize());
+    }
+
+    /**
+     * @param src the raster
+     * @return the missing overviews separated by "; ", "false" if complete
+     * @deprecated use {@link #validateOverviews(String)}
+     */
+    @Deprecated
+    public static String checkOverviews(String src) {
+        List<String> problems = validateOverviews(src);
+        return problems.isEmpty() ? "false" : String.join("; ", problems);
     }
 
     /**
@@ -310,45 +348,50 @@ public class RasterUtils {
 
     /**
      * 多波段影像融合为一个文件
+     * <pre>
+     * The first band of each input is copied block by block (see {@link BandStacker}), inputs must be aligned.
+     * </pre>
      *
      * @param inputs 多波段影像数据列表
      * @param dst    输出影像
      */
     public static void synthesisBands(List<String> inputs, String dst) {
-        Dataset ds = IOFactory.createRasterIO().read(inputs.get(0));
-        int rasterDataType = ds.GetRasterBand(1).GetRasterDataType();
+        synthesisBands(inputs, dst, false);
+    }
+
+    /**
+     * 多波段影像融合为一个文件
+     *
+     * @param inputs  多波段影像数据列表
+     * @param dst     输出影像
+     * @param vrtOnly write a VRT referencing the inputs (dst with the .vrt extension) instead of copying the pixels
+     * @return the output file
+     */
+    public static String synthesisBands(List<String> inputs, String dst, boolean vrtOnly) {
         if (StringUtils.isEmpty(FilenameUtils.getFullPath(dst))) {
             dst = FilenameUtils.getFullPath(inputs.get(0)) + dst;
         }
-        Driver gTiff = gdal.GetDriverByName("GTiff");
-        Dataset outDs = gTiff.Create(dst, ds.GetRasterXSize(), ds.GetRasterYSize(), inputs.size(), rasterDataType);
-        outDs.SetGeoTransform(ds.GetGeoTransform());
-        outDs.SetProjection(ds.GetProjection());
-        for (int i = 0; i < inputs.size(); i++) {
-            Dataset iDataset = IOFactory.createRasterIO().read(inputs.get(i));
-            Band band = iDataset.GetRasterBand(1);
-            int bandDType = band.GetRasterDataType();
-            int xSize = band.GetXSize();
-            int ySize = band.GetYSize();
-
-            int byteToType = gdal.GetDataTypeSize(bandDType) / 8;
-            byte[] data = new byte[xSize * ySize * byteToType];
-
-            //or
-            // short[] dataBuf = new short[xSize * ySize];
-            // band.ReadRaster(0, 0, xSize, ySize, dataBuf);
-            band.ReadRaster(0, 0, xSize, ySize, bandDType, data);
-
-            outDs.GetRasterBand(i + 1).WriteRaster(0, 0, band.GetXSize(), band.GetYSize(), bandDType, data);
-            RasterIO.closeDataSet(iDataset);
-        }
-        outDs.FlushCache();
-        RasterIO.closeDataSet(ds);
-        log.info("The selected inputs have been systhesised to one tif.");
+        String out = new BandStacker().vrtOnly(vrtOnly).stack(inputs, dst);
+        log.info("The selected inputs have been systhesised to {}.", out);
+        return out;
+    }
+
+    /**
+     * Sample the values of the first band at many points (in the CRS of the raster), reading each needed block once.
+     * See {@link PointSampler} for bilinear sampling, other CRS and point layers.
+     *
+     * @param raster the raster file
+     * @param xs     x coordinates
+     * @param ys     y coordinates
+     * @return the values, NaN outside the raster or on nodata
+     */
+    public static double[] sampleValues(String raster, double[] xs, double[] ys) {
+        return new PointSampler().sample(raster, xs, ys);
     }
 
     /**
      * Convert map coordinates to grid pixel coordinates
+     * (one point; for many points see {@link #sampleValues(String, double[], double[])})
      *
      * @param gt Affine transformation parameters
      * @param X  Abscissa
@@ -384,26 +427,39 @@ public class RasterUtils {
         if (nodata == null) {
             nodata = -9999d;
         }
-        int xSize = dataset.GetRasterXSize();
-        int ySize = dataset.GetRasterYSize();
-
-        float[] dataBuf = new float[xSize * ySize];
         double[] gt = dataset.GetGeoTransform();
-        band.ReadRaster(0, 0, xSize, ySize, dataBuf);
         double wePixelResolution = gt[1];
         double nsPixelResolution = Math.abs(gt[5]);
-        int count = 0;
-        for (float d : dataBuf) {
-            if (d != nodata.floatValue()) {
-                count++;
-            }
-        }
+        long count = RasterInfo.countValid(dataset, 1, nodata.floatValue());
         return new SpatialArea(count * wePixelResolution * nsPixelResolution, sr.GetLinearUnitsName());
     }
 
+    /**
+     * Area of each class of a categorical raster (e.g. land use), from one parallel pass over the band.
+     * Total area without the class breakdown: {@link #getArea(Dataset)}, which has no limit on distinct values.
+     *
+     * @param dataset the dataset
+     * @return area of each value, in ascending value order
+     * @throws ValueHistogram.CardinalityExceededException if there are more than
+     *                                                     {@link ValueHistogram#DEFAULT_MAX_CARDINALITY} distinct values
+     */
+    public static Map<Float, SpatialArea> getClassAreas(Dataset dataset) {
+        SpatialReference sr = new SpatialReference(dataset.GetProjectionRef());
+        double[] gt = dataset.GetGeoTransform();
+        ValueHistogram histogram = RasterInfo.getValueHistogram(dataset, 1, ValueHistogram.DEFAULT_MAX_CARDINALITY);
+        float[] values = histogram.getValues();
+        double[] areas = histogram.getAreas(Math.abs(gt[1] * gt[5]));
+        String unit = sr.GetLinearUnitsName();
+        Map<Float, SpatialArea> result = new LinkedHashMap<>(values.length * 2);
+        for (int i = 0; i < values.length; i++) {
+            result.put(values[i], new SpatialArea(areas[i], unit));
+        }
+        return result;
+    }
+
     public static SpatialArea getArea(String rasterFile) {
         StringUtil.isNullOrEmptyPrecondition(rasterFile, "Raster file must exists");
-        //gdal.AllRegister();
+        GDALRuntime.init();
         final Dataset dataset = gdal.Open(rasterFile, gdalconstConstants.GA_ReadOnly);
         SpatialArea area = getArea(dataset);
         IOFactory.closeDataSet(dataset);
@@ -0,0 +1,142 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import org.gdal.gdal.Band;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description:
+ * <pre>
+ * A rectangular pixel window of a raster band, in pixel/line coordinates.
+ * Windows are aligned to the natural block size of the band (see {@link Band#GetBlockSize(int[], int[])}),
+ * so that each window maps to whole blocks in the underlying file.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/12 10:21
+ */
+@Getter
+public class RasterWindow {
+
+    /**
+     * strips (blocks that span the whole row) are merged up to this number of cells,
+     * so that scanline-organized rasters are not read one row at a time
+     */
+    public static final int DEFAULT_WINDOW_CELLS = 1 << 20;
+
+    /**
+     * sequence number of the window in row-major order
+     */
+    private final int index;
+    private final int xOff;
+    private final int yOff;
+    private final int width;
+    private final int height;
+
+    public RasterWindow(int index, int xOff, int yOff, int width, int height) {
+        this.index = index;
+        this.xOff = xOff;
+        this.yOff = yOff;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return number of cells in the window
+     */
+    public int getCellCount() {
+        return width * height;
+    }
+
+    /**
+     * global (whole raster) cell index of a cell in this window
+     *
+     * @param i          cell index inside the window, row-major
+     * @param rasterXSize the raster x size
+     * @return cell index in the whole raster, as long to avoid overflow on large rasters
+     */
+    public long globalIndex(int i, int rasterXSize) {
+        return (long) (yOff + i / width) * rasterXSize + xOff + i % width;
+    }
+
+    /**
+     * Split the band into block-aligned windows.
+     *
+     * @param band the band
+     * @return windows in row-major order
+     */
+    public static List<RasterWindow> of(Band band) {
+        int[] blockX = new int[1];
+        int[] blockY = new int[1];
+        band.GetBlockSize(blockX, blockY);
+        return of(band.getXSize(), band.getYSize(), blockX[0], blockY[0], DEFAULT_WINDOW_CELLS);
+    }
+
+    /**
+     * Split a raster of the given size into block-aligned windows.
+     *
+     * @param xSize       raster x size
+     * @param ySize       raster y size
+     * @param blockXSize  natural block x size
+     * @param blockYSize  natural block y size
+     * @param maxCells    strips are merged up to this number of cells; tiles larger than it are split by rows
+     * @return windows in row-major order
+     */
+    public static List<RasterWindow> of(int xSize, int ySize, int blockXSize, int blockYSize, int maxCells) {
+        int bx = blockXSize <= 0 ? xSize : Math.min(blockXSize, xSize);
+        int by = blockYSize <= 0 ? 1 : Math.min(blockYSize, ySize);
+        long blockCells = (long) bx * by;
+        if (bx == xSize && blockCells < maxCells) {
+            // scanlines or strips: merge whole blocks vertically
+            by = (int) Math.min(ySize, by * Math.max(1L, maxCells / blockCells));
+        } else if (blockCells > maxCells) {
+            // oversized blocks (e.g. one block for the whole raster): fall back to row bands
+            by = (int) Math.max(1L, maxCells / bx);
+        }
+        List<RasterWindow> windows = new ArrayList<>();
+        int index = 0;
+        for (int y = 0; y < ySize; y += by) {
+            int h = Math.min(by, ySize - y);
+            for (int x = 0; x < xSize; x += bx) {
+                int w = Math.min(bx, xSize - x);
+                windows.add(new RasterWindow(index++, x, y, w, h));
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * @return the largest cell count of the given windows, used to size a reusable buffer
+     */
+    public static int maxCellCount(List<RasterWindow> windows) {
+        int max = 0;
+        for (RasterWindow window : windows) {
+            max = Math.max(max, window.getCellCount());
+        }
+        return max;
+    }
+
+    /**
+     * Block size of a tiled GeoTIFF written in tiles of the given size: the largest multiple of 16, up to 512,
+     * that divides the tile size. Every block then belongs to one tile, so workers writing different tiles
+     * never re-encode the same compressed block.
+     *
+     * @param tileSize tile width and height, a multiple of 16
+     * @return the block width and height
+     */
+    public static int blockSize(int tileSize) {
+        for (int block = Math.min(tileSize, 512) / 16 * 16; block > 16; block -= 16) {
+            if (tileSize % block == 0) {
+                return block;
+            }
+        }
+        return 16;
+    }
+
+    @Override
+    public String toString() {
+        return "window " + index + ": [" + xOff + ", " + yOff + ", " + width + ", " + height + "]";
+    }
+}
@@ -0,0 +1,370 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.egc.gis.gdal.vector.VectorIO;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Layer;
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description:
+ * <pre>
+ * Burns vector features (watershed polygons, masks, road networks ...) into a raster aligned to the grid of a
+ * reference raster (same size, geotransform and CRS, e.g. a DEM).
+ *
+ * The grid is split into tiles rasterized concurrently: each worker has its own handle of the vector file, sets
+ * the spatial filter of the layer to the extent of its tile and rasterizes only the features of the tile
+ * (gdal.RasterizeLayer into a MEM tile), so a layer with millions of features is never burnt in one pass.
+ * Tiles without features are written as the background. The output is a tiled, compressed GeoTIFF.
+ *
+ * Features are burnt with a fixed value or the value of an attribute; in all-touched mode every cell touched
+ * by a feature is burnt, not only the cells whose center is inside. Layers in another CRS are reprojected.
+ * The output has no nodata unless {@link #nodata(Double)} is set: a burnt value equal to the background
+ * is a value like any other.
+ *
+ * {@code new Rasterizer().attribute("BASIN_ID").rasterize("basins.shp", "dem.tif", "basins.tif");}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/11 9:40
+ */
+@Slf4j
+@Getter
+public class Rasterizer {
+
+    /**
+     * points per tile edge transformed to find the extent of a tile in the CRS of the layer
+     */
+    private static final int EDGE_POINTS = 8;
+
+    private double burnValue = 1;
+    private String attribute;
+    private boolean allTouched;
+    private double background;
+    private Double nodata;
+    /**
+     * GDT_*, chosen from the burn values if not set
+     */
+    private Integer dataType;
+    private String where;
+    private int layerIndex;
+    private int tileSize = 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param burnValue value of the cells covered by features, 1 by default
+     */
+    public Rasterizer burnValue(double burnValue) {
+        this.burnValue = burnValue;
+        return this;
+    }
+
+    /**
+     * @param attribute numeric field burnt instead of {@link #burnValue(double)}
+     */
+    public Rasterizer attribute(String attribute) {
+        this.attribute = attribute;
+        return this;
+    }
+
+    public Rasterizer allTouched(boolean allTouched) {
+        this.allTouched = allTouched;
+        return this;
+    }
+
+    /**
+     * @param background value of the cells not covered by features, 0 by default
+     */
+    public Rasterizer background(double background) {
+        this.background = background;
+        return this;
+    }
+
+    /**
+     * @param nodata nodata of the output, e.g. the background when it means "no feature"; null (default) for none
+     */
+    public Rasterizer nodata(Double nodata) {
+        this.nodata = nodata;
+        return this;
+    }
+
+    /**
+     * @param dataType output data type, e.g. gdalconstConstants.GDT_Int32
+     */
+    public Rasterizer dataType(int dataType) {
+        this.dataType = dataType;
+        return this;
+    }
+
+    /**
+     * @param where attribute filter of the features, SQL WHERE syntax
+     */
+    public Rasterizer where(String where) {
+        this.where = where;
+        return this;
+    }
+
+    public Rasterizer layerIndex(int layerIndex) {
+        this.layerIndex = layerIndex;
+        return this;
+    }
+
+    /**
+     * @param tileSize tile width and height in cells, a multiple of 16; see {@link RasterWindow#blockSize(int)}
+     */
+    public Rasterizer tileSize(int tileSize) {
+        if (tileSize <= 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("Tile size must be a positive multiple of 16: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    public Rasterizer parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Rasterize a vector file on the grid of a reference raster.
+     *
+     * @param vector    the vector file
+     * @param reference the reference raster
+     * @param dst       the output GeoTIFF
+     * @return the output file
+     */
+    public String rasterize(String vector, String reference, String dst) {
+        GDALRuntime.init();
+        Dataset ref = IOFactory.createRasterIO().read(reference);
+        try {
+            return rasterize(vector, ref.GetGeoTransform(), ref.GetRasterXSize(), ref.GetRasterYSize(),
+                    ref.GetProjectionRef(), dst);
+        } finally {
+            RasterIO.closeDataSet(ref);
+        }
+    }
+
+    /**
+     * Rasterize a vector file on a grid.
+     *
+     * @param vector the vector file
+     * @param gt     geotransform of the grid
+     * @param xSize  number of columns
+     * @param ySize  number of rows
+     * @param wkt    CRS of the grid
+     * @param dst    the output GeoTIFF
+     * @return the output file
+     */
+    public String rasterize(String vector, double[] gt, int xSize, int ySize, String wkt, String dst) {
+        GDALRuntime.init();
+        long start = System.currentTimeMillis();
+        int type = dataType != null ? dataType : defaultType();
+        int block = RasterWindow.blockSize(tileSize);
+        DatasetCache.getDefault().invalidate(dst);
+        Dataset out = gdal.GetDriverByName("GTiff").Create(dst, xSize, ySize, 1, type,
+                new String[]{"TILED=YES", "BLOCKXSIZE=" + block, "BLOCKYSIZE=" + block, "COMPRESS=DEFLATE",
+                        "BIGTIFF=IF_SAFER"});
+        if (out == null) {
+            throw new RuntimeException("Create " + dst + " failed: " + gdal.GetLastErrorMsg());
+        }
+        try {
+            out.SetGeoTransform(gt);
+            if (wkt != null && !wkt.isEmpty()) {
+                out.SetProjection(wkt);
+            }
+            Band output = out.GetRasterBand(1);
+            if (nodata != null) {
+                output.SetNoDataValue(nodata);
+            }
+            List<RasterWindow> tiles = RasterWindow.of(xSize, ySize, tileSize, tileSize, tileSize * tileSize);
+            AtomicInteger burnt = new AtomicInteger();
+            ParallelWorkers.forEach(tiles.size(), parallelism, () -> new Worker(vector, wkt, type),
+                    (worker, index) -> worker.tile(tiles.get((int) index), gt, wkt, type, burnt, output));
+            out.FlushCache();
+            log.info("Rasterized {} into {} ({}x{}): {} of {} tiles with features, in {} ms", vector, dst, xSize,
+                    ySize, burnt.get(), tiles.size(), System.currentTimeMillis() - start);
+            return dst;
+        } finally {
+            out.delete();
+            DatasetCache.getDefault().invalidate(dst);
+        }
+    }
+
+    /**
+     * Byte for integer burn values, background and nodata in 0-255, Float32 otherwise
+     */
+    private int defaultType() {
+        if (attribute != null) {
+            return gdalconstConstants.GDT_Float32;
+        }
+        for (double v : new double[]{burnValue, background, nodata == null ? background : nodata}) {
+            if (v < 0 || v > 255 || v != Math.rint(v)) {
+                return gdalconstConstants.GDT_Float32;
+            }
+        }
+        return gdalconstConstants.GDT_Byte;
+    }
+
+    /**
+     * the state of one worker: its own handle of the vector file, filtered, and buffers of the output type,
+     * so that values are copied without conversion
+     */
+    private class Worker implements AutoCloseable {
+        private final DataSource ds;
+        private final Layer layer;
+        private final CoordinateTransformation toLayer;
+        private final Vector<String> options = new Vector<>();
+        private final org.gdal.gdal.Driver mem = gdal.GetDriverByName(GDALDriversEnum.MEM.getName());
+        private final DirectBufferPool.Lease lease;
+        /**
+         * a tile of background values, written for the tiles without features
+         */
+        private final DirectBufferPool.Lease empty;
+
+        Worker(String vector, String wkt, int type) {
+            ds = new VectorIO().read(vector);
+            if (ds == null) {
+                throw new RuntimeException("Open " + vector + " failed: " + gdal.GetLastErrorMsg());
+            }
+            layer = ds.GetLayer(layerIndex);
+            if (layer == null) {
+                ds.delete();
+                throw new IllegalArgumentException("No layer " + layerIndex + " in " + vector);
+            }
+            if (where != null && layer.SetAttributeFilter(where) != 0) {
+                ds.delete();
+                throw new IllegalArgumentException("Invalid filter " + where + ": " + gdal.GetLastErrorMsg());
+            }
+            toLayer = transformation(wkt, layer.GetSpatialRef());
+            if (allTouched) {
+                options.add("ALL_TOUCHED=TRUE");
+            }
+            if (attribute != null) {
+                options.add("ATTRIBUTE=" + attribute);
+            }
+            int bytes = tileSize * tileSize * (gdal.GetDataTypeSize(type) / 8);
+            lease = DirectBufferPool.getDefault().acquire(bytes);
+            empty = DirectBufferPool.getDefault().acquire(bytes);
+            Dataset tileDs = mem.Create("", tileSize, tileSize, 1, type);
+            try {
+                tileDs.GetRasterBand(1).Fill(background);
+                check(tileDs.GetRasterBand(1).ReadRaster_Direct(0, 0, tileSize, tileSize, tileSize, tileSize,
+                        type, empty.bytes()), "Fill background");
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            } finally {
+                tileDs.delete();
+            }
+        }
+
+        void tile(RasterWindow tile, double[] gt, String wkt, int type, AtomicInteger burnt, Band output) {
+            int w = tile.getWidth();
+            int h = tile.getHeight();
+            double[] tileGt = {gt[0] + tile.getXOff() * gt[1] + tile.getYOff() * gt[2], gt[1], gt[2],
+                    gt[3] + tile.getXOff() * gt[4] + tile.getYOff() * gt[5], gt[4], gt[5]};
+            double[] extent = extent(tileGt, w, h, toLayer);
+            layer.SetSpatialFilterRect(extent[0], extent[1], extent[2], extent[3]);
+            layer.ResetReading();
+            Feature first = layer.GetNextFeature();
+            // all values of the empty tile are the same: its first w x h values are the tile
+            DirectBufferPool.Lease values = first == null ? empty : lease;
+            if (first != null) {
+                first.delete();
+                burnt.incrementAndGet();
+                Dataset tileDs = mem.Create("", w, h, 1, type);
+                try {
+                    tileDs.SetGeoTransform(tileGt);
+                    if (wkt != null && !wkt.isEmpty()) {
+                        tileDs.SetProjection(wkt);
+                    }
+                    tileDs.GetRasterBand(1).Fill(background);
+                    check(gdal.RasterizeLayer(tileDs, new int[]{1}, layer, new double[]{burnValue}, options),
+                            "Rasterize " + tile);
+                    lease.bytes().clear();
+                    check(tileDs.GetRasterBand(1).ReadRaster_Direct(0, 0, w, h, w, h, type, lease.bytes()),
+                            "Read " + tile);
+                } finally {
+                    tileDs.delete();
+                }
+            }
+            values.bytes().clear();
+            int err;
+            synchronized (output) {
+                err = output.WriteRaster_Direct(tile.getXOff(), tile.getYOff(), w, h, w, h, type, values.bytes());
+            }
+            check(err, "Write " + tile);
+        }
+
+        @Override
+        public void close() {
+            empty.close();
+            lease.close();
+            if (toLayer != null) {
+                toLayer.delete();
+            }
+            ds.delete();
+        }
+    }
+
+    /**
+     * extent of a tile in the CRS of the layer: minX, minY, maxX, maxY
+     */
+    private static double[] extent(double[] gt, int w, int h, CoordinateTransformation toLayer) {
+        double[] extent = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        double[] point = new double[3];
+        // points along the edges: a reprojected edge is not straight
+        int steps = toLayer == null ? 1 : EDGE_POINTS;
+        for (int k = 0; k <= steps; k++) {
+            double t = (double) k / steps;
+            double[][] pixels = {{t * w, 0}, {t * w, h}, {0, t * h}, {w, t * h}};
+            for (double[] p : pixels) {
+                point[0] = gt[0] + p[0] * gt[1] + p[1] * gt[2];
+                point[1] = gt[3] + p[0] * gt[4] + p[1] * gt[5];
+                point[2] = 0;
+                if (toLayer != null) {
+                    toLayer.TransformPoint(point);
+                }
+                extent[0] = Math.min(extent[0], point[0]);
+                extent[1] = Math.min(extent[1], point[1]);
+                extent[2] = Math.max(extent[2], point[0]);
+                extent[3] = Math.max(extent[3], point[1]);
+            }
+        }
+        return extent;
+    }
+
+    private static CoordinateTransformation transformation(String rasterWkt, SpatialReference layerSrs) {
+        if (layerSrs == null || rasterWkt == null || rasterWkt.isEmpty()) {
+            return null;
+        }
+        SpatialReference rasterSrs = new SpatialReference(rasterWkt);
+        try {
+            return layerSrs.IsSame(rasterSrs) == 1 ? null : new CoordinateTransformation(rasterSrs, layerSrs);
+        } finally {
+            rasterSrs.delete();
+        }
+    }
+
+    private static void check(int err, String step) {
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException(step + " failed: " + gdal.GetLastErrorMsg());
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.RasterAttributeTable;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Description:
+ * <pre>
+ * Reclassification of a raster band by value ranges and/or discrete values, e.g. land cover codes or slope
+ * classes into model classes.
+ *
+ * The rules are compiled once into a lookup: a direct index table when all rules are integer values within
+ * 65536 of each other (e.g. land cover codes), otherwise sorted intervals searched by bisection.
+ * Blocks are then reclassified in parallel by a {@link TileExecutor}. Nodata stays nodata; values matched by
+ * no rule become {@link #otherwise(int)} or nodata. Blocks are read as Float32, so rule bounds are rounded to
+ * Float32 too: {@code value(0.1, 1)} matches the cells of 0.1 of a Float32 raster.
+ * The output is Byte when the classes fit in 0-254, UInt16 otherwise (the largest value is the nodata).
+ * Cells of each class are counted in the same pass and written with the labels as the raster attribute table.
+ *
+ * {@code
+ * new Reclassifier().range(0, 5, 1).range(5, 15, 2).range(15, 90, 3)
+ *     .label(1, "flat").label(2, "gentle").label(3, "steep")
+ *     .reclassify("slope.tif", "slope_classes.tif");
+ * }
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/10 9:10
+ */
+@Slf4j
+public class Reclassifier {
+
+    /**
+     * unmatched value in the lookup
+     */
+    public static final int NO_CLASS = -1;
+    public static final int MAX_CLASS = 65534;
+    private static final int MAX_DIRECT_SPAN = 1 << 16;
+
+    private final List<double[]> ranges = new ArrayList<>();
+    private final List<Integer> rangeClasses = new ArrayList<>();
+    @Getter
+    private final Map<Integer, String> labels = new HashMap<>();
+    @Getter
+    private int otherwise = NO_CLASS;
+    @Getter
+    private int band = 1;
+    @Getter
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * compiled lookup, rebuilt when rules change
+     */
+    private volatile Lookup lookup;
+
+    /**
+     * Classes of successive ranges: [breaks[0], breaks[1]) is class 1, [breaks[1], breaks[2]) class 2 ...
+     * and the last range includes its upper bound.
+     *
+     * @param breaks increasing bounds
+     * @return the reclassifier
+     */
+    public static Reclassifier ofBreaks(double... breaks) {
+        Reclassifier reclassifier = new Reclassifier();
+        for (int i = 0; i + 1 < breaks.length; i++) {
+            double max = i + 2 == breaks.length ? Math.nextUp((float) breaks[i + 1]) : breaks[i + 1];
+            reclassifier.range(breaks[i], max, i + 1);
+        }
+        return reclassifier;
+    }
+
+    /**
+     * Values in [min, max) become the class.
+     */
+    public synchronized Reclassifier range(double min, double max, int value) {
+        if (!(min < max)) {
+            throw new IllegalArgumentException("Empty range [" + min + ", " + max + ")");
+        }
+        checkClass(value);
+        ranges.add(new double[]{min, max});
+        rangeClasses.add(value);
+        lookup = null;
+        return this;
+    }
+
+    /**
+     * The value (as Float32) becomes the class.
+     */
+    public Reclassifier value(double from, int to) {
+        return range(from, Math.nextUp((float) from), to);
+    }
+
+    /**
+     * A discrete remap table, e.g. land cover code to class.
+     */
+    public Reclassifier values(Map<? extends Number, Integer> table) {
+        for (Map.Entry<? extends Number, Integer> entry : table.entrySet()) {
+            value(entry.getKey().doubleValue(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * @param value class of the values matched by no rule; nodata if not set
+     */
+    public synchronized Reclassifier otherwise(int value) {
+        checkClass(value);
+        this.otherwise = value;
+        lookup = null;
+        return this;
+    }
+
+    /**
+     * @param value class
+     * @param label name of the class in the attribute table
+     */
+    public Reclassifier label(int value, String label) {
+        labels.put(value, label);
+        return this;
+    }
+
+    public Reclassifier band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    public Reclassifier parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    private static void checkClass(int value) {
+        if (value < 0 || value > MAX_CLASS) {
+            throw new IllegalArgumentException("Classes must be in [0, " + MAX_CLASS + "]: " + value);
+        }
+    }
+
+    /**
+     * @param value a raster value, compared as Float32
+     * @return its class, {@link #NO_CLASS} if matched by no rule and no {@link #otherwise(int)}
+     */
+    public int classOf(double value) {
+        return compile().classOf((float) value);
+    }
+
+    /**
+     * @return whether the rules compile to a direct index table (otherwise sorted intervals)
+     */
+    public boolean isDirect() {
+        return compile().direct != null;
+    }
+
+    /**
+     * @return GDT_Byte if all classes are below 255, GDT_UInt16 otherwise
+     */
+    public int outputType() {
+        return compile().maxClass < 255 ? gdalconstConstants.GDT_Byte : gdalconstConstants.GDT_UInt16;
+    }
+
+    private Lookup compile() {
+        Lookup compiled = lookup;
+        if (compiled == null) {
+            synchronized (this) {
+                if (lookup == null) {
+                    lookup = new Lookup(ranges, rangeClasses, otherwise);
+                }
+                compiled = lookup;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Reclassify a raster into a GeoTIFF with a raster attribute table.
+     *
+     * @param src the input raster
+     * @param dst the output GeoTIFF
+     * @return number of cells of each class
+     */
+    public SortedMap<Integer, Long> reclassify(String src, String dst) {
+        GDALRuntime.init();
+        Lookup compiled = compile();
+        if (compiled.maxClass < 0) {
+            throw new IllegalStateException("No reclassification rule");
+        }
+        long start = System.currentTimeMillis();
+        int type = outputType();
+        int outNodata = type == gdalconstConstants.GDT_Byte ? 255 : 65535;
+        Dataset in = IOFactory.createRasterIO().read(src);
+        Dataset out = null;
+        try {
+            Double[] nodata = new Double[1];
+            in.GetRasterBand(band).GetNoDataValue(nodata);
+            double inNodata = nodata[0] == null ? Double.NaN : nodata[0];
+            DatasetCache.getDefault().invalidate(dst);
+            out = gdal.GetDriverByName("GTiff").Create(dst, in.GetRasterXSize(), in.GetRasterYSize(), 1, type,
+                    new String[]{"TILED=YES", "COMPRESS=LZW", "BIGTIFF=IF_SAFER"});
+            if (out == null) {
+                throw new RuntimeException("Create " + dst + " failed: " + gdal.GetLastErrorMsg());
+            }
+            out.SetGeoTransform(in.GetGeoTransform());
+            out.SetProjection(in.GetProjectionRef());
+            Band outBand = out.GetRasterBand(1);
+            outBand.SetNoDataValue(outNodata);
+
+            List<long[]> counts = Collections.synchronizedList(new ArrayList<>());
+            TileExecutor executor = new TileExecutor(parallelism);
+            executor.map(new Dataset[]{in}, new int[]{band}, outBand, () -> {
+                long[] count = new long[compiled.maxClass + 1];
+                counts.add(count);
+                return (window, data, output) -> compiled.apply(data[0], inNodata, window.getCellCount(), output,
+                        outNodata, count);
+            });
+            SortedMap<Integer, Long> result = new TreeMap<>();
+            for (long[] count : counts) {
+                for (int c = 0; c < count.length; c++) {
+                    if (count[c] > 0) {
+                        result.merge(c, count[c], Long::sum);
+                    }
+                }
+            }
+            writeAttributeTable(outBand, compiled, result);
+            log.info("Reclassified {} into {} classes in {} ms ({} lookup): {}", src, result.size(),
+                    System.currentTimeMillis() - start, compiled.direct != null ? "direct" : "interval", dst);
+            return result;
+        } finally {
+            if (out != null) {
+                RasterIO.closeDataSet(out);
+            }
+            RasterIO.closeDataSet(in);
+            DatasetCache.getDefault().invalidate(dst);
+        }
+    }
+
+    /**
+     * one row per class of the rules and per other class in the raster ({@link #otherwise(int)}):
+     * Value, Count, Label
+     */
+    private void writeAttributeTable(Band band, Lookup compiled, Map<Integer, Long> counts) {
+        SortedSet<Integer> classes = new TreeSet<>(counts.keySet());
+        for (int value : compiled.classes) {
+            classes.add(value);
+        }
+        RasterAttributeTable rat = new RasterAttributeTable();
+        rat.CreateColumn("Value", gdalconstConstants.GFT_Integer, gdalconstConstants.GFU_MinMax);
+        rat.CreateColumn("Count", gdalconstConstants.GFT_Real, gdalconstConstants.GFU_PixelCount);
+        rat.CreateColumn("Label", gdalconstConstants.GFT_String, gdalconstConstants.GFU_Name);
+        rat.SetRowCount(classes.size());
+        int row = 0;
+        for (int value : classes) {
+            Long count = counts.get(value);
+            rat.SetValueAsInt(row, 0, value);
+            // Real: counts may exceed an int
+            rat.SetValueAsDouble(row, 1, count == null ? 0 : count);
+            rat.SetValueAsString(row, 2, labels.getOrDefault(value, String.valueOf(value)));
+            row++;
+        }
+        if (band.SetDefaultRAT(rat) != gdalconstConstants.CE_None) {
+            log.warn("Write attribute table failed: {}", gdal.GetLastErrorMsg());
+        }
+        rat.delete();
+    }
+
+    /**
+     * the compiled rules, immutable
+     */
+    private static class Lookup {
+        private final int otherwise;
+        /**
+         * direct index: class of value (min + i), or null for intervals
+         */
+        private final int[] direct;
+        private final int directMin;
+        /**
+         * sorted, disjoint [lows[i], highs[i]) intervals, in Float32 as the values
+         */
+        private final float[] lows;
+        private final float[] highs;
+        private final int[] values;
+        private final int maxClass;
+        /**
+         * distinct classes, sorted
+         */
+        private final int[] classes;
+
+        Lookup(List<double[]> ranges, List<Integer> rangeClasses, int otherwise) {
+            this.otherwise = otherwise;
+            int n = ranges.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Double.compare(ranges.get(x)[0], ranges.get(y)[0]));
+            lows = new float[n];
+            highs = new float[n];
+            values = new int[n];
+            boolean discrete = n > 0;
+            for (int k = 0; k < n; k++) {
+                double[] range = ranges.get(order[k]);
+                lows[k] = (float) range[0];
+                highs[k] = (float) range[1];
+                values[k] = rangeClasses.get(order[k]);
+                if (k > 0 && lows[k] < highs[k - 1]) {
+                    throw new IllegalArgumentException("Overlapping rules at " + lows[k]);
+                }
+                discrete &= lows[k] == Math.rint(lows[k]) && highs[k] == Math.nextUp(lows[k]);
+            }
+            if (discrete && highs[n - 1] - lows[0] <= MAX_DIRECT_SPAN) {
+                directMin = (int) lows[0];
+                direct = new int[(int) lows[n - 1] - directMin + 1];
+                Arrays.fill(direct, otherwise);
+                for (int k = 0; k < n; k++) {
+                    direct[(int) lows[k] - directMin] = values[k];
+                }
+            } else {
+                directMin = 0;
+                direct = null;
+            }
+            classes = Arrays.stream(values).distinct().sorted().toArray();
+            maxClass = Math.max(otherwise, classes.length == 0 ? NO_CLASS : classes[classes.length - 1]);
+        }
+
+        int classOf(float v) {
+            if (direct != null) {
+                int i = (int) v - directMin;
+                return v == Math.rint(v) && i >= 0 && i < direct.length ? direct[i] : otherwise;
+            }
+            // the last interval starting at or before v
+            int lo = 0;
+            int hi = lows.length - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lows[mid] <= v) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found >= 0 && v < highs[found] ? values[found] : otherwise;
+        }
+
+        void apply(FloatBuffer in, double nodata, int n, FloatBuffer out, int outNodata, long[] count) {
+            boolean hasNodata = !Double.isNaN(nodata);
+            for (int i = 0; i < n; i++) {
+                float v = in.get(i);
+                int c = v != v || (hasNodata && Math.abs(v - nodata) < BandStatistics.NODATA_TOLERANCE)
+                        ? NO_CLASS : classOf(v);
+                if (c == NO_CLASS) {
+                    out.put(i, outNodata);
+                } else {
+                    out.put(i, c);
+                    count[c]++;
+                }
+            }
+        }
+    }
+}
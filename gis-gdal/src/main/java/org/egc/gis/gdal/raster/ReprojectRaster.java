@@ -71,6 +71,7 @@ public class ReprojectRaster {
         dstDs.SetProjection(srcSRS.ExportToWkt());
         // Perform the projection/resampling
         gdal.ReprojectImage(ds, dstDs, dstSRS.ExportToWkt(), srcSRS.ExportToWkt(), gdalconst.GRA_Bilinear);
+        RasterIO.closeDataSet(ds);
     }
 
     /**
@@ -82,16 +83,34 @@ public class ReprojectRaster {
      * @param dstEpsg the dst epsg
      */
     public static void reprojectWithWarp(String srcFile, String dstFile, int dstEpsg) {
+        reprojectWithWarp(srcFile, dstFile, dstEpsg, WarpProfile.throughput());
+    }
+
+    /**
+     * Reproject.
+     * use gdal.Warp
+     *
+     * @param srcFile the src file
+     * @param dstFile the dst file
+     * @param dstEpsg the dst epsg
+     * @param profile threads, memory and output options of the warp
+     */
+    public static void reprojectWithWarp(String srcFile, String dstFile, int dstEpsg, WarpProfile profile) {
         Dataset ds = IOFactory.createRasterIO().read(srcFile);
         Vector<String> v = new Vector<>();
         v.add("-t_srs");
         v.add("EPSG:" + dstEpsg);
         v.add("-overwrite");
-        WarpOptions options = new WarpOptions(v);
+        WarpOptions options = new WarpOptions(profile.appendTo(v, dstFile));
         Dataset[] datasets = new Dataset[]{ds};
-        gdal.Warp(dstFile, datasets, options);
+        Dataset dstDs = gdal.Warp(dstFile, datasets, options);
+        if (dstDs == null) {
+            log.error("Reproject {} failed: {}", srcFile, gdal.GetLastErrorMsg());
+        } else {
+            dstDs.delete();
+        }
         //关闭数据集
-        ds.delete();
+        RasterIO.closeDataSet(ds);
     }
 
     /**
@@ -0,0 +1,231 @@
+package org.egc.gis.gdal.raster;
+
+/**
+ * Description:
+ * <pre>
+ * Terrain derivatives of a DEM, as kernels of the {@link FocalEngine}.
+ *
+ * The 3x3 kernels name the window
+ *   a b c
+ *   d e f
+ *   g h i
+ * (north up). Missing neighbors (nodata, outside the raster) take the value of the center cell, so that the
+ * border of the data is not lost; a missing center gives nodata.
+ * Gradients are Horn's (1981), as gdaldem and ArcGIS; curvatures are Zevenbergen and Thorne's (1987), in 1/m.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/9 10:30
+ */
+public final class TerrainKernels {
+
+    private TerrainKernels() {
+    }
+
+    /**
+     * @return slope in degrees
+     */
+    public static FocalEngine.Kernel slope() {
+        return new Window3x3("slope") {
+            @Override
+            float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                          double cellX, double cellY) {
+                double dx = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * cellX);
+                double dy = ((g + 2 * h + i) - (a + 2 * b + c)) / (8 * cellY);
+                return (float) Math.toDegrees(Math.atan(Math.sqrt(dx * dx + dy * dy)));
+            }
+        };
+    }
+
+    /**
+     * @return aspect in degrees clockwise from the north, -1 on flat cells
+     */
+    public static FocalEngine.Kernel aspect() {
+        return new Window3x3("aspect") {
+            @Override
+            float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                          double cellX, double cellY) {
+                double dx = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * cellX);
+                double dy = ((g + 2 * h + i) - (a + 2 * b + c)) / (8 * cellY);
+                if (dx == 0 && dy == 0) {
+                    return -1;
+                }
+                double aspect = Math.toDegrees(Math.atan2(dy, -dx));
+                aspect = aspect > 90 ? 450 - aspect : 90 - aspect;
+                return aspect >= 360 ? 0 : (float) aspect;
+            }
+        };
+    }
+
+    /**
+     * @return hillshade from the north-west (azimuth 315, altitude 45), 0 to 255
+     */
+    public static FocalEngine.Kernel hillshade() {
+        return hillshade(315, 45, 1);
+    }
+
+    /**
+     * @param azimuth  direction of the light in degrees clockwise from the north
+     * @param altitude elevation of the light in degrees above the horizon
+     * @param zFactor  vertical exaggeration
+     * @return illumination, 0 to 255
+     */
+    public static FocalEngine.Kernel hillshade(double azimuth, double altitude, double zFactor) {
+        double zenith = Math.toRadians(90 - altitude);
+        double cosZenith = Math.cos(zenith);
+        double sinZenith = Math.sin(zenith);
+        double light = Math.toRadians((450 - azimuth) % 360);
+        return new Window3x3("hillshade") {
+            @Override
+            float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                          double cellX, double cellY) {
+                double dx = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * cellX) * zFactor;
+                double dy = ((g + 2 * h + i) - (a + 2 * b + c)) / (8 * cellY) * zFactor;
+                double slope = Math.atan(Math.sqrt(dx * dx + dy * dy));
+                double aspect = Math.atan2(dy, -dx);
+                double shade = cosZenith * Math.cos(slope) + sinZenith * Math.sin(slope) * Math.cos(light - aspect);
+                return (float) Math.max(0, 255 * shade);
+            }
+        };
+    }
+
+    /**
+     * @return profile curvature (along the slope), negative where the surface is convex upward
+     */
+    public static FocalEngine.Kernel profileCurvature() {
+        return new Window3x3("profile curvature") {
+            @Override
+            float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                          double cellX, double cellY) {
+                double dd = ((d + f) / 2.0 - e) / (cellX * cellX);
+                double ee = ((b + h) / 2.0 - e) / (cellY * cellY);
+                double ff = (-a + c + g - i) / (4 * cellX * cellY);
+                double gg = (f - d) / (2 * cellX);
+                double hh = (b - h) / (2 * cellY);
+                double gradient = gg * gg + hh * hh;
+                return gradient == 0 ? 0 : (float) (-2 * (dd * gg * gg + ee * hh * hh + ff * gg * hh) / gradient);
+            }
+        };
+    }
+
+    /**
+     * @return plan curvature (across the slope), positive where the surface is convex sideward
+     */
+    public static FocalEngine.Kernel planCurvature() {
+        return new Window3x3("plan curvature") {
+            @Override
+            float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                          double cellX, double cellY) {
+                double dd = ((d + f) / 2.0 - e) / (cellX * cellX);
+                double ee = ((b + h) / 2.0 - e) / (cellY * cellY);
+                double ff = (-a + c + g - i) / (4 * cellX * cellY);
+                double gg = (f - d) / (2 * cellX);
+                double hh = (b - h) / (2 * cellY);
+                double gradient = gg * gg + hh * hh;
+                return gradient == 0 ? 0 : (float) (2 * (dd * hh * hh + ee * gg * gg - ff * gg * hh) / gradient);
+            }
+        };
+    }
+
+    /**
+     * Topographic position index: elevation of a cell minus the mean elevation of its neighbors
+     * in a (2 * radius + 1) square window, ignoring nodata.
+     *
+     * @param radius radius of the window in cells
+     * @return TPI, in elevation units
+     */
+    public static FocalEngine.Kernel tpi(int radius) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("TPI radius must be at least 1: " + radius);
+        }
+        return new FocalEngine.Kernel() {
+            @Override
+            public int radius() {
+                return radius;
+            }
+
+            @Override
+            public void apply(float[] values, int stride, int width, int height, double cellX, double cellY,
+                              float[] output) {
+                for (int row = 0; row < height; row++) {
+                    for (int col = 0; col < width; col++) {
+                        float center = values[(row + radius) * stride + col + radius];
+                        if (Float.isNaN(center)) {
+                            output[row * width + col] = Float.NaN;
+                            continue;
+                        }
+                        double sum = 0;
+                        int n = 0;
+                        for (int y = row; y <= row + 2 * radius; y++) {
+                            int offset = y * stride;
+                            for (int x = col; x <= col + 2 * radius; x++) {
+                                float v = values[offset + x];
+                                if (!Float.isNaN(v)) {
+                                    sum += v;
+                                    n++;
+                                }
+                            }
+                        }
+                        // the center is in the sum
+                        output[row * width + col] = n <= 1 ? 0 : (float) (center - (sum - center) / (n - 1));
+                    }
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "tpi(" + radius + ")";
+            }
+        };
+    }
+
+    /**
+     * Base of the 3x3 kernels: walks the window over the tile and fills the missing neighbors.
+     */
+    private abstract static class Window3x3 implements FocalEngine.Kernel {
+        private final String name;
+
+        Window3x3(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int radius() {
+            return 1;
+        }
+
+        @Override
+        public void apply(float[] values, int stride, int width, int height, double cellX, double cellY,
+                          float[] output) {
+            for (int row = 0; row < height; row++) {
+                int up = row * stride;
+                int mid = up + stride;
+                int down = mid + stride;
+                for (int col = 0; col < width; col++) {
+                    float e = values[mid + col + 1];
+                    if (Float.isNaN(e)) {
+                        output[row * width + col] = Float.NaN;
+                        continue;
+                    }
+                    output[row * width + col] = compute(
+                            or(values[up + col], e), or(values[up + col + 1], e), or(values[up + col + 2], e),
+                            or(values[mid + col], e), e, or(values[mid + col + 2], e),
+                            or(values[down + col], e), or(values[down + col + 1], e), or(values[down + col + 2], e),
+                            cellX, cellY);
+                }
+            }
+        }
+
+        private static float or(float v, float center) {
+            return Float.isNaN(v) ? center : v;
+        }
+
+        abstract float compute(float a, float b, float c, float d, float e, float f, float g, float h, float i,
+                               double cellX, double cellY);
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
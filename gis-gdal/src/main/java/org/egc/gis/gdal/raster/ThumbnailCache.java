@@ -0,0 +1,348 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <pre>
+ * Cache of thumbnails rendered by {@link GDALThumbnail#render(String, int[], double, String)}, keyed by the
+ * source path, its modification time and size, the bands, the scale, the stretch and the image format.
+ * A changed source gets a new key; the old entries age out.
+ *
+ * Two tiers:
+ *   memory  LRU, bounded in bytes
+ *   disk    one file per key in a directory, bounded in bytes, least recently used files deleted first;
+ *           survives restarts
+ * Concurrent requests of the same missing thumbnail wait for a single render.
+ * Every request gets its own copy of the image.
+ *
+ * {@code byte[] png = ThumbnailCache.getDefault().get(src, new int[]{1}, 0.1, "PNG");}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/2 10:10
+ */
+@Slf4j
+public class ThumbnailCache {
+
+    public static final long DEFAULT_MEMORY_BYTES = 64L << 20;
+    public static final long DEFAULT_DISK_BYTES = 1L << 30;
+
+    private final GDALThumbnail renderer;
+    private final long maxMemoryBytes;
+    private final File diskDir;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param renderer       renders the thumbnails of {@link #get(String, int[], double, String)}
+     * @param maxMemoryBytes bytes of thumbnails kept in memory
+     * @param diskDir        directory of the disk tier, null for memory only
+     * @param maxDiskBytes   bytes of thumbnails kept on disk
+     */
+    public ThumbnailCache(GDALThumbnail renderer, long maxMemoryBytes, File diskDir, long maxDiskBytes) {
+        this.renderer = renderer;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDir != null) {
+            if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create thumbnail cache directory " + diskDir);
+            }
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskBytes.addAndGet(file.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cache shared by the application, in java.io.tmpdir/egc-thumbnails
+     */
+    public static ThumbnailCache getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * created on first use, not when the class is loaded
+     */
+    private static final class DefaultHolder {
+        private static final ThumbnailCache DEFAULT = new ThumbnailCache(new GDALThumbnail(), DEFAULT_MEMORY_BYTES,
+                new File(System.getProperty("java.io.tmpdir"), "egc-thumbnails"), DEFAULT_DISK_BYTES);
+    }
+
+    /**
+     * Get a thumbnail, render it if not cached.
+     *
+     * @param src    the source raster
+     * @param bands  1 (gray) or 3 (RGB) bands
+     * @param scale  scale (0~1]
+     * @param format PNG, JPEG, BMP or GIF
+     * @return the encoded image
+     * @throws IOException if the thumbnail cannot be rendered
+     */
+    public byte[] get(String src, int[] bands, double scale, String format) throws IOException {
+        return get(renderer, src, bands, scale, format);
+    }
+
+    /**
+     * Get a thumbnail, render it with the given renderer if not cached.
+     *
+     * @param renderer renders the thumbnail, its stretch is part of the key
+     * @param src      the source raster
+     * @param bands    1 (gray) or 3 (RGB) bands
+     * @param scale    scale (0~1]
+     * @param format   PNG, JPEG, BMP or GIF
+     * @return the encoded image
+     * @throws IOException if the thumbnail cannot be rendered
+     */
+    public byte[] get(GDALThumbnail renderer, String src, int[] bands, double scale, String format) throws IOException {
+        String key = key(renderer, src, bands, scale, format);
+        byte[] image = fromMemory(key);
+        if (image != null) {
+            memoryHits.incrementAndGet();
+            return image.clone();
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            collapsed.incrementAndGet();
+            return await(running).clone();
+        }
+        try {
+            image = fromDisk(key);
+            if (image != null) {
+                diskHits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                image = renderer.render(src, bands, scale, format);
+                toDisk(key, image);
+            }
+            toMemory(key, image);
+            future.complete(image);
+            return image.clone();
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Get a thumbnail and write it to a file.
+     *
+     * @param src   the source raster
+     * @param dst   the output image, format from the extension (png, jpg, bmp, gif)
+     * @param bands 1 (gray) or 3 (RGB) bands
+     * @param scale scale (0~1]
+     * @throws IOException if the thumbnail cannot be rendered or written
+     */
+    public void write(String src, String dst, int[] bands, double scale) throws IOException {
+        String ext = dst.substring(dst.lastIndexOf('.') + 1).toLowerCase();
+        String format = "jpg".equals(ext) || "jpeg".equals(ext) ? "JPEG" : ext.toUpperCase();
+        Files.write(new File(dst).toPath(), get(src, bands, scale, format));
+    }
+
+    private static String key(GDALThumbnail renderer, String src, int[] bands, double scale, String format)
+            throws IOException {
+        File file = new File(src).getAbsoluteFile();
+        if (!file.isFile()) {
+            throw new IOException("Not a file: " + src);
+        }
+        return file.toPath().normalize() + "|" + file.lastModified() + "|" + file.length() + "|"
+                + Arrays.toString(bands) + "|" + scale + "|" + renderer.getStretchPercent() + "|" + format;
+    }
+
+    private synchronized byte[] fromMemory(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void toMemory(String key, byte[] image) {
+        if (image.length > maxMemoryBytes) {
+            return;
+        }
+        byte[] old = memory.put(key, image);
+        memoryBytes += image.length - (old == null ? 0 : old.length);
+        Iterator<byte[]> it = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            memoryBytes -= it.next().length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private byte[] fromDisk(String key) {
+        if (diskDir == null) {
+            return null;
+        }
+        File file = diskFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] image = Files.readAllBytes(file.toPath());
+            // least recently used first on eviction
+            file.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException e) {
+            log.warn("Read cached thumbnail {} failed: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void toDisk(String key, byte[] image) {
+        if (diskDir == null || image.length > maxDiskBytes) {
+            return;
+        }
+        File file = diskFile(key);
+        try {
+            File tmp = File.createTempFile("thumb", ".tmp", diskDir);
+            Files.write(tmp.toPath(), image);
+            // replaced, e.g. written by another process sharing the directory
+            long replaced = file.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(image.length - replaced) > maxDiskBytes) {
+                evictDisk();
+            }
+        } catch (IOException e) {
+            log.warn("Write cached thumbnail {} failed: {}", file, e.getMessage());
+        }
+    }
+
+    private synchronized void evictDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions.incrementAndGet();
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private File diskFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(diskDir, name.append(".img").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the thumbnail", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Drop the memory tier, the disk tier is kept.
+     */
+    public synchronized void clearMemory() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of requests that waited for a render started by another request
+     */
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return fraction of requests served without rendering
+     */
+    public double getHitRate() {
+        long hits = memoryHits.get() + diskHits.get() + collapsed.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ThumbnailCache{memoryHits=%d, diskHits=%d, misses=%d, collapsed=%d, memory=%d B, disk=%d B}",
+                getMemoryHits(), getDiskHits(), getMisses(), getCollapsed(), getMemoryBytes(), getDiskBytes());
+    }
+}
@@ -0,0 +1,306 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Description:
+ * <pre>
+ * Tile-parallel executor of per-pixel raster operations.
+ * The raster is split into block-aligned tiles ({@link RasterWindow}); workers pull tiles from a shared
+ * counter, so that slow tiles do not hold up the others. Each worker opens its own handle of every
+ * input dataset (GDAL handles are not thread-safe), taken from the {@link DatasetCache} so that
+ * repeated jobs on the same files do not reopen them, and reads tiles through its own {@link BlockReader}.
+ *
+ * Two kinds of operations:
+ * - reduce: every worker folds its tiles into its own accumulator, accumulators are then combined,
+ *   e.g. {@link BandStatistics#compute(Dataset, int, BandStatistics)};
+ * - map: every tile is transformed and written back to an output band (writes are serialized),
+ *   e.g. {@link RasterCalculator}.
+ *
+ * Datasets without a file name (e.g. MEM) cannot be reopened and are processed on the calling thread.
+ * Each run logs its throughput in cells per second.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/22 9:15
+ */
+@Slf4j
+public class TileExecutor {
+
+    private final int parallelism;
+    private volatile long lastCells;
+    private volatile long lastNanos;
+
+    public TileExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism maximum number of worker threads
+     */
+    public TileExecutor(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return number of cells processed by the last run
+     */
+    public long getLastCells() {
+        return lastCells;
+    }
+
+    /**
+     * @return throughput of the last run, in cells per second
+     */
+    public double getLastCellsPerSecond() {
+        return lastNanos == 0 ? 0 : lastCells * 1e9 / lastNanos;
+    }
+
+    /**
+     * Reduce one band.
+     *
+     * @param dataset   the dataset
+     * @param bandIndex the band index
+     * @param identity  creates an empty accumulator, called once per worker
+     * @param reducer   folds a tile into an accumulator
+     * @param combiner  combines two accumulators
+     * @param <R>       accumulator type
+     * @return the combined accumulator
+     */
+    public <R> R reduce(Dataset dataset, int bandIndex, Supplier<R> identity, TileReducer<R> reducer,
+                        BinaryOperator<R> combiner) {
+        return reduce(new Dataset[]{dataset}, new int[]{bandIndex}, identity, reducer, combiner);
+    }
+
+    /**
+     * Reduce aligned bands of several datasets (same size), tiles follow the blocks of the first one.
+     *
+     * @param datasets    the datasets
+     * @param bandIndexes band index of each dataset
+     * @param identity    creates an empty accumulator, called once per worker
+     * @param reducer     folds a tile into an accumulator
+     * @param combiner    combines two accumulators
+     * @param <R>         accumulator type
+     * @return the combined accumulator
+     */
+    public <R> R reduce(Dataset[] datasets, int[] bandIndexes, Supplier<R> identity, TileReducer<R> reducer,
+                        BinaryOperator<R> combiner) {
+        List<RasterWindow> windows = RasterWindow.of(datasets[0].GetRasterBand(bandIndexes[0]));
+        List<R> partials = run(datasets, bandIndexes, windows, () -> {
+            R acc = identity.get();
+            return new TileTask<R>() {
+                @Override
+                public void accept(RasterWindow window, FloatBuffer[] data) {
+                    reducer.accept(acc, window, data);
+                }
+
+                @Override
+                public R result() {
+                    return acc;
+                }
+            };
+        });
+        R result = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            result = combiner.apply(result, partials.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Transform aligned bands tile by tile and write the result (Float32) to an output band of the same size.
+     *
+     * @param datasets    the input datasets
+     * @param bandIndexes band index of each dataset
+     * @param output      the output band
+     * @param mapper      creates the mapper of a worker, called once per worker
+     */
+    public void map(Dataset[] datasets, int[] bandIndexes, Band output, Supplier<TileMapper> mapper) {
+        List<RasterWindow> windows = RasterWindow.of(datasets[0].GetRasterBand(bandIndexes[0]));
+        int maxCells = RasterWindow.maxCellCount(windows);
+        run(datasets, bandIndexes, windows, () -> {
+            TileMapper m = mapper.get();
+            DirectBufferPool.Lease lease = DirectBufferPool.getDefault().acquire(maxCells * Float.BYTES);
+            ByteBuffer buffer = lease.bytes();
+            FloatBuffer out = lease.asFloatBuffer();
+            return new TileTask<Void>() {
+                @Override
+                public void accept(RasterWindow window, FloatBuffer[] data) {
+                    out.clear();
+                    m.apply(window, data, out);
+                    // the output dataset is shared, GDAL writes are serialized
+                    synchronized (output) {
+                        int err = output.WriteRaster_Direct(window.getXOff(), window.getYOff(), window.getWidth(),
+                                window.getHeight(), window.getWidth(), window.getHeight(),
+                                gdalconstConstants.GDT_Float32, buffer);
+                        if (err != gdalconstConstants.CE_None) {
+                            throw new RuntimeException("Write " + window + " failed: " + gdal.GetLastErrorMsg());
+                        }
+                    }
+                }
+
+                @Override
+                public Void result() {
+                    return null;
+                }
+
+                @Override
+                public void close() {
+                    lease.close();
+                }
+            };
+        });
+    }
+
+    private <R> List<R> run(Dataset[] datasets, int[] bandIndexes, List<RasterWindow> windows,
+                            Supplier<TileTask<R>> tasks) {
+        long start = System.nanoTime();
+        boolean reopen = true;
+        for (Dataset ds : datasets) {
+            reopen &= StringUtils.isNotBlank(ds.GetDescription());
+        }
+        int threads = reopen ? Math.max(1, Math.min(parallelism, windows.size())) : 1;
+        String[] paths = null;
+        if (threads > 1) {
+            paths = new String[datasets.length];
+            for (int i = 0; i < datasets.length; i++) {
+                // workers read from the file: pending writes of the caller's handle must be visible
+                datasets[i].FlushCache();
+                paths[i] = datasets[i].GetDescription();
+            }
+        }
+        String[] reopened = paths;
+        List<Worker<R>> workers = ParallelWorkers.forEach(windows.size(), threads,
+                () -> new Worker<>(reopened == null ? datasets : null, reopened, bandIndexes, windows, tasks.get()),
+                (worker, index) -> worker.tile(windows.get((int) index)));
+        List<R> results = new ArrayList<>(workers.size());
+        for (Worker<R> worker : workers) {
+            results.add(worker.task.result());
+        }
+        long cells = 0;
+        for (RasterWindow window : windows) {
+            cells += window.getCellCount();
+        }
+        lastCells = cells;
+        lastNanos = System.nanoTime() - start;
+        log.debug("{} cells in {} tiles, {} threads: {} ms, {} cells/s", cells, windows.size(), threads,
+                lastNanos / 1000000, String.format("%.3g", getLastCellsPerSecond()));
+        return results;
+    }
+
+    /**
+     * the state of one worker: a handle of every input, either the caller's datasets (on the calling thread)
+     * or its own, taken from the cache, and their block readers
+     */
+    private static final class Worker<R> implements AutoCloseable {
+        private final Dataset[] handles;
+        private final boolean cached;
+        private final BlockReader[] readers;
+        private final FloatBuffer[] data;
+        private final TileTask<R> task;
+
+        Worker(Dataset[] datasets, String[] paths, int[] bandIndexes, List<RasterWindow> windows,
+               TileTask<R> task) {
+            this.task = task;
+            cached = datasets == null;
+            handles = cached ? new Dataset[paths.length] : datasets;
+            readers = new BlockReader[handles.length];
+            data = new FloatBuffer[handles.length];
+            try {
+                for (int i = 0; i < handles.length; i++) {
+                    if (cached) {
+                        handles[i] = DatasetCache.getDefault().acquire(paths[i], gdalconstConstants.GA_ReadOnly);
+                        if (handles[i] == null) {
+                            throw new IllegalStateException("Open " + paths[i] + " failed: "
+                                    + gdal.GetLastErrorMsg());
+                        }
+                    }
+                    readers[i] = new BlockReader(handles[i].GetRasterBand(bandIndexes[i]), windows);
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void tile(RasterWindow window) {
+            for (int i = 0; i < readers.length; i++) {
+                data[i] = readers[i].read(window);
+            }
+            task.accept(window, data);
+        }
+
+        @Override
+        public void close() {
+            for (BlockReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            if (cached) {
+                for (Dataset handle : handles) {
+                    if (handle != null) {
+                        DatasetCache.getDefault().release(handle);
+                    }
+                }
+            }
+            task.close();
+        }
+    }
+
+    /**
+     * Folds a tile into an accumulator.
+     */
+    @FunctionalInterface
+    public interface TileReducer<R> {
+        /**
+         * @param acc    the accumulator of the worker
+         * @param window the tile
+         * @param data   Float32 values of the tile, one buffer per input, only valid during the call
+         */
+        void accept(R acc, RasterWindow window, FloatBuffer[] data);
+    }
+
+    /**
+     * Computes the output values of a tile.
+     */
+    @FunctionalInterface
+    public interface TileMapper {
+        /**
+         * @param window the tile
+         * @param data   Float32 values of the tile, one buffer per input, only valid during the call
+         * @param output output values of the tile, row-major
+         */
+        void apply(RasterWindow window, FloatBuffer[] data, FloatBuffer output);
+    }
+
+    private interface TileTask<R> extends AutoCloseable {
+        void accept(RasterWindow window, FloatBuffer[] data);
+
+        R result();
+
+        /**
+         * release the resources of the worker
+         */
+        @Override
+        default void close() {
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.ColorTable;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Driver;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.gdal.osr.SpatialReference;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <pre>
+ * Renders a raster as an XYZ (slippy map, https://wiki.openstreetmap.org/wiki/Slippy_map_tilenames) tile pyramid
+ * in Web Mercator (EPSG:3857), into a directory tree (z/x/y.png) or an MBTiles file (.mbtiles).
+ *
+ * The raster is reprojected once, through a warped VRT; the tiles covering its extent at each zoom level are
+ * rendered by parallel workers with their own handles of the VRT. Each band of a tile is one decimated read,
+ * so small zoom levels read from the overviews (see {@link OverviewBuilder}).
+ * Values are drawn through the color table of the band if any, otherwise stretched between the band
+ * minimum and maximum (Byte bands as is); 1 band is gray, 3 or more bands RGB. Nodata is transparent
+ * and tiles without data are not written.
+ *
+ * Tiles already in the output are skipped, so an interrupted run resumes where it stopped.
+ *
+ * {@code new TilePyramid().zoom(8, 14).generate(hillshade, "/data/tiles/hillshade.mbtiles");}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/8 9:30
+ */
+@Slf4j
+@Getter
+public class TilePyramid {
+
+    /**
+     * half of the Web Mercator world width, in meters
+     */
+    public static final double ORIGIN = 20037508.342789244;
+    private static final int MAX_ZOOM = 24;
+
+    private int minZoom;
+    private int maxZoom = 12;
+    private int tileSize = 256;
+    /**
+     * png or jpg, jpg has no transparency
+     */
+    private String format = "png";
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong empty = new AtomicLong();
+    private final AtomicLong existing = new AtomicLong();
+
+    public TilePyramid zoom(int minZoom, int maxZoom) {
+        if (minZoom < 0 || maxZoom > MAX_ZOOM || minZoom > maxZoom) {
+            throw new IllegalArgumentException("Zoom levels must be in [0, " + MAX_ZOOM + "]: " + minZoom + "-" + maxZoom);
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        return this;
+    }
+
+    public TilePyramid tileSize(int tileSize) {
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    /**
+     * @param format png or jpg
+     */
+    public TilePyramid format(String format) {
+        this.format = "jpeg".equalsIgnoreCase(format) ? "jpg" : format.toLowerCase();
+        return this;
+    }
+
+    public TilePyramid parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Tiles covering an extent in Web Mercator.
+     *
+     * @param minX west, in meters
+     * @param minY south
+     * @param maxX east
+     * @param maxY north
+     * @param zoom zoom level
+     * @return {minX, minY, maxX, maxY} tile numbers, inclusive (y from the north)
+     */
+    public static int[] tileRange(double minX, double minY, double maxX, double maxY, int zoom) {
+        int n = 1 << zoom;
+        double span = 2 * ORIGIN / n;
+        int x0 = (int) Math.floor((minX + ORIGIN) / span);
+        int x1 = (int) Math.ceil((maxX + ORIGIN) / span) - 1;
+        int y0 = (int) Math.floor((ORIGIN - maxY) / span);
+        int y1 = (int) Math.ceil((ORIGIN - minY) / span) - 1;
+        return new int[]{clamp(x0, n), clamp(y0, n), clamp(Math.max(x0, x1), n), clamp(Math.max(y0, y1), n)};
+    }
+
+    /**
+     * Extent of a tile in Web Mercator.
+     *
+     * @param zoom zoom level
+     * @param x    tile column
+     * @param y    tile row, from the north
+     * @return {minX, minY, maxX, maxY} in meters
+     */
+    public static double[] tileBounds(int zoom, int x, int y) {
+        double span = 2 * ORIGIN / (1 << zoom);
+        double minX = -ORIGIN + x * span;
+        double maxY = ORIGIN - y * span;
+        return new double[]{minX, maxY - span, minX + span, maxY};
+    }
+
+    private static int clamp(int tile, int n) {
+        return Math.max(0, Math.min(n - 1, tile));
+    }
+
+    /**
+     * Generate the pyramid.
+     *
+     * @param raster the raster file
+     * @param dst    an .mbtiles file, or a directory for z/x/y files
+     * @return number of tiles written by this run
+     */
+    public long generate(String raster, String dst) {
+        GDALRuntime.init();
+        long start = System.currentTimeMillis();
+        rendered.set(0);
+        empty.set(0);
+        existing.set(0);
+        File vrt = new File(System.getProperty("java.io.tmpdir"), "pyramid_" + UUID.randomUUID() + ".vrt");
+        Style style = prepare(raster, vrt.getPath());
+        TileStore store = "mbtiles".equalsIgnoreCase(FilenameUtils.getExtension(dst))
+                ? new MBTilesStore(dst, format) : new DirectoryStore(dst, format);
+        try {
+            Dataset ds = IOFactory.createRasterIO().read(vrt.getPath());
+            double[] gt = ds.GetGeoTransform();
+            int xSize = ds.GetRasterXSize();
+            int ySize = ds.GetRasterYSize();
+            RasterIO.closeDataSet(ds);
+            double[] extent = {gt[0], gt[3] + ySize * gt[5], gt[0] + xSize * gt[1], gt[3]};
+            List<int[]> ranges = new ArrayList<>();
+            long total = 0;
+            for (int z = minZoom; z <= maxZoom; z++) {
+                int[] range = tileRange(extent[0], extent[1], extent[2], extent[3], z);
+                ranges.add(range);
+                total += (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+            }
+            store.begin(FilenameUtils.getBaseName(raster), minZoom, maxZoom, extent);
+            ParallelWorkers.forEach(total, parallelism, () -> new Worker(vrt.getPath(), style.bands.length),
+                    (worker, index) -> worker.tile(index, style, ranges, store));
+            log.info("Tiles {}-{} of {}: {} written, {} empty, {} already done, in {} ms", minZoom, maxZoom, raster,
+                    rendered.get(), empty.get(), existing.get(), System.currentTimeMillis() - start);
+            return rendered.get();
+        } finally {
+            store.close();
+            DatasetCache.getDefault().invalidate(vrt.getPath());
+            vrt.delete();
+        }
+    }
+
+    /**
+     * warp the raster to Web Mercator in a VRT file, which the workers can open, and read how to draw it
+     */
+    private Style prepare(String raster, String vrt) {
+        Dataset src = IOFactory.createRasterIO().read(raster);
+        try {
+            Style style = new Style(src);
+            SpatialReference mercator = new SpatialReference();
+            mercator.ImportFromEPSG(3857);
+            int resampling = style.palette != null ? gdalconstConstants.GRA_NearestNeighbour
+                    : gdalconstConstants.GRA_Bilinear;
+            Dataset warped = gdal.AutoCreateWarpedVRT(src, src.GetProjectionRef(), mercator.ExportToWkt(), resampling);
+            mercator.delete();
+            if (warped == null) {
+                throw new RuntimeException("Warp " + raster + " failed: " + gdal.GetLastErrorMsg());
+            }
+            Dataset copy = gdal.GetDriverByName(GDALDriversEnum.VRT.getName()).CreateCopy(vrt, warped);
+            warped.delete();
+            if (copy == null) {
+                throw new RuntimeException("Write " + vrt + " failed: " + gdal.GetLastErrorMsg());
+            }
+            copy.delete();
+            return style;
+        } finally {
+            RasterIO.closeDataSet(src);
+        }
+    }
+
+    /**
+     * the state of one worker: its handle of the VRT and buffers
+     */
+    private class Worker implements AutoCloseable {
+        private final Dataset ds;
+        private final DirectBufferPool.Lease[] leases;
+        private final int[] argb = new int[tileSize * tileSize];
+
+        Worker(String vrt, int bands) {
+            leases = new DirectBufferPool.Lease[bands];
+            for (int b = 0; b < bands; b++) {
+                leases[b] = DirectBufferPool.getDefault().acquire(tileSize * tileSize * Float.BYTES);
+            }
+            ds = DatasetCache.getDefault().acquire(vrt, gdalconstConstants.GA_ReadOnly);
+            if (ds == null) {
+                closeLeases();
+                throw new IllegalStateException("Open " + vrt + " failed: " + gdal.GetLastErrorMsg());
+            }
+        }
+
+        /**
+         * render the tile of the given index, counted over the zoom levels
+         */
+        void tile(long index, Style style, List<int[]> ranges, TileStore store) {
+            int z = minZoom;
+            long local = index;
+            for (int[] range : ranges) {
+                long count = (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+                if (local < count) {
+                    int width = range[2] - range[0] + 1;
+                    int x = range[0] + (int) (local % width);
+                    int y = range[1] + (int) (local / width);
+                    TilePyramid.this.tile(ds, style, leases, argb, z, x, y, store);
+                    return;
+                }
+                local -= count;
+                z++;
+            }
+        }
+
+        private void closeLeases() {
+            for (DirectBufferPool.Lease lease : leases) {
+                lease.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            closeLeases();
+            DatasetCache.getDefault().release(ds);
+        }
+    }
+
+    private void tile(Dataset ds, Style style, DirectBufferPool.Lease[] leases, int[] argb, int z, int x, int y,
+                      TileStore store) {
+        if (store.exists(z, x, y)) {
+            existing.incrementAndGet();
+            return;
+        }
+        double[] gt = ds.GetGeoTransform();
+        double[] bounds = tileBounds(z, x, y);
+        // the tile in pixel coordinates of the warped raster
+        double px0 = (bounds[0] - gt[0]) / gt[1];
+        double px1 = (bounds[2] - gt[0]) / gt[1];
+        double py0 = (bounds[3] - gt[3]) / gt[5];
+        double py1 = (bounds[1] - gt[3]) / gt[5];
+        double sx = tileSize / (px1 - px0);
+        double sy = tileSize / (py1 - py0);
+        int rx0 = (int) Math.floor(Math.max(0, px0));
+        int rx1 = (int) Math.ceil(Math.min(ds.GetRasterXSize(), px1));
+        int ry0 = (int) Math.floor(Math.max(0, py0));
+        int ry1 = (int) Math.ceil(Math.min(ds.GetRasterYSize(), py1));
+        int dx0 = clampPixel((rx0 - px0) * sx);
+        int dx1 = clampPixel((rx1 - px0) * sx);
+        int dy0 = clampPixel((ry0 - py0) * sy);
+        int dy1 = clampPixel((ry1 - py0) * sy);
+        int bw = dx1 - dx0;
+        int bh = dy1 - dy0;
+        if (rx1 <= rx0 || ry1 <= ry0 || bw <= 0 || bh <= 0) {
+            empty.incrementAndGet();
+            return;
+        }
+        FloatBuffer[] data = new FloatBuffer[style.bands.length];
+        for (int b = 0; b < data.length; b++) {
+            leases[b].bytes().clear();
+            // a buffer smaller than the window: GDAL reads from the overviews
+            int err = ds.GetRasterBand(style.bands[b]).ReadRaster_Direct(rx0, ry0, rx1 - rx0, ry1 - ry0, bw, bh,
+                    gdalconstConstants.GDT_Float32, leases[b].bytes());
+            if (err != gdalconstConstants.CE_None) {
+                throw new RuntimeException("Read tile " + z + "/" + x + "/" + y + " failed: " + gdal.GetLastErrorMsg());
+            }
+            data[b] = leases[b].asFloatBuffer();
+        }
+        Arrays.fill(argb, 0);
+        boolean any = false;
+        for (int row = 0; row < bh; row++) {
+            for (int col = 0; col < bw; col++) {
+                int color = style.color(data, row * bw + col);
+                argb[(dy0 + row) * tileSize + dx0 + col] = color;
+                any |= color != 0;
+            }
+        }
+        if (!any) {
+            empty.incrementAndGet();
+            return;
+        }
+        store.write(z, x, y, encode(argb));
+        rendered.incrementAndGet();
+    }
+
+    private int clampPixel(double v) {
+        return (int) Math.max(0, Math.min(tileSize, Math.round(v)));
+    }
+
+    private byte[] encode(int[] argb) {
+        boolean png = "png".equals(format);
+        BufferedImage image = new BufferedImage(tileSize, tileSize,
+                png ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, tileSize, tileSize, argb, 0, tileSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(png ? 16 * 1024 : 8 * 1024);
+        try {
+            if (!ImageIO.write(image, png ? "png" : "jpeg", out)) {
+                throw new IllegalStateException("No image writer for " + format);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * how values are drawn, read once from the source raster
+     */
+    private static class Style {
+        private final int[] bands;
+        private final double[] min;
+        private final double[] max;
+        private final double nodata;
+        private final int[] palette;
+
+        Style(Dataset src) {
+            bands = src.GetRasterCount() >= 3 ? new int[]{1, 2, 3} : new int[]{1};
+            min = new double[bands.length];
+            max = new double[bands.length];
+            Band first = src.GetRasterBand(1);
+            Double[] nd = new Double[1];
+            first.GetNoDataValue(nd);
+            nodata = nd[0] == null ? Double.NaN : nd[0];
+            ColorTable table = bands.length == 1 ? first.GetRasterColorTable() : null;
+            if (table != null) {
+                palette = new int[table.GetCount()];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = table.GetColorEntry(i).getRGB();
+                }
+            } else {
+                palette = null;
+            }
+            for (int b = 0; b < bands.length; b++) {
+                Band band = src.GetRasterBand(bands[b]);
+                if (band.GetRasterDataType() == gdalconstConstants.GDT_Byte) {
+                    min[b] = 0;
+                    max[b] = 255;
+                } else {
+                    double[] mn = new double[1];
+                    double[] mx = new double[1];
+                    // approximate statistics, from the overviews when there are some
+                    band.GetStatistics(true, true, mn, mx, new double[1], new double[1]);
+                    min[b] = mn[0];
+                    max[b] = mx[0] > mn[0] ? mx[0] : mn[0] + 1;
+                }
+            }
+        }
+
+        /**
+         * @return ARGB of a cell, 0 (transparent) on nodata
+         */
+        int color(FloatBuffer[] data, int i) {
+            float v = data[0].get(i);
+            if (Float.isNaN(v) || Math.abs(v - nodata) < BandStatistics.NODATA_TOLERANCE) {
+                return 0;
+            }
+            if (palette != null) {
+                int index = (int) v;
+                return index >= 0 && index < palette.length ? palette[index] : 0;
+            }
+            int r = level(v, 0);
+            if (data.length == 1) {
+                return 0xFF000000 | r << 16 | r << 8 | r;
+            }
+            return 0xFF000000 | r << 16 | level(data[1].get(i), 1) << 8 | level(data[2].get(i), 2);
+        }
+
+        private int level(float v, int b) {
+            return (int) Math.max(0, Math.min(255, Math.round((v - min[b]) / (max[b] - min[b]) * 255)));
+        }
+    }
+
+    /**
+     * where the tiles go
+     */
+    private interface TileStore extends AutoCloseable {
+        /**
+         * @param name   name of the tile set
+         * @param extent {minX, minY, maxX, maxY} in Web Mercator
+         */
+        void begin(String name, int minZoom, int maxZoom, double[] extent);
+
+        boolean exists(int z, int x, int y);
+
+        void write(int z, int x, int y, byte[] image);
+
+        @Override
+        void close();
+    }
+
+    /**
+     * z/x/y.png files, written to a temporary file and renamed: a file that exists is complete
+     */
+    private static class DirectoryStore implements TileStore {
+        private final File dir;
+        private final String ext;
+
+        DirectoryStore(String dir, String ext) {
+            this.dir = new File(dir);
+            this.ext = ext;
+        }
+
+        @Override
+        public void begin(String name, int minZoom, int maxZoom, double[] extent) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create " + dir);
+            }
+        }
+
+        private File file(int z, int x, int y) {
+            return new File(dir, z + File.separator + x + File.separator + y + "." + ext);
+        }
+
+        @Override
+        public boolean exists(int z, int x, int y) {
+            return file(z, x, y).isFile();
+        }
+
+        @Override
+        public void write(int z, int x, int y, byte[] image) {
+            File file = file(z, x, y);
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IllegalStateException("Cannot create " + parent);
+            }
+            try {
+                File tmp = File.createTempFile("tile", ".tmp", parent);
+                Files.write(tmp.toPath(), image);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Write " + file + " failed", e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * MBTiles 1.3 (https://github.com/mapbox/mbtiles-spec) through the OGR SQLite driver.
+     * Rows are in TMS order (from the south); writes are serialized and committed in batches.
+     * Tiles are written as features of the tiles table, the image in a binary field, not inlined in SQL.
+     * A failed statement throws: a tile is only counted as done once it is written.
+     */
+    private static class MBTilesStore implements TileStore {
+        private static final int BATCH = 500;
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+        private final DataSource ds;
+        private final Layer tiles;
+        private final String format;
+        private final Set<Long> done = new HashSet<>();
+        private int pending;
+
+        MBTilesStore(String file, String format) {
+            this.format = format;
+            Driver driver = ogr.GetDriverByName(GDALDriversEnum.SQLite.getName());
+            if (new File(file).isFile()) {
+                ds = driver.Open(file, 1);
+            } else {
+                Vector<String> options = new Vector<>();
+                options.add("METADATA=NO");
+                ds = driver.CreateDataSource(file, options);
+            }
+            if (ds == null) {
+                throw new RuntimeException("Open " + file + " failed: " + gdal.GetLastErrorMsg());
+            }
+            execute("CREATE TABLE IF NOT EXISTS metadata (name TEXT, value TEXT)");
+            execute("CREATE UNIQUE INDEX IF NOT EXISTS metadata_name ON metadata (name)");
+            execute("CREATE TABLE IF NOT EXISTS tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, "
+                    + "tile_data BLOB)");
+            execute("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)");
+            // the table is opened by name when it was created after the data source
+            tiles = ds.GetLayerByName("tiles");
+            if (tiles == null) {
+                throw new RuntimeException("Open the tiles table of " + file + " failed: " + gdal.GetLastErrorMsg());
+            }
+            Layer result = ds.ExecuteSQL("SELECT zoom_level, tile_column, tile_row FROM tiles");
+            if (result != null) {
+                Feature feature;
+                while ((feature = result.GetNextFeature()) != null) {
+                    int z = feature.GetFieldAsInteger(0);
+                    done.add(key(z, feature.GetFieldAsInteger(1), (1 << z) - 1 - feature.GetFieldAsInteger(2)));
+                    feature.delete();
+                }
+                ds.ReleaseResultSet(result);
+            }
+            check(ds.StartTransaction(), "Start transaction");
+        }
+
+        private static long key(int z, int x, int y) {
+            return (long) z << 58 | (long) x << 29 | y;
+        }
+
+        /**
+         * ExecuteSQL returns no status: the statement failed if it reported an error
+         */
+        private void execute(String sql) {
+            gdal.ErrorReset();
+            Layer result = ds.ExecuteSQL(sql);
+            if (result != null) {
+                ds.ReleaseResultSet(result);
+            }
+            if (gdal.GetLastErrorType() >= gdalconstConstants.CE_Failure) {
+                throw new RuntimeException("Execute " + sql + " failed: " + gdal.GetLastErrorMsg());
+            }
+        }
+
+        private static void check(int err, String what) {
+            if (err != ogr.OGRERR_NONE) {
+                throw new RuntimeException(what + " failed: " + gdal.GetLastErrorMsg());
+            }
+        }
+
+        @Override
+        public synchronized void begin(String name, int minZoom, int maxZoom, double[] extent) {
+            double west = Math.toDegrees(extent[0] / ORIGIN * Math.PI);
+            double east = Math.toDegrees(extent[2] / ORIGIN * Math.PI);
+            double south = Math.toDegrees(Math.atan(Math.sinh(extent[1] / ORIGIN * Math.PI)));
+            double north = Math.toDegrees(Math.atan(Math.sinh(extent[3] / ORIGIN * Math.PI)));
+            String[][] metadata = {
+                    {"name", name}, {"format", format}, {"type", "overlay"}, {"version", "1.3"},
+                    {"minzoom", String.valueOf(minZoom)}, {"maxzoom", String.valueOf(maxZoom)},
+                    {"bounds", west + "," + south + "," + east + "," + north}};
+            for (String[] entry : metadata) {
+                execute("INSERT OR REPLACE INTO metadata (name, value) VALUES ('" + entry[0] + "', '"
+                        + entry[1].replace("'", "''") + "')");
+            }
+        }
+
+        @Override
+        public synchronized boolean exists(int z, int x, int y) {
+            return done.contains(key(z, x, y));
+        }
+
+        @Override
+        public synchronized void write(int z, int x, int y, byte[] image) {
+            Feature feature = new Feature(tiles.GetLayerDefn());
+            try {
+                feature.SetField("zoom_level", z);
+                feature.SetField("tile_column", x);
+                feature.SetField("tile_row", (1 << z) - 1 - y);
+                // the only binary setter of the 2.x bindings, decoded to a blob by OGR
+                char[] hex = new char[image.length * 2];
+                for (int i = 0; i < image.length; i++) {
+                    hex[2 * i] = HEX[(image[i] >> 4) & 0xF];
+                    hex[2 * i + 1] = HEX[image[i] & 0xF];
+                }
+                feature.SetFieldBinaryFromHexString("tile_data", new String(hex));
+                check(tiles.CreateFeature(feature), "Write tile " + z + "/" + x + "/" + y);
+            } finally {
+                feature.delete();
+            }
+            done.add(key(z, x, y));
+            if (++pending >= BATCH) {
+                check(ds.CommitTransaction(), "Commit tiles");
+                check(ds.StartTransaction(), "Start transaction");
+                pending = 0;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                check(ds.CommitTransaction(), "Commit tiles");
+            } finally {
+                ds.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.TranslateOptions;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Driver;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.FieldDefn;
+import org.gdal.ogr.Geometry;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.gdal.osr.SpatialReference;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Polygonizes a classified raster tile by tile, on parallel workers, instead of one
+ * {@link gdal#Polygonize} over the whole band ({@link RasterUtils#polygonize(String, String, int)}).
+ *
+ * Each tile is read into memory and polygonized into an in-memory layer. Polygons inside the tile are
+ * written to the output at once. A polygon touching a tile seam is merged with the polygons of the same
+ * value (DN) it touches in the tiles already done, and written when all tiles around it are done, so only
+ * the polygons still open along the seams are kept in memory.
+ * Regions smaller than {@link #minArea(double)} (map units) are dropped: inside a tile they are masked out
+ * before polygonizing and never traced, at the seams they are dropped after merging.
+ * Nodata cells are not polygonized.
+ *
+ * The output is GeoPackage (.gpkg) or FlatGeobuf (.fgb, GDAL 3.1+), with no 2 GB limit.
+ * Pieces of an 8-connected polygon that touch only at a corner on a seam stay separate.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/6 9:00
+ */
+@Slf4j
+@Getter
+public class TiledPolygonizer {
+
+    private static final int BATCH = 10000;
+
+    private int band = 1;
+    private int tileSize = 2048;
+    private boolean eightConnected;
+    private double minArea;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private String field = "DN";
+
+    /**
+     * @param band band index, starting from 1
+     */
+    public TiledPolygonizer band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    public TiledPolygonizer tileSize(int tileSize) {
+        if (tileSize < 16) {
+            throw new IllegalArgumentException("Tile size must be at least 16: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    /**
+     * @param eightConnected diagonal neighbours are in the same polygon
+     */
+    public TiledPolygonizer eightConnected(boolean eightConnected) {
+        this.eightConnected = eightConnected;
+        return this;
+    }
+
+    /**
+     * @param minArea polygons smaller than this area (map units) are dropped
+     */
+    public TiledPolygonizer minArea(double minArea) {
+        this.minArea = minArea;
+        return this;
+    }
+
+    public TiledPolygonizer parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @param field name of the value field
+     */
+    public TiledPolygonizer field(String field) {
+        this.field = field;
+        return this;
+    }
+
+    /**
+     * Polygonize a band.
+     *
+     * @param raster the raster file
+     * @param dst    the output .gpkg or .fgb, replaced if it exists
+     * @return number of polygons written
+     */
+    public long polygonize(String raster, String dst) {
+        long start = System.currentTimeMillis();
+        Dataset ds = IOFactory.createRasterIO().read(raster);
+        int xSize = ds.GetRasterXSize();
+        int ySize = ds.GetRasterYSize();
+        double[] gt = ds.GetGeoTransform();
+        String wkt = ds.GetProjectionRef();
+        RasterIO.closeDataSet(ds);
+
+        Writer writer = new Writer(dst, wkt, field);
+        List<RasterWindow> tiles = RasterWindow.of(xSize, ySize, tileSize, tileSize, tileSize * tileSize);
+        Seams seams = new Seams(tiles, gt, xSize, ySize, writer);
+        try {
+            ParallelWorkers.forEach(tiles.size(), parallelism, () -> new Worker(raster),
+                    (worker, index) -> worker.tile(tiles.get((int) index), gt, xSize, ySize, seams, writer));
+            seams.flush();
+            log.info("{} polygons ({} merged across seams) of {} tiles written to {} in {} ms", writer.count,
+                    seams.written, tiles.size(), dst, System.currentTimeMillis() - start);
+            return writer.count;
+        } finally {
+            seams.clear();
+            writer.close();
+        }
+    }
+
+    /**
+     * the state of one worker: its handle of the raster
+     */
+    private class Worker implements AutoCloseable {
+        private final Dataset handle;
+        private final Driver memory = ogr.GetDriverByName(GDALDriversEnum.Memory.getName());
+        private final Vector<String> options = new Vector<>();
+        private final double[] envelope = new double[4];
+
+        Worker(String raster) {
+            handle = DatasetCache.getDefault().acquire(raster, gdalconstConstants.GA_ReadOnly);
+            if (handle == null) {
+                throw new IllegalStateException("Open " + raster + " failed: " + gdal.GetLastErrorMsg());
+            }
+            if (eightConnected) {
+                options.add("8CONNECTED=8");
+            }
+        }
+
+        /**
+         * polygonize a tile: polygons inside are written, those on a seam go to the seams
+         */
+        void tile(RasterWindow tile, double[] gt, int xSize, int ySize, Seams seams, Writer writer) {
+            double cellArea = Math.abs(gt[1] * gt[5] - gt[2] * gt[4]);
+            Dataset tileDs = readTile(handle, tile);
+            Dataset mask = null;
+            DataSource tileSrc = memory.CreateDataSource("tile");
+            List<Geometry> open = new ArrayList<>();
+            List<Integer> values = new ArrayList<>();
+            try {
+                Layer layer = tileSrc.CreateLayer("tile", null, ogr.wkbPolygon);
+                FieldDefn defn = new FieldDefn(field, ogr.OFTInteger);
+                layer.CreateField(defn);
+                defn.delete();
+                Band tileBand = tileDs.GetRasterBand(1);
+                if (minArea > cellArea) {
+                    mask = maskSmallRegions(tileBand, tile, xSize, ySize, minArea / cellArea);
+                }
+                Band maskBand = mask == null ? tileBand.GetMaskBand() : mask.GetRasterBand(1);
+                if (gdal.Polygonize(tileBand, maskBand, layer, 0, options) != gdalconstConstants.CE_None) {
+                    throw new RuntimeException("Polygonize " + tile + " failed: " + gdal.GetLastErrorMsg());
+                }
+                layer.ResetReading();
+                Feature feature;
+                while ((feature = layer.GetNextFeature()) != null) {
+                    Geometry geometry = feature.GetGeometryRef();
+                    int value = feature.GetFieldAsInteger(0);
+                    geometry.GetEnvelope(envelope);
+                    if (onSeam(ZonalStatistics.pixelWindow(gt, envelope, xSize, ySize), tile, xSize, ySize)) {
+                        open.add(geometry.Clone());
+                        values.add(value);
+                    } else {
+                        writer.write(value, geometry);
+                    }
+                    feature.delete();
+                }
+                seams.add(tile.getIndex(), open, values);
+            } catch (RuntimeException e) {
+                for (Geometry geometry : open) {
+                    geometry.delete();
+                }
+                throw e;
+            } finally {
+                tileSrc.delete();
+                if (mask != null) {
+                    mask.delete();
+                }
+                tileDs.delete();
+            }
+        }
+
+        @Override
+        public void close() {
+            DatasetCache.getDefault().release(handle);
+        }
+    }
+
+    /**
+     * copy a tile of the band into memory, georeferenced
+     */
+    private Dataset readTile(Dataset handle, RasterWindow tile) {
+        Vector<String> options = new Vector<>();
+        options.add("-of");
+        options.add(GDALDriversEnum.MEM.getName());
+        options.add("-b");
+        options.add(String.valueOf(band));
+        options.add("-srcwin");
+        options.add(String.valueOf(tile.getXOff()));
+        options.add(String.valueOf(tile.getYOff()));
+        options.add(String.valueOf(tile.getWidth()));
+        options.add(String.valueOf(tile.getHeight()));
+        Dataset tileDs = gdal.Translate("", handle, new TranslateOptions(options));
+        if (tileDs == null) {
+            throw new RuntimeException("Read " + tile + " failed: " + gdal.GetLastErrorMsg());
+        }
+        return tileDs;
+    }
+
+    /**
+     * The mask of the tile without the regions of fewer cells than minCells that do not reach a seam,
+     * so that {@link gdal#Polygonize} does not trace them. Regions are compared as integers, as Polygonize does.
+     *
+     * @return a MEM dataset of one Byte band, to delete()
+     */
+    private Dataset maskSmallRegions(Band tileBand, RasterWindow tile, int xSize, int ySize, double minCells) {
+        int w = tile.getWidth();
+        int h = tile.getHeight();
+        int[] values = new int[w * h];
+        byte[] valid = new byte[w * h];
+        if (tileBand.ReadRaster(0, 0, w, h, gdalconstConstants.GDT_Int32, values) != gdalconstConstants.CE_None
+                || tileBand.GetMaskBand().ReadRaster(0, 0, w, h, valid) != gdalconstConstants.CE_None) {
+            throw new RuntimeException("Read " + tile + " failed: " + gdal.GetLastErrorMsg());
+        }
+        boolean left = tile.getXOff() > 0;
+        boolean right = tile.getXOff() + w < xSize;
+        boolean top = tile.getYOff() > 0;
+        boolean bottom = tile.getYOff() + h < ySize;
+        boolean[] seen = new boolean[w * h];
+        // cells of the current region, in the order they are reached
+        int[] region = new int[w * h];
+        for (int first = 0; first < values.length; first++) {
+            if (seen[first] || valid[first] == 0) {
+                continue;
+            }
+            seen[first] = true;
+            region[0] = first;
+            int size = 1;
+            boolean seam = false;
+            for (int i = 0; i < size; i++) {
+                int x = region[i] % w;
+                int y = region[i] / w;
+                seam |= left && x == 0 || right && x == w - 1 || top && y == 0 || bottom && y == h - 1;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if (dx == 0 && dy == 0 || !eightConnected && dx != 0 && dy != 0) {
+                            continue;
+                        }
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx < 0 || ny < 0 || nx >= w || ny >= h) {
+                            continue;
+                        }
+                        int n = ny * w + nx;
+                        if (!seen[n] && valid[n] != 0 && values[n] == values[first]) {
+                            seen[n] = true;
+                            region[size++] = n;
+                        }
+                    }
+                }
+            }
+            if (size < minCells && !seam) {
+                for (int i = 0; i < size; i++) {
+                    valid[region[i]] = 0;
+                }
+            }
+        }
+        Dataset mask = gdal.GetDriverByName(GDALDriversEnum.MEM.getName())
+                .Create("", w, h, 1, gdalconstConstants.GDT_Byte);
+        if (mask == null || mask.GetRasterBand(1).WriteRaster(0, 0, w, h, valid) != gdalconstConstants.CE_None) {
+            if (mask != null) {
+                mask.delete();
+            }
+            throw new RuntimeException("Mask " + tile + " failed: " + gdal.GetLastErrorMsg());
+        }
+        return mask;
+    }
+
+    /**
+     * a polygon may continue in the next tile when it reaches an edge of its tile that is not the raster edge
+     */
+    private static boolean onSeam(RasterWindow polygon, RasterWindow tile, int xSize, int ySize) {
+        if (polygon == null) {
+            return false;
+        }
+        int right = tile.getXOff() + tile.getWidth();
+        int bottom = tile.getYOff() + tile.getHeight();
+        return tile.getXOff() > 0 && polygon.getXOff() <= tile.getXOff()
+                || right < xSize && polygon.getXOff() + polygon.getWidth() >= right
+                || tile.getYOff() > 0 && polygon.getYOff() <= tile.getYOff()
+                || bottom < ySize && polygon.getYOff() + polygon.getHeight() >= bottom;
+    }
+
+    /**
+     * a seam polygon, possibly merged from the polygons of several tiles
+     */
+    private static class Piece {
+        private final int value;
+        private Geometry geometry;
+        private RasterWindow window;
+        private boolean open = true;
+
+        Piece(int value, Geometry geometry, RasterWindow window) {
+            this.value = value;
+            this.geometry = geometry;
+            this.window = window;
+        }
+
+        /**
+         * the windows touch or overlap
+         */
+        boolean near(RasterWindow other) {
+            return window.getXOff() <= other.getXOff() + other.getWidth()
+                    && other.getXOff() <= window.getXOff() + window.getWidth()
+                    && window.getYOff() <= other.getYOff() + other.getHeight()
+                    && other.getYOff() <= window.getYOff() + window.getHeight();
+        }
+    }
+
+    /**
+     * The open seam polygons. Each is listed in the tiles not yet done that it touches, so that a polygon
+     * of a new tile is only compared with the polygons along the seams of that tile, and a polygon is
+     * written as soon as all tiles it touches are done.
+     */
+    private class Seams {
+        private final double[] gt;
+        private final int xSize;
+        private final int ySize;
+        private final Writer writer;
+        /**
+         * the tiles form a grid of cols columns with cells of tileX x tileY, the last ones maybe smaller
+         */
+        private final int tileX;
+        private final int tileY;
+        private final int cols;
+        private final boolean[] done;
+        private final List<List<Piece>> byTile;
+        private final double[] envelope = new double[4];
+        private long written;
+
+        Seams(List<RasterWindow> tiles, double[] gt, int xSize, int ySize, Writer writer) {
+            this.gt = gt;
+            this.xSize = xSize;
+            this.ySize = ySize;
+            this.writer = writer;
+            tileX = tiles.get(0).getWidth();
+            tileY = tiles.get(0).getHeight();
+            cols = (xSize + tileX - 1) / tileX;
+            done = new boolean[tiles.size()];
+            byTile = new ArrayList<>(tiles.size());
+            for (int i = 0; i < tiles.size(); i++) {
+                byTile.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * merge the seam polygons of a tile just done with the polygons they touch, and write the polygons
+         * that cannot grow any more
+         *
+         * @param tile     index of the tile
+         * @param polygons the seam polygons of the tile, owned from now on
+         * @param values   their values
+         */
+        synchronized void add(int tile, List<Geometry> polygons, List<Integer> values) {
+            done[tile] = true;
+            List<Piece> candidates = byTile.get(tile);
+            List<Piece> changed = new ArrayList<>(polygons.size());
+            for (int i = 0; i < polygons.size(); i++) {
+                Geometry geometry = polygons.get(i);
+                geometry.GetEnvelope(envelope);
+                RasterWindow window = ZonalStatistics.pixelWindow(gt, envelope, xSize, ySize);
+                Piece piece = new Piece(values.get(i), geometry, window);
+                boolean merged = false;
+                for (Piece other : candidates) {
+                    if (other.open && other.value == piece.value && other.near(piece.window)) {
+                        merged |= merge(piece, other);
+                    }
+                }
+                register(piece);
+                changed.add(piece);
+                if (merged) {
+                    // it holds polygons of other tiles that the next polygons of this tile may touch
+                    candidates.add(piece);
+                }
+            }
+            changed.addAll(candidates);
+            candidates.clear();
+            for (Piece piece : changed) {
+                if (piece.open && complete(piece)) {
+                    write(piece);
+                }
+            }
+        }
+
+        /**
+         * union other into piece when they share an edge; pieces touching only at a corner stay apart
+         *
+         * @return other was merged
+         */
+        private boolean merge(Piece piece, Piece other) {
+            Geometry union = piece.geometry.Union(other.geometry);
+            if (union == null) {
+                throw new RuntimeException("Merge polygons of " + piece.value + " failed: " + gdal.GetLastErrorMsg());
+            }
+            if (ogr.GT_Flatten(union.GetGeometryType()) != ogr.wkbPolygon) {
+                union.delete();
+                return false;
+            }
+            piece.geometry.delete();
+            other.geometry.delete();
+            piece.geometry = union;
+            RasterWindow a = piece.window;
+            RasterWindow b = other.window;
+            int x0 = Math.min(a.getXOff(), b.getXOff());
+            int y0 = Math.min(a.getYOff(), b.getYOff());
+            int x1 = Math.max(a.getXOff() + a.getWidth(), b.getXOff() + b.getWidth());
+            int y1 = Math.max(a.getYOff() + a.getHeight(), b.getYOff() + b.getHeight());
+            piece.window = new RasterWindow(0, x0, y0, x1 - x0, y1 - y0);
+            other.open = false;
+            other.geometry = null;
+            return true;
+        }
+
+        /**
+         * list the piece in the tiles not yet done next to or under its window
+         */
+        private void register(Piece piece) {
+            RasterWindow w = piece.window;
+            int c1 = Math.min(xSize - 1, w.getXOff() + w.getWidth()) / tileX;
+            int r1 = Math.min(ySize - 1, w.getYOff() + w.getHeight()) / tileY;
+            for (int r = Math.max(0, w.getYOff() - 1) / tileY; r <= r1; r++) {
+                for (int c = Math.max(0, w.getXOff() - 1) / tileX; c <= c1; c++) {
+                    if (!done[r * cols + c]) {
+                        byTile.get(r * cols + c).add(piece);
+                    }
+                }
+            }
+        }
+
+        private boolean complete(Piece piece) {
+            RasterWindow w = piece.window;
+            int c1 = Math.min(xSize - 1, w.getXOff() + w.getWidth()) / tileX;
+            int r1 = Math.min(ySize - 1, w.getYOff() + w.getHeight()) / tileY;
+            for (int r = Math.max(0, w.getYOff() - 1) / tileY; r <= r1; r++) {
+                for (int c = Math.max(0, w.getXOff() - 1) / tileX; c <= c1; c++) {
+                    if (!done[r * cols + c]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void write(Piece piece) {
+            if (piece.geometry.GetArea() >= minArea) {
+                writer.write(piece.value, piece.geometry);
+                written++;
+            }
+            piece.geometry.delete();
+            piece.geometry = null;
+            piece.open = false;
+        }
+
+        /**
+         * write the pieces still open, none once all tiles are done
+         */
+        synchronized void flush() {
+            for (List<Piece> pieces : byTile) {
+                for (Piece piece : pieces) {
+                    if (piece.open) {
+                        write(piece);
+                    }
+                }
+                pieces.clear();
+            }
+        }
+
+        /**
+         * drop the pieces still open, after a failure
+         */
+        synchronized void clear() {
+            for (List<Piece> pieces : byTile) {
+                for (Piece piece : pieces) {
+                    if (piece.open) {
+                        piece.geometry.delete();
+                        piece.geometry = null;
+                        piece.open = false;
+                    }
+                }
+                pieces.clear();
+            }
+        }
+    }
+
+    /**
+     * the output layer, writes are serialized and committed in batches
+     */
+    private static class Writer {
+        private final DataSource ds;
+        private final Layer layer;
+        private final boolean transactions;
+        private long count;
+
+        Writer(String dst, String wkt, String field) {
+            GDALRuntime.init();
+            String ext = FilenameUtils.getExtension(dst).toLowerCase();
+            GDALDriversEnum format = "gpkg".equals(ext) ? GDALDriversEnum.GPKG
+                    : "fgb".equals(ext) ? GDALDriversEnum.FlatGeobuf : null;
+            if (format == null) {
+                throw new IllegalArgumentException("Output must be GeoPackage (.gpkg) or FlatGeobuf (.fgb): " + dst);
+            }
+            Driver driver = ogr.GetDriverByName(format.getName());
+            if (driver == null) {
+                throw new IllegalStateException("OGR driver " + format.getName() + " is not available");
+            }
+            if (new File(dst).exists()) {
+                driver.DeleteDataSource(dst);
+            }
+            ds = driver.CreateDataSource(dst);
+            if (ds == null) {
+                throw new RuntimeException("Create " + dst + " failed: " + gdal.GetLastErrorMsg());
+            }
+            SpatialReference srs = wkt == null || wkt.isEmpty() ? null : new SpatialReference(wkt);
+            layer = ds.CreateLayer(FilenameUtils.getBaseName(dst), srs, ogr.wkbPolygon);
+            if (srs != null) {
+                srs.delete();
+            }
+            if (layer == null) {
+                throw new RuntimeException("Create layer of " + dst + " failed: " + gdal.GetLastErrorMsg());
+            }
+            FieldDefn defn = new FieldDefn(field, ogr.OFTInteger);
+            layer.CreateField(defn);
+            defn.delete();
+            transactions = layer.TestCapability(ogr.OLCTransactions);
+            if (transactions) {
+                layer.StartTransaction();
+            }
+        }
+
+        synchronized void write(int value, Geometry geometry) {
+            Feature feature = new Feature(layer.GetLayerDefn());
+            feature.SetField(0, value);
+            feature.SetGeometry(geometry);
+            if (layer.CreateFeature(feature) != ogr.OGRERR_NONE) {
+                throw new RuntimeException("Write polygon failed: " + gdal.GetLastErrorMsg());
+            }
+            feature.delete();
+            if (transactions && ++count % BATCH == 0) {
+                layer.CommitTransaction();
+                layer.StartTransaction();
+            } else if (!transactions) {
+                count++;
+            }
+        }
+
+        synchronized void close() {
+            if (transactions) {
+                layer.CommitTransaction();
+            }
+            ds.delete();
+        }
+    }
+}
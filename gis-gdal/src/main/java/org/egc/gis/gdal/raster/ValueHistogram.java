@@ -0,0 +1,231 @@
+package org.egc.gis.gdal.raster;
+
+import java.util.Arrays;
+
+/**
+ * Description:
+ * <pre>
+ * Histogram of distinct raster values: a primitive open-addressing hash map from float value to cell count
+ * (no boxing). Fill one histogram per block or worker and combine them with {@link #merge(ValueHistogram)}.
+ *
+ * The number of distinct values is capped: a continuous raster fails fast with
+ * {@link CardinalityExceededException} after a few blocks instead of exhausting the heap.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/18 10:05
+ */
+public class ValueHistogram {
+
+    /**
+     * default maximum number of distinct values
+     */
+    public static final int DEFAULT_MAX_CARDINALITY = 1 << 16;
+    /**
+     * bits of the canonical NaN, never stored (NaN is not a value), marks an empty slot
+     */
+    private static final int EMPTY = 0x7fc00000;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int maxCardinality;
+    private int[] keys;
+    private long[] counts;
+    private int mask;
+    private int size;
+    private int threshold;
+    private long total;
+
+    private float[] sortedValues;
+
+    public ValueHistogram() {
+        this(DEFAULT_MAX_CARDINALITY);
+    }
+
+    /**
+     * @param maxCardinality maximum number of distinct values
+     */
+    public ValueHistogram(int maxCardinality) {
+        this.maxCardinality = maxCardinality;
+        allocate(64);
+    }
+
+    /**
+     * @return a new, empty histogram with the same cap
+     */
+    public ValueHistogram emptyCopy() {
+        return new ValueHistogram(maxCardinality);
+    }
+
+    public void add(float value) {
+        add(value, 1);
+    }
+
+    /**
+     * @param value the value, NaN is ignored
+     * @param n     number of cells
+     */
+    public void add(float value, long n) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        // -0.0 and 0.0 are the same class
+        int key = Float.floatToIntBits(value == 0f ? 0f : value);
+        int i = mix(key) & mask;
+        int k;
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                counts[i] += n;
+                total += n;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size >= maxCardinality) {
+            throw new CardinalityExceededException(maxCardinality);
+        }
+        keys[i] = key;
+        counts[i] = n;
+        total += n;
+        sortedValues = null;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Merge the histogram of another block or worker into this one.
+     *
+     * @param other the other histogram
+     * @return this
+     */
+    public ValueHistogram merge(ValueHistogram other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != EMPTY) {
+                add(Float.intBitsToFloat(other.keys[i]), other.counts[i]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return number of distinct values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of cells added
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param value the value
+     * @return number of cells with this value
+     */
+    public long getCount(float value) {
+        int key = Float.floatToIntBits(value == 0f ? 0f : value);
+        int i = mix(key) & mask;
+        int k;
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                return counts[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return distinct values in ascending order
+     */
+    public float[] getValues() {
+        if (sortedValues == null) {
+            float[] values = new float[size];
+            int n = 0;
+            for (int key : keys) {
+                if (key != EMPTY) {
+                    values[n++] = Float.intBitsToFloat(key);
+                }
+            }
+            Arrays.sort(values);
+            sortedValues = values;
+        }
+        return sortedValues.clone();
+    }
+
+    /**
+     * @return pixel count of each value, in the order of {@link #getValues()}
+     */
+    public long[] getCounts() {
+        float[] values = getValues();
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = getCount(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @param cellArea area of one cell, e.g. |gt[1] * gt[5]|
+     * @return area of each value, in the order of {@link #getValues()}
+     */
+    public double[] getAreas(double cellArea) {
+        long[] c = getCounts();
+        double[] areas = new double[c.length];
+        for (int i = 0; i < c.length; i++) {
+            areas[i] = c[i] * cellArea;
+        }
+        return areas;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            int key = oldKeys[j];
+            if (key != EMPTY) {
+                int i = mix(key) & mask;
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    /**
+     * murmur3 finalizer, spreads float bits over the table
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Thrown when a raster has more distinct values than the cap, e.g. a continuous raster.
+     */
+    public static class CardinalityExceededException extends IllegalStateException {
+        private static final long serialVersionUID = 3202857214394531264L;
+
+        public CardinalityExceededException(int maxCardinality) {
+            super("More than " + maxCardinality + " distinct values, the raster is probably continuous");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import org.apache.commons.io.FilenameUtils;
+import org.egc.gis.gdal.dto.ResamplingMethods;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Description:
+ * <pre>
+ * Performance settings of a gdalwarp call (https://gdal.org/programs/gdalwarp.html):
+ *   -multi                 read/compute and write in parallel
+ *   -wo NUM_THREADS        threads of the warp kernel
+ *   -wm                    warp memory (MB): bigger chunks, fewer passes over the source
+ *   -et                    error threshold of the approximated transformation
+ *   -ovr AUTO              read from the source overviews when the output is coarser
+ *   -co                    creation options of GeoTIFF output (tiled, compressed)
+ *
+ * Presets, with warp memory sized from the free physical memory:
+ *   {@link #throughput()}  all CPUs, 1/4 of free memory (256 MB - 4 GB), DEFLATE tiles
+ *   {@link #lowMemory()}   one thread, 1/32 of free memory (32 MB - 128 MB), DEFLATE tiles
+ *   {@link #preview()}     all CPUs, overviews, nearest neighbour, coarse error threshold, fast compression
+ *
+ * Every call returns a new profile, which can be adjusted: {@code WarpProfile.throughput().warpMemoryMB(1024)}.
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/3/29 9:30
+ */
+@Getter
+public class WarpProfile {
+
+    /**
+     * gdalwarp takes -wm values below 10000 as MB
+     */
+    private static final int MAX_WARP_MEMORY_MB = 4096;
+
+    private boolean multi;
+    /**
+     * NUM_THREADS warp option, a number or ALL_CPUS; none if null
+     */
+    private String threads;
+    /**
+     * warp memory in MB, GDAL default (64 MB) if not positive
+     */
+    private int warpMemoryMB;
+    /**
+     * error threshold in pixels, GDAL default (0.125) if null
+     */
+    private Double errorThreshold;
+    /**
+     * resampling method used when the call does not set one
+     */
+    private String resampling;
+    private boolean useOverviews;
+    /**
+     * creation options of GeoTIFF output
+     */
+    private final Map<String, String> creationOptions = new LinkedHashMap<>();
+
+    public static WarpProfile throughput() {
+        return tiled("DEFLATE")
+                .multi(true)
+                .threads("ALL_CPUS")
+                .warpMemoryMB(warpMemory(4, 256, MAX_WARP_MEMORY_MB));
+    }
+
+    public static WarpProfile lowMemory() {
+        return tiled("DEFLATE")
+                .creationOption("NUM_THREADS", null)
+                .threads("1")
+                .warpMemoryMB(warpMemory(32, 32, 128));
+    }
+
+    public static WarpProfile preview() {
+        return tiled("DEFLATE")
+                .creationOption("ZLEVEL", "1")
+                .multi(true)
+                .threads("ALL_CPUS")
+                .warpMemoryMB(warpMemory(8, 128, 1024))
+                .errorThreshold(0.5)
+                .resampling(ResamplingMethods.NEAR)
+                .useOverviews(true);
+    }
+
+    private static WarpProfile tiled(String compress) {
+        return new WarpProfile()
+                .creationOption("TILED", "YES")
+                .creationOption("BLOCKXSIZE", "512")
+                .creationOption("BLOCKYSIZE", "512")
+                .creationOption("COMPRESS", compress)
+                .creationOption("BIGTIFF", "IF_SAFER")
+                .creationOption("NUM_THREADS", "ALL_CPUS");
+    }
+
+    public WarpProfile multi(boolean multi) {
+        this.multi = multi;
+        return this;
+    }
+
+    public WarpProfile threads(String threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public WarpProfile warpMemoryMB(int warpMemoryMB) {
+        this.warpMemoryMB = Math.min(warpMemoryMB, MAX_WARP_MEMORY_MB);
+        return this;
+    }
+
+    public WarpProfile errorThreshold(Double errorThreshold) {
+        this.errorThreshold = errorThreshold;
+        return this;
+    }
+
+    public WarpProfile resampling(String resampling) {
+        this.resampling = resampling;
+        return this;
+    }
+
+    public WarpProfile useOverviews(boolean useOverviews) {
+        this.useOverviews = useOverviews;
+        return this;
+    }
+
+    /**
+     * Set a GeoTIFF creation option, remove it if the value is null.
+     */
+    public WarpProfile creationOption(String name, String value) {
+        if (value == null) {
+            creationOptions.remove(name);
+        } else {
+            creationOptions.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Append the options of this profile to gdalwarp options.
+     * Creation options are only added when the output is a GeoTIFF (.tif, .tiff or no extension).
+     *
+     * @param options the gdalwarp options of the call
+     * @param dst     the output file
+     * @return the options
+     */
+    public Vector<String> appendTo(Vector<String> options, String dst) {
+        if (multi) {
+            options.add("-multi");
+        }
+        if (threads != null) {
+            options.add("-wo");
+            options.add("NUM_THREADS=" + threads);
+        }
+        if (warpMemoryMB > 0) {
+            options.add("-wm");
+            options.add(String.valueOf(warpMemoryMB));
+        }
+        if (errorThreshold != null) {
+            options.add("-et");
+            options.add(String.valueOf(errorThreshold));
+        }
+        if (resampling != null && !options.contains("-r")) {
+            options.add("-r");
+            options.add(resampling);
+        }
+        if (useOverviews) {
+            options.add("-ovr");
+            options.add("AUTO");
+        }
+        if (isGeoTiff(dst)) {
+            for (Map.Entry<String, String> option : creationOptions.entrySet()) {
+                options.add("-co");
+                options.add(option.getKey() + "=" + option.getValue());
+            }
+        }
+        return options;
+    }
+
+    private static boolean isGeoTiff(String dst) {
+        String ext = FilenameUtils.getExtension(dst).toLowerCase();
+        return ext.isEmpty() || "tif".equals(ext) || "tiff".equals(ext);
+    }
+
+    /**
+     * @return a fraction of the free physical memory in MB, within [min, max]
+     */
+    private static int warpMemory(int fraction, int min, int max) {
+        long free = freePhysicalMemory();
+        if (free <= 0) {
+            return min;
+        }
+        long mb = (free >> 20) / fraction;
+        return (int) Math.max(min, Math.min(max, mb));
+    }
+
+    private static long freePhysicalMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+        }
+        return -1;
+    }
+}
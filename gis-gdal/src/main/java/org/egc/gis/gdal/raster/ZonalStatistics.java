@@ -0,0 +1,643 @@
+package org.egc.gis.gdal.raster;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.GDALRuntime;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.dto.GDALDriversEnum;
+import org.egc.gis.gdal.vector.VectorIO;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.FieldDefn;
+import org.gdal.ogr.Geometry;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Description:
+ * <pre>
+ * Zonal statistics of a raster band per polygon of a layer: count, sum, min, max, mean, standard deviation
+ * and majority, e.g. mean elevation of each sub-watershed.
+ *
+ * The raster is never loaded: each polygon is rasterized only over the pixel window of its bounding box,
+ * in chunks of at most {@link RasterWindow#DEFAULT_WINDOW_CELLS} cells, and the values of each chunk are
+ * read into a pooled buffer. Zones are shared out to parallel workers, each with its own raster handle
+ * (from {@link DatasetCache}) and its own vector handle; zones are visited from top to bottom so that
+ * neighbouring zones reuse the cached blocks.
+ *
+ * Polygons are transformed to the CRS of the raster when the layer has another one.
+ * Cells are in a zone when their center is in the polygon, or every touched cell with {@link #allTouched(boolean)}.
+ *
+ * {@code new ZonalStatistics().computeAndWrite(dem, subbasins);}
+ * </pre>
+ *
+ * @author houzhiwei
+ * @date 2023/4/3 9:20
+ */
+@Slf4j
+@Getter
+public class ZonalStatistics {
+
+    /**
+     * default maximum number of distinct values of a zone for the majority, NaN above
+     */
+    public static final int DEFAULT_MAJORITY_CARDINALITY = 4096;
+
+    private int band = 1;
+    private boolean allTouched;
+    private int majorityCardinality = DEFAULT_MAJORITY_CARDINALITY;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int layerIndex;
+    /**
+     * prefix of the output fields, short enough for the 10 characters of shapefile field names
+     */
+    private String fieldPrefix = "z_";
+
+    /**
+     * @param band band index, starting from 1
+     */
+    public ZonalStatistics band(int band) {
+        this.band = band;
+        return this;
+    }
+
+    public ZonalStatistics allTouched(boolean allTouched) {
+        this.allTouched = allTouched;
+        return this;
+    }
+
+    /**
+     * @param majorityCardinality maximum number of distinct values of a zone for the majority, 0 to skip it
+     */
+    public ZonalStatistics majorityCardinality(int majorityCardinality) {
+        this.majorityCardinality = majorityCardinality;
+        return this;
+    }
+
+    public ZonalStatistics parallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @param layerIndex layer of a vector file, 0 by default
+     */
+    public ZonalStatistics layerIndex(int layerIndex) {
+        this.layerIndex = layerIndex;
+        return this;
+    }
+
+    /**
+     * @param fieldPrefix prefix of the output fields (count, sum, min, max, mean, std, majority)
+     */
+    public ZonalStatistics fieldPrefix(String fieldPrefix) {
+        this.fieldPrefix = fieldPrefix;
+        return this;
+    }
+
+    /**
+     * Compute the statistics of the zones of a vector file.
+     * Workers read the polygons from their own handle of the file.
+     *
+     * @param raster the raster file
+     * @param vector the vector file (anything {@link VectorIO#read(String)} opens)
+     * @return one zone per feature, in layer order
+     */
+    public List<Zone> compute(String raster, String vector) {
+        DataSource ds = openVector(vector, false);
+        try {
+            Layer layer = ds.GetLayer(layerIndex);
+            return compute(raster, layer, vector);
+        } finally {
+            VectorIO.closeDataSource(ds);
+        }
+    }
+
+    /**
+     * Compute the statistics of the zones of an open layer.
+     * OGR layers cannot be shared between threads: the polygons are kept in memory as WKB during the run,
+     * prefer {@link #compute(String, String)} for large layers.
+     *
+     * @param raster the raster file
+     * @param layer  the polygon layer
+     * @return one zone per feature, in layer order
+     */
+    public List<Zone> compute(String raster, Layer layer) {
+        return compute(raster, layer, (String) null);
+    }
+
+    /**
+     * Compute the statistics of the zones of a vector file and write them to its attribute table.
+     *
+     * @param raster the raster file
+     * @param vector the vector file, opened for update
+     * @return one zone per feature, in layer order
+     */
+    public List<Zone> computeAndWrite(String raster, String vector) {
+        List<Zone> zones = compute(raster, vector);
+        DataSource ds = openVector(vector, true);
+        try {
+            write(ds.GetLayer(layerIndex), zones);
+        } finally {
+            VectorIO.closeDataSource(ds);
+        }
+        return zones;
+    }
+
+    /**
+     * Write the statistics as attribute fields ({@link #fieldPrefix(String)} + count, sum, min, max, mean, std,
+     * majority), creating the missing fields. Fields of zones without valid cells are left unset, except count.
+     *
+     * @param layer the layer the zones were computed from, opened for update
+     * @param zones the zones
+     */
+    public void write(Layer layer, List<Zone> zones) {
+        String[] names = {"count", "sum", "min", "max", "mean", "std", "majority"};
+        int[] fields = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = fieldPrefix + names[i];
+            fields[i] = layer.FindFieldIndex(name, 1);
+            if (fields[i] < 0) {
+                FieldDefn defn = new FieldDefn(name, i == 0 ? ogr.OFTInteger64 : ogr.OFTReal);
+                if (layer.CreateField(defn) != ogr.OGRERR_NONE) {
+                    throw new RuntimeException("Create field " + name + " failed: " + gdal.GetLastErrorMsg());
+                }
+                defn.delete();
+                fields[i] = layer.FindFieldIndex(name, 1);
+            }
+        }
+        boolean transactions = layer.TestCapability(ogr.OLCTransactions);
+        if (transactions) {
+            layer.StartTransaction();
+        }
+        int written = 0;
+        for (Zone zone : zones) {
+            Feature feature = layer.GetFeature(zone.getFid());
+            if (feature == null) {
+                continue;
+            }
+            feature.SetField(fields[0], zone.getCount());
+            if (zone.getCount() > 0) {
+                feature.SetField(fields[1], zone.getSum());
+                feature.SetField(fields[2], zone.getMin());
+                feature.SetField(fields[3], zone.getMax());
+                feature.SetField(fields[4], zone.getMean());
+                feature.SetField(fields[5], zone.getStdDev());
+                if (!Double.isNaN(zone.getMajority())) {
+                    feature.SetField(fields[6], zone.getMajority());
+                }
+            }
+            if (layer.SetFeature(feature) != ogr.OGRERR_NONE) {
+                throw new RuntimeException("Write zone " + zone.getFid() + " failed: " + gdal.GetLastErrorMsg());
+            }
+            feature.delete();
+            // bounded transactions: large layers are not written in one
+            if (transactions && ++written % 10000 == 0) {
+                layer.CommitTransaction();
+                layer.StartTransaction();
+            }
+        }
+        if (transactions) {
+            layer.CommitTransaction();
+        }
+        layer.SyncToDisk();
+    }
+
+    private List<Zone> compute(String raster, Layer layer, String vector) {
+        long start = System.currentTimeMillis();
+        Dataset ds = IOFactory.createRasterIO().read(raster);
+        if (ds == null) {
+            throw new RuntimeException(gdal.GetLastErrorMsg());
+        }
+        double[] gt = ds.GetGeoTransform();
+        String wkt = ds.GetProjectionRef();
+        int xSize = ds.GetRasterXSize();
+        int ySize = ds.GetRasterYSize();
+        Band b = ds.GetRasterBand(band);
+        Double[] nodata = new Double[1];
+        b.GetNoDataValue(nodata);
+        int[] blockX = new int[1];
+        int[] blockY = new int[1];
+        b.GetBlockSize(blockX, blockY);
+        RasterIO.closeDataSet(ds);
+
+        // first pass: ids and pixel windows of the zones, polygons as WKB only for a shared layer
+        int n = (int) layer.GetFeatureCount();
+        List<Long> fids = new ArrayList<>(Math.max(n, 16));
+        List<RasterWindow> windows = new ArrayList<>(Math.max(n, 16));
+        List<byte[]> wkb = vector == null ? new ArrayList<>() : null;
+        CoordinateTransformation ct = transformation(layer.GetSpatialRef(), wkt);
+        double[] envelope = new double[4];
+        layer.ResetReading();
+        Feature feature;
+        while ((feature = layer.GetNextFeature()) != null) {
+            Geometry geometry = feature.GetGeometryRef();
+            RasterWindow window = null;
+            if (geometry != null && !geometry.IsEmpty()) {
+                if (ct != null || wkb != null) {
+                    geometry = geometry.Clone();
+                }
+                if (ct != null) {
+                    geometry.Transform(ct);
+                }
+                geometry.GetEnvelope(envelope);
+                window = pixelWindow(gt, envelope, xSize, ySize);
+                if (wkb != null) {
+                    wkb.add(geometry.ExportToWkb());
+                }
+            } else if (wkb != null) {
+                wkb.add(null);
+            }
+            fids.add(feature.GetFID());
+            windows.add(window);
+            feature.delete();
+        }
+        if (ct != null) {
+            ct.delete();
+        }
+        Supplier<IntFunction<Geometry>> geometries = vector != null
+                ? () -> new FileGeometries(vector, layerIndex, fids, wkt)
+                : () -> i -> wkb.get(i) == null ? null : ogr.CreateGeometryFromWkb(wkb.get(i));
+
+        Zone[] zones = new Zone[fids.size()];
+        Integer[] order = new Integer[zones.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // top to bottom, left to right: workers read neighbouring blocks at the same time
+        Arrays.sort(order, Comparator.comparingLong(i -> windows.get(i) == null ? Long.MAX_VALUE
+                : (long) windows.get(i).getYOff() * xSize + windows.get(i).getXOff()));
+
+        ZoneContext context = new ZoneContext(raster, gt, wkt, nodata[0] == null ? Double.NaN : nodata[0],
+                blockX[0], blockY[0], fids, windows, zones, geometries);
+        ParallelWorkers.forEach(order.length, parallelism, () -> new Worker(context),
+                (worker, index) -> worker.zone(order[(int) index]));
+        log.info("Zonal statistics of {} zones of {} in {} ms", zones.length, raster, System.currentTimeMillis() - start);
+        return Arrays.asList(zones);
+    }
+
+    /**
+     * the state of one worker: its handle of the raster, a memory layer for the zone and buffers
+     */
+    private class Worker implements AutoCloseable {
+        private final ZoneContext context;
+        private final Dataset ds;
+        private final Band band;
+        private final DataSource zoneDs;
+        private final SpatialReference srs;
+        private final Layer zoneLayer;
+        private final Feature zoneFeature;
+        private final IntFunction<Geometry> geometries;
+        private final DirectBufferPool.Lease valueLease;
+        private final DirectBufferPool.Lease maskLease;
+        private final Vector<String> options = new Vector<>();
+        private boolean created;
+
+        Worker(ZoneContext context) {
+            this.context = context;
+            ds = DatasetCache.getDefault().acquire(context.raster, gdalconstConstants.GA_ReadOnly);
+            if (ds == null) {
+                throw new IllegalStateException("Open " + context.raster + " failed: " + gdal.GetLastErrorMsg());
+            }
+            band = ds.GetRasterBand(ZonalStatistics.this.band);
+            org.gdal.ogr.Driver memory = ogr.GetDriverByName(GDALDriversEnum.Memory.getName());
+            zoneDs = memory.CreateDataSource("zone");
+            srs = context.wkt == null || context.wkt.isEmpty() ? null : new SpatialReference(context.wkt);
+            zoneLayer = zoneDs.CreateLayer("zone", srs, ogr.wkbUnknown);
+            zoneFeature = new Feature(zoneLayer.GetLayerDefn());
+            geometries = context.geometries.get();
+            int maxCells = RasterWindow.DEFAULT_WINDOW_CELLS;
+            valueLease = DirectBufferPool.getDefault().acquire(maxCells * Float.BYTES);
+            maskLease = DirectBufferPool.getDefault().acquire(maxCells);
+            if (allTouched) {
+                options.add("ALL_TOUCHED=TRUE");
+            }
+        }
+
+        void zone(int zone) {
+            Accumulator acc = new Accumulator(context.nodata, majorityCardinality);
+            RasterWindow window = context.windows.get(zone);
+            Geometry geometry = window == null ? null : geometries.apply(zone);
+            if (geometry != null) {
+                zoneFeature.SetGeometry(geometry);
+                geometry.delete();
+                int err = created ? zoneLayer.SetFeature(zoneFeature) : zoneLayer.CreateFeature(zoneFeature);
+                if (err != ogr.OGRERR_NONE) {
+                    throw new RuntimeException("Prepare zone " + context.fids.get(zone) + " failed: "
+                            + gdal.GetLastErrorMsg());
+                }
+                created = true;
+                accumulate(context, window, band, zoneLayer, options, valueLease, maskLease, acc);
+            }
+            context.zones[zone] = acc.toZone(context.fids.get(zone));
+        }
+
+        @Override
+        public void close() {
+            maskLease.close();
+            valueLease.close();
+            zoneFeature.delete();
+            zoneDs.delete();
+            if (srs != null) {
+                srs.delete();
+            }
+            DatasetCache.getDefault().release(ds);
+            if (geometries instanceof FileGeometries) {
+                ((FileGeometries) geometries).close();
+            }
+        }
+    }
+
+    /**
+     * rasterize the zone chunk by chunk over its window and accumulate the values of the cells inside
+     */
+    private static void accumulate(ZoneContext context, RasterWindow window, Band band, Layer zoneLayer,
+                                   Vector<String> options, DirectBufferPool.Lease valueLease,
+                                   DirectBufferPool.Lease maskLease, Accumulator acc) {
+        double[] gt = context.gt;
+        org.gdal.gdal.Driver mem = gdal.GetDriverByName(GDALDriversEnum.MEM.getName());
+        ByteBuffer valueBytes = valueLease.bytes();
+        FloatBuffer values = valueLease.asFloatBuffer();
+        ByteBuffer mask = maskLease.bytes();
+        for (RasterWindow chunk : RasterWindow.of(window.getWidth(), window.getHeight(), context.blockX,
+                context.blockY, RasterWindow.DEFAULT_WINDOW_CELLS)) {
+            int x0 = window.getXOff() + chunk.getXOff();
+            int y0 = window.getYOff() + chunk.getYOff();
+            int w = chunk.getWidth();
+            int h = chunk.getHeight();
+            Dataset maskDs = mem.Create("", w, h, 1, gdalconstConstants.GDT_Byte);
+            try {
+                maskDs.SetGeoTransform(new double[]{gt[0] + x0 * gt[1] + y0 * gt[2], gt[1], gt[2],
+                        gt[3] + x0 * gt[4] + y0 * gt[5], gt[4], gt[5]});
+                if (context.wkt != null) {
+                    maskDs.SetProjection(context.wkt);
+                }
+                check(gdal.RasterizeLayer(maskDs, new int[]{1}, zoneLayer, new double[]{1}, options), "Rasterize");
+                mask.clear();
+                check(maskDs.GetRasterBand(1).ReadRaster_Direct(0, 0, w, h, w, h, gdalconstConstants.GDT_Byte, mask),
+                        "Read mask");
+            } finally {
+                maskDs.delete();
+            }
+            int cells = w * h;
+            boolean any = false;
+            for (int i = 0; i < cells && !any; i++) {
+                any = mask.get(i) != 0;
+            }
+            if (!any) {
+                continue;
+            }
+            valueBytes.clear();
+            check(band.ReadRaster_Direct(x0, y0, w, h, w, h, gdalconstConstants.GDT_Float32, valueBytes),
+                    "Read " + chunk);
+            for (int i = 0; i < cells; i++) {
+                if (mask.get(i) != 0) {
+                    acc.add(values.get(i));
+                }
+            }
+        }
+    }
+
+    private static void check(int err, String step) {
+        if (err != gdalconstConstants.CE_None) {
+            throw new RuntimeException(step + " failed: " + gdal.GetLastErrorMsg());
+        }
+    }
+
+    /**
+     * Pixel window covering an envelope, clipped to the raster.
+     *
+     * @param gt       geotransform of the raster
+     * @param envelope minX, maxX, minY, maxY (as returned by {@link Geometry#GetEnvelope(double[])})
+     * @param xSize    raster x size
+     * @param ySize    raster y size
+     * @return the window, null if the envelope is outside the raster
+     */
+    public static RasterWindow pixelWindow(double[] gt, double[] envelope, int xSize, int ySize) {
+        double det = gt[1] * gt[5] - gt[2] * gt[4];
+        double minPx = Double.POSITIVE_INFINITY;
+        double maxPx = Double.NEGATIVE_INFINITY;
+        double minPy = Double.POSITIVE_INFINITY;
+        double maxPy = Double.NEGATIVE_INFINITY;
+        // all four corners: the raster may be rotated
+        for (int cx = 0; cx < 2; cx++) {
+            for (int cy = 2; cy < 4; cy++) {
+                double dx = envelope[cx] - gt[0];
+                double dy = envelope[cy] - gt[3];
+                double px = (gt[5] * dx - gt[2] * dy) / det;
+                double py = (gt[1] * dy - gt[4] * dx) / det;
+                minPx = Math.min(minPx, px);
+                maxPx = Math.max(maxPx, px);
+                minPy = Math.min(minPy, py);
+                maxPy = Math.max(maxPy, py);
+            }
+        }
+        int x0 = (int) Math.max(0, Math.floor(minPx));
+        int y0 = (int) Math.max(0, Math.floor(minPy));
+        int x1 = (int) Math.min(xSize, Math.ceil(maxPx));
+        int y1 = (int) Math.min(ySize, Math.ceil(maxPy));
+        // a point or a line along a cell edge still covers one cell
+        if (x1 == x0 && x0 < xSize) {
+            x1++;
+        }
+        if (y1 == y0 && y0 < ySize) {
+            y1++;
+        }
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new RasterWindow(0, x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private static CoordinateTransformation transformation(SpatialReference layerSrs, String rasterWkt) {
+        if (layerSrs == null || rasterWkt == null || rasterWkt.isEmpty()) {
+            return null;
+        }
+        SpatialReference rasterSrs = new SpatialReference(rasterWkt);
+        try {
+            return layerSrs.IsSame(rasterSrs) == 1 ? null : new CoordinateTransformation(layerSrs, rasterSrs);
+        } finally {
+            rasterSrs.delete();
+        }
+    }
+
+    private static DataSource openVector(String vector, boolean update) {
+        GDALRuntime.init();
+        VectorIO io = new VectorIO();
+        DataSource ds = update ? io.read4Update(vector) : io.read(vector);
+        if (ds == null) {
+            throw new RuntimeException("Open " + vector + " failed: " + gdal.GetLastErrorMsg());
+        }
+        return ds;
+    }
+
+    /**
+     * reads the polygons of one worker from its own handle of the vector file
+     */
+    private static class FileGeometries implements IntFunction<Geometry>, AutoCloseable {
+        private final DataSource ds;
+        private final Layer layer;
+        private final List<Long> fids;
+        private final CoordinateTransformation ct;
+
+        FileGeometries(String vector, int layerIndex, List<Long> fids, String rasterWkt) {
+            this.ds = openVector(vector, false);
+            this.layer = ds.GetLayer(layerIndex);
+            this.fids = fids;
+            this.ct = transformation(layer.GetSpatialRef(), rasterWkt);
+        }
+
+        @Override
+        public Geometry apply(int zone) {
+            Feature feature = layer.GetFeature(fids.get(zone));
+            if (feature == null) {
+                return null;
+            }
+            Geometry geometry = feature.GetGeometryRef() == null ? null : feature.GetGeometryRef().Clone();
+            feature.delete();
+            if (geometry != null && ct != null) {
+                geometry.Transform(ct);
+            }
+            return geometry;
+        }
+
+        @Override
+        public void close() {
+            if (ct != null) {
+                ct.delete();
+            }
+            VectorIO.closeDataSource(ds);
+        }
+    }
+
+    /**
+     * what the workers share
+     */
+    private static class ZoneContext {
+        private final String raster;
+        private final double[] gt;
+        private final String wkt;
+        private final double nodata;
+        private final int blockX;
+        private final int blockY;
+        private final List<Long> fids;
+        private final List<RasterWindow> windows;
+        private final Zone[] zones;
+        private final Supplier<IntFunction<Geometry>> geometries;
+
+        ZoneContext(String raster, double[] gt, String wkt, double nodata, int blockX, int blockY, List<Long> fids,
+                    List<RasterWindow> windows, Zone[] zones, Supplier<IntFunction<Geometry>> geometries) {
+            this.raster = raster;
+            this.gt = gt;
+            this.wkt = wkt;
+            this.nodata = nodata;
+            this.blockX = blockX;
+            this.blockY = blockY;
+            this.fids = fids;
+            this.windows = windows;
+            this.zones = zones;
+            this.geometries = geometries;
+        }
+    }
+
+    /**
+     * statistics of one zone while its cells are visited
+     */
+    private static class Accumulator {
+        private final BandStatistics statistics;
+        private ValueHistogram histogram;
+
+        Accumulator(double nodata, int majorityCardinality) {
+            this.statistics = new BandStatistics(nodata, null, null);
+            this.histogram = majorityCardinality > 0 ? new ValueHistogram(majorityCardinality) : null;
+        }
+
+        void add(float v) {
+            long count = statistics.getCount();
+            statistics.add(v);
+            if (histogram != null && statistics.getCount() > count) {
+                try {
+                    histogram.add(v);
+                } catch (ValueHistogram.CardinalityExceededException e) {
+                    // continuous values: no majority
+                    histogram = null;
+                }
+            }
+        }
+
+        Zone toZone(long fid) {
+            return new Zone(fid, statistics, majority(histogram));
+        }
+
+        private static double majority(ValueHistogram histogram) {
+            if (histogram == null || histogram.size() == 0) {
+                return Double.NaN;
+            }
+            float[] values = histogram.getValues();
+            long[] counts = histogram.getCounts();
+            int best = 0;
+            // ties: the smallest value
+            for (int i = 1; i < values.length; i++) {
+                if (counts[i] > counts[best]) {
+                    best = i;
+                }
+            }
+            return values[best];
+        }
+    }
+
+    /**
+     * Statistics of the valid cells of one zone, NaN when there are none.
+     */
+    @Getter
+    public static class Zone {
+        private final long fid;
+        private final long count;
+        private final long nodataCount;
+        private final double sum;
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double stdDev;
+        /**
+         * most frequent value, NaN if the zone has more distinct values than the majority cardinality
+         */
+        private final double majority;
+
+        Zone(long fid, BandStatistics statistics, double majority) {
+            this.fid = fid;
+            this.count = statistics.getCount();
+            this.nodataCount = statistics.getNodataCount();
+            boolean empty = count == 0;
+            this.sum = empty ? 0 : statistics.getMean() * count;
+            this.min = empty ? Double.NaN : statistics.getMin();
+            this.max = empty ? Double.NaN : statistics.getMax();
+            this.mean = empty ? Double.NaN : statistics.getMean();
+            this.stdDev = empty ? Double.NaN : statistics.getStdDev();
+            this.majority = majority;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("zone %d: count=%d, sum=%.6g, min=%.6g, max=%.6g, mean=%.6g, std=%.6g, majority=%.6g",
+                    fid, count, sum, min, max, mean, stdDev, majority);
+        }
+    }
+}
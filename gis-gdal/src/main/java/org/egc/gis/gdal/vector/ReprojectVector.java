@@ -1,6 +1,7 @@
 package org.egc.gis.gdal.vector;
 
 import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.IOFactory;
 import org.egc.gis.gdal.crs.ProjectionUtils;
 import org.egc.gis.gdal.dto.GDALDriversEnum;
@@ -143,9 +144,7 @@ public class ReprojectVector {
      * @param dstSRS  目标投影
      */
     public static void reprojectUseOgr(String srcFile, String dstFile, SpatialReference dstSRS) {
-        if (gdal.GetDriverCount() == 0) {
-            gdal.AllRegister();
-        }
+        GDALRuntime.init();
         Dataset ds = gdal.OpenEx(srcFile, gdalconst.OF_VECTOR | gdalconst.OF_VERBOSE_ERROR);
         Vector<String> options = new Vector<>();
         options.add("-f");
@@ -155,7 +154,6 @@ public class ReprojectVector {
         options.add("-overwrite");
         gdal.VectorTranslate(dstFile, ds, new VectorTranslateOptions(options));
         ds.delete();
-        gdal.GDALDestroyDriverManager();
     }
 
 }
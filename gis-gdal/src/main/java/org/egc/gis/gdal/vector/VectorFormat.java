@@ -3,6 +3,7 @@ package org.egc.gis.gdal.vector;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
 import org.egc.gis.gdal.FormatConversion;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.IOFactory;
 import org.egc.gis.gdal.dto.GDALDriversEnum;
 import org.gdal.gdal.gdal;
@@ -116,8 +117,7 @@ public class VectorFormat implements FormatConversion {
      */
     @Override
     public String formatConvert(String srcFile, String dstFile, GDALDriversEnum format) throws IOException {
-        gdal.AllRegister();
-        ogr.RegisterAll();
+        GDALRuntime.init();
         DataSource datasource = ogr.Open(srcFile);
         log.info("Convert from {} to {} format", srcFile, format.name());
         Driver driver = ogr.GetDriverByName(format.name());
@@ -1,6 +1,7 @@
 package org.egc.gis.gdal.vector;
 
 import lombok.extern.slf4j.Slf4j;
+import org.egc.gis.gdal.GDALRuntime;
 import org.egc.gis.gdal.dto.Consts;
 import org.egc.gis.gdal.dto.GDALDriversEnum;
 import org.gdal.gdal.gdal;
@@ -24,15 +25,13 @@ import java.io.File;
 public class VectorIO {
 
     public DataSource read(String vector) {
-        ogr.RegisterAll();
-        gdal.SetConfigOption(Consts.GDAL_FILENAME_IS_UTF8, Consts.YES);
+        GDALRuntime.init();
         gdal.SetConfigOption(Consts.SHAPE_ENCODING, Consts.CP936);
         return ogr.Open(vector);
     }
 
     public DataSource read4Update(String vector) {
-        ogr.RegisterAll();
-        gdal.SetConfigOption(Consts.GDAL_FILENAME_IS_UTF8, Consts.YES);
+        GDALRuntime.init();
         gdal.SetConfigOption(Consts.SHAPE_ENCODING, Consts.CP936);
         return ogr.Open(vector, gdalconst.GA_Update);
     }
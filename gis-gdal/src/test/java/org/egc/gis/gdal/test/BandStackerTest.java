@@ -0,0 +1,104 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.BandStacker;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 10:00
+ */
+public class BandStackerTest {
+
+    private static final int SIZE = 40;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("stack").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    @Test
+    public void testStack() {
+        List<String> inputs = Arrays.asList(band("b2.tif", 2), band("b3.tif", 3), band("b4.tif", 4));
+        String out = new BandStacker().parallelism(2).stack(inputs, new File(dir, "stack.tif").getPath());
+        Dataset ds = gdal.Open(out);
+        try {
+            assertEquals(3, ds.GetRasterCount());
+            Double[] nodata = new Double[1];
+            ds.GetRasterBand(2).GetNoDataValue(nodata);
+            assertEquals(-9999, nodata[0], 0);
+        } finally {
+            ds.delete();
+        }
+        for (int b = 1; b <= 3; b++) {
+            assertArrayEquals(values(b + 1), TestRasters.read(out, b), 0);
+        }
+    }
+
+    @Test
+    public void testVrtOnly() {
+        List<String> inputs = Arrays.asList(band("b2.tif", 2), band("b3.tif", 3));
+        String out = new BandStacker().vrtOnly(true).stack(inputs, new File(dir, "stack.tif").getPath());
+        assertTrue(out.endsWith("stack.vrt"));
+        assertArrayEquals(values(3), TestRasters.read(out, 2), 0);
+    }
+
+    @Test
+    public void testMisaligned() {
+        String a = band("a.tif", 1);
+        // half a cell to the east
+        double[] gt = TestRasters.gt(10);
+        gt[0] += 5;
+        String shifted = TestRasters.geotiff(dir, "shifted.tif", SIZE, SIZE, gt, -9999d, values(2));
+        String smaller = TestRasters.geotiff(dir, "smaller.tif", SIZE - 1, SIZE, TestRasters.gt(10), -9999d,
+                new float[(SIZE - 1) * SIZE]);
+        for (String other : new String[]{shifted, smaller}) {
+            String out = new File(dir, "stack.tif").getPath();
+            try {
+                new BandStacker().stack(Arrays.asList(a, other), out);
+                fail(other + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(other));
+            }
+            assertFalse(new File(out).exists());
+        }
+    }
+
+    private String band(String name, int value) {
+        return TestRasters.geotiff(dir, name, SIZE, SIZE, TestRasters.gt(10), -9999d, values(value));
+    }
+
+    /**
+     * value * 1000 + cell index, nodata in the first cell
+     */
+    private static float[] values(int value) {
+        float[] values = new float[SIZE * SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value * 1000 + i;
+        }
+        values[0] = -9999;
+        return values;
+    }
+}
@@ -0,0 +1,77 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.CogValidator;
+import org.egc.gis.gdal.raster.CogWriter;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/31 11:00
+ */
+public class CogValidatorTest {
+
+    private static final int IFD_SIZE = 2 + 5 * 12 + 4;
+
+    @Test
+    public void testCogLayout() throws IOException {
+        // main IFD, overview IFD, overview data, main data
+        File file = tiff(8, 8 + IFD_SIZE, 500, 200);
+        CogValidator.Report report = CogValidator.validate(file.getPath());
+        assertTrue(report.toString(), report.isValid());
+        assertTrue(report.getWarnings().isEmpty());
+    }
+
+    @Test
+    public void testMainDataFirst() throws IOException {
+        File file = tiff(8, 8 + IFD_SIZE, 200, 500);
+        CogValidator.Report report = CogValidator.validate(file.getPath());
+        assertFalse(report.isValid());
+        assertEquals(1, report.getErrors().size());
+    }
+
+    @Test
+    public void testOverviewLevels() {
+        assertArrayEquals(new int[0], CogWriter.overviewLevels(512, 300, 512));
+        assertArrayEquals(new int[]{2, 4, 8}, CogWriter.overviewLevels(4000, 3000, 512));
+    }
+
+    /**
+     * little-endian TIFF with a 1024x1024 tiled image and a 512x512 tiled overview
+     */
+    private static File tiff(int mainIfd, int overviewIfd, int mainData, int overviewData) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(600).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(mainIfd);
+        ifd(buffer, mainIfd, 0, 1024, mainData, overviewIfd);
+        ifd(buffer, overviewIfd, 1, 512, overviewData, 0);
+        File file = File.createTempFile("cog", ".tif");
+        file.deleteOnExit();
+        Files.write(file.toPath(), buffer.array());
+        return file;
+    }
+
+    private static void ifd(ByteBuffer buffer, int offset, int subfileType, int size, int data, int next) {
+        buffer.position(offset);
+        buffer.putShort((short) 5);
+        entry(buffer, 254, subfileType);
+        entry(buffer, 256, size);
+        entry(buffer, 257, size);
+        entry(buffer, 322, 512);
+        entry(buffer, 324, data);
+        buffer.putInt(next);
+    }
+
+    private static void entry(ByteBuffer buffer, int tag, int value) {
+        buffer.putShort((short) tag).putShort((short) 4).putInt(1).putInt(value);
+    }
+}
@@ -0,0 +1,140 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.DatasetCache;
+import org.egc.gis.gdal.IOFactory;
+import org.egc.gis.gdal.raster.RasterIO;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.osr.SpatialReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/14 11:00
+ */
+public class DatasetCacheTest {
+
+    private File dir;
+    private String raster;
+    private DatasetCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("cache").toFile();
+        raster = TestRasters.geotiff(dir, "a.tif", 8, 8, TestRasters.gt(10), null, new float[64]);
+        cache = new DatasetCache(8, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        cache.invalidateAll();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReuse() {
+        Dataset first = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        assertTrue(cache.release(first));
+        Dataset second = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        cache.release(second);
+        assertEquals(1, cache.getIdleCount());
+    }
+
+    @Test
+    public void testUpdateNotCached() {
+        cache.release(cache.acquire(raster, gdalconstConstants.GA_ReadOnly));
+        assertEquals(1, cache.getIdleCount());
+        // closes the idle read-only handle
+        Dataset update = cache.acquire(raster, gdalconstConstants.GA_Update);
+        assertEquals(0, cache.getIdleCount());
+        assertEquals(1, cache.getOpenCount());
+        assertTrue(cache.release(update));
+        assertEquals(0, cache.getOpenCount());
+        Dataset again = cache.acquire(raster, gdalconstConstants.GA_Update);
+        assertNotSame(update, again);
+        cache.release(again);
+    }
+
+    @Test
+    public void testDeletedHandle() {
+        Dataset ds = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        ds.delete();
+        assertTrue(cache.release(ds));
+        assertEquals(0, cache.getOpenCount());
+        Dataset reopened = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        assertEquals(8, reopened.GetRasterXSize());
+        cache.release(reopened);
+    }
+
+    @Test
+    public void testDeletedWithoutRelease() {
+        cache.acquire(raster, gdalconstConstants.GA_ReadOnly).delete();
+        assertEquals(1, cache.getOpenCount());
+        cache.evictIdle();
+        assertEquals(0, cache.getOpenCount());
+    }
+
+    /**
+     * same size, modification time 1 ms later: a new version
+     */
+    @Test
+    public void testChangedFile() throws IOException {
+        File file = new File(raster);
+        FileTime modified = Files.getLastModifiedTime(file.toPath());
+        Dataset ds = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        cache.release(ds);
+
+        float[] ones = new float[64];
+        Arrays.fill(ones, 1);
+        cache.invalidate(raster);
+        TestRasters.geotiff(dir, "a.tif", 8, 8, TestRasters.gt(10), null, ones);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified.toMillis() + 1));
+        Dataset first = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        cache.release(first);
+
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified.toMillis() + 2));
+        Dataset second = cache.acquire(raster, gdalconstConstants.GA_ReadOnly);
+        assertNotSame(first, second);
+        assertEquals(0, cache.getHits());
+        cache.release(second);
+    }
+
+    /**
+     * a writer closes the idle handles of its output before creating it, which would lock the file on Windows
+     */
+    @Test
+    public void testWriteClosesIdle() {
+        DatasetCache shared = DatasetCache.getDefault();
+        shared.invalidateAll();
+        RasterIO io = IOFactory.createRasterIO();
+        RasterIO.closeDataSet(io.read(raster));
+        assertEquals(1, shared.getIdleCount());
+
+        float[] ones = new float[64];
+        Arrays.fill(ones, 1);
+        SpatialReference srs = new SpatialReference();
+        srs.ImportFromEPSG(32650);
+        io.writeGeotiffFile(raster, 8, 8, ones, TestRasters.gt(10), srs, -9999, gdalconstConstants.GDT_Float32);
+        srs.delete();
+        assertEquals(0, shared.getIdleCount());
+        assertEquals(1, TestRasters.read(raster, 1)[0], 0);
+    }
+}
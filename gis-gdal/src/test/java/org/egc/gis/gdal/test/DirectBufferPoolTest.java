@@ -0,0 +1,56 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.DirectBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/24 15:05
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testReuseBySizeClass() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 24);
+        ByteBuffer first;
+        try (DirectBufferPool.Lease lease = pool.acquire(5000 * Float.BYTES)) {
+            first = lease.bytes();
+            assertTrue(first.isDirect());
+            assertEquals(ByteOrder.nativeOrder(), first.order());
+            assertEquals(32768, first.capacity());
+            assertEquals(1, pool.getOutstanding());
+        }
+        assertEquals(0, pool.getOutstanding());
+        // same size class
+        try (DirectBufferPool.Lease lease = pool.acquire(6000 * Float.BYTES)) {
+            assertSame(first, lease.bytes());
+            FloatBuffer floats = lease.asFloatBuffer();
+            assertEquals(6000, floats.capacity());
+            floats.put(5999, 1.5f);
+            assertEquals(1.5f, lease.bytes().getFloat(5999 * Float.BYTES), 0);
+        }
+        assertEquals(0.5, pool.getHitRate(), 0);
+        assertEquals(32768, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testRetainedBudget() {
+        DirectBufferPool pool = new DirectBufferPool(8192);
+        DirectBufferPool.Lease a = pool.acquire(8192);
+        DirectBufferPool.Lease b = pool.acquire(8192);
+        a.close();
+        b.close();
+        b.close();
+        assertEquals(8192, pool.getRetainedBytes());
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+    }
+}
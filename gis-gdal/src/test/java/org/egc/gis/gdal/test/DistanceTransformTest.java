@@ -0,0 +1,185 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.DistanceTransform;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/12 15:00
+ */
+public class DistanceTransformTest {
+
+    @Test
+    public void testMatchesBruteForce() {
+        int width = 37;
+        int height = 23;
+        double cellX = 30;
+        double cellY = 20;
+        boolean[] sources = new boolean[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextDouble() < 0.02;
+        }
+        long[] nearest = new long[sources.length];
+        float[] distance = DistanceTransform.transform(sources, width, height, cellX, cellY, nearest);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double best = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < sources.length; i++) {
+                    if (sources[i]) {
+                        best = Math.min(best, Math.hypot((i % width - x) * cellX, (i / width - y) * cellY));
+                    }
+                }
+                int cell = y * width + x;
+                assertEquals(best, distance[cell], 1e-3);
+                long source = nearest[cell];
+                assertTrue(sources[(int) source]);
+                assertEquals(best, Math.hypot((source % width - x) * cellX, (source / width - y) * cellY), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testNoSource() {
+        long[] nearest = new long[6];
+        float[] distance = DistanceTransform.transform(new boolean[6], 3, 2, 1, 1, nearest);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(Float.isInfinite(distance[i]));
+            assertEquals(-1, nearest[i]);
+        }
+    }
+
+    /**
+     * in memory and in strips of 4 rows (nearest rows spilled to disk), against brute force and
+     * gdal.ComputeProximity, which is not exact but within a cell
+     */
+    @Test
+    public void testMatchesProximity() throws IOException {
+        int width = 50;
+        int height = 30;
+        double cell = 10;
+        float[] values = new float[width * height];
+        Random random = new Random(7);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() < 0.01 ? 1 : 0;
+        }
+        File dir = Files.createTempDirectory("edt").toFile();
+        try {
+            String sources = TestRasters.geotiff(dir, "sources.tif", width, height, TestRasters.gt(cell), null, values);
+            String proximity = DistanceTransform.proximity(sources, new File(dir, "proximity.tif").getPath());
+            float[] reference = TestRasters.read(proximity, 1);
+            for (int stripCells : new int[]{1 << 23, 4 * width}) {
+                String edt = new DistanceTransform().stripCells(stripCells).parallelism(2)
+                        .compute(sources, new File(dir, "edt" + stripCells + ".tif").getPath());
+                float[] distance = TestRasters.read(edt, 1);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        double best = Double.POSITIVE_INFINITY;
+                        for (int i = 0; i < values.length; i++) {
+                            if (values[i] != 0) {
+                                best = Math.min(best, Math.hypot((i % width - x) * cell, (i / width - y) * cell));
+                            }
+                        }
+                        int i = y * width + x;
+                        assertEquals(x + ", " + y, best, distance[i], 1e-3);
+                        assertEquals(x + ", " + y, reference[i], distance[i], cell);
+                    }
+                }
+            }
+        } finally {
+            TestRasters.delete(dir);
+        }
+    }
+
+    /**
+     * sources of given values, nodata cells (never sources, nodata in the output) and the nearest source index
+     */
+    @Test
+    public void testSourceValuesAndNodata() throws IOException {
+        int width = 40;
+        int height = 25;
+        double cell = 10;
+        float[] values = new float[width * height];
+        Random random = new Random(11);
+        for (int i = 0; i < values.length; i++) {
+            double r = random.nextDouble();
+            values[i] = r < 0.02 ? 3 : r < 0.1 ? -9999 : r < 0.5 ? 1 : 0;
+        }
+        File dir = Files.createTempDirectory("edt").toFile();
+        try {
+            String sources = TestRasters.geotiff(dir, "sources.tif", width, height, TestRasters.gt(cell), -9999d,
+                    values);
+            for (double[] sourceValues : new double[][]{{3}, null}) {
+                for (int stripCells : new int[]{1 << 23, 4 * width}) {
+                    String index = new File(dir, "index" + stripCells + ".tif").getPath();
+                    String edt = new DistanceTransform().sourceValues(sourceValues).nearestIndex(index)
+                            .stripCells(stripCells).compute(sources, new File(dir, "edt.tif").getPath());
+                    float[] distance = TestRasters.read(edt, 1);
+                    float[] nearest = TestRasters.read(index, 1);
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] == -9999) {
+                            assertEquals(-9999, distance[i], 0);
+                            assertEquals(-9999, nearest[i], 0);
+                            continue;
+                        }
+                        int x = i % width;
+                        int y = i / width;
+                        double best = Double.POSITIVE_INFINITY;
+                        for (int j = 0; j < values.length; j++) {
+                            if (isSource(values[j], sourceValues)) {
+                                best = Math.min(best, Math.hypot((j % width - x) * cell, (j / width - y) * cell));
+                            }
+                        }
+                        assertEquals(x + ", " + y, best, distance[i], 1e-3);
+                        int source = (int) nearest[i];
+                        assertTrue(isSource(values[source], sourceValues));
+                        assertEquals(best, Math.hypot((source % width - x) * cell, (source / width - y) * cell),
+                                1e-3);
+                    }
+                }
+            }
+        } finally {
+            TestRasters.delete(dir);
+        }
+    }
+
+    /**
+     * the given values, or any non-zero value; never nodata
+     */
+    private static boolean isSource(float v, double[] sourceValues) {
+        return v != -9999 && (sourceValues == null ? v != 0 : v == sourceValues[0]);
+    }
+
+    @Test
+    public void testMissingSource() throws IOException {
+        File dir = Files.createTempDirectory("edt").toFile();
+        try {
+            String missing = new File(dir, "sources.tif").getPath();
+            File edt = new File(dir, "edt.tif");
+            try {
+                new DistanceTransform().compute(missing, edt.getPath());
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(missing));
+            }
+            assertFalse(edt.exists());
+        } finally {
+            TestRasters.delete(dir);
+        }
+    }
+
+    @Test
+    public void testStripCellsClamped() {
+        assertEquals(Integer.MAX_VALUE / Double.BYTES, new DistanceTransform().stripCells(1 << 30).getStripCells());
+    }
+}
@@ -0,0 +1,112 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.FocalEngine;
+import org.egc.gis.gdal.raster.RasterWindow;
+import org.egc.gis.gdal.raster.TerrainKernels;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 15:00
+ */
+public class FocalEngineTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("focal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    /**
+     * narrower than a tile: the raster is cut in strips taller than the tile size
+     */
+    @Test
+    public void testNarrowRaster() {
+        int width = 20;
+        int height = 1100;
+        float[] values = new float[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                values[row * width + col] = 10 * col + 5 * row;
+            }
+        }
+        String dem = TestRasters.geotiff(dir, "dem.tif", width, height, TestRasters.gt(10), -9999d, values);
+        double expected = Math.toDegrees(Math.atan(Math.sqrt(1.25)));
+        for (int threads : new int[]{1, 3}) {
+            String out = new File(dir, "slope" + threads + ".tif").getPath();
+            new FocalEngine().tileSize(64).parallelism(threads).run(dem, out, TerrainKernels.slope());
+            float[] slope = TestRasters.read(out, 1);
+            assertEquals(values.length, slope.length);
+            // inner cells, including those along the strip seams
+            for (int row = 1; row < height - 1; row++) {
+                for (int col = 1; col < width - 1; col++) {
+                    assertEquals(col + ", " + row, expected, slope[row * width + col], 1e-4);
+                }
+            }
+        }
+    }
+
+    /**
+     * a cell a little off the nodata value, as after a Float32 round trip, is still nodata
+     */
+    @Test
+    public void testNodataTolerance() {
+        int size = 30;
+        float[] values = new float[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                values[row * size + col] = 10 * col;
+            }
+        }
+        values[15 * size + 15] = -9999.0005f;
+        String dem = TestRasters.geotiff(dir, "dem.tif", size, size, TestRasters.gt(10), -9999d, values);
+        String out = new File(dir, "slope.tif").getPath();
+        new FocalEngine().tileSize(16).run(dem, out, TerrainKernels.slope());
+        float[] slope = TestRasters.read(out, 1);
+        assertEquals(-9999, slope[15 * size + 15], 0);
+        // the neighbors take their own value for the missing cell, not -9999
+        assertEquals(45, slope[14 * size + 15], 1e-4);
+        assertEquals(Math.toDegrees(Math.atan(0.75)), slope[15 * size + 14], 1e-4);
+    }
+
+    /**
+     * the blocks of the output divide the tiles, so that no block is written by two workers
+     */
+    @Test
+    public void testBlockSize() {
+        assertEquals(256, RasterWindow.blockSize(256));
+        assertEquals(400, RasterWindow.blockSize(400));
+        assertEquals(512, RasterWindow.blockSize(1024));
+        assertEquals(176, RasterWindow.blockSize(528));
+        assertEquals(16, RasterWindow.blockSize(16));
+
+        String dem = TestRasters.geotiff(dir, "flat.tif", 50, 50, TestRasters.gt(10), null, new float[50 * 50]);
+        String out = new File(dir, "slope.tif").getPath();
+        new FocalEngine().tileSize(400).run(dem, out, TerrainKernels.slope());
+        Dataset ds = gdal.Open(out);
+        try {
+            Band band = ds.GetRasterBand(1);
+            assertEquals(400, band.GetBlockXSize());
+            assertEquals(400, band.GetBlockYSize());
+        } finally {
+            ds.delete();
+        }
+    }
+}
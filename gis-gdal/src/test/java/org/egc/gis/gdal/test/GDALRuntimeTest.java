@@ -0,0 +1,41 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.GDALRuntime;
+import org.gdal.gdal.gdal;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/16 9:00
+ */
+public class GDALRuntimeTest {
+
+    /**
+     * drivers are registered once, later overrides are ignored
+     */
+    @Test
+    public void testInitOnce() {
+        GDALRuntime.init();
+        assertTrue(GDALRuntime.isInitialized());
+        int drivers = gdal.GetDriverCount();
+        GDALRuntime.init(Collections.singletonMap(GDALRuntime.GDAL_CACHEMAX, "1"));
+        GDALRuntime.init();
+        assertEquals(drivers, gdal.GetDriverCount());
+        assertEquals("512", GDALRuntime.getProfile().get(GDALRuntime.GDAL_CACHEMAX));
+    }
+
+    /**
+     * the engines run their own workers: GDAL does not add threads per worker
+     */
+    @Test
+    public void testNumThreads() {
+        GDALRuntime.init();
+        assertEquals("1", GDALRuntime.getProfile().get(GDALRuntime.GDAL_NUM_THREADS));
+        assertEquals("1", gdal.GetConfigOption(GDALRuntime.GDAL_NUM_THREADS));
+    }
+}
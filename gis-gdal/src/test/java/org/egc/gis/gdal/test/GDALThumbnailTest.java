@@ -0,0 +1,119 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.GDALThumbnail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/16 11:00
+ */
+public class GDALThumbnailTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 20;
+
+    private File dir;
+    private String raster;
+
+    /**
+     * 40 x 20 cells, value = col / 2, so that a read at half size gives value = col; a nodata block
+     * of 2 x 2 cells at columns 10-11, rows 4-5
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("thumbnail").toFile();
+        float[] values = new float[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                values[row * WIDTH + col] = col / 2;
+            }
+        }
+        for (int row = 4; row < 6; row++) {
+            for (int col = 10; col < 12; col++) {
+                values[row * WIDTH + col] = -9999;
+            }
+        }
+        raster = TestRasters.geotiff(dir, "values.tif", WIDTH, HEIGHT, TestRasters.gt(10), -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    /**
+     * the size is ceil(size * scale), not size / (int) (1 / scale)
+     */
+    @Test
+    public void testSize() throws IOException {
+        GDALThumbnail thumbnail = new GDALThumbnail();
+        BufferedImage image = png(thumbnail, 0.3);
+        assertEquals(12, image.getWidth());
+        assertEquals(6, image.getHeight());
+        image = png(thumbnail, 0.6);
+        assertEquals(24, image.getWidth());
+        assertEquals(12, image.getHeight());
+
+        File out = new File(dir, "thumb.png");
+        assertTrue(thumbnail.createThumbnail(raster, out.getPath(), 1, 0.5));
+        image = ImageIO.read(out);
+        assertEquals(20, image.getWidth());
+        assertEquals(10, image.getHeight());
+    }
+
+    @Test
+    public void testNodataTransparent() throws IOException {
+        BufferedImage image = png(new GDALThumbnail(), 0.5);
+        for (int row = 0; row < 10; row++) {
+            for (int col = 0; col < 20; col++) {
+                int alpha = image.getRGB(col, row) >>> 24;
+                assertEquals(col + ", " + row, col == 5 && row == 2 ? 0 : 255, alpha);
+            }
+        }
+    }
+
+    /**
+     * 0 stretches between min and max; 10% cuts the first and last columns (10 cells each of 199)
+     */
+    @Test
+    public void testStretch() throws IOException {
+        GDALThumbnail thumbnail = new GDALThumbnail();
+        thumbnail.setStretchPercent(0);
+        BufferedImage image = png(thumbnail, 0.5);
+        assertEquals(0, gray(image, 0));
+        assertEquals(13, gray(image, 1));
+        assertEquals(242, gray(image, 18));
+        assertEquals(255, gray(image, 19));
+
+        thumbnail.setStretchPercent(10);
+        image = png(thumbnail, 0.5);
+        assertEquals(0, gray(image, 0));
+        assertEquals(0, gray(image, 1));
+        assertEquals(255, gray(image, 18));
+        assertEquals(255, gray(image, 19));
+    }
+
+    private BufferedImage png(GDALThumbnail thumbnail, double scale) throws IOException {
+        byte[] bytes = thumbnail.render(raster, new int[]{1}, scale, "PNG");
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @return the gray level of the column, in a row without nodata
+     */
+    private static int gray(BufferedImage image, int col) {
+        return image.getRGB(col, 0) >> 16 & 0xff;
+    }
+}
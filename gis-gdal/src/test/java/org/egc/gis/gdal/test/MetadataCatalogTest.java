@@ -0,0 +1,94 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.MetadataCatalog;
+import org.egc.gis.gdal.dto.RasterMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 14:00
+ */
+public class MetadataCatalogTest {
+
+    private File dir;
+    private File catalogDir;
+    private String raster;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("catalog-data").toFile();
+        catalogDir = Files.createTempDirectory("catalog").toFile();
+        float[] values = new float[20 * 20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        raster = TestRasters.geotiff(dir, "values.tif", 20, 20, TestRasters.gt(10), -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+        TestRasters.delete(catalogDir);
+    }
+
+    @Test
+    public void testCached() {
+        MetadataCatalog catalog = new MetadataCatalog(catalogDir);
+        RasterMetadata first = catalog.getRaster(raster);
+        assertEquals(399, first.getMaxValue(), 0);
+        // a copy: changes of the caller do not reach the catalog
+        first.setMaxValue(-1);
+        RasterMetadata second = catalog.getRaster(raster);
+        assertNotSame(first, second);
+        assertEquals(399, second.getMaxValue(), 0);
+        assertEquals(1, catalog.getComputes());
+        assertEquals(1, catalog.getHits());
+
+        assertNotNull(second.getSrs());
+        assertNotSame(second.getSrs(), catalog.getRaster(raster).getSrs());
+    }
+
+    @Test
+    public void testReloaded() {
+        new MetadataCatalog(catalogDir).getRaster(raster);
+        MetadataCatalog catalog = new MetadataCatalog(catalogDir);
+        assertEquals(399, catalog.getRaster(raster).getMaxValue(), 0);
+        assertEquals(1, catalog.getLoads());
+        assertEquals(0, catalog.getComputes());
+    }
+
+    @Test
+    public void testChanged() {
+        MetadataCatalog catalog = new MetadataCatalog(catalogDir);
+        catalog.getRaster(raster);
+        File file = new File(raster);
+        file.setLastModified(file.lastModified() - 60000);
+        catalog.getRaster(raster);
+        assertEquals(2, catalog.getComputes());
+    }
+
+    /**
+     * records that cannot be read, e.g. of an older version, are recomputed
+     */
+    @Test
+    public void testUnreadableRecord() throws IOException {
+        new MetadataCatalog(catalogDir).getRaster(raster);
+        File[] records = catalogDir.listFiles();
+        assertEquals(1, records.length);
+        Files.write(records[0].toPath(), new byte[]{1, 2, 3});
+        MetadataCatalog catalog = new MetadataCatalog(catalogDir);
+        assertEquals(399, catalog.getRaster(raster).getMaxValue(), 0);
+        assertEquals(0, catalog.getLoads());
+        assertEquals(1, catalog.getComputes());
+    }
+}
@@ -0,0 +1,58 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.OverviewBuilder;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/14 14:00
+ */
+public class OverviewBuilderTest {
+
+    @Test
+    public void testLevels() {
+        assertArrayEquals(new int[]{2, 4, 8}, OverviewBuilder.levels(2000, 1000, 256));
+        // the largest side counts
+        assertArrayEquals(new int[]{2, 4, 8}, OverviewBuilder.levels(100, 2000, 256));
+        // 257 -> 129
+        assertArrayEquals(new int[]{2}, OverviewBuilder.levels(257, 10, 256));
+    }
+
+    @Test
+    public void testNoLevels() {
+        assertEquals(0, OverviewBuilder.levels(256, 256, 256).length);
+        assertEquals(0, OverviewBuilder.levels(1, 1, 256).length);
+    }
+
+    @Test
+    public void testValidate() throws IOException {
+        File dir = Files.createTempDirectory("ovr").toFile();
+        try {
+            int size = 300;
+            String raster = TestRasters.geotiff(dir, "a.tif", size, size, TestRasters.gt(10), null,
+                    new float[size * size]);
+            List<String> missing = OverviewBuilder.validate(raster, 64);
+            // 1/2, 1/4, 1/8 of the band
+            assertEquals(3, missing.size());
+            assertTrue(missing.get(0).startsWith("band 1: overview 1/2 (150x150)"));
+
+            int[] levels = new OverviewBuilder().tileSize(64).build(raster);
+            assertArrayEquals(new int[]{2, 4, 8}, levels);
+            assertTrue(OverviewBuilder.validate(raster, 64).isEmpty());
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.ParallelWorkers;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/14 10:00
+ */
+public class ParallelWorkersTest {
+
+    @Test
+    public void testResultOfEachWorker() {
+        AtomicInteger next = new AtomicInteger();
+        List<Integer> counts = ParallelWorkers.call(4, failed -> {
+            int n = 0;
+            while (next.getAndIncrement() < 1000) {
+                n++;
+            }
+            return n;
+        });
+        assertEquals(4, counts.size());
+        int total = 0;
+        for (int n : counts) {
+            total += n;
+        }
+        assertEquals(1000, total);
+    }
+
+    /**
+     * one tile throws, the other workers are cancelled: the caller gets the error of the tile
+     */
+    @Test
+    public void testFirstFailureRethrown() {
+        for (int run = 0; run < 20; run++) {
+            AtomicInteger next = new AtomicInteger();
+            try {
+                ParallelWorkers.run(4, failed -> {
+                    int tile;
+                    while ((tile = next.getAndIncrement()) < 200) {
+                        if (failed.get()) {
+                            throw new CancellationException();
+                        }
+                        if (tile == 37) {
+                            throw new IllegalStateException("tile 37");
+                        }
+                        sleep();
+                    }
+                });
+                fail("tile 37 should fail");
+            } catch (IllegalStateException e) {
+                assertEquals("tile 37", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testForEachItemOnce() {
+        AtomicIntegerArray seen = new AtomicIntegerArray(1000);
+        List<int[]> states = ParallelWorkers.forEach(seen.length(), 4, () -> new int[1], (count, index) -> {
+            seen.incrementAndGet((int) index);
+            count[0]++;
+        });
+        assertEquals(4, states.size());
+        int total = 0;
+        for (int[] count : states) {
+            total += count[0];
+        }
+        assertEquals(1000, total);
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals(1, seen.get(i));
+        }
+    }
+
+    /**
+     * no more workers than items
+     */
+    @Test
+    public void testForEachFewItems() {
+        assertEquals(2, ParallelWorkers.forEach(2, 8, () -> null, (state, index) -> sleep()).size());
+        assertEquals(1, ParallelWorkers.forEach(0, 8, () -> null, (state, index) -> sleep()).size());
+    }
+
+    /**
+     * the state of every worker is closed, also when an item fails
+     */
+    @Test
+    public void testForEachClosesStates() {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        try {
+            ParallelWorkers.forEach(200, 4, () -> {
+                opened.incrementAndGet();
+                return (AutoCloseable) closed::incrementAndGet;
+            }, (state, index) -> {
+                if (index == 37) {
+                    throw new IllegalStateException("item 37");
+                }
+                sleep();
+            });
+            fail("item 37 should fail");
+        } catch (IllegalStateException e) {
+            assertEquals("item 37", e.getMessage());
+        }
+        assertTrue(opened.get() > 0);
+        assertEquals(opened.get(), closed.get());
+    }
+
+    @Test
+    public void testSingleWorkerOnCallingThread() {
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = ParallelWorkers.call(1, failed -> Thread.currentThread());
+        assertEquals(caller, threads.get(0));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
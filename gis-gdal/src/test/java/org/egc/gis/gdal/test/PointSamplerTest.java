@@ -0,0 +1,116 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.PointSampler;
+import org.gdal.gdal.gdal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 9:00
+ */
+public class PointSamplerTest {
+
+    private static final double[] GT = TestRasters.gt(10);
+
+    private String raster;
+
+    /**
+     * 40 x 40 cells in blocks of 16 x 16 (3 x 3 blocks), value col + 100 * row, nodata at (30, 30)
+     */
+    @Before
+    public void setUp() {
+        float[] values = new float[40 * 40];
+        for (int row = 0; row < 40; row++) {
+            for (int col = 0; col < 40; col++) {
+                values[row * 40 + col] = col + 100 * row;
+            }
+        }
+        values[30 * 40 + 30] = -9999;
+        raster = TestRasters.geotiff("/vsimem/point-sampler.tif", 40, 40, GT, -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        gdal.Unlink(raster);
+    }
+
+    @Test
+    public void testNearest() {
+        double[] values = sample(new PointSampler(), new double[]{15.5, 16.2, 0.01, 39.99, 30.5, 40.5, -0.1},
+                new double[]{15.5, 3.7, 0.01, 39.99, 30.5, 10, 10});
+        assertEquals(1515, values[0], 0);
+        // first cell of the next block
+        assertEquals(316, values[1], 0);
+        assertEquals(0, values[2], 0);
+        assertEquals(3939, values[3], 0);
+        // nodata
+        assertTrue(Double.isNaN(values[4]));
+        // outside
+        assertTrue(Double.isNaN(values[5]));
+        assertTrue(Double.isNaN(values[6]));
+    }
+
+    @Test
+    public void testBilinear() {
+        PointSampler sampler = new PointSampler().method(PointSampler.Method.BILINEAR);
+        double[] values = sample(sampler, new double[]{16, 0.2, 39.9, 30.5, 12.25},
+                new double[]{16, 0.2, 20.5, 30, 7.75});
+        // corner of 4 blocks: mean of the 4 cells around
+        assertEquals(15.5 + 1550, values[0], 1e-4);
+        // edges: the outer neighbours are the edge cells
+        assertEquals(0, values[1], 1e-4);
+        assertEquals(39 + 2000, values[2], 1e-4);
+        // the nodata neighbour is ignored
+        assertEquals(30 + 2900, values[3], 1e-4);
+        // inside a block, exact on a plane
+        assertEquals(11.75 + 725, values[4], 1e-4);
+    }
+
+    /**
+     * points in random order, several workers with small caches: each block is read once
+     */
+    @Test
+    public void testBlockBatches() {
+        Random random = new Random(7);
+        int n = 5000;
+        double[] px = new double[n];
+        double[] py = new double[n];
+        for (int i = 0; i < n; i++) {
+            px[i] = random.nextDouble() * 40;
+            py[i] = random.nextDouble() * 40;
+        }
+        PointSampler sampler = new PointSampler().parallelism(4).cacheBlocks(4);
+        double[] values = sample(sampler, px, py);
+        for (int i = 0; i < n; i++) {
+            int col = (int) px[i];
+            int row = (int) py[i];
+            if (col == 30 && row == 30) {
+                assertTrue(Double.isNaN(values[i]));
+            } else {
+                assertEquals(col + 100 * row, values[i], 0);
+            }
+        }
+        assertEquals(9, sampler.getLastBlockReads());
+    }
+
+    /**
+     * @param px pixel coordinates
+     * @param py line coordinates
+     */
+    private double[] sample(PointSampler sampler, double[] px, double[] py) {
+        double[] xs = new double[px.length];
+        double[] ys = new double[py.length];
+        for (int i = 0; i < px.length; i++) {
+            xs[i] = GT[0] + px[i] * GT[1];
+            ys[i] = GT[3] + py[i] * GT[5];
+        }
+        return sampler.sample(raster, xs, ys);
+    }
+}
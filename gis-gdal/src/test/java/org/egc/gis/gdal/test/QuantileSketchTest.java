@@ -0,0 +1,121 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.ExactQuantiles;
+import org.egc.gis.gdal.raster.QuantileSketch;
+import org.egc.gis.gdal.raster.Quantiles;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/16 16:40
+ */
+public class QuantileSketchTest {
+
+    @Test
+    public void testExactQuantiles() {
+        ExactQuantiles quantiles = new ExactQuantiles();
+        for (int i = 100; i >= 1; i--) {
+            quantiles.add(i);
+        }
+        // 0-based positions i * ((n + 1) / 4): 25, 50, 75
+        assertEquals("26.0 51.0 76.0", quantiles.breaks(4));
+        assertEquals(51.0, quantiles.quantile(0.5), 0);
+    }
+
+    /**
+     * the positions of the former sorted list on a small raster: 0-based i * ((n + 1) / 4)
+     */
+    @Test
+    public void testExactSmall() {
+        ExactQuantiles quantiles = new ExactQuantiles();
+        for (int i = 1; i <= 7; i++) {
+            quantiles.add(i);
+        }
+        assertEquals("3.0 5.0 7.0", quantiles.breaks(4));
+        assertEquals(5.0, quantiles.quantile(0.5), 0);
+        quantiles.add(8);
+        // (9 / 4) = 2: positions 2, 4, 6
+        assertEquals("3.0 5.0 7.0", quantiles.breaks(4));
+    }
+
+    @Test
+    public void testExactMergeEqualsSingle() {
+        Random random = new Random(7);
+        ExactQuantiles all = new ExactQuantiles();
+        ExactQuantiles a = new ExactQuantiles();
+        ExactQuantiles b = new ExactQuantiles();
+        for (int i = 0; i < 10000; i++) {
+            float v = random.nextFloat() * 1000;
+            all.add(v);
+            (i % 3 == 0 ? a : b).add(v);
+        }
+        a.merge(b);
+        assertEquals(all.breaks(10), a.breaks(10));
+    }
+
+    @Test
+    public void testSketchRankError() {
+        Random random = new Random(42);
+        int n = 1_000_000;
+        float[] data = new float[n];
+        QuantileSketch sketch = QuantileSketch.withRankError(0.01);
+        for (int i = 0; i < n; i++) {
+            data[i] = (float) random.nextGaussian() * 50 + 500;
+            sketch.add(data[i]);
+        }
+        assertTrue(sketch.getRetained() < 4 * sketch.getK());
+        assertRankWithin(data, sketch, 0.01);
+    }
+
+    @Test
+    public void testSketchMergeAcrossWorkers() {
+        Random random = new Random(3);
+        int n = 400_000;
+        float[] data = new float[n];
+        Quantiles merged = QuantileSketch.withRankError(0.01);
+        for (int w = 0; w < 8; w++) {
+            Quantiles part = merged.emptyCopy();
+            for (int i = w; i < n; i += 8) {
+                data[i] = random.nextInt(1000);
+                part.add(data[i]);
+            }
+            merged.merge(part);
+        }
+        assertEquals(n, merged.getCount());
+        assertRankWithin(data, merged, 0.01);
+    }
+
+    private static void assertRankWithin(float[] data, Quantiles quantiles, double rankError) {
+        float[] sorted = data.clone();
+        Arrays.sort(sorted);
+        for (double p = 0.1; p < 1; p += 0.1) {
+            double q = quantiles.quantile(p);
+            // range of ranks having this value
+            int lo = lowerBound(sorted, (float) q);
+            int hi = lowerBound(sorted, Math.nextUp((float) q));
+            double target = p * sorted.length;
+            double distance = target < lo ? lo - target : (target > hi ? target - hi : 0);
+            assertTrue("rank error at p=" + p, distance / sorted.length <= rankError);
+        }
+    }
+
+    private static int lowerBound(float[] sorted, float v) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
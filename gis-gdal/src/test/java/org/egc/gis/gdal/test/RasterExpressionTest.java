@@ -0,0 +1,65 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.RasterExpression;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/20 16:30
+ */
+public class RasterExpressionTest {
+
+    private static final List<String> NAMES = Arrays.asList("A", "B");
+
+    @Test
+    public void testAverageWithNodata() {
+        float[] result = eval("(A+B)/2", new float[]{1, 2, -9999, 4}, new float[]{3, Float.NaN, 5, 8});
+        assertArrayEquals(new float[]{2, -9999, -9999, 6}, result, 0);
+    }
+
+    @Test
+    public void testWhereAndPrecedence() {
+        RasterExpression expr = RasterExpression.compile("where(A > threshold && !(B == 0), 1 + 2 * 3, -2 ^ 2)",
+                NAMES, Collections.singletonMap("threshold", 10d));
+        assertEquals(Arrays.asList("A", "B"), expr.getVariables());
+        float[] result = eval(expr, new float[]{5, 20, 20}, new float[]{1, 1, 0});
+        assertArrayEquals(new float[]{-4, 7, -4}, result, 0);
+    }
+
+    @Test
+    public void testDivisionByZeroIsNodata() {
+        float[] a = new float[3000];
+        float[] b = new float[3000];
+        Arrays.fill(a, 6);
+        Arrays.fill(b, 3);
+        b[2500] = 0;
+        float[] result = eval("A / B + sqrt(abs(-4))", a, b);
+        assertEquals(4, result[0], 0);
+        assertEquals(-9999, result[2500], 0);
+        assertEquals(4, result[2999], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        RasterExpression.compile("A + C", NAMES, null);
+    }
+
+    private static float[] eval(String expression, float[] a, float[] b) {
+        return eval(RasterExpression.compile(expression, NAMES, null), a, b);
+    }
+
+    private static float[] eval(RasterExpression expr, float[] a, float[] b) {
+        FloatBuffer out = FloatBuffer.allocate(a.length);
+        expr.newEvaluator().evaluate(new FloatBuffer[]{FloatBuffer.wrap(a), FloatBuffer.wrap(b)},
+                new double[]{-9999, -9999}, a.length, out, -9999f);
+        return out.array();
+    }
+}
@@ -0,0 +1,54 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.dto.RasterMetadata;
+import org.egc.gis.gdal.raster.RasterInfo;
+import org.gdal.gdal.Dataset;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/14 9:30
+ */
+public class RasterInfoTest {
+
+    @Test
+    public void testUniqueValuesOfArrayNotCapped() {
+        int n = 70000;
+        float[] values = new float[n + 1];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        values[n] = -9999;
+        List<Float> unique = RasterInfo.getUniqueValues(values, -9999d);
+        assertEquals(n, unique.size());
+        assertEquals(0f, unique.get(0), 0);
+        assertEquals(n - 1f, unique.get(n - 1), 0);
+    }
+
+    /**
+     * more distinct values than the histogram holds: metadata without the unique values
+     */
+    @Test
+    public void testMetadataSkipsUniqueValuesOfContinuousRaster() {
+        int width = 300;
+        int height = 300;
+        float[] values = new float[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.5f;
+        }
+        Dataset ds = TestRasters.mem(width, height, values, TestRasters.gt(10), -9999d);
+        try {
+            RasterMetadata metadata = RasterInfo.getMetadata(ds, true, false, false, false);
+            assertNull(metadata.getUniqueValues());
+            assertEquals(0, metadata.getMinValue(), 0);
+            assertEquals((values.length - 1) * 0.5, metadata.getMaxValue(), 0);
+        } finally {
+            ds.delete();
+        }
+    }
+}
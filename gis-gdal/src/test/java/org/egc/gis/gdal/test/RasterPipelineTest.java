@@ -0,0 +1,111 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.dto.BoundingBox;
+import org.egc.gis.gdal.dto.ResamplingMethods;
+import org.egc.gis.gdal.raster.RasterPipeline;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/16 10:00
+ */
+public class RasterPipelineTest {
+
+    private static final int SIZE = 20;
+    private static final double[] GT = TestRasters.gt(10);
+
+    private File dir;
+    private String raster;
+
+    /**
+     * 20 x 20 cells of 10 m, value = col + 100 * row
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pipeline").toFile();
+        float[] values = new float[SIZE * SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                values[row * SIZE + col] = col + 100 * row;
+            }
+        }
+        raster = TestRasters.geotiff(dir, "values.tif", SIZE, SIZE, GT, -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    /**
+     * clip cells [4, 12) x [2, 10), then average 2 x 2 cells
+     */
+    @Test
+    public void testClipResample() {
+        BoundingBox box = new BoundingBox(GT[0] + 4 * GT[1], GT[3] + 10 * GT[5],
+                GT[0] + 12 * GT[1], GT[3] + 2 * GT[5]);
+        String out = new File(dir, "out.tif").getPath();
+        RasterPipeline.from(raster).clip(box, 0).resample(20, 20, ResamplingMethods.AVERAGE).toFile(out);
+
+        Dataset ds = gdal.Open(out);
+        try {
+            assertEquals(4, ds.GetRasterXSize());
+            assertEquals(4, ds.GetRasterYSize());
+            double[] gt = ds.GetGeoTransform();
+            assertEquals(GT[0] + 4 * GT[1], gt[0], 1e-6);
+            assertEquals(GT[3] + 2 * GT[5], gt[3], 1e-6);
+            assertEquals(20, gt[1], 1e-6);
+        } finally {
+            ds.delete();
+        }
+        float[] values = TestRasters.read(out, 1);
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                double expected = 4 + 2 * col + 0.5 + 100 * (2 + 2 * row + 0.5);
+                assertEquals(col + ", " + row, expected, values[row * 4 + col], 1e-3);
+            }
+        }
+        assertReleased();
+    }
+
+    /**
+     * an abandoned pipeline releases its VRTs on close
+     */
+    @Test
+    public void testClose() {
+        RasterPipeline pipeline = RasterPipeline.from(raster).resample(20, 20, null);
+        pipeline.close();
+        assertReleased();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUsedOnce() {
+        RasterPipeline pipeline = RasterPipeline.from(raster);
+        pipeline.toFile(new File(dir, "out.tif").getPath());
+        pipeline.resample(20, 20, null);
+    }
+
+    /**
+     * no intermediate VRT left in /vsimem/
+     */
+    private static void assertReleased() {
+        Vector<?> files = gdal.ReadDir("/vsimem/");
+        if (files != null) {
+            for (Object file : files) {
+                assertFalse(file.toString(), file.toString().startsWith("pipeline_"));
+            }
+        }
+    }
+}
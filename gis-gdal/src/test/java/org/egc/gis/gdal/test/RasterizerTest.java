@@ -0,0 +1,159 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.Rasterizer;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 16:00
+ */
+public class RasterizerTest {
+
+    private static final int SIZE = 40;
+    private static final double[] GT = TestRasters.gt(10);
+
+    private File dir;
+    private String reference;
+    private String polygons;
+
+    /**
+     * a 40 x 40 grid, rasterized in tiles of 16 x 16; polygon 3 covers cells [5, 25) across 4 tiles,
+     * polygon 7 cells [30, 35)
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("rasterize").toFile();
+        reference = TestRasters.geotiff(dir, "reference.tif", SIZE, SIZE, GT, null, new float[SIZE * SIZE]);
+        polygons = TestRasters.shapefile(dir, "polygons.shp", new double[]{3, 7},
+                TestRasters.cells(GT, 5, 5, 25, 25), TestRasters.cells(GT, 30, 30, 35, 35));
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    /**
+     * a burn value equal to the background is not nodata: no nodata unless asked
+     */
+    @Test
+    public void testBurnValue() {
+        for (double value : new double[]{5, 0}) {
+            String out = new File(dir, "burnt" + (int) value + ".tif").getPath();
+            new Rasterizer().burnValue(value).tileSize(16).parallelism(3).rasterize(polygons, reference, out);
+            assertType(gdalconstConstants.GDT_Byte, null, out);
+            float[] burnt = TestRasters.read(out, 1);
+            for (int row = 0; row < SIZE; row++) {
+                for (int col = 0; col < SIZE; col++) {
+                    boolean inside = inside(col, row, 5, 25) || inside(col, row, 30, 35);
+                    assertEquals(col + ", " + row, inside ? value : 0, burnt[row * SIZE + col], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAttribute() {
+        String out = new File(dir, "values.tif").getPath();
+        new Rasterizer().attribute("value").background(-1).nodata(-1d).tileSize(16)
+                .rasterize(polygons, reference, out);
+        assertType(gdalconstConstants.GDT_Float32, -1d, out);
+        float[] burnt = TestRasters.read(out, 1);
+        assertEquals(3, burnt[5 * SIZE + 5], 0);
+        assertEquals(3, burnt[24 * SIZE + 24], 0);
+        assertEquals(7, burnt[30 * SIZE + 34], 0);
+        assertEquals(-1, burnt[25 * SIZE + 25], 0);
+        assertEquals(-1, burnt[0], 0);
+    }
+
+    /**
+     * IDs above 2^24 are not exact in Float32: tiles are copied in the output type
+     */
+    @Test
+    public void testLargeId() {
+        int id = 16777217;
+        String ids = TestRasters.shapefile(dir, "ids.shp", new double[]{id}, TestRasters.cells(GT, 5, 5, 25, 25));
+        String out = new File(dir, "ids.tif").getPath();
+        new Rasterizer().attribute("value").dataType(gdalconstConstants.GDT_Int32).tileSize(16)
+                .rasterize(ids, reference, out);
+        assertType(gdalconstConstants.GDT_Int32, null, out);
+        int[] burnt = new int[SIZE * SIZE];
+        Dataset ds = gdal.Open(out);
+        try {
+            ds.GetRasterBand(1).ReadRaster(0, 0, SIZE, SIZE, gdalconstConstants.GDT_Int32, burnt);
+        } finally {
+            ds.delete();
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                assertEquals(col + ", " + row, inside(col, row, 5, 25) ? id : 0, burnt[row * SIZE + col]);
+            }
+        }
+    }
+
+    /**
+     * a square inside cells 2 and 3 that does not contain their centers
+     */
+    @Test
+    public void testAllTouched() {
+        double x0 = GT[0] + 2.6 * GT[1];
+        double x1 = GT[0] + 3.4 * GT[1];
+        double y0 = GT[3] + 2.6 * GT[5];
+        double y1 = GT[3] + 3.4 * GT[5];
+        String square = TestRasters.shapefile(dir, "square.shp", new double[]{1}, String.format(
+                "POLYGON ((%s %s, %s %s, %s %s, %s %s, %s %s))", x0, y0, x1, y0, x1, y1, x0, y1, x0, y0));
+        String centers = new File(dir, "centers.tif").getPath();
+        new Rasterizer().tileSize(16).rasterize(square, reference, centers);
+        for (float v : TestRasters.read(centers, 1)) {
+            assertEquals(0, v, 0);
+        }
+        String touched = new File(dir, "touched.tif").getPath();
+        new Rasterizer().allTouched(true).tileSize(16).rasterize(square, reference, touched);
+        float[] burnt = TestRasters.read(touched, 1);
+        int count = 0;
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (burnt[row * SIZE + col] == 1) {
+                    count++;
+                    assertTrue(inside(col, row, 2, 4));
+                }
+            }
+        }
+        assertEquals(4, count);
+    }
+
+    private static boolean inside(int col, int row, int from, int to) {
+        return col >= from && col < to && row >= from && row < to;
+    }
+
+    private static void assertType(int type, Double nodata, String path) {
+        Dataset ds = gdal.Open(path);
+        try {
+            Band band = ds.GetRasterBand(1);
+            assertEquals(type, band.GetRasterDataType());
+            Double[] value = new Double[1];
+            band.GetNoDataValue(value);
+            if (nodata == null) {
+                assertNull(value[0]);
+            } else {
+                assertEquals(nodata, value[0], 0);
+            }
+        } finally {
+            ds.delete();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.Reclassifier;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.RasterAttributeTable;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/10 14:00
+ */
+public class ReclassifierTest {
+
+    private static final int SIZE = 10;
+
+    private File dir;
+    private String raster;
+
+    /**
+     * 10 x 10 cells, the value of a cell is its column; the first cell is nodata
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("reclassify").toFile();
+        float[] values = new float[SIZE * SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % SIZE;
+        }
+        values[0] = -9999;
+        raster = TestRasters.geotiff(dir, "values.tif", SIZE, SIZE, TestRasters.gt(10), -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    @Test
+    public void testReclassify() {
+        String out = new File(dir, "classes.tif").getPath();
+        SortedMap<Integer, Long> counts = new Reclassifier().range(0, 3, 1).range(3, 6, 2).otherwise(7)
+                .label(1, "low").label(2, "mid").label(7, "high").parallelism(2).reclassify(raster, out);
+        assertEquals(3, counts.size());
+        assertEquals(29, (long) counts.get(1));
+        assertEquals(30, (long) counts.get(2));
+        assertEquals(40, (long) counts.get(7));
+
+        Dataset ds = gdal.Open(out);
+        try {
+            Band band = ds.GetRasterBand(1);
+            assertEquals(gdalconstConstants.GDT_Byte, band.GetRasterDataType());
+            int[] classes = read(band);
+            // nodata stays nodata
+            assertEquals(255, classes[0]);
+            assertEquals(1, classes[1]);
+            assertEquals(2, classes[3]);
+            assertEquals(7, classes[SIZE - 1]);
+
+            RasterAttributeTable rat = band.GetDefaultRAT();
+            assertNotNull(rat);
+            assertEquals(3, rat.GetRowCount());
+            int[] values = {1, 2, 7};
+            String[] labels = {"low", "mid", "high"};
+            for (int row = 0; row < 3; row++) {
+                assertEquals(values[row], rat.GetValueAsInt(row, 0));
+                assertEquals(counts.get(values[row]), rat.GetValueAsDouble(row, 1), 0);
+                assertEquals(labels[row], rat.GetValueAsString(row, 2));
+            }
+        } finally {
+            ds.delete();
+        }
+    }
+
+    /**
+     * a class above 254 needs UInt16; unmatched values without otherwise are nodata
+     */
+    @Test
+    public void testUInt16() {
+        String out = new File(dir, "classes.tif").getPath();
+        SortedMap<Integer, Long> counts = new Reclassifier().range(0, 5, 300).reclassify(raster, out);
+        assertEquals(1, counts.size());
+        assertEquals(49, (long) counts.get(300));
+
+        Dataset ds = gdal.Open(out);
+        try {
+            Band band = ds.GetRasterBand(1);
+            assertEquals(gdalconstConstants.GDT_UInt16, band.GetRasterDataType());
+            Double[] nodata = new Double[1];
+            band.GetNoDataValue(nodata);
+            assertEquals(65535, nodata[0], 0);
+            int[] classes = read(band);
+            assertEquals(65535, classes[0]);
+            assertEquals(300, classes[4]);
+            assertEquals(65535, classes[5]);
+        } finally {
+            ds.delete();
+        }
+    }
+
+    private static int[] read(Band band) {
+        int[] values = new int[SIZE * SIZE];
+        band.ReadRaster(0, 0, SIZE, SIZE, gdalconstConstants.GDT_Int32, values);
+        return values;
+    }
+
+    @Test
+    public void testRanges() {
+        Reclassifier reclassifier = Reclassifier.ofBreaks(0, 5, 15, 90);
+        assertFalse(reclassifier.isDirect());
+        assertEquals(1, reclassifier.classOf(0));
+        assertEquals(1, reclassifier.classOf(4.99));
+        assertEquals(2, reclassifier.classOf(5));
+        // the last range includes its upper bound
+        assertEquals(3, reclassifier.classOf(90));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(-1));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(90.5));
+        assertEquals(9, reclassifier.otherwise(9).classOf(90.5));
+    }
+
+    @Test
+    public void testDiscreteTable() {
+        Map<Integer, Integer> table = new HashMap<>();
+        table.put(11, 1);
+        table.put(21, 2);
+        table.put(95, 300);
+        Reclassifier reclassifier = new Reclassifier().values(table);
+        assertTrue(reclassifier.isDirect());
+        assertEquals(2, reclassifier.classOf(21));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(21.5));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(12));
+        assertEquals(gdalconstConstants.GDT_UInt16, reclassifier.outputType());
+        // a range switches to intervals
+        reclassifier.range(100, 200, 3);
+        assertFalse(reclassifier.isDirect());
+        assertEquals(300, reclassifier.classOf(95));
+        assertEquals(3, reclassifier.classOf(150));
+    }
+
+    /**
+     * raster values are Float32: bounds that are not exact in Float32 still match them
+     */
+    @Test
+    public void testFloat32Values() {
+        Reclassifier reclassifier = new Reclassifier().value(0.1, 1).range(0.7, 1, 2);
+        assertEquals(1, reclassifier.classOf(0.1f));
+        assertEquals(2, reclassifier.classOf(0.7f));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(Math.nextDown(0.7f)));
+        assertEquals(Reclassifier.NO_CLASS, reclassifier.classOf(Math.nextUp(0.1f)));
+        assertEquals(3, Reclassifier.ofBreaks(0, 0.3, 0.6, 0.9).classOf(0.9f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlap() {
+        new Reclassifier().range(0, 10, 1).value(5, 2).classOf(0);
+    }
+}
@@ -0,0 +1,72 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.FocalEngine;
+import org.egc.gis.gdal.raster.TerrainKernels;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/9 15:00
+ */
+public class TerrainKernelsTest {
+
+    private static final int SIZE = 4;
+    private static final double CELL = 10;
+
+    /**
+     * a SIZE x SIZE tile with a halo of 1, z = 10 * column + 5 * row (rising to the east and the south)
+     */
+    private static float[] plane() {
+        int stride = SIZE + 2;
+        float[] values = new float[stride * stride];
+        for (int row = 0; row < stride; row++) {
+            for (int col = 0; col < stride; col++) {
+                values[row * stride + col] = 10 * col + 5 * row;
+            }
+        }
+        return values;
+    }
+
+    private static float[] apply(FocalEngine.Kernel kernel, float[] values) {
+        float[] output = new float[SIZE * SIZE];
+        kernel.apply(values, SIZE + 2, SIZE, SIZE, CELL, CELL, output);
+        return output;
+    }
+
+    @Test
+    public void testSlopeAndAspect() {
+        float[] slope = apply(TerrainKernels.slope(), plane());
+        float[] aspect = apply(TerrainKernels.aspect(), plane());
+        // gradient (1, 0.5): faces west-north-west
+        double expectedSlope = Math.toDegrees(Math.atan(Math.sqrt(1.25)));
+        double expectedAspect = 270 + Math.toDegrees(Math.atan(0.5));
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            assertEquals(expectedSlope, slope[i], 1e-4);
+            assertEquals(expectedAspect, aspect[i], 1e-4);
+        }
+    }
+
+    @Test
+    public void testPlaneHasNoCurvatureNorTpi() {
+        for (FocalEngine.Kernel kernel : new FocalEngine.Kernel[]{TerrainKernels.planCurvature(),
+                TerrainKernels.profileCurvature(), TerrainKernels.tpi(1)}) {
+            for (float v : apply(kernel, plane())) {
+                assertEquals(kernel.toString(), 0, v, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testHillshadeAndNodata() {
+        float[] flat = new float[(SIZE + 2) * (SIZE + 2)];
+        flat[SIZE + 2 + 1] = Float.NaN;
+        float[] shade = apply(TerrainKernels.hillshade(), flat);
+        assertTrue(Float.isNaN(shade[0]));
+        // a missing neighbor takes the center value: still flat
+        assertEquals(255 * Math.cos(Math.toRadians(45)), shade[1], 1e-3);
+        assertEquals(-1, apply(TerrainKernels.aspect(), flat)[1], 0);
+    }
+}
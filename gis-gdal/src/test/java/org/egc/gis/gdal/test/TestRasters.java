@@ -0,0 +1,159 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.GDALRuntime;
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.FieldDefn;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.gdal.osr.SpatialReference;
+
+import java.io.File;
+
+/**
+ * Small rasters and polygon layers written by the tests, in UTM zone 50N (EPSG:32650).
+ *
+ * @author houzhiwei
+ * @date 2023/4/14 9:00
+ */
+public final class TestRasters {
+
+    private TestRasters() {
+    }
+
+    /**
+     * geotransform of cells of the given size, upper left corner at (500000, 4000000)
+     */
+    public static double[] gt(double cell) {
+        return new double[]{500000, cell, 0, 4000000, 0, -cell};
+    }
+
+    /**
+     * @param values row-major values of a single band
+     * @return a MEM dataset, to delete()
+     */
+    public static Dataset mem(int width, int height, float[] values, double[] gt, Double nodata) {
+        GDALRuntime.init();
+        Dataset ds = gdal.GetDriverByName("MEM").Create("", width, height, 1, gdalconstConstants.GDT_Float32);
+        fill(ds, width, height, values, gt, nodata);
+        return ds;
+    }
+
+    /**
+     * @param bands row-major values of each band
+     * @return path of a tiled Float32 GeoTIFF with 16 x 16 blocks
+     */
+    public static String geotiff(File dir, String name, int width, int height, double[] gt, Double nodata,
+                                 float[]... bands) {
+        return geotiff(new File(dir, name).getPath(), width, height, gt, nodata, bands);
+    }
+
+    /**
+     * @param path  file or /vsimem/ path
+     * @param bands row-major values of each band
+     * @return the path of a tiled Float32 GeoTIFF with 16 x 16 blocks
+     */
+    public static String geotiff(String path, int width, int height, double[] gt, Double nodata, float[]... bands) {
+        GDALRuntime.init();
+        Dataset ds = gdal.GetDriverByName("GTiff").Create(path, width, height, bands.length,
+                gdalconstConstants.GDT_Float32, new String[]{"TILED=YES", "BLOCKXSIZE=16", "BLOCKYSIZE=16"});
+        setSrs(ds, gt);
+        for (int b = 0; b < bands.length; b++) {
+            Band band = ds.GetRasterBand(b + 1);
+            band.WriteRaster(0, 0, width, height, bands[b]);
+            if (nodata != null) {
+                band.SetNoDataValue(nodata);
+            }
+        }
+        ds.delete();
+        return path;
+    }
+
+    /**
+     * @return values of a band, as Float32
+     */
+    public static float[] read(String path, int band) {
+        GDALRuntime.init();
+        Dataset ds = gdal.Open(path);
+        try {
+            float[] values = new float[ds.GetRasterXSize() * ds.GetRasterYSize()];
+            ds.GetRasterBand(band).ReadRaster(0, 0, ds.GetRasterXSize(), ds.GetRasterYSize(), values);
+            return values;
+        } finally {
+            ds.delete();
+        }
+    }
+
+    /**
+     * @param values value of each polygon, in the Real field "value"
+     * @param wkt    the polygons
+     * @return path of a shapefile
+     */
+    public static String shapefile(File dir, String name, double[] values, String... wkt) {
+        GDALRuntime.init();
+        File file = new File(dir, name);
+        DataSource ds = ogr.GetDriverByName("ESRI Shapefile").CreateDataSource(file.getPath());
+        SpatialReference srs = new SpatialReference();
+        srs.ImportFromEPSG(32650);
+        Layer layer = ds.CreateLayer(name.replaceFirst("\\.shp$", ""), srs, ogr.wkbPolygon);
+        FieldDefn field = new FieldDefn("value", ogr.OFTReal);
+        layer.CreateField(field);
+        field.delete();
+        for (int i = 0; i < wkt.length; i++) {
+            Feature feature = new Feature(layer.GetLayerDefn());
+            feature.SetGeometry(ogr.CreateGeometryFromWkt(wkt[i]));
+            feature.SetField("value", values[i]);
+            layer.CreateFeature(feature);
+            feature.delete();
+        }
+        srs.delete();
+        ds.delete();
+        return file.getPath();
+    }
+
+    /**
+     * @return WKT of the rectangle of cells [col0, col1) x [row0, row1) of a raster with the geotransform
+     */
+    public static String cells(double[] gt, int col0, int row0, int col1, int row1) {
+        double x0 = gt[0] + col0 * gt[1];
+        double x1 = gt[0] + col1 * gt[1];
+        double y0 = gt[3] + row0 * gt[5];
+        double y1 = gt[3] + row1 * gt[5];
+        return String.format("POLYGON ((%s %s, %s %s, %s %s, %s %s, %s %s))",
+                x0, y0, x1, y0, x1, y1, x0, y1, x0, y0);
+    }
+
+    /**
+     * delete a temporary directory of the tests and its files
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static void fill(Dataset ds, int width, int height, float[] values, double[] gt, Double nodata) {
+        setSrs(ds, gt);
+        Band band = ds.GetRasterBand(1);
+        band.WriteRaster(0, 0, width, height, values);
+        if (nodata != null) {
+            band.SetNoDataValue(nodata);
+        }
+    }
+
+    private static void setSrs(Dataset ds, double[] gt) {
+        ds.SetGeoTransform(gt);
+        SpatialReference srs = new SpatialReference();
+        srs.ImportFromEPSG(32650);
+        ds.SetProjection(srs.ExportToWkt());
+        srs.delete();
+    }
+}
@@ -0,0 +1,121 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.GDALThumbnail;
+import org.egc.gis.gdal.raster.ThumbnailCache;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/2 11:00
+ */
+public class ThumbnailCacheTest {
+
+    /**
+     * renders 100 bytes without GDAL, slowly
+     */
+    private static class CountingRenderer extends GDALThumbnail {
+        private final AtomicInteger renders = new AtomicInteger();
+
+        @Override
+        public byte[] render(String inputFileName, int[] bands, double scale, String format) throws IOException {
+            renders.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            byte[] image = new byte[100];
+            image[0] = (byte) bands[0];
+            return image;
+        }
+    }
+
+    @Test
+    public void testTiers() throws IOException {
+        CountingRenderer renderer = new CountingRenderer();
+        File dir = Files.createTempDirectory("thumbs").toFile();
+        File src = File.createTempFile("src", ".tif");
+        src.deleteOnExit();
+        ThumbnailCache cache = new ThumbnailCache(renderer, 250, dir, 10000);
+
+        byte[] first = cache.get(src.getPath(), new int[]{1}, 0.5, "PNG");
+        assertArrayEquals(first, cache.get(src.getPath(), new int[]{1}, 0.5, "PNG"));
+        assertEquals(1, renderer.renders.get());
+        assertEquals(1, cache.getMemoryHits());
+
+        // another band is another key
+        cache.get(src.getPath(), new int[]{2}, 0.5, "PNG");
+        assertEquals(2, renderer.renders.get());
+
+        // the memory tier holds 2 images (2 and 3), the disk tier serves the evicted one
+        cache.get(src.getPath(), new int[]{3}, 0.5, "PNG");
+        assertEquals(200, cache.getMemoryBytes());
+        cache.get(src.getPath(), new int[]{2}, 0.5, "PNG");
+        assertEquals(2, cache.getMemoryHits());
+        cache.get(src.getPath(), new int[]{1}, 0.5, "PNG");
+        assertEquals(3, renderer.renders.get());
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(300, cache.getDiskBytes());
+
+        // after clearMemory the disk tier serves them
+        cache.clearMemory();
+        cache.get(src.getPath(), new int[]{3}, 0.5, "PNG");
+        assertEquals(2, cache.getDiskHits());
+        assertEquals(3, renderer.renders.get());
+
+        // a changed stretch is another key
+        renderer.setStretchPercent(5);
+        cache.get(src.getPath(), new int[]{1}, 0.5, "PNG");
+        assertEquals(4, renderer.renders.get());
+    }
+
+    @Test
+    public void testCopies() throws IOException {
+        File src = File.createTempFile("src", ".tif");
+        src.deleteOnExit();
+        ThumbnailCache cache = new ThumbnailCache(new CountingRenderer(), 10000, null, 0);
+        byte[] first = cache.get(src.getPath(), new int[]{1}, 0.5, "PNG");
+        first[0] = 42;
+        assertEquals(1, cache.get(src.getPath(), new int[]{1}, 0.5, "PNG")[0]);
+    }
+
+    @Test
+    public void testSingleRender() throws Exception {
+        CountingRenderer renderer = new CountingRenderer();
+        File src = File.createTempFile("src", ".tif");
+        src.deleteOnExit();
+        ThumbnailCache cache = new ThumbnailCache(renderer, 10000, null, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.get(src.getPath(), new int[]{1}, 0.5, "PNG");
+            }));
+        }
+        start.countDown();
+        for (Future<byte[]> result : results) {
+            assertEquals(100, result.get().length);
+        }
+        pool.shutdown();
+        assertEquals(1, renderer.renders.get());
+        assertEquals(1, cache.getMisses());
+        assertTrue(cache.getHitRate() > 0.8);
+    }
+}
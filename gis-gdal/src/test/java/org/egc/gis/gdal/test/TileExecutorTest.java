@@ -0,0 +1,76 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.TileExecutor;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/14 10:00
+ */
+public class TileExecutorTest {
+
+    private File dir;
+    private String raster;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tiles").toFile();
+        float[] values = new float[64 * 64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 64;
+        }
+        // 16 blocks of 16 x 16
+        raster = TestRasters.geotiff(dir, "ramp.tif", 64, 64, TestRasters.gt(10), null, values);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReduce() {
+        Dataset ds = gdal.Open(raster);
+        try {
+            double sum = new TileExecutor(4).reduce(ds, 1, () -> new double[1], (acc, window, data) -> {
+                while (data[0].hasRemaining()) {
+                    acc[0] += data[0].get();
+                }
+            }, (a, b) -> new double[]{a[0] + b[0]})[0];
+            assertEquals(64 * (63 * 64 / 2), sum, 0);
+        } finally {
+            ds.delete();
+        }
+    }
+
+    @Test
+    public void testFailingTile() {
+        Dataset ds = gdal.Open(raster);
+        try {
+            new TileExecutor(4).reduce(ds, 1, () -> null, (acc, window, data) -> {
+                if (window.getXOff() == 32 && window.getYOff() == 16) {
+                    throw new IllegalArgumentException("bad tile");
+                }
+            }, (a, b) -> a);
+            fail("the tile should fail");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad tile", e.getMessage());
+        } finally {
+            ds.delete();
+        }
+    }
+}
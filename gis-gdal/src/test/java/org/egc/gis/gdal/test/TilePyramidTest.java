@@ -0,0 +1,91 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.TilePyramid;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/8 11:00
+ */
+public class TilePyramidTest {
+
+    private static final double O = TilePyramid.ORIGIN;
+
+    @Test
+    public void testTileBounds() {
+        assertArrayEquals(new double[]{-O, -O, O, O}, TilePyramid.tileBounds(0, 0, 0), 1e-6);
+        // zoom 1: tile 1/1/0 is the north-east quarter
+        assertArrayEquals(new double[]{0, 0, O, O}, TilePyramid.tileBounds(1, 1, 0), 1e-6);
+    }
+
+    @Test
+    public void testTileRange() {
+        // the whole world
+        assertArrayEquals(new int[]{0, 0, 3, 3}, TilePyramid.tileRange(-O, -O, O, O, 2));
+        // an extent ending exactly on a tile edge does not cover the next tile
+        assertArrayEquals(new int[]{2, 0, 2, 1}, TilePyramid.tileRange(1, 1, O / 2, O, 2));
+        // each tile contains its own bounds only
+        double[] b = TilePyramid.tileBounds(10, 700, 300);
+        int[] range = TilePyramid.tileRange(b[0], b[1], b[2], b[3], 10);
+        assertEquals(700, range[0]);
+        assertEquals(300, range[1]);
+        assertEquals(700, range[2]);
+        assertEquals(300, range[3]);
+    }
+
+    /**
+     * tiles are written as blobs, counted once written, and skipped on the next run
+     */
+    @Test
+    public void testMBTiles() throws IOException {
+        File dir = Files.createTempDirectory("pyramid").toFile();
+        try {
+            float[] values = new float[64 * 64];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i % 64;
+            }
+            String raster = TestRasters.geotiff(dir, "ramp.tif", 64, 64, TestRasters.gt(30), -9999d, values);
+            String mbtiles = new File(dir, "ramp.mbtiles").getPath();
+            TilePyramid pyramid = new TilePyramid().zoom(12, 14).parallelism(2);
+            long written = pyramid.generate(raster, mbtiles);
+            assertTrue(written > 0);
+
+            DataSource ds = ogr.Open(mbtiles);
+            try {
+                Layer count = ds.ExecuteSQL("SELECT COUNT(*) FROM tiles");
+                Feature feature = count.GetNextFeature();
+                assertEquals(written, feature.GetFieldAsInteger(0));
+                feature.delete();
+                ds.ReleaseResultSet(count);
+                Layer tiles = ds.ExecuteSQL("SELECT tile_data FROM tiles");
+                feature = tiles.GetNextFeature();
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(feature.GetFieldAsBinary(0)));
+                assertEquals(256, image.getWidth());
+                feature.delete();
+                ds.ReleaseResultSet(tiles);
+            } finally {
+                ds.delete();
+            }
+
+            assertEquals(0, pyramid.generate(raster, mbtiles));
+            assertEquals(written, pyramid.getExisting().get());
+        } finally {
+            TestRasters.delete(dir);
+        }
+    }
+}
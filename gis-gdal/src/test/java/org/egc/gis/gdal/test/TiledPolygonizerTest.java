@@ -0,0 +1,137 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.TiledPolygonizer;
+import org.gdal.ogr.DataSource;
+import org.gdal.ogr.Feature;
+import org.gdal.ogr.Layer;
+import org.gdal.ogr.ogr;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/15 11:00
+ */
+public class TiledPolygonizerTest {
+
+    private static final int SIZE = 40;
+
+    private File dir;
+    private String raster;
+
+    /**
+     * 40 x 40 cells of 10 m in tiles of 16 x 16 (3 x 3 tiles), background 1 with
+     * 2  a 16 x 16 square across 4 tiles
+     * 3  one cell inside a tile
+     * 4  a row across 3 tiles
+     * 5  one cell on a seam
+     * 6  a U of 17 cells, its bar in one tile and its legs in the tile below
+     * and a nodata cell
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("polygonize").toFile();
+        float[] values = new float[SIZE * SIZE];
+        Arrays.fill(values, 1);
+        fill(values, 10, 10, 26, 26, 2);
+        fill(values, 5, 5, 6, 6, 3);
+        fill(values, 2, 35, 38, 36, 4);
+        fill(values, 15, 2, 16, 3, 5);
+        fill(values, 34, 14, 39, 15, 6);
+        fill(values, 34, 15, 35, 21, 6);
+        fill(values, 38, 15, 39, 21, 6);
+        values[30 * SIZE + 20] = -9999;
+        raster = TestRasters.geotiff(dir, "classes.tif", SIZE, SIZE, TestRasters.gt(10), -9999d, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestRasters.delete(dir);
+    }
+
+    @Test
+    public void testPolygonize() {
+        for (int threads : new int[]{1, 4}) {
+            String out = new File(dir, "polygons" + threads + ".gpkg").getPath();
+            long count = new TiledPolygonizer().tileSize(16).parallelism(threads).polygonize(raster, out);
+            assertEquals(6, count);
+            Map<Integer, List<Double>> areas = areas(out);
+            assertEquals(6, areas.size());
+            assertArea(1288, areas.get(1));
+            assertArea(256, areas.get(2));
+            assertArea(1, areas.get(3));
+            assertArea(36, areas.get(4));
+            assertArea(1, areas.get(5));
+            assertArea(17, areas.get(6));
+        }
+    }
+
+    /**
+     * regions of one cell are dropped, inside a tile and on a seam; they stay holes of the background
+     */
+    @Test
+    public void testMinArea() {
+        String out = new File(dir, "polygons.gpkg").getPath();
+        long count = new TiledPolygonizer().tileSize(16).minArea(200).polygonize(raster, out);
+        assertEquals(4, count);
+        Map<Integer, List<Double>> areas = areas(out);
+        assertFalse(areas.containsKey(3));
+        assertFalse(areas.containsKey(5));
+        assertArea(1288, areas.get(1));
+        assertArea(256, areas.get(2));
+        assertArea(36, areas.get(4));
+        assertArea(17, areas.get(6));
+    }
+
+    /**
+     * a single polygon of the given number of cells of 10 x 10 m
+     */
+    private static void assertArea(double cells, List<Double> areas) {
+        assertEquals(1, areas.size());
+        assertEquals(cells * 100, areas.get(0), 1e-6);
+    }
+
+    /**
+     * @return the areas of the polygons by value
+     */
+    private static Map<Integer, List<Double>> areas(String path) {
+        DataSource ds = ogr.Open(path);
+        Map<Integer, List<Double>> areas = new TreeMap<>();
+        try {
+            Layer layer = ds.GetLayer(0);
+            Feature feature;
+            while ((feature = layer.GetNextFeature()) != null) {
+                areas.computeIfAbsent(feature.GetFieldAsInteger("DN"), k -> new ArrayList<>())
+                        .add(feature.GetGeometryRef().GetArea());
+                feature.delete();
+            }
+        } finally {
+            ds.delete();
+        }
+        return areas;
+    }
+
+    /**
+     * set the cells [col0, col1) x [row0, row1)
+     */
+    private static void fill(float[] values, int col0, int row0, int col1, int row1, float value) {
+        for (int row = row0; row < row1; row++) {
+            for (int col = col0; col < col1; col++) {
+                values[row * SIZE + col] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.BandStatistics;
+import org.egc.gis.gdal.raster.RasterInfo;
+import org.egc.gis.gdal.raster.ValueHistogram;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/18 11:20
+ */
+public class ValueHistogramTest {
+
+    @Test
+    public void testCountsAndMerge() {
+        ValueHistogram a = new ValueHistogram();
+        ValueHistogram b = new ValueHistogram();
+        for (int i = 0; i < 100000; i++) {
+            (i % 2 == 0 ? a : b).add(i % 7);
+        }
+        a.merge(b);
+        assertEquals(7, a.size());
+        assertEquals(100000, a.getTotal());
+        assertArrayEquals(new float[]{0, 1, 2, 3, 4, 5, 6}, a.getValues(), 0);
+        assertEquals(14286, a.getCount(0));
+        assertEquals(14285, a.getCount(6));
+        assertEquals(14286 * 900.0, a.getAreas(900)[0], 0);
+    }
+
+    @Test(expected = ValueHistogram.CardinalityExceededException.class)
+    public void testCardinalityCap() {
+        ValueHistogram histogram = new ValueHistogram(1000);
+        for (int i = 0; i < 1001; i++) {
+            histogram.add(i * 0.5f);
+        }
+    }
+
+    /**
+     * too many distinct values drop the histogram, the statistics go on in the same pass
+     */
+    @Test
+    public void testCardinalityDropped() {
+        BandStatistics a = new BandStatistics(-9999, new ValueHistogram(1000), null, true);
+        BandStatistics b = a.emptyCopy();
+        for (int i = 0; i < 2000; i++) {
+            a.add(i * 0.5f);
+            b.add(i % 3);
+        }
+        assertTrue(a.isHistogramExceeded());
+        assertNull(a.getHistogram());
+        assertEquals(2000, a.getCount());
+        assertEquals(999.5, a.getMax(), 0);
+        assertFalse(b.isHistogramExceeded());
+        assertEquals(3, b.getHistogram().size());
+        // an exceeded part drops the merged histogram
+        b.merge(a);
+        assertTrue(b.isHistogramExceeded());
+        assertNull(b.getHistogram());
+        assertEquals(4000, b.getCount());
+    }
+
+    @Test
+    public void testUniqueValuesSkipNodata() {
+        float[] data = {3, -9999, 1, 3, Float.NaN, 2, -0f, 0};
+        List<Float> values = RasterInfo.getUniqueValues(data, -9999d);
+        assertEquals(Arrays.asList(0f, 1f, 2f, 3f), values);
+    }
+}
@@ -0,0 +1,40 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.WarpProfile;
+import org.junit.Test;
+
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/3/29 10:40
+ */
+public class WarpProfileTest {
+
+    @Test
+    public void testThroughput() {
+        Vector<String> options = new Vector<>();
+        options.add("-r");
+        options.add("bilinear");
+        WarpProfile.throughput().appendTo(options, "out.tif");
+        assertTrue(options.contains("-multi"));
+        assertTrue(options.contains("NUM_THREADS=ALL_CPUS"));
+        assertTrue(options.contains("TILED=YES"));
+        assertTrue(options.contains("COMPRESS=DEFLATE"));
+        int wm = Integer.parseInt(options.get(options.indexOf("-wm") + 1));
+        assertTrue(wm >= 256 && wm <= 4096);
+    }
+
+    @Test
+    public void testPreview() {
+        Vector<String> options = WarpProfile.preview().appendTo(new Vector<>(), "out.img");
+        assertEquals("near", options.get(options.indexOf("-r") + 1));
+        assertEquals("AUTO", options.get(options.indexOf("-ovr") + 1));
+        // creation options are for GeoTIFF only
+        assertFalse(options.contains("-co"));
+    }
+}
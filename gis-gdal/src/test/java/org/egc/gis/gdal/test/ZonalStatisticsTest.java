@@ -0,0 +1,105 @@
+package org.egc.gis.gdal.test;
+
+import org.egc.gis.gdal.raster.RasterWindow;
+import org.egc.gis.gdal.raster.ZonalStatistics;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author houzhiwei
+ * @date 2023/4/3 11:30
+ */
+public class ZonalStatisticsTest {
+
+    /**
+     * 100 x 80 cells of 10 m, upper left corner at (1000, 5000)
+     */
+    private static final double[] GT = {1000, 10, 0, 5000, 0, -10};
+
+    @Test
+    public void testPixelWindow() {
+        // minX, maxX, minY, maxY
+        RasterWindow window = ZonalStatistics.pixelWindow(GT, new double[]{1015, 1041, 4950, 4985}, 100, 80);
+        assertEquals(1, window.getXOff());
+        assertEquals(1, window.getYOff());
+        assertEquals(4, window.getWidth());
+        assertEquals(4, window.getHeight());
+    }
+
+    @Test
+    public void testPixelWindowClipped() {
+        RasterWindow window = ZonalStatistics.pixelWindow(GT, new double[]{900, 1020, 4000, 5100}, 100, 80);
+        assertEquals(0, window.getXOff());
+        assertEquals(0, window.getYOff());
+        assertEquals(2, window.getWidth());
+        assertEquals(80, window.getHeight());
+        // outside
+        assertNull(ZonalStatistics.pixelWindow(GT, new double[]{3000, 3100, 4000, 4100}, 100, 80));
+    }
+
+    /**
+     * 8 x 8 cells of 10 m: 1 in the left half, 2 in the right half, 5 at (1, 1), nodata at (0, 0)
+     */
+    @Test
+    public void testCompute() throws IOException {
+        double[] gt = TestRasters.gt(10);
+        float[] values = new float[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 8 < 4 ? 1 : 2;
+        }
+        values[0] = -9999;
+        values[9] = 5;
+        File dir = Files.createTempDirectory("zonal").toFile();
+        try {
+            String raster = TestRasters.geotiff(dir, "values.tif", 8, 8, gt, -9999d, values);
+            String zones = TestRasters.shapefile(dir, "zones.shp", new double[4],
+                    TestRasters.cells(gt, 0, 0, 4, 2),
+                    TestRasters.cells(gt, 4, 4, 8, 8),
+                    // outside the raster
+                    TestRasters.cells(gt, 20, 20, 22, 22),
+                    // the nodata cell only
+                    TestRasters.cells(gt, 0, 0, 1, 1));
+            for (int parallelism : new int[]{1, 4}) {
+                List<ZonalStatistics.Zone> result = new ZonalStatistics().parallelism(parallelism).compute(raster, zones);
+                assertEquals(4, result.size());
+
+                ZonalStatistics.Zone mixed = result.get(0);
+                assertEquals(7, mixed.getCount());
+                assertEquals(1, mixed.getNodataCount());
+                assertEquals(11, mixed.getSum(), 1e-9);
+                assertEquals(1, mixed.getMin(), 0);
+                assertEquals(5, mixed.getMax(), 0);
+                assertEquals(11 / 7.0, mixed.getMean(), 1e-9);
+                // population standard deviation
+                assertEquals(Math.sqrt((6 * 16 / 49.0 + 576 / 49.0) / 7), mixed.getStdDev(), 1e-9);
+                assertEquals(1, mixed.getMajority(), 0);
+
+                ZonalStatistics.Zone uniform = result.get(1);
+                assertEquals(16, uniform.getCount());
+                assertEquals(32, uniform.getSum(), 1e-9);
+                assertEquals(0, uniform.getStdDev(), 1e-9);
+                assertEquals(2, uniform.getMajority(), 0);
+
+                ZonalStatistics.Zone outside = result.get(2);
+                assertEquals(0, outside.getCount());
+                assertTrue(Double.isNaN(outside.getMean()));
+
+                ZonalStatistics.Zone nodata = result.get(3);
+                assertEquals(0, nodata.getCount());
+                assertEquals(1, nodata.getNodataCount());
+                assertTrue(Double.isNaN(nodata.getMin()));
+                assertTrue(Double.isNaN(nodata.getMajority()));
+            }
+        } finally {
+            TestRasters.delete(dir);
+        }
+    }
+}